@@ -0,0 +1,125 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of requests in flight to one event bus address, adapting the limit to the
+ * latency the address is delivering. The lowest round-trip time seen recently is taken as the
+ * latency of an idle JPA node; while replies arrive within <code>tolerance</code> times that the
+ * limit grows by one per window, and when they take longer, fail or time out it shrinks by 10%,
+ * no more than once per round trip. Requests beyond the limit are rejected rather than queued.
+ *
+ * <p>One limiter per address is shared by every API verticle instance in the JVM.
+ *
+ * @author Jason Hallford
+ */
+public final class AdaptiveLimiter {
+  // Fields
+  private static final ConcurrentMap<String, AdaptiveLimiter> BY_ADDRESS =
+      new ConcurrentHashMap<>();
+
+  private static final double BACKOFF = 0.9;
+  private static final int BASELINE_SAMPLES = 1000;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+  private final LongAdder shed;
+
+  private double limit;
+  private int inFlight;
+  private long baselineNanos = Long.MAX_VALUE;
+  private int baselineAge;
+  private long lastDecrease;
+
+  // Constructors
+  private AdaptiveLimiter(String address, JsonObject settings) {
+    this.minLimit = Math.max(1, settings.getInteger(ConfigProp.BUS_LIMIT_MIN, 4));
+    this.maxLimit = Math.max(minLimit, settings.getInteger(ConfigProp.BUS_LIMIT_MAX, 512));
+    this.tolerance = settings.getDouble(ConfigProp.BUS_LATENCY_TOLERANCE, 2.0);
+    int initial = settings.getInteger(ConfigProp.BUS_LIMIT_INITIAL, 64);
+    this.limit = Math.min(maxLimit, Math.max(minLimit, initial));
+
+    var labels = Metrics.labels("address", address);
+    this.shed =
+        Metrics.INSTANCE.counter(
+            "eventbus_requests_shed_total", "Requests rejected by the concurrency limit.", labels);
+    Metrics.INSTANCE.gauge(
+        "eventbus_concurrency_limit",
+        "The adaptive limit on requests in flight.",
+        labels,
+        this::getLimit);
+  }
+
+  // Factory methods
+  /**
+   * Returns the limiter for an address, creating it from <code>settings</code> if this is the
+   * first request for it.
+   *
+   * @param address One of the {@link EventBusAddress} constants.
+   * @param settings The address's <code>bus-limit-*</code> settings.
+   * @return The limiter.
+   */
+  public static AdaptiveLimiter forAddress(String address, JsonObject settings) {
+    return BY_ADDRESS.computeIfAbsent(address, a -> new AdaptiveLimiter(a, settings));
+  }
+
+  // Public methods
+  /**
+   * Admits a request if the limit allows. Every admitted request must be released.
+   *
+   * @return <code>true</code> if the request may be sent.
+   */
+  public synchronized boolean tryAcquire() {
+    if (inFlight >= (int) limit) {
+      shed.increment();
+      return false;
+    }
+    inFlight++;
+    return true;
+  }
+
+  /**
+   * Releases an admitted request and adapts the limit to its outcome.
+   *
+   * @param rttNanos The request's round-trip time.
+   * @param succeeded Whether a reply arrived, as opposed to a timeout or delivery failure.
+   */
+  public synchronized void release(long rttNanos, boolean succeeded) {
+    inFlight--;
+
+    if (succeeded) {
+      // Forget the baseline now and then so that it can rise if the database has slowed for good.
+      if (++baselineAge >= BASELINE_SAMPLES) {
+        baselineNanos = rttNanos;
+        baselineAge = 0;
+      } else {
+        baselineNanos = Math.min(baselineNanos, rttNanos);
+      }
+    }
+
+    if (!succeeded || rttNanos > tolerance * baselineNanos) {
+      long now = System.nanoTime();
+      if (now - lastDecrease >= Math.min(baselineNanos, rttNanos)) {
+        limit = Math.max(minLimit, limit * BACKOFF);
+        lastDecrease = now;
+      }
+    } else if (inFlight + 1 >= limit / 2) {
+      // Only grow while the window is actually being used.
+      limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+  }
+
+  /**
+   * The current limit.
+   *
+   * @return The number of requests that may be in flight.
+   */
+  public synchronized long getLimit() {
+    return (long) limit;
+  }
+}
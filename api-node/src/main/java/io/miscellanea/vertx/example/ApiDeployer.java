@@ -2,9 +2,12 @@ package io.miscellanea.vertx.example;
 
 import com.hazelcast.core.Hazelcast;
 import io.vertx.config.ConfigRetriever;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
 import io.vertx.spi.cluster.hazelcast.HazelcastClusterManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,30 +29,44 @@ import org.slf4j.LoggerFactory;
 public class ApiDeployer {
   // Fields
   private static final Logger LOGGER = LoggerFactory.getLogger(ApiDeployer.class);
+  public static final String CONFIG_FILE = "conf/api-config.json";
 
   public static void main(String[] args) {
     // Bootstrap the infinispan cluster manager
     var clusterMgr = new HazelcastClusterManager();
 
     LOGGER.debug("Bootstrapping the Vert.x runtime in cluster mode..");
-    var vertxOpts = new VertxOptions().setClusterManager(clusterMgr);
+    // The native transport (epoll) is used where Netty supports it; elsewhere Vert.x falls back to
+    // NIO.
+    var vertxOpts =
+        new VertxOptions().setClusterManager(clusterMgr).setPreferNativeTransport(true);
     Vertx.clusteredVertx(
         vertxOpts,
         result -> {
           if (result.succeeded()) {
             LOGGER.debug("Vert.x runtime initialized.");
             var vertx = result.result();
+            LOGGER.info(
+                "Using the {} transport.", vertx.isNativeTransportEnabled() ? "native" : "NIO");
 
-            var configRetrieverOpts =
-                ConfigStoreHelper.buildDefaultRetrieverOptions("conf/api-config.json");
+            // Register the binary codec for the repository's envelopes. Whether or not we send
+            // with it, JPA nodes may reply with it.
+            vertx
+                .eventBus()
+                .registerDefaultCodec(PersonEnvelope.class, new PersonEnvelopeCodec());
+
+            var configRetrieverOpts = ConfigStoreHelper.buildDefaultRetrieverOptions(CONFIG_FILE);
 
             // Deploy the application's verticles.
             ConfigRetriever.create(vertx, configRetrieverOpts)
                 .getConfig(
                     config -> {
-                      // Deploy the REST API verticle
-                      var apiOpts = new DeploymentOptions().setConfig(config.result());
-                      vertx.deployVerticle(ApiVerticle.class.getName(), apiOpts);
+                      if (config.failed()) {
+                        LOGGER.error("Unable to read configuration.", config.cause());
+                        vertx.close();
+                      } else {
+                        deploy(vertx, config.result(), deployed -> {});
+                      }
                     });
 
           } else {
@@ -58,4 +75,31 @@ public class ApiDeployer {
           }
         });
   }
+
+  /**
+   * Deploys the REST API verticle, by default once per core so that every core runs an event loop
+   * serving HTTP. The event bus codec must already be registered.
+   *
+   * @param vertx The Vert.x instance.
+   * @param config The API node's configuration.
+   * @param deployed Notified once every instance is listening, or if any fails to start.
+   */
+  public static void deploy(Vertx vertx, JsonObject config, Handler<AsyncResult<Void>> deployed) {
+    int apiCount = config.getInteger(ConfigProp.API_VERTICLE_COUNT, 0);
+    if (apiCount <= 0) {
+      apiCount = Runtime.getRuntime().availableProcessors();
+    }
+    LOGGER.info("Deploying {} instance(s) of the API verticle.", apiCount);
+
+    var apiOpts = new DeploymentOptions().setConfig(config).setInstances(apiCount);
+    vertx.deployVerticle(
+        ApiVerticle.class.getName(),
+        apiOpts,
+        result -> {
+          if (result.failed()) {
+            LOGGER.error("Unable to deploy the API verticle.", result.cause());
+          }
+          deployed.handle(result.mapEmpty());
+        });
+  }
 }
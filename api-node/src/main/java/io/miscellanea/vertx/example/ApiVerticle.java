@@ -2,56 +2,176 @@ package io.miscellanea.vertx.example;
 
 import io.miscellanea.vertx.example.MessageField;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.Cookie;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.AsyncMap;
+import io.vertx.core.shareddata.LocalMap;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Vert.x verticle that implements the People resource for our example API.
  *
+ * <p>When JPA nodes serve shards (see {@link Shards}), finds go to the shard encoded in the id,
+ * creates are spread across the shards, and listings gather a page from every shard and merge
+ * them.
+ *
+ * <p>Identical finds and listings that are in flight at the same time share one request (see
+ * {@link SingleFlight}).
+ *
  * @author Jason Hallford
  */
 public class ApiVerticle extends AbstractVerticle {
   // Fields
   private static final Logger LOGGER = LoggerFactory.getLogger(ApiVerticle.class);
 
+  private static final String LOCAL_MAP = "api-node";
+  private static final String RESPONSE_CACHE = "person-responses";
+
+  // The shared tier is renamed whenever its entries change form, so that API nodes from before and
+  // after never read each other's entries: v2 added ETags, v3 holds entries as JSON.
+  private static final String SHARED_RESPONSES = "person-responses-v3";
+  private static final String RETRY_AFTER_SECONDS = "1";
+  private static final String READ_PRIMARY_COOKIE = "read-primary-until";
+
+  // Search parameters of GET /api/people
+  private static final String NAME_PREFIX_PARAM = "namePrefix";
+  private static final String MIN_AGE_PARAM = "minAge";
+  private static final String MAX_AGE_PARAM = "maxAge";
+
+  private boolean jsonEnvelope;
+  private long readYourWritesMs;
+  private int listDefaultLimit;
+  private int listMaxLimit;
+  private PersonResponseCache responseCache;
+  private AsyncMap<Long, JsonObject> sharedResponses;
+  private ShardMap shardMap;
+  private LocalMap<String, Boolean> localAliases;
+  private HopTiming hopTiming;
+  private SingleFlight singleFlight;
+
   // Constructors
   public ApiVerticle() {}
 
   // Vert.x life-cycle management
   @Override
   public void start(Promise<Void> startPromise) {
+    this.jsonEnvelope = "json".equalsIgnoreCase(config().getString(ConfigProp.BUS_CODEC));
+    LOGGER.debug("Using the {} event bus envelope.", jsonEnvelope ? "JSON" : "binary");
+    this.readYourWritesMs = config().getLong(ConfigProp.READ_YOUR_WRITES_MS, 5000L);
+    this.listDefaultLimit = config().getInteger(ConfigProp.LIST_DEFAULT_LIMIT, 100);
+    this.listMaxLimit = config().getInteger(ConfigProp.LIST_MAX_LIMIT, 1000);
+
+    this.shardMap = new ShardMap(vertx, config());
+    shardMap.start();
+
+    // Repository verticles in this JVM list the addresses they also serve locally.
+    if (config().getBoolean(ConfigProp.BUS_LOCAL_FIRST, false)) {
+      this.localAliases = vertx.sharedData().getLocalMap(EventBusAddress.LOCAL_ALIASES);
+    }
+
+    int cacheEntries = config().getInteger(ConfigProp.RESPONSE_CACHE_MAX_ENTRIES, 10000);
+    if (cacheEntries > 0) {
+      this.startResponseCache(cacheEntries);
+    }
+
+    int maxWaiters = config().getInteger(ConfigProp.SINGLE_FLIGHT_MAX_WAITERS, 100);
+    if (maxWaiters > 1) {
+      this.singleFlight = new SingleFlight(maxWaiters);
+    }
+
+    // JPA nodes announce every create or change so that no API node serves a stale response, or
+    // answers a read with a result from before it.
+    if (responseCache != null || singleFlight != null) {
+      vertx
+          .eventBus()
+          .<Long>consumer(EventBusAddress.REPOSITORY_PERSON_CHANGED, this::personChanged);
+    }
+
     LOGGER.debug("Starting HTTP server...");
 
     // Create and initialize the router. This object directs web
     // requests to specific handlers based on URL pattern matching.
     var router = Router.router(vertx);
 
+    // Requests are timed from here, ahead of reading their bodies, for the hop breakdown.
+    if (config().getBoolean(ConfigProp.HOP_TIMING, true)) {
+      this.hopTiming = new HopTiming(config());
+      router.route("/api/*").handler(HopTiming::arrived);
+    }
+
+    // Bulk uploads are read as they arrive, so they're routed before the body handler, which would
+    // buffer them whole.
+    router
+        .post("/api/people/bulk")
+        .handler(this.timed("POST /api/people/bulk", this::createPeople));
+
     // Add a body handler to all routes. If we forget to do this,
     // we won't be able to access the content of any POST methods!
     router.route("/api/people*").handler(BodyHandler.create());
 
     // Add handlers for supported HTTP methods
-    router.get("/api/people").handler(this::getPeople);
-    router.get("/api/people/:id").handler(this::getPerson);
-    router.post("/api/people").handler(this::createPerson);
+    router.get("/api/people").handler(this.timed("GET /api/people", this::getPeople));
+    router
+        .get("/api/people/export")
+        .handler(this.timed("GET /api/people/export", this::exportPeople));
+    router.get("/api/people/:id").handler(this.timed("GET /api/people/:id", this::getPerson));
+    router.post("/api/people").handler(this.timed("POST /api/people", this::createPerson));
+
+    // Prometheus scrape endpoint
+    router
+        .get("/metrics")
+        .handler(
+            routingContext ->
+                routingContext
+                    .response()
+                    .putHeader("content-type", MetricsVerticle.CONTENT_TYPE)
+                    .end(Metrics.INSTANCE.scrape()));
 
     LOGGER.debug(
         "Will bind API verticle to TCP port {}.", config().getInteger(ConfigProp.BIND_PORT));
 
+    // With compression on, responses are gzipped or deflated for clients that accept it, which
+    // pays off most on exports. Connections are kept alive, and pipelined requests answered in
+    // order, for as long as clients want unless an idle timeout is set.
+    var serverOptions =
+        new HttpServerOptions()
+            .setCompressionSupported(config().getBoolean(ConfigProp.HTTP_COMPRESSION, false))
+            .setCompressionLevel(config().getInteger(ConfigProp.HTTP_COMPRESSION_LEVEL, 6))
+            .setTcpNoDelay(config().getBoolean(ConfigProp.HTTP_TCP_NO_DELAY, true))
+            .setTcpKeepAlive(config().getBoolean(ConfigProp.HTTP_TCP_KEEP_ALIVE, false))
+            .setIdleTimeout(config().getInteger(ConfigProp.HTTP_IDLE_TIMEOUT_SECONDS, 0));
+
     // Create the HTTP server. Since this may take a while, we're
     // using the Promise passed to this method to tell Vert.x when
-    // this verticle is fully deployed.
+    // this verticle is fully deployed. Every instance listens on the
+    // same port; Vert.x hands their connections out in turn.
     vertx
-        .createHttpServer()
+        .createHttpServer(serverOptions)
         .requestHandler(router)
         .listen(
             config().getInteger(ConfigProp.BIND_PORT),
@@ -78,20 +198,133 @@ public class ApiVerticle extends AbstractVerticle {
   private void getPeople(RoutingContext routingContext) {
     LOGGER.debug("getPeople() called. Dispatching event to JPA verticle.");
 
-    var payload = new JsonObject();
-    payload.put(MessageField.REQUEST_ID, UUID.randomUUID().toString());
+    var payload = new PersonEnvelope().setRequestId(UUID.randomUUID().toString());
+
+    // Listing is keyset-paginated: 'after' is the last id the client has seen and 'limit' the
+    // page size. The JPA verticle applies its own default and ceiling to the latter.
+    var request = routingContext.request();
+    try {
+      if (request.getParam(MessageField.AFTER) != null) {
+        payload.setAfter(Long.parseLong(request.getParam(MessageField.AFTER)));
+      }
+      if (request.getParam(MessageField.LIMIT) != null) {
+        payload.setLimit(Integer.parseInt(request.getParam(MessageField.LIMIT)));
+      }
+
+      // Searches narrow the listing by name prefix and age range; each is served by an index.
+      var namePrefix = request.getParam(NAME_PREFIX_PARAM);
+      if (namePrefix != null && !namePrefix.isEmpty()) {
+        payload.setNamePrefix(namePrefix);
+      }
+      if (request.getParam(MIN_AGE_PARAM) != null) {
+        payload.setMinAge(Integer.parseInt(request.getParam(MIN_AGE_PARAM)));
+      }
+      if (request.getParam(MAX_AGE_PARAM) != null) {
+        payload.setMaxAge(Integer.parseInt(request.getParam(MAX_AGE_PARAM)));
+      }
+    } catch (NumberFormatException e) {
+      routingContext.response().setStatusCode(400).end();
+      return;
+    }
+
+    if (Boolean.parseBoolean(request.getParam(MessageField.STREAM))) {
+      this.streamPeople(routingContext, payload);
+      return;
+    }
+
+    if (shardMap.isSharded()) {
+      this.gatherPeople(routingContext, payload);
+      return;
+    }
 
     // We use the event bus' request-reply pattern to ensure that:
     // 1. If we have more than one JPA verticle that only one will process
     //    the event, and
     // 2. The JPA verticle can send the response back to the requesting
     //    verticle so that it may be returned to the caller
-    vertx
-        .eventBus()
-        .request(
-            EventBusAddress.REPOSITORY_PERSON_LIST,
-            payload,
-            reply -> this.sendGetResponse(routingContext, reply.result()));
+    var address = listingAddress(payload);
+    this.request(
+        routingContext,
+        address,
+        payload,
+        this.listingKey(routingContext, address, payload),
+        null,
+        reply -> this.sendListResponse(routingContext, reply));
+  }
+
+  private void streamPeople(RoutingContext routingContext, PersonEnvelope payload) {
+    LOGGER.debug("Streaming people to the client.");
+
+    payload.setStream(true);
+
+    // Shards own contiguous ranges of ids, so streaming each in turn, in ascending order, yields
+    // one stream ordered by id. Shards below the cursor's have nothing to send.
+    int[] shards = null;
+    if (shardMap.isSharded()) {
+      long after = payload.getAfter() == null ? 0 : payload.getAfter();
+      shards = shardMap.shardsFrom(Shards.shardOf(after));
+    }
+
+    this.startStream(
+        new ListStream(routingContext, listingAddress(payload), payload, null, shards));
+  }
+
+  /**
+   * Exports every person as NDJSON or CSV, as chosen by the <code>format</code> parameter. The JPA
+   * nodes read the people through a cursor and send them already rendered, a chunk at a time, and
+   * each chunk is relayed as it arrives; like a streamed listing, the next chunk isn't read until
+   * the client has taken this one.
+   */
+  private void exportPeople(RoutingContext routingContext) {
+    ExportFormat format;
+    try {
+      format = ExportFormat.of(routingContext.request().getParam(MessageField.FORMAT));
+    } catch (IllegalArgumentException e) {
+      routingContext.response().setStatusCode(400).end();
+      return;
+    }
+    LOGGER.debug("Exporting people as {}.", format);
+
+    var payload =
+        new PersonEnvelope().setRequestId(UUID.randomUUID().toString()).setFormat(format.name());
+    int[] shards = shardMap.isSharded() ? shardMap.shardsFrom(0) : null;
+
+    this.startStream(
+        new ListStream(
+            routingContext, EventBusAddress.REPOSITORY_PERSON_EXPORT, payload, format, shards));
+  }
+
+  /**
+   * Lists people from every shard at once and merges the pages by id. Each shard returns up to a
+   * page of people after the cursor, so the first page's worth of the merged rows is the page the
+   * client would have seen from a single database.
+   */
+  private void gatherPeople(RoutingContext routingContext, PersonEnvelope payload) {
+    long after = payload.getAfter() == null ? 0 : payload.getAfter();
+    int[] shards = shardMap.shardsFrom(Shards.shardOf(after));
+    if (shards.length == 0) {
+      routingContext.response().setStatusCode(404).end();
+      return;
+    }
+
+    var pages = new PersonEnvelope[shards.length];
+    var outstanding = new int[] {shards.length};
+    for (int i = 0; i < shards.length; i++) {
+      int index = i;
+      var address = Shards.address(listingAddress(payload), shards[i]);
+      this.request(
+          routingContext,
+          address,
+          payload,
+          this.listingKey(routingContext, address, payload),
+          null,
+          reply -> {
+            pages[index] = PersonEnvelope.from(reply.body());
+            if (--outstanding[0] == 0) {
+              this.sendMergedListResponse(routingContext, pages, payload.getLimit());
+            }
+          });
+    }
   }
 
   private void getPerson(RoutingContext routingContext) {
@@ -100,21 +333,81 @@ public class ApiVerticle extends AbstractVerticle {
     var id = routingContext.request().getParam("id");
     LOGGER.debug("Requested person is is {}.", id);
 
-    var payload = new JsonObject();
-    payload.put(MessageField.REQUEST_ID, UUID.randomUUID().toString());
-    payload.put(MessageField.ENTITY_ID, id);
+    long entityId;
+    try {
+      entityId = Long.parseLong(id);
+    } catch (NumberFormatException e) {
+      routingContext.response().setStatusCode(404).end();
+      return;
+    }
+
+    // Hot ids are answered from the response cache without crossing the event bus. A miss in the
+    // local cache falls through to the shared tier, if there is one, and then to the JPA node.
+    // Either way a client whose ETag is still current gets a 304.
+    if (responseCache != null) {
+      var cached = responseCache.get(entityId);
+      if (cached != null) {
+        LOGGER.debug("Serving person {} from the local response cache.", entityId);
+        this.sendCachedResponse(routingContext, cached);
+        return;
+      }
+
+      if (sharedResponses != null) {
+        sharedResponses.get(
+            entityId,
+            shared -> {
+              if (shared.succeeded() && shared.result() != null) {
+                LOGGER.debug("Serving person {} from the shared response cache.", entityId);
+                var response = PersonResponse.fromJson(shared.result());
+                responseCache.put(entityId, response);
+                this.sendCachedResponse(routingContext, response);
+              } else {
+                this.findPerson(routingContext, entityId);
+              }
+            });
+        return;
+      }
+    }
+
+    this.findPerson(routingContext, entityId);
+  }
+
+  private void findPerson(RoutingContext routingContext, long entityId) {
+    // If the client already has a version of the person, the JPA node only checks that it's
+    // current rather than sending the person back.
+    var payload =
+        new PersonEnvelope()
+            .setRequestId(UUID.randomUUID().toString())
+            .setEntityId(entityId)
+            .setEntityVersion(
+                PersonResponse.versionIn(
+                    routingContext.request().getHeader("if-none-match"), entityId));
 
     // We use the event bus' request-reply pattern to ensure that:
     // 1. If we have more than one JPA verticle that only one will process
     //    the event, and
     // 2. The JPA verticle can send the response back to the requesting
     //    verticle so that it may be returned to the caller
-    vertx
-        .eventBus()
-        .request(
-            EventBusAddress.REPOSITORY_PERSON_FIND,
-            payload,
-            reply -> this.sendGetResponse(routingContext, reply.result()));
+    var address = EventBusAddress.REPOSITORY_PERSON_FIND;
+    if (shardMap.isSharded()) {
+      address = Shards.address(address, Shards.shardOf(entityId));
+    }
+
+    var key =
+        singleFlight == null
+            ? null
+            : SingleFlight.findKey(
+                address,
+                entityId,
+                payload.getEntityVersion(),
+                this.isPinnedToPrimary(routingContext));
+    this.request(
+        routingContext,
+        address,
+        payload,
+        key,
+        entityId,
+        reply -> this.sendFindResponse(routingContext, entityId, reply));
   }
 
   private void createPerson(RoutingContext routingContext) {
@@ -124,42 +417,642 @@ public class ApiVerticle extends AbstractVerticle {
     if (!"application/json".equalsIgnoreCase(routingContext.request().getHeader("content-type"))) {
       routingContext.response().setStatusCode(400).end();
     } else {
-      var payload = routingContext.getBodyAsJson();
+      PersonEnvelope payload;
+      try {
+        payload = PersonEnvelope.fromJson(routingContext.getBodyAsJson());
+      } catch (RuntimeException e) {
+        LOGGER.debug("Rejecting malformed person: {}", e.getMessage());
+        routingContext.response().setStatusCode(400).end();
+        return;
+      }
 
       // The 'request-id' is a correlation ID that follows the request between verticles. It
       // facilitates debugging through logs and is presented to the user in each response.
-      payload.put(MessageField.REQUEST_ID, UUID.randomUUID().toString());
+      payload.setRequestId(UUID.randomUUID().toString());
 
-      vertx
-          .eventBus()
-          .request(
-              EventBusAddress.REPOSITORY_PERSON_CREATE,
-              payload,
-              reply -> this.sendPostResponse(routingContext, reply.result()));
+      var address = EventBusAddress.REPOSITORY_PERSON_CREATE;
+      if (shardMap.isSharded()) {
+        address = Shards.address(address, shardMap.shardForCreate(payload));
+      }
+
+      this.request(
+          routingContext,
+          address,
+          payload,
+          reply -> this.sendPostResponse(routingContext, reply));
+    }
+  }
+
+  private void createPeople(RoutingContext routingContext) {
+    var contentType = routingContext.request().getHeader("content-type");
+    if (!BulkIngest.NDJSON.equalsIgnoreCase(contentType)
+        && !BulkIngest.CSV.equalsIgnoreCase(contentType)) {
+      routingContext.response().setStatusCode(415).end();
+      return;
     }
+
+    LOGGER.debug("Starting bulk upload of {}.", contentType);
+    new BulkIngest(
+            vertx,
+            routingContext,
+            contentType,
+            config().getInteger(ConfigProp.BULK_CHUNK_SIZE, 500),
+            config().getInteger(ConfigProp.BULK_CHUNKS_IN_FLIGHT, 4),
+            config().getInteger(ConfigProp.BULK_MAX_RECORD_BYTES, 65536),
+            this::sendChunk)
+        .start();
   }
 
   // Utility methods
+  /** Sends one chunk of a bulk upload to the shard chosen for it, if sharded. */
+  private boolean sendChunk(
+      RoutingContext routingContext,
+      PersonEnvelope chunk,
+      Handler<AsyncResult<PersonEnvelope>> handler) {
+    var address = EventBusAddress.REPOSITORY_PERSON_BULK;
+    if (shardMap.isSharded()) {
+      address = Shards.address(address, shardMap.shardForCreate(chunk.getPeople().get(0)));
+    }
+
+    return this.trySend(
+        routingContext,
+        address,
+        chunk,
+        reply -> {
+          // The chunk's people aren't known here, so no read in flight may be answered from
+          // before them.
+          if (singleFlight != null) {
+            singleFlight.detach(null);
+          }
+          handler.handle(
+              reply.succeeded()
+                  ? Future.succeededFuture(PersonEnvelope.from(reply.result().body()))
+                  : Future.failedFuture(reply.cause()));
+        });
+  }
+
+  /**
+   * Sends a request to the JPA verticles and hands a successful reply to <code>replyHandler</code>.
+   * Requests are subject to the address's adaptive concurrency limit and deadline; if the limit is
+   * reached, or no reply arrives, the HTTP response is completed here with a 503 or 504. The round
+   * trip is timed for the request's hop breakdown (see {@link HopTiming}).
+   */
+  private void request(
+      RoutingContext routingContext,
+      String address,
+      PersonEnvelope payload,
+      Handler<Message<Object>> replyHandler) {
+    this.request(routingContext, address, payload, null, null, replyHandler);
+  }
+
+  /**
+   * As {@link #request(RoutingContext, String, PersonEnvelope, Handler)}, for a read that may
+   * share the request of an identical read already in flight. Every read that shares a request is
+   * answered with its reply, or failure, and its request id.
+   *
+   * @param key The read's key, from {@link SingleFlight}, or <code>null</code> to send the
+   *     request regardless.
+   * @param entityId The person found, or <code>null</code> for a listing.
+   */
+  private void request(
+      RoutingContext routingContext,
+      String address,
+      PersonEnvelope payload,
+      String key,
+      Long entityId,
+      Handler<Message<Object>> replyHandler) {
+    long sentNanos = System.nanoTime();
+    Handler<AsyncResult<Message<Object>>> waiter =
+        reply -> {
+          if (reply.succeeded()) {
+            if (hopTiming != null) {
+              hopTiming.replied(routingContext, sentNanos, reply.result());
+            }
+            replyHandler.handle(reply.result());
+          } else {
+            this.sendBusFailure(routingContext, address, reply.cause());
+          }
+        };
+
+    boolean sent;
+    if (key == null || singleFlight == null) {
+      sent = this.trySend(routingContext, address, payload, waiter);
+    } else if (singleFlight.join(key, waiter)) {
+      LOGGER.debug("Joined the read of {} in flight.", key);
+      return;
+    } else {
+      var flight = singleFlight.lead(key, address, entityId, waiter);
+      sent = this.trySend(routingContext, address, payload, flight::complete);
+      if (!sent) {
+        flight.abandon();
+      }
+    }
+
+    if (!sent) {
+      LOGGER.debug("Concurrency limit for {} reached; shedding request.", address);
+      if (this.canFail(routingContext.response())) {
+        routingContext
+            .response()
+            .putHeader("retry-after", RETRY_AFTER_SECONDS)
+            .setStatusCode(503)
+            .end();
+      }
+    }
+  }
+
+  /**
+   * Sends a request to the JPA verticles, subject to the address's adaptive concurrency limit and
+   * deadline, and hands the reply or failure to <code>replyHandler</code>.
+   *
+   * @return <code>false</code>, without sending, if the limit has been reached.
+   */
+  private boolean trySend(
+      RoutingContext routingContext,
+      String address,
+      PersonEnvelope payload,
+      Handler<AsyncResult<Message<Object>>> replyHandler) {
+    var settings = this.busSettings(address);
+    var limiter = AdaptiveLimiter.forAddress(address, settings);
+    if (!limiter.tryAcquire()) {
+      return false;
+    }
+
+    // The deadline travels with the message so that the JPA node can skip work nobody is waiting
+    // for any more.
+    long timeoutMs = settings.getLong(ConfigProp.BUS_TIMEOUT_MS, 5000L);
+    long sentAt = Metrics.epochMicros();
+    var options =
+        new DeliveryOptions()
+            .setSendTimeout(timeoutMs)
+            .addHeader(MessageField.SENT_AT, Long.toString(sentAt))
+            .addHeader(MessageField.DEADLINE, Long.toString(sentAt + timeoutMs * 1000));
+
+    // A client that has just created something reads from the primary database until replicas
+    // have had time to catch up, so it always sees its own writes.
+    if (this.isPinnedToPrimary(routingContext)) {
+      options.addHeader(MessageField.READ_PRIMARY, Boolean.TRUE.toString());
+    }
+
+    // Limits and metrics stay with the address even when a repository verticle in this JVM serves
+    // it locally.
+    var target = address;
+    if (localAliases != null && localAliases.get(address) != null) {
+      target = EventBusAddress.local(address);
+    }
+
+    var metrics = EventBusMetrics.forAddress(address);
+    long started = metrics.begin();
+    vertx
+        .eventBus()
+        .request(
+            target,
+            this.encode(payload),
+            options,
+            reply -> {
+              long rtt = System.nanoTime() - started;
+              metrics.end(started, reply.succeeded());
+              limiter.release(rtt, reply.succeeded());
+              replyHandler.handle(reply);
+            });
+    return true;
+  }
+
+  private void sendBusFailure(RoutingContext routingContext, String address, Throwable cause) {
+    var response = routingContext.response();
+    if (!this.canFail(response)) {
+      LOGGER.debug("Request to {} failed after the response was sent.", address);
+      return;
+    }
+    var failureType =
+        cause instanceof ReplyException ? ((ReplyException) cause).failureType() : null;
+
+    if (failureType == ReplyFailure.TIMEOUT) {
+      LOGGER.warn("No reply from {} before the deadline.", address);
+      response.setStatusCode(504).end();
+    } else if (failureType == ReplyFailure.NO_HANDLERS
+        || (failureType == ReplyFailure.RECIPIENT_FAILURE
+            && ((ReplyException) cause).failureCode() == 503)) {
+      LOGGER.warn("{} is unavailable: {}", address, cause.getMessage());
+      response.putHeader("retry-after", RETRY_AFTER_SECONDS).setStatusCode(503).end();
+    } else {
+      LOGGER.error("Request to {} failed.", address, cause);
+      response.setStatusCode(500).end();
+    }
+  }
+
+  /**
+   * Tests whether a failure can still be reported with a status code. A response made of several
+   * requests, a gathered listing or a stream, may already have been failed or begun; a stream
+   * that has begun is cut short instead.
+   */
+  private boolean canFail(HttpServerResponse response) {
+    if (response.ended() || response.closed()) {
+      return false;
+    } else if (response.headWritten()) {
+      response.close();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Sets the cookie that sends the client's reads to the primary database for the next
+   * <code>read-your-writes-ms</code>. The cookie carries its own expiry time, so any API node can
+   * honour it.
+   */
+  private void pinToPrimary(HttpServerResponse response) {
+    long until = System.currentTimeMillis() + readYourWritesMs;
+    response.addCookie(
+        Cookie.cookie(READ_PRIMARY_COOKIE, Long.toString(until))
+            .setPath("/api")
+            .setMaxAge(TimeUnit.MILLISECONDS.toSeconds(readYourWritesMs + 999))
+            .setHttpOnly(true));
+  }
+
+  /** Tests whether the client's read-your-writes cookie is present and unexpired. */
+  private boolean isPinnedToPrimary(RoutingContext routingContext) {
+    var cookie = routingContext.request().getCookie(READ_PRIMARY_COOKIE);
+    if (cookie == null) {
+      return false;
+    }
+    try {
+      return Long.parseLong(cookie.getValue()) > System.currentTimeMillis();
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the repository operation that serves a listing: searches have an address of their
+   * own, so that their limits and metrics are kept apart from plain listings'.
+   */
+  private static String listingAddress(PersonEnvelope payload) {
+    return payload.isSearch()
+        ? EventBusAddress.REPOSITORY_PERSON_SEARCH
+        : EventBusAddress.REPOSITORY_PERSON_LIST;
+  }
+
+  /**
+   * Returns the limiter and deadline settings for an address, applying any overrides. A shard's
+   * address takes the overrides for its operation unless it has its own.
+   */
+  private JsonObject busSettings(String address) {
+    var limits = config().getJsonObject(ConfigProp.BUS_LIMITS, new JsonObject());
+    var overrides =
+        limits.getJsonObject(address, limits.getJsonObject(Shards.baseAddress(address)));
+    return overrides == null ? config() : config().copy().mergeIn(overrides);
+  }
+
+  /** Returns the key of a listing, or <code>null</code> if reads aren't coalesced. */
+  private String listingKey(RoutingContext routingContext, String address, PersonEnvelope payload) {
+    return singleFlight == null
+        ? null
+        : SingleFlight.listingKey(address, payload, this.isPinnedToPrimary(routingContext));
+  }
+
+  /** Wraps a route's handler to record each request's latency, up to the end of the response. */
+  private Handler<RoutingContext> timed(String route, Handler<RoutingContext> handler) {
+    var timer =
+        Metrics.INSTANCE.timer(
+            "http_server_request_seconds",
+            "HTTP request latency by route.",
+            Metrics.labels("route", route));
+
+    return routingContext -> {
+      long started = System.nanoTime();
+      routingContext.addBodyEndHandler(v -> timer.recordSince(started));
+      handler.handle(routingContext);
+    };
+  }
+
+  private void startResponseCache(int maxEntries) {
+    long ttl = config().getLong(ConfigProp.RESPONSE_CACHE_TTL_MS, 30000L);
+
+    // Every API verticle instance in this JVM shares one cache.
+    var created = new PersonResponseCache(maxEntries, ttl);
+    var existing =
+        vertx
+            .sharedData()
+            .<String, PersonResponseCache>getLocalMap(LOCAL_MAP)
+            .putIfAbsent(RESPONSE_CACHE, created);
+    this.responseCache = existing == null ? created : existing;
+    LOGGER.debug("Response cache enabled: {} entries, {} ms TTL.", maxEntries, ttl);
+
+    if (config().getBoolean(ConfigProp.RESPONSE_CACHE_SHARED, false)) {
+      vertx
+          .sharedData()
+          .<Long, JsonObject>getAsyncMap(
+              SHARED_RESPONSES,
+              map -> {
+                if (map.succeeded()) {
+                  this.sharedResponses = map.result();
+                  LOGGER.debug("Shared response cache tier enabled.");
+                } else {
+                  LOGGER.error("Unable to open shared response cache; using local tier only.");
+                }
+              });
+    }
+  }
+
+  /** Forgets everything cached or in flight that a created or changed person could alter. */
+  private void personChanged(Message<Long> message) {
+    if (responseCache != null) {
+      responseCache.invalidate(message.body());
+      if (sharedResponses != null) {
+        sharedResponses.remove(message.body(), removed -> {});
+      }
+    }
+    if (singleFlight != null) {
+      singleFlight.detach(message.body());
+    }
+  }
+
+  private void sendFindResponse(
+      RoutingContext routingContext, long entityId, Message<Object> message) {
+    var result = PersonEnvelope.from(message.body());
+    if (result.isOk() && result.isNotModified()) {
+      LOGGER.debug("Person {} is unchanged.", entityId);
+      routingContext
+          .response()
+          .putHeader("X-request-id", result.getRequestId())
+          .putHeader("etag", PersonResponse.etag(entityId, result.getEntityVersion()))
+          .setStatusCode(304)
+          .end();
+      return;
+    }
+
+    // Nodes that predate versioning send no version, so their responses carry no ETag.
+    var body = result.isOk() ? result.toPersonJson() : null;
+    if (body == null) {
+      this.sendGetResponse(routingContext, message);
+      return;
+    }
+    var version = result.getEntityVersion();
+    var response =
+        new PersonResponse(
+            Buffer.buffer(body), version == null ? null : PersonResponse.etag(entityId, version));
+
+    if (responseCache != null) {
+      responseCache.put(entityId, response);
+      if (sharedResponses != null) {
+        sharedResponses.put(
+            entityId,
+            response.toJson(),
+            config().getLong(ConfigProp.RESPONSE_CACHE_TTL_MS, 30000L),
+            put -> {});
+      }
+    }
+
+    routingContext.response().putHeader("X-request-id", result.getRequestId());
+    this.sendPersonResponse(routingContext, response);
+  }
+
+  /**
+   * Sends a person from the response cache. No repository request was made, so the response gets
+   * a request id of its own, which its log lines can be correlated by like any other.
+   */
+  private void sendCachedResponse(RoutingContext routingContext, PersonResponse response) {
+    routingContext.response().putHeader("X-request-id", UUID.randomUUID().toString());
+    this.sendPersonResponse(routingContext, response);
+  }
+
+  /** Sends a person, or a 304 if the client's <code>If-None-Match</code> names its ETag. */
+  private void sendPersonResponse(RoutingContext routingContext, PersonResponse response) {
+    var httpResponse = routingContext.response();
+    if (response.getEtag() != null) {
+      httpResponse.putHeader("etag", response.getEtag());
+      if (PersonResponse.matches(
+          routingContext.request().getHeader("if-none-match"), response.getEtag())) {
+        httpResponse.setStatusCode(304).end();
+        return;
+      }
+    }
+
+    httpResponse
+        .putHeader("content-type", "application/json")
+        .setStatusCode(200)
+        .end(response.getBody());
+  }
+
+  /**
+   * Prepares an envelope for the event bus. Unless the JSON envelope has been selected for a
+   * mixed-version cluster, the envelope is sent as-is and written by {@link PersonEnvelopeCodec}.
+   */
+  private Object encode(PersonEnvelope envelope) {
+    return jsonEnvelope ? envelope.toJson() : envelope;
+  }
+
+  private void writeStreamPage(ListStream stream, Message<Object> message) {
+    var response = stream.routingContext.response();
+    var page = PersonEnvelope.from(message.body());
+
+    if (!page.isOk()) {
+      LOGGER.error("Unable to read next page of people; abandoning stream.");
+
+      // Once the status line is on the wire the only way to signal failure is to cut the
+      // connection short.
+      if (stream.started) {
+        response.close();
+      } else {
+        response.setStatusCode(500).end();
+      }
+      return;
+    }
+
+    if (!stream.started) {
+      response
+          .setChunked(true)
+          .putHeader("content-type", stream.contentType())
+          .putHeader("X-request-id", page.getRequestId())
+          .write(stream.opening());
+      stream.started = true;
+    }
+
+    var rows = page.getResult();
+    if (stream.format != null) {
+      // Export chunks are whole lines, ready to be written as they are.
+      if (!rows.isEmpty()) {
+        response.write(rows);
+      }
+    } else {
+      // Each page is a JSON array; strip its brackets so the pages join into one array.
+      rows = rows.substring(1, rows.length() - 1);
+      if (!rows.isEmpty()) {
+        if (stream.wroteRows) {
+          response.write(",");
+        }
+        response.write(rows);
+        stream.wroteRows = true;
+      }
+    }
+
+    if (page.isLast() && stream.hasMoreShards()) {
+      if (!response.closed()) {
+        this.requestStream(stream);
+      }
+    } else if (page.isLast()) {
+      response.end(stream.closing());
+    } else if (response.closed()) {
+      message.fail(410, "Client closed the connection.");
+    } else if (response.writeQueueFull()) {
+      // A client that goes away while we wait for it won't drain, so tell the JPA node at once
+      // rather than leave it holding the stream open until the acknowledgement times out.
+      response.closeHandler(v -> message.fail(410, "Client closed the connection."));
+      response.drainHandler(
+          v -> {
+            response.closeHandler(null);
+            this.requestNextPage(stream, message);
+          });
+    } else {
+      this.requestNextPage(stream, message);
+    }
+  }
+
+  /** Starts a stream, unless it's sharded and no shard has anything to send. */
+  private void startStream(ListStream stream) {
+    if (stream.shards == null || stream.hasMoreShards()) {
+      this.requestStream(stream);
+      return;
+    }
+    stream
+        .routingContext
+        .response()
+        .putHeader("content-type", stream.contentType())
+        .end(stream.opening() + stream.closing());
+  }
+
+  /** Asks the next shard, or the only repository if unsharded, to start streaming. */
+  private void requestStream(ListStream stream) {
+    this.request(
+        stream.routingContext,
+        stream.nextAddress(),
+        stream.payload,
+        page -> this.writeStreamPage(stream, page));
+  }
+
+  private void requestNextPage(ListStream stream, Message<Object> page) {
+    page.replyAndRequest(
+        this.encode(new PersonEnvelope()),
+        next -> {
+          if (next.succeeded()) {
+            this.writeStreamPage(stream, next.result());
+          } else {
+            // The status line is already on the wire, so the only way to signal failure is to cut
+            // the connection short.
+            LOGGER.error("Unable to read next page of people; abandoning stream.", next.cause());
+            stream.routingContext.response().close();
+          }
+        });
+  }
+
+  private void sendListResponse(RoutingContext routingContext, Message<Object> message) {
+    var result = PersonEnvelope.from(message.body());
+    this.putNextLink(routingContext, result.getNextAfter());
+    this.sendGetResponse(routingContext, message);
+  }
+
+  /**
+   * Merges the pages gathered from each shard into one, ordered by id, and cuts it to the page
+   * size a single database would have used: the client's limit, or <code>list-default-limit
+   * </code> without one, no larger than <code>list-max-limit</code>. A shard that returned a full
+   * page may have applied a smaller size of its own, which then applies to the merged page too.
+   */
+  private void sendMergedListResponse(
+      RoutingContext routingContext, PersonEnvelope[] pages, Integer limit) {
+    if (routingContext.response().ended()) {
+      return;
+    }
+
+    var people = new ArrayList<JsonObject>();
+    int pageSize = Math.max(1, Math.min(limit == null ? listDefaultLimit : limit, listMaxLimit));
+    boolean more = false;
+    for (var page : pages) {
+      if (!page.isOk()) {
+        routingContext
+            .response()
+            .putHeader("X-request-id", page.getRequestId())
+            .setStatusCode(500)
+            .end(String.valueOf(page.getError()));
+        return;
+      }
+
+      var rows = new JsonArray(page.getResult());
+      rows.forEach(row -> people.add((JsonObject) row));
+      if (page.getNextAfter() != null) {
+        more = true;
+        pageSize = Math.min(pageSize, rows.size());
+      }
+    }
+
+    if (people.isEmpty()) {
+      routingContext
+          .response()
+          .putHeader("X-request-id", pages[0].getRequestId())
+          .setStatusCode(404)
+          .end();
+      return;
+    }
+
+    people.sort(Comparator.comparingLong(person -> person.getLong(MessageField.PERSON_ID)));
+    if (people.size() > pageSize) {
+      people.subList(pageSize, people.size()).clear();
+      more = true;
+    }
+    var last = people.get(people.size() - 1);
+    this.putNextLink(routingContext, more ? last.getLong(MessageField.PERSON_ID) : null);
+
+    routingContext
+        .response()
+        .putHeader("X-request-id", pages[0].getRequestId())
+        .putHeader("content-type", "application/json")
+        .setStatusCode(200)
+        .end(new JsonArray(people).encode());
+  }
+
+  private void putNextLink(RoutingContext routingContext, Long nextAfter) {
+    if (nextAfter != null) {
+      var next = new StringBuilder("/api/people?after=").append(nextAfter);
+      for (var param :
+          List.of(MessageField.LIMIT, NAME_PREFIX_PARAM, MIN_AGE_PARAM, MAX_AGE_PARAM)) {
+        var value = routingContext.request().getParam(param);
+        if (value != null) {
+          next.append('&')
+              .append(param)
+              .append('=')
+              .append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+        }
+      }
+      routingContext.response().putHeader("link", "<" + next + ">; rel=\"next\"");
+    }
+  }
+
   private void sendGetResponse(RoutingContext routingContext, Message<Object> message) {
     LOGGER.debug("Sending GET response.");
 
-    var result = (JsonObject) message.body();
+    var result = PersonEnvelope.from(message.body());
+
+    // A found person arrives either as discrete fields or, from nodes speaking the JSON envelope,
+    // as a JSON document in the result.
+    var body = result.toPersonJson();
+    if (body == null) {
+      body = result.getResult();
+    }
 
-    if (result == null
-        || ("{}".equals(result.getString(MessageField.RESULT))
-            || "[]".equals(result.getString(MessageField.RESULT)))) {
-      var reqId =
-          result == null ? UUID.randomUUID().toString() : result.getString(MessageField.REQUEST_ID);
-      routingContext.response().putHeader("X-request-id", reqId).setStatusCode(404).end();
+    if ("{}".equals(body) || "[]".equals(body)) {
+      routingContext
+          .response()
+          .putHeader("X-request-id", result.getRequestId())
+          .setStatusCode(404)
+          .end();
     } else {
       var response = routingContext.response().putHeader("content-type", "application/json");
 
-      switch (result.getString(MessageField.STATUS)) {
+      switch (String.valueOf(result.getStatus())) {
         case "ok":
-          response.setStatusCode(200).end(result.getString(MessageField.RESULT));
+          response.setStatusCode(200).end(body);
           break;
         case "err":
-          response.setStatusCode(500).end(result.getString(MessageField.ERROR));
+          response.setStatusCode(500).end(String.valueOf(result.getError()));
           break;
         default:
           response.setStatusCode(500).end("An unknown error occurred.");
@@ -171,25 +1064,91 @@ public class ApiVerticle extends AbstractVerticle {
   private void sendPostResponse(RoutingContext routingContext, Message<Object> message) {
     LOGGER.debug("Sending POST response.");
 
-    var result = (JsonObject) message.body();
+    var result = PersonEnvelope.from(message.body());
 
-    int statusCode = "ok".equalsIgnoreCase(result.getString(MessageField.STATUS)) ? 201 : 500;
+    int statusCode = result.isOk() ? 201 : 500;
 
     var response =
         routingContext
             .response()
-            .putHeader("X-request-id", result.getString("request-id"))
+            .putHeader("X-request-id", result.getRequestId())
             .setStatusCode(statusCode);
 
     if (statusCode == 201) {
-      var persisted = (JsonObject) Json.decodeValue(result.getString(MessageField.RESULT));
-      var location = "/api/people/" + persisted.getInteger("id");
+      // Older JPA nodes only return the entity as a JSON document.
+      var entityId = result.getEntityId();
+      if (entityId == null) {
+        var persisted = (JsonObject) Json.decodeValue(result.getResult());
+        entityId = persisted.getLong(MessageField.PERSON_ID);
+      }
+      var location = "/api/people/" + entityId;
 
       LOGGER.debug("Setting HTTP location header to '{}'", location);
 
       response = response.putHeader("location", location);
+
+      // The client may read the person as soon as it has the response, so no read already in
+      // flight may answer it.
+      if (singleFlight != null) {
+        singleFlight.detach(entityId);
+      }
+      if (readYourWritesMs > 0) {
+        this.pinToPrimary(response);
+      }
     }
 
     response.end();
   }
+
+  /** State for a single streamed listing or export. */
+  private static final class ListStream {
+    private final RoutingContext routingContext;
+    private final String operation;
+    private final PersonEnvelope payload;
+    private final ExportFormat format;
+    private final int[] shards;
+    private int nextShard;
+    private boolean started;
+    private boolean wroteRows;
+
+    /**
+     * @param operation The repository operation that streams, listing or export.
+     * @param format The export's format, or <code>null</code> for a listing's JSON array.
+     * @param shards The shards to stream from in turn, or <code>null</code> if unsharded.
+     */
+    private ListStream(
+        RoutingContext routingContext,
+        String operation,
+        PersonEnvelope payload,
+        ExportFormat format,
+        int[] shards) {
+      this.routingContext = routingContext;
+      this.operation = operation;
+      this.payload = payload;
+      this.format = format;
+      this.shards = shards;
+    }
+
+    private boolean hasMoreShards() {
+      return shards != null && nextShard < shards.length;
+    }
+
+    private String nextAddress() {
+      return shards == null ? operation : Shards.address(operation, shards[nextShard++]);
+    }
+
+    private String contentType() {
+      return format == null ? "application/json" : format.contentType();
+    }
+
+    /** Returns what the response starts with, before any shard's rows. */
+    private String opening() {
+      return format == null ? "[" : format.header();
+    }
+
+    /** Returns what the response ends with, after every shard's rows. */
+    private String closing() {
+      return format == null ? "]" : "";
+    }
+  }
 }
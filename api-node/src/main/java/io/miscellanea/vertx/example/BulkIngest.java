@@ -0,0 +1,380 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.RecordParser;
+import io.vertx.ext.web.RoutingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A single <code>POST /api/people/bulk</code> upload. The body, newline-delimited JSON or CSV, is
+ * read a line at a time as it arrives rather than buffered, and the people it holds are sent to
+ * the JPA nodes in chunks, each created in one transaction. Only a few chunks are in flight at
+ * once: while they are, or while the client isn't reading the response, the upload is paused, so
+ * memory use doesn't grow with its size.
+ *
+ * <p>The response is newline-delimited JSON written as chunks complete: the ids created for each
+ * chunk or why it failed, a line for each record that couldn't be read, and finally a summary.
+ *
+ * <p>A line longer than <code>bulk-max-record-bytes</code> is rejected like one that can't be
+ * read. If it hasn't all arrived by the time the parser holds that many bytes of it, though, the
+ * parser can't find the next line without buffering the rest, so the upload ends there: with
+ * <code>413</code> if nothing has been written to the response yet, otherwise with an error line
+ * for it once the chunks in flight have been answered.
+ *
+ * @author Jason Hallford
+ */
+final class BulkIngest {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(BulkIngest.class);
+
+  static final String NDJSON = "application/x-ndjson";
+  static final String CSV = "text/csv";
+
+  // How long to wait before offering a chunk again when the address's concurrency limit is full.
+  private static final long RETRY_MS = 50;
+
+  private final Vertx vertx;
+  private final RoutingContext routingContext;
+  private final HttpServerResponse response;
+  private final boolean csv;
+  private final int chunkSize;
+  private final int maxInFlight;
+  private final int maxRecordBytes;
+  private final Sender sender;
+
+  private RecordParser parser;
+  private int nameColumn = -1;
+  private int ageColumn = -1;
+  private boolean headerRead;
+
+  private List<PersonEnvelope> chunk;
+  private long chunkFirstLine;
+  private long line;
+  private int chunks;
+  private int inFlight;
+  private boolean paused;
+  private boolean ended;
+  private boolean finished;
+  private long created;
+  private long failed;
+  private long rejected;
+
+  // Constructors
+  /**
+   * @param sender Sends a chunk to a JPA node.
+   */
+  BulkIngest(
+      Vertx vertx,
+      RoutingContext routingContext,
+      String contentType,
+      int chunkSize,
+      int maxInFlight,
+      int maxRecordBytes,
+      Sender sender) {
+    this.vertx = vertx;
+    this.routingContext = routingContext;
+    this.response = routingContext.response();
+    this.csv = CSV.equalsIgnoreCase(contentType);
+    this.chunkSize = chunkSize;
+    this.maxInFlight = maxInFlight;
+    this.maxRecordBytes = maxRecordBytes;
+    this.sender = sender;
+  }
+
+  // Public methods
+  /** Starts reading the upload. */
+  void start() {
+    response.setChunked(true).putHeader("content-type", NDJSON);
+    response.closeHandler(v -> this.finished = true);
+
+    this.chunk = new ArrayList<>(chunkSize);
+    this.parser = RecordParser.newDelimited("\n", routingContext.request());
+    parser.maxRecordSize(maxRecordBytes);
+    parser.handler(this::readLine);
+    parser.exceptionHandler(
+        e -> {
+          if (e instanceof IllegalStateException) {
+            this.recordTooLong();
+            return;
+          }
+          LOGGER.error("Unable to read bulk upload.", e);
+          response.close();
+          this.finished = true;
+        });
+    parser.endHandler(
+        v -> {
+          this.ended = true;
+          this.sendChunk();
+          this.finishIfDone();
+        });
+  }
+
+  // Upload handling
+  private void readLine(Buffer buffer) {
+    line++;
+    if (buffer.length() > maxRecordBytes) {
+      rejected++;
+      this.write(new JsonObject().put("line", line).put(MessageField.ERROR, this.tooLong()));
+      return;
+    }
+
+    var text = buffer.toString().trim();
+    if (text.isEmpty() || finished) {
+      return;
+    }
+
+    PersonEnvelope person;
+    try {
+      if (!csv) {
+        person = PersonEnvelope.fromJson(new JsonObject(text));
+      } else if (!headerRead) {
+        this.readHeader(text);
+        return;
+      } else {
+        person = this.readCsvRecord(text);
+      }
+    } catch (DecodeException | IllegalArgumentException e) {
+      rejected++;
+      this.write(new JsonObject().put("line", line).put(MessageField.ERROR, e.getMessage()));
+      return;
+    }
+
+    if (chunk.isEmpty()) {
+      chunkFirstLine = line;
+    }
+    chunk.add(new PersonEnvelope().setName(person.getName()).setAge(person.getAge()));
+    if (chunk.size() >= chunkSize) {
+      this.sendChunk();
+    }
+  }
+
+  /**
+   * Stops reading at a line that has grown past the limit before its end arrived. The parser keeps
+   * the line's bytes and can't find the next record, so the rest of the upload is left unread.
+   */
+  private void recordTooLong() {
+    if (ended || finished) {
+      return;
+    }
+    parser.pause();
+    this.paused = true;
+    this.ended = true;
+    rejected++;
+    LOGGER.warn("Bulk upload line {} is longer than {} bytes.", line + 1, maxRecordBytes);
+
+    if (!response.headWritten()) {
+      // Nothing has been created or reported, so the whole upload can be refused.
+      this.finished = true;
+      response.headers().remove("content-type");
+      response.setChunked(false).putHeader("connection", "close").setStatusCode(413).end();
+      routingContext.request().connection().close();
+      return;
+    }
+
+    this.write(
+        new JsonObject()
+            .put("line", line + 1)
+            .put(MessageField.ERROR, this.tooLong()));
+    this.sendChunk();
+    this.finishIfDone();
+  }
+
+  private String tooLong() {
+    return "The line is longer than " + maxRecordBytes + " bytes.";
+  }
+
+  /** A CSV upload starts with a header naming its columns; <code>name</code> is required. */
+  private void readHeader(String text) {
+    var columns = splitCsv(text);
+    for (int i = 0; i < columns.size(); i++) {
+      var column = columns.get(i).trim();
+      if (MessageField.PERSON_NAME.equalsIgnoreCase(column)) {
+        nameColumn = i;
+      } else if (MessageField.PERSON_AGE.equalsIgnoreCase(column)) {
+        ageColumn = i;
+      }
+    }
+
+    if (nameColumn < 0) {
+      this.write(
+          new JsonObject()
+              .put("line", line)
+              .put(MessageField.ERROR, "The header has no 'name' column."));
+      response.end();
+      parser.pause();
+      this.finished = true;
+      this.closeIfUnread();
+      return;
+    }
+    this.headerRead = true;
+  }
+
+  private PersonEnvelope readCsvRecord(String text) {
+    var fields = splitCsv(text);
+    var person = new PersonEnvelope();
+    if (nameColumn < fields.size()) {
+      person.setName(fields.get(nameColumn));
+    }
+    if (ageColumn >= 0 && ageColumn < fields.size() && !fields.get(ageColumn).isBlank()) {
+      person.setAge(Integer.parseInt(fields.get(ageColumn).trim()));
+    }
+    return person;
+  }
+
+  // Chunk handling
+  private void sendChunk() {
+    if (chunk.isEmpty() || finished) {
+      return;
+    }
+
+    var request =
+        new PersonEnvelope().setRequestId(UUID.randomUUID().toString()).setPeople(chunk);
+    var summary =
+        new JsonObject()
+            .put("chunk", chunks++)
+            .put("first-line", chunkFirstLine)
+            .put("last-line", line);
+    this.chunk = new ArrayList<>(chunkSize);
+
+    inFlight++;
+    this.pauseIfBusy();
+    this.offer(request, summary);
+  }
+
+  private void offer(PersonEnvelope request, JsonObject summary) {
+    if (finished) {
+      return;
+    }
+
+    boolean sent =
+        sender.send(
+            routingContext, request, reply -> this.chunkDone(request, summary, reply));
+    if (!sent) {
+      vertx.setTimer(RETRY_MS, id -> this.offer(request, summary));
+    }
+  }
+
+  private void chunkDone(
+      PersonEnvelope request, JsonObject summary, AsyncResult<PersonEnvelope> reply) {
+    inFlight--;
+    int size = request.getPeople().size();
+
+    if (reply.succeeded() && reply.result().isOk()) {
+      created += size;
+      var ids = new JsonArray(new ArrayList<Object>(reply.result().getIds()));
+      summary.put(MessageField.IDS, ids);
+    } else {
+      failed += size;
+      var error =
+          reply.succeeded()
+              ? String.valueOf(reply.result().getError())
+              : reply.cause().getMessage();
+      LOGGER.warn("Bulk chunk {} failed: {}", summary.getInteger("chunk"), error);
+      summary.put(MessageField.ERROR, error);
+    }
+
+    this.write(summary);
+    this.resumeIfIdle();
+    this.finishIfDone();
+  }
+
+  private void pauseIfBusy() {
+    if (!paused && (inFlight >= maxInFlight || response.writeQueueFull())) {
+      parser.pause();
+      this.paused = true;
+    }
+  }
+
+  private void resumeIfIdle() {
+    if (!paused || ended || finished || inFlight >= maxInFlight) {
+      return;
+    } else if (response.writeQueueFull()) {
+      response.drainHandler(v -> this.resumeIfIdle());
+      return;
+    }
+    this.paused = false;
+    parser.resume();
+  }
+
+  private void finishIfDone() {
+    if (ended && inFlight == 0 && !finished) {
+      this.finished = true;
+      LOGGER.info(
+          "Bulk upload done: {} created, {} failed, {} rejected.", created, failed, rejected);
+      this.write(
+          new JsonObject().put("created", created).put("failed", failed).put("rejected", rejected));
+      response.end();
+      this.closeIfUnread();
+    }
+  }
+
+  /** The rest of a refused upload won't be read, so its connection can't be reused. */
+  private void closeIfUnread() {
+    if (!routingContext.request().isEnded()) {
+      routingContext.request().connection().close();
+    }
+  }
+
+  private void write(JsonObject json) {
+    if (!response.ended() && !response.closed()) {
+      response.write(json.encode() + "\n");
+    }
+  }
+
+  // Utility methods
+  /** Splits a CSV line into fields, honouring double-quoted fields and doubled quotes in them. */
+  static List<String> splitCsv(String text) {
+    var fields = new ArrayList<String>();
+    var field = new StringBuilder();
+    boolean quoted = false;
+
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (quoted) {
+        if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          field.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  /** Sends a chunk to a JPA node. */
+  interface Sender {
+    /**
+     * @param routingContext The upload's routing context.
+     * @param chunk The bulk create request.
+     * @param handler Receives the reply.
+     * @return <code>false</code>, without sending, if the chunk must be offered again later.
+     */
+    boolean send(
+        RoutingContext routingContext,
+        PersonEnvelope chunk,
+        Handler<AsyncResult<PersonEnvelope>> handler);
+  }
+}
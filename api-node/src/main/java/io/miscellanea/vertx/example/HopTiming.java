@@ -0,0 +1,203 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breaks an API request's latency down by hop, for requests answered by a single repository round
+ * trip (finds, creates and unsharded listings; a listing gathered from several shards reports only
+ * its total):
+ *
+ * <ul>
+ *   <li><code>http</code>, the API node's own time: reading and routing the request, and writing
+ *       the response
+ *   <li><code>bus</code>, the event bus in both directions, including the envelopes' encoding and
+ *       decoding and any wait for an event loop
+ *   <li><code>queue</code>, the JPA node's wait for a worker
+ *   <li><code>db</code>, the JPA node's time in the database
+ *   <li><code>repo</code>, the rest of the JPA node's handler, e.g. converting the entity
+ * </ul>
+ *
+ * The last three come from the reply's {@link MessageField#HOP_TIMING} header; JPA nodes that
+ * don't send it, such as the reactive backend, are counted in <code>bus</code>. Each breakdown is
+ * recorded in the <code>api_request_hop_seconds</code> metric, sent to the client in a <code>
+ * Server-Timing</code> header and logged, at <code>INFO</code> under this class's logger, for a
+ * sample of requests and for every slow one.
+ *
+ * @author Jason Hallford
+ */
+final class HopTiming {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(HopTiming.class);
+  private static final String PENDING = "hop-timing";
+  private static final String METRIC = "api_request_hop_seconds";
+  private static final String METRIC_HELP = "Time spent in each hop of an API request.";
+
+  private final boolean header;
+  private final double logSampleRate;
+  private final long logSlowNanos;
+  private final LatencyTimer http = timer("http");
+  private final LatencyTimer bus = timer("bus");
+  private final LatencyTimer queue = timer("queue");
+  private final LatencyTimer database = timer("db");
+  private final LatencyTimer repository = timer("repo");
+  private final LatencyTimer total = timer("total");
+
+  // Constructors
+  HopTiming(JsonObject config) {
+    this.header = config.getBoolean(ConfigProp.HOP_TIMING_HEADER, true);
+    this.logSampleRate = config.getDouble(ConfigProp.HOP_TIMING_LOG_SAMPLE_RATE, 0.001);
+    this.logSlowNanos =
+        TimeUnit.MILLISECONDS.toNanos(config.getLong(ConfigProp.HOP_TIMING_LOG_SLOW_MS, 1000L));
+  }
+
+  // Package methods
+  /** Notes when a request arrived. Routed ahead of every other handler. */
+  static void arrived(RoutingContext routingContext) {
+    routingContext.put(PENDING, new Pending(System.nanoTime()));
+    routingContext.next();
+  }
+
+  /**
+   * Records a repository round trip made for a request, before its response is begun. The
+   * breakdown is completed and reported just before the response's headers are written.
+   *
+   * @param routingContext The request.
+   * @param sentNanos When the repository request was sent, from <code>System.nanoTime()</code>.
+   * @param reply The repository's reply.
+   */
+  void replied(RoutingContext routingContext, long sentNanos, Message<?> reply) {
+    long repliedNanos = System.nanoTime();
+    Pending pending = routingContext.get(PENDING);
+    if (pending == null) {
+      return;
+    }
+
+    // A gathered listing makes several round trips at once, which have no single breakdown; only
+    // its total is reported.
+    if (++pending.roundTrips > 1) {
+      return;
+    }
+    pending.roundTripNanos = repliedNanos - sentNanos;
+    parse(reply.headers().get(MessageField.HOP_TIMING), pending);
+    routingContext.addHeadersEndHandler(v -> this.report(routingContext, pending));
+  }
+
+  // Utility methods
+  private static LatencyTimer timer(String hop) {
+    return Metrics.INSTANCE.timer(METRIC, METRIC_HELP, Metrics.labels("hop", hop));
+  }
+
+  /** Reads the JPA node's queue, handler and database times, in microseconds, if it sent them. */
+  private static void parse(String value, Pending pending) {
+    if (value == null) {
+      return;
+    }
+
+    int first = value.indexOf(',');
+    int second = value.indexOf(',', first + 1);
+    try {
+      pending.queueNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(value, 0, first, 10));
+      pending.handlerNanos =
+          TimeUnit.MICROSECONDS.toNanos(Long.parseLong(value, first + 1, second, 10));
+      pending.databaseNanos =
+          TimeUnit.MICROSECONDS.toNanos(Long.parseLong(value, second + 1, value.length(), 10));
+      pending.reported = true;
+    } catch (IndexOutOfBoundsException | NumberFormatException e) {
+      LOGGER.debug("Ignoring malformed {} header '{}'.", MessageField.HOP_TIMING, value);
+    }
+  }
+
+  private void report(RoutingContext routingContext, Pending pending) {
+    long totalNanos = System.nanoTime() - pending.arrivedNanos;
+    boolean single = pending.roundTrips == 1;
+    boolean reported = single && pending.reported;
+    long httpNanos = Math.max(totalNanos - pending.roundTripNanos, 0);
+    long busNanos = pending.roundTripNanos;
+    long repositoryNanos = 0;
+    if (reported) {
+      busNanos = Math.max(busNanos - pending.queueNanos - pending.handlerNanos, 0);
+      repositoryNanos = pending.handlerNanos - pending.databaseNanos;
+    }
+
+    total.record(totalNanos);
+    if (single) {
+      http.record(httpNanos);
+      bus.record(busNanos);
+    }
+    if (reported) {
+      queue.record(pending.queueNanos);
+      database.record(pending.databaseNanos);
+      repository.record(repositoryNanos);
+    }
+
+    // Only the formatted breakdown allocates, so it's built only if someone will read it.
+    boolean log =
+        (logSlowNanos > 0 && totalNanos >= logSlowNanos)
+            || (logSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < logSampleRate);
+    if (!header && !log) {
+      return;
+    }
+
+    var breakdown = new StringBuilder(128);
+    if (single) {
+      appendHop(breakdown, "http", httpNanos);
+      appendHop(breakdown, "bus", busNanos);
+    }
+    if (reported) {
+      appendHop(breakdown, "queue", pending.queueNanos);
+      appendHop(breakdown, "db", pending.databaseNanos);
+      appendHop(breakdown, "repo", repositoryNanos);
+    }
+    appendHop(breakdown, "total", totalNanos);
+
+    var response = routingContext.response();
+    if (header) {
+      response.putHeader("server-timing", breakdown);
+    }
+    if (log) {
+      LOGGER.info(
+          "request-id={} method={} path={} status={} timing=\"{}\"",
+          response.headers().get("X-request-id"),
+          routingContext.request().method(),
+          routingContext.request().path(),
+          response.getStatusCode(),
+          breakdown);
+    }
+  }
+
+  /** Appends a hop in <code>Server-Timing</code> form, e.g. <code>db;dur=1.234</code>. */
+  private static void appendHop(StringBuilder out, String hop, long nanos) {
+    long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+    if (out.length() > 0) {
+      out.append(", ");
+    }
+    out.append(hop).append(";dur=").append(micros / 1000).append('.');
+    long fraction = micros % 1000;
+    if (fraction < 100) {
+      out.append(fraction < 10 ? "00" : "0");
+    }
+    out.append(fraction);
+  }
+
+  /** A request's timings, held in its routing context until its response is begun. */
+  private static final class Pending {
+    private final long arrivedNanos;
+    private int roundTrips;
+    private long roundTripNanos;
+    private boolean reported;
+    private long queueNanos;
+    private long handlerNanos;
+    private long databaseNanos;
+
+    private Pending(long arrivedNanos) {
+      this.arrivedNanos = arrivedNanos;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * A ready-to-send <code>GET /api/people/:id</code> response: the person's JSON and the strong ETag
+ * that identifies it. Responses are immutable once built, so every API verticle in the JVM may
+ * share them; the shared tier of the response cache holds them as JSON (see {@link #toJson()}).
+ *
+ * @author Jason Hallford
+ */
+public final class PersonResponse implements Shareable {
+  // Fields
+  private static final String BODY = "body";
+  private static final String ETAG = "etag";
+
+  private final Buffer body;
+  private final String etag;
+
+  // Constructors
+  /**
+   * @param body The person's JSON.
+   * @param etag The response's ETag, or <code>null</code> if the person's version isn't known.
+   */
+  public PersonResponse(Buffer body, String etag) {
+    this.body = body;
+    this.etag = etag;
+  }
+
+  // Public methods
+  /**
+   * Reads a response written by {@link #toJson()}.
+   *
+   * @param json The response as JSON.
+   * @return The response.
+   */
+  public static PersonResponse fromJson(JsonObject json) {
+    return new PersonResponse(Buffer.buffer(json.getString(BODY)), json.getString(ETAG));
+  }
+
+  /**
+   * Builds the strong ETag of a person at a version. Ids are included so that no two people share
+   * a tag, even though every person's version starts at 0.
+   *
+   * @param id The person's id.
+   * @param version The person's version.
+   * @return The quoted ETag.
+   */
+  public static String etag(long id, long version) {
+    return "\"" + id + "-" + version + "\"";
+  }
+
+  /**
+   * Finds the version a client already has in its <code>If-None-Match</code> header, so that the
+   * JPA node can check it without loading the person.
+   *
+   * @param ifNoneMatch The header, which may be <code>null</code>.
+   * @param id The person's id.
+   * @return The version in the first of the header's ETags issued for this person, or <code>null
+   *     </code> if there is none.
+   */
+  public static Long versionIn(String ifNoneMatch, long id) {
+    if (ifNoneMatch == null) {
+      return null;
+    }
+
+    var prefix = id + "-";
+    for (var tag : ifNoneMatch.split(",")) {
+      var opaque = opaqueTag(tag);
+      if (opaque.startsWith(prefix)) {
+        try {
+          return Long.parseLong(opaque.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+          // Not one of ours; keep looking.
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Tests an <code>If-None-Match</code> header against an ETag. As the header requires, tags are
+   * compared weakly, so a <code>W/</code> prefix is ignored.
+   *
+   * @param ifNoneMatch The header, which may be <code>null</code>.
+   * @param etag The current ETag.
+   * @return <code>true</code> if the header names the tag or is <code>*</code>.
+   */
+  public static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null || etag == null) {
+      return false;
+    } else if ("*".equals(ifNoneMatch.trim())) {
+      return true;
+    }
+
+    var opaque = opaqueTag(etag);
+    for (var tag : ifNoneMatch.split(",")) {
+      if (opaqueTag(tag).equals(opaque)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public Buffer getBody() {
+    return body;
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  /**
+   * Writes the response as JSON, the form in which the cluster-wide response cache holds it.
+   *
+   * @return The body as a string and the ETag, if there is one.
+   */
+  public JsonObject toJson() {
+    var json = new JsonObject().put(BODY, body.toString());
+    if (etag != null) {
+      json.put(ETAG, etag);
+    }
+    return json;
+  }
+
+  // Utility methods
+  /** Strips a tag of whitespace, any weakness indicator and its quotes. */
+  private static String opaqueTag(String tag) {
+    var opaque = tag.trim();
+    if (opaque.startsWith("W/")) {
+      opaque = opaque.substring(2);
+    }
+    if (opaque.length() >= 2 && opaque.startsWith("\"") && opaque.endsWith("\"")) {
+      opaque = opaque.substring(1, opaque.length() - 1);
+    }
+    return opaque;
+  }
+}
@@ -0,0 +1,88 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, in-process cache of ready-to-send <code>GET /api/people/:id</code> responses, keyed
+ * by person id. Entries are evicted least-recently-used once the cache is full and expire
+ * after a fixed time-to-live.
+ *
+ * <p>The cache is thread-safe and {@link Shareable}, so every API verticle instance in the JVM can
+ * use the same one through a local map.
+ *
+ * @author Jason Hallford
+ */
+public class PersonResponseCache implements Shareable {
+  // Fields
+  private final int maxEntries;
+  private final long ttlMillis;
+  private final Map<Long, CachedResponse> entries;
+
+  // Constructors
+  /**
+   * @param maxEntries The number of responses to hold before evicting the least recently used.
+   * @param ttlMillis How long a response may be served from the cache.
+   */
+  public PersonResponseCache(int maxEntries, long ttlMillis) {
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlMillis;
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Long, CachedResponse> eldest) {
+            return size() > PersonResponseCache.this.maxEntries;
+          }
+        };
+  }
+
+  // Public methods
+  /**
+   * Returns the cached response for a person.
+   *
+   * @param id The person's id.
+   * @return The response, or <code>null</code> if it isn't cached or has expired.
+   */
+  public synchronized PersonResponse get(long id) {
+    var entry = entries.get(id);
+    if (entry == null) {
+      return null;
+    } else if (entry.expiresAt < System.currentTimeMillis()) {
+      entries.remove(id);
+      return null;
+    }
+    return entry.response;
+  }
+
+  /**
+   * Caches the response for a person.
+   *
+   * @param id The person's id.
+   * @param response The response.
+   */
+  public synchronized void put(long id, PersonResponse response) {
+    entries.put(id, new CachedResponse(response, System.currentTimeMillis() + ttlMillis));
+  }
+
+  /**
+   * Removes a person's response, e.g. because the person has changed.
+   *
+   * @param id The person's id.
+   */
+  public synchronized void invalidate(long id) {
+    entries.remove(id);
+  }
+
+  /** A cached response and its expiry time. */
+  private static final class CachedResponse {
+    private final PersonResponse response;
+    private final long expiresAt;
+
+    private CachedResponse(PersonResponse response, long expiresAt) {
+      this.response = response;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.AsyncMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An API verticle's view of the cluster-wide shard map, in which JPA nodes register the shards
+ * they serve (see {@link Shards}). The map is re-read every <code>shard-heartbeat-ms</code> and
+ * whenever a shard starts, so shards that come and go are picked up without a restart. While no
+ * shards are registered the deployment is taken to be unsharded.
+ *
+ * @author Jason Hallford
+ */
+final class ShardMap {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(ShardMap.class);
+
+  private final Vertx vertx;
+  private final long refreshMs;
+  private final boolean hashCreates;
+
+  private AsyncMap<Integer, Long> map;
+  private int[] shards = new int[0];
+  private int nextCreate;
+
+  // Constructors
+  /**
+   * @param vertx The verticle's Vert.x instance; the map is only used from its event loop.
+   * @param config The verticle's configuration.
+   */
+  ShardMap(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.refreshMs = config.getLong(ConfigProp.SHARD_HEARTBEAT_MS, 5000L);
+    this.hashCreates =
+        "hash".equalsIgnoreCase(config.getString(ConfigProp.SHARD_CREATE_STRATEGY, "round-robin"));
+  }
+
+  // Public methods
+  /** Opens the shard map and starts following it. */
+  void start() {
+    vertx
+        .sharedData()
+        .<Integer, Long>getAsyncMap(
+            Shards.MAP,
+            opened -> {
+              if (opened.failed()) {
+                LOGGER.error("Unable to open the shard map; routing as unsharded.", opened.cause());
+                return;
+              }
+
+              this.map = opened.result();
+              this.refresh();
+              vertx.setPeriodic(refreshMs, id -> this.refresh());
+              vertx
+                  .eventBus()
+                  .<Integer>consumer(
+                      EventBusAddress.REPOSITORY_SHARD_STARTED, message -> this.refresh());
+            });
+  }
+
+  /** Tests whether any shards are registered. */
+  boolean isSharded() {
+    return shards.length > 0;
+  }
+
+  /** Returns the registered shards numbered <code>first</code> or above, in ascending order. */
+  int[] shardsFrom(int first) {
+    int start = Arrays.binarySearch(shards, first);
+    return Arrays.copyOfRange(shards, start < 0 ? -start - 1 : start, shards.length);
+  }
+
+  /**
+   * Chooses the shard that will own a new person: by the hash of its name if <code>
+   * shard-create-strategy</code> is <code>hash</code>, otherwise each shard in turn.
+   */
+  int shardForCreate(PersonEnvelope person) {
+    int index =
+        hashCreates
+            ? Math.floorMod(Objects.hashCode(person.getName()), shards.length)
+            : Math.floorMod(nextCreate++, shards.length);
+    return shards[index];
+  }
+
+  // Utility methods
+  private void refresh() {
+    map.keys(
+        keys -> {
+          if (keys.failed()) {
+            LOGGER.warn("Unable to read the shard map: {}", keys.cause().getMessage());
+            return;
+          }
+
+          var current = keys.result().stream().mapToInt(Integer::intValue).sorted().toArray();
+          if (!Arrays.equals(current, shards)) {
+            LOGGER.info("Shards now {}.", Arrays.toString(current));
+            this.shards = current;
+          }
+        });
+  }
+}
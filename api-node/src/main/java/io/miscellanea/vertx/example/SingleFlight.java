@@ -0,0 +1,183 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces identical reads that are in flight at the same time. The first read of a key sends
+ * its request to the JPA nodes and leads a flight; reads of the same key that arrive before the
+ * reply join the flight instead of sending requests of their own, and the reply, or failure, is
+ * handed to every one of them.
+ *
+ * <p>A flight takes at most <code>maxWaiters</code> reads, its leader included; the next read of
+ * the key leads a new flight. Only requests that are actually sent lead flights, so there are
+ * never more flights than the concurrency limits allow requests in flight.
+ *
+ * <p>A read must never be answered with a result from before a write it could have seen. When a
+ * person is created or changed, flights that could include it, its finds and every listing, are
+ * detached: they still answer the reads they have, but later reads start afresh.
+ *
+ * <p>Each API verticle instance has its own flights and only touches them from its event loop, so
+ * nothing here is synchronized.
+ *
+ * @author Jason Hallford
+ */
+final class SingleFlight {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(SingleFlight.class);
+  private static final long ANY_PERSON = -1;
+  private static final int LEADER = 0;
+  private static final int FOLLOWER = 1;
+
+  private final int maxWaiters;
+  private final Map<String, Flight> flights = new HashMap<>();
+  private final Map<String, LongAdder[]> countersByAddress = new HashMap<>();
+
+  // Constructors
+  /**
+   * @param maxWaiters The most reads that may share one request.
+   */
+  SingleFlight(int maxWaiters) {
+    this.maxWaiters = maxWaiters;
+  }
+
+  // Package methods
+  /**
+   * Returns the key of a find. A client's <code>If-None-Match</code> decides whether the JPA node
+   * answers with the person or only a 304, so it's part of the key.
+   */
+  static String findKey(String address, long entityId, Long entityVersion, boolean primary) {
+    return address + '|' + entityId + '|' + entityVersion + '|' + primary;
+  }
+
+  /** Returns the key of a listing or search. */
+  static String listingKey(String address, PersonEnvelope payload, boolean primary) {
+    return address
+        + '|'
+        + payload.getAfter()
+        + '|'
+        + payload.getLimit()
+        + '|'
+        + payload.getNamePrefix()
+        + '|'
+        + payload.getMinAge()
+        + '|'
+        + payload.getMaxAge()
+        + '|'
+        + primary;
+  }
+
+  /**
+   * Joins the read of a key to its flight, if one is in flight and has room.
+   *
+   * @param key The read's key.
+   * @param waiter Handles the flight's reply.
+   * @return <code>true</code> if the read joined a flight; otherwise, <code>false</code>, and the
+   *     read should {@link #lead lead} one.
+   */
+  boolean join(String key, Handler<AsyncResult<Message<Object>>> waiter) {
+    var flight = flights.get(key);
+    if (flight == null || flight.waiters.size() >= maxWaiters) {
+      return false;
+    }
+    flight.waiters.add(waiter);
+    flight.counters[FOLLOWER].increment();
+    return true;
+  }
+
+  /**
+   * Starts a flight for a read that is about to send its request. If the request isn't sent the
+   * flight must be {@link Flight#abandon() abandoned}.
+   *
+   * @param key The read's key.
+   * @param address The address the read is sent to, for the metrics.
+   * @param entityId The person found, or <code>null</code> for a listing.
+   * @param waiter Handles the reply.
+   * @return The flight, whose {@link Flight#complete(AsyncResult)} must be given the reply.
+   */
+  Flight lead(
+      String key, String address, Long entityId, Handler<AsyncResult<Message<Object>>> waiter) {
+    var counters =
+        countersByAddress.computeIfAbsent(Shards.baseAddress(address), SingleFlight::counters);
+    var flight = new Flight(key, entityId == null ? ANY_PERSON : entityId, counters);
+    flight.waiters.add(waiter);
+    flights.put(key, flight);
+    return flight;
+  }
+
+  /**
+   * Detaches the flights whose results a created or changed person could alter: its finds and
+   * every listing. Pass <code>null</code> when the people aren't known, e.g. after a bulk upload,
+   * to detach every flight.
+   */
+  void detach(Long entityId) {
+    if (entityId == null) {
+      flights.clear();
+    } else {
+      flights
+          .values()
+          .removeIf(flight -> flight.entityId == ANY_PERSON || flight.entityId == entityId);
+    }
+  }
+
+  /** The reads of one key waiting on one request. */
+  final class Flight {
+    private final String key;
+    private final long entityId;
+    private final List<Handler<AsyncResult<Message<Object>>>> waiters = new ArrayList<>(4);
+    private final LongAdder[] counters;
+
+    private Flight(String key, long entityId, LongAdder[] counters) {
+      this.key = key;
+      this.entityId = entityId;
+      this.counters = counters;
+    }
+
+    /** Ends the flight and hands its reply to each read, in the order they arrived. */
+    void complete(AsyncResult<Message<Object>> reply) {
+      this.abandon();
+      counters[LEADER].increment();
+      for (var waiter : waiters) {
+        try {
+          waiter.handle(reply);
+        } catch (RuntimeException e) {
+          // One read's failure mustn't cost the others their replies.
+          LOGGER.error("Unable to answer a coalesced read of {}.", key, e);
+        }
+      }
+    }
+
+    /**
+     * Ends a flight whose request wasn't sent. It's abandoned before the event loop moves on, so
+     * its leader is the only read it has.
+     */
+    void abandon() {
+      flights.remove(key, this);
+    }
+  }
+
+  // Utility methods
+  /** Returns an address's leader and follower counters, shared by every verticle instance. */
+  private static LongAdder[] counters(String address) {
+    var counters = new LongAdder[2];
+    counters[LEADER] = counter(address, "leader");
+    counters[FOLLOWER] = counter(address, "follower");
+    return counters;
+  }
+
+  private static LongAdder counter(String address, String role) {
+    return Metrics.INSTANCE.counter(
+        "api_single_flight_requests_total",
+        "Reads that sent a request (leader) or shared another's (follower).",
+        Metrics.labels("address", address, "role", role));
+  }
+}
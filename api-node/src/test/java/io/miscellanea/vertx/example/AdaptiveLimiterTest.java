@@ -0,0 +1,122 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the adaptive limiter grows its limit while replies are fast, shrinks it when they
+ * are slow or fail, and keeps it within its bounds.
+ *
+ * @author Jason Hallford
+ */
+public class AdaptiveLimiterTest {
+  // Fields
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(10);
+
+  // Tests
+  @Test
+  public void requestsBeyondTheLimitAreShed() {
+    var limiter = this.limiter("shed", 4, 1, 8);
+
+    for (int i = 0; i < 4; i++) {
+      assertTrue(limiter.tryAcquire());
+    }
+    assertFalse(limiter.tryAcquire());
+
+    limiter.release(FAST, true);
+    assertTrue(limiter.tryAcquire());
+  }
+
+  @Test
+  public void limitGrowsWhileRepliesAreFast() {
+    var limiter = this.limiter("grow", 4, 1, 6);
+
+    for (int round = 0; round < 50; round++) {
+      this.fillAndRelease(limiter, FAST, true);
+    }
+
+    assertEquals(6L, limiter.getLimit());
+  }
+
+  @Test
+  public void limitShrinksWhenRepliesAreSlow() {
+    var limiter = this.limiter("slow", 100, 4, 200);
+    this.roundTrip(limiter, FAST, true);
+
+    this.roundTrip(limiter, SLOW, true);
+
+    assertEquals(90L, limiter.getLimit());
+  }
+
+  @Test
+  public void limitShrinksWhenRequestsFail() {
+    var limiter = this.limiter("fail", 100, 4, 200);
+    this.roundTrip(limiter, FAST, true);
+
+    this.roundTrip(limiter, FAST, false);
+
+    assertEquals(90L, limiter.getLimit());
+  }
+
+  @Test
+  public void limitShrinksAtMostOncePerRoundTrip() {
+    var limiter = this.limiter("once", 100, 4, 200);
+    this.roundTrip(limiter, TimeUnit.SECONDS.toNanos(5), true);
+
+    // Ten slow replies that all arrive within one baseline round trip of the first.
+    var slow = TimeUnit.SECONDS.toNanos(30);
+    this.roundTrip(limiter, slow, true);
+    for (int i = 0; i < 10; i++) {
+      this.roundTrip(limiter, slow, false);
+    }
+
+    assertEquals(90L, limiter.getLimit());
+  }
+
+  @Test
+  public void limitNeverFallsBelowTheMinimum() throws Exception {
+    var limiter = this.limiter("floor", 8, 5, 200);
+    this.roundTrip(limiter, FAST, true);
+
+    for (int i = 0; i < 10; i++) {
+      Thread.sleep(2);
+      this.roundTrip(limiter, SLOW, false);
+    }
+
+    assertEquals(5L, limiter.getLimit());
+  }
+
+  // Utility methods
+  private AdaptiveLimiter limiter(String name, int initial, int min, int max) {
+    var settings =
+        new JsonObject()
+            .put(ConfigProp.BUS_LIMIT_INITIAL, initial)
+            .put(ConfigProp.BUS_LIMIT_MIN, min)
+            .put(ConfigProp.BUS_LIMIT_MAX, max)
+            .put(ConfigProp.BUS_LATENCY_TOLERANCE, 2.0);
+    // Limiters are shared per address, so every test uses an address of its own.
+    return AdaptiveLimiter.forAddress("test." + name, settings);
+  }
+
+  private void roundTrip(AdaptiveLimiter limiter, long rttNanos, boolean succeeded) {
+    assertTrue(limiter.tryAcquire());
+    limiter.release(rttNanos, succeeded);
+  }
+
+  private void fillAndRelease(AdaptiveLimiter limiter, long rttNanos, boolean succeeded) {
+    int admitted = 0;
+    while (limiter.tryAcquire()) {
+      admitted++;
+    }
+    for (int i = 0; i < admitted; i++) {
+      limiter.release(rttNanos, succeeded);
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.Router;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Uploads NDJSON and CSV to a bulk ingest whose chunks are answered at once, and checks the chunks
+ * sent, the lines written back, and how a missing CSV column or an overlong line ends the upload.
+ *
+ * @author Jason Hallford
+ */
+public class BulkIngestTest {
+  // Fields
+  private static final int CHUNK_SIZE = 2;
+  private static final int MAX_RECORD_BYTES = 64;
+
+  private final List<List<String>> chunks = new CopyOnWriteArrayList<>();
+  private Vertx vertx;
+  private int port;
+
+  // Life-cycle
+  @Before
+  public void setUp() throws Exception {
+    vertx = Vertx.vertx();
+    var router = Router.router(vertx);
+    router
+        .post("/bulk")
+        .handler(
+            context ->
+                new BulkIngest(
+                        vertx,
+                        context,
+                        context.request().getHeader("content-type"),
+                        CHUNK_SIZE,
+                        2,
+                        MAX_RECORD_BYTES,
+                        (routingContext, chunk, handler) -> {
+                          var names = new ArrayList<String>();
+                          var ids = new ArrayList<Long>();
+                          for (var person : chunk.getPeople()) {
+                            names.add(person.getName() + "/" + person.getAge());
+                            ids.add((long) (names.size() + chunks.size() * CHUNK_SIZE));
+                          }
+                          chunks.add(names);
+                          handler.handle(
+                              Future.succeededFuture(
+                                  new PersonEnvelope().setStatus("ok").setIds(ids)));
+                          return true;
+                        })
+                    .start());
+
+    var listening = new CompletableFuture<HttpServer>();
+    vertx
+        .createHttpServer()
+        .requestHandler(router)
+        .listen(
+            0,
+            result -> {
+              if (result.succeeded()) {
+                listening.complete(result.result());
+              } else {
+                listening.completeExceptionally(result.cause());
+              }
+            });
+    port = listening.get(30, TimeUnit.SECONDS).actualPort();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    var closed = new CompletableFuture<Void>();
+    vertx.close(result -> closed.complete(null));
+    closed.get(30, TimeUnit.SECONDS);
+  }
+
+  // Tests
+  @Test
+  public void ndjsonIsSentInChunks() throws Exception {
+    var response =
+        this.upload(
+            BulkIngest.NDJSON,
+            "{\"name\":\"Ada\",\"age\":36}\n"
+                + "{\"name\":\"Grace\",\"age\":85}\n"
+                + "\n"
+                + "{\"name\":\"Edsger\",\"age\":72}\n",
+            true);
+
+    assertEquals(200, response.status);
+    assertEquals(
+        List.of(List.of("Ada/36", "Grace/85"), List.of("Edsger/72")), new ArrayList<>(chunks));
+    assertEquals(
+        List.of(
+            "{\"chunk\":0,\"first-line\":1,\"last-line\":2,\"ids\":[1,2]}",
+            "{\"chunk\":1,\"first-line\":4,\"last-line\":4,\"ids\":[3]}",
+            "{\"created\":3,\"failed\":0,\"rejected\":0}"),
+        response.lines);
+  }
+
+  @Test
+  public void unreadableRecordsAreReportedAlone() throws Exception {
+    var response =
+        this.upload(
+            BulkIngest.NDJSON, "{\"name\":\"Ada\",\"age\":36}\n{\"name\":\n", true);
+
+    assertEquals(List.of(List.of("Ada/36")), new ArrayList<>(chunks));
+    assertTrue(response.lines.get(0), response.lines.get(0).startsWith("{\"line\":2,\"error\":"));
+    assertEquals("{\"created\":1,\"failed\":0,\"rejected\":1}", this.last(response.lines));
+  }
+
+  @Test
+  public void csvColumnsAreFoundByTheHeader() throws Exception {
+    var response =
+        this.upload(
+            BulkIngest.CSV,
+            " Age , NAME \n36,\"Lovelace, Ada\"\n85,\"Grace \"\"Amazing\"\" Hopper\"\n,Edsger\n",
+            true);
+
+    assertEquals(200, response.status);
+    assertEquals(
+        List.of(
+            List.of("Lovelace, Ada/36", "Grace \"Amazing\" Hopper/85"), List.of("Edsger/null")),
+        new ArrayList<>(chunks));
+    assertEquals("{\"created\":3,\"failed\":0,\"rejected\":0}", this.last(response.lines));
+  }
+
+  @Test
+  public void csvFieldsSplitOnUnquotedCommas() {
+    assertEquals(List.of("a", "b", ""), BulkIngest.splitCsv("a,b,"));
+    assertEquals(List.of("a,b", "c"), BulkIngest.splitCsv("\"a,b\",c"));
+    assertEquals(List.of("say \"hi\"", ""), BulkIngest.splitCsv("\"say \"\"hi\"\"\","));
+    assertEquals(List.of(""), BulkIngest.splitCsv(""));
+  }
+
+  @Test
+  public void headerWithoutANameEndsTheUploadAndItsConnection() throws Exception {
+    var response = this.upload(BulkIngest.CSV, "age,nom\n36,Ada\n", false);
+
+    assertEquals(200, response.status);
+    assertEquals(
+        List.of("{\"line\":1,\"error\":\"The header has no 'name' column.\"}"), response.lines);
+    assertTrue(chunks.isEmpty());
+    assertTrue("The connection wasn't closed.", response.closed);
+  }
+
+  @Test
+  public void completeLineTooLongIsRejectedAlone() throws Exception {
+    var response =
+        this.upload(
+            BulkIngest.NDJSON,
+            "{\"name\":\"" + "x".repeat(MAX_RECORD_BYTES) + "\"}\n{\"name\":\"Ada\",\"age\":36}\n",
+            true);
+
+    assertEquals(200, response.status);
+    assertEquals(List.of(List.of("Ada/36")), new ArrayList<>(chunks));
+    assertEquals(
+        "{\"line\":1,\"error\":\"The line is longer than 64 bytes.\"}", response.lines.get(0));
+    assertEquals("{\"created\":1,\"failed\":0,\"rejected\":1}", this.last(response.lines));
+  }
+
+  @Test
+  public void unfinishedLineTooLongRefusesAnUntouchedUpload() throws Exception {
+    var response = this.upload(BulkIngest.NDJSON, "x".repeat(MAX_RECORD_BYTES + 1), false);
+
+    assertEquals(413, response.status);
+    assertTrue(response.lines.isEmpty());
+    assertTrue("The connection wasn't closed.", response.closed);
+  }
+
+  @Test
+  public void unfinishedLineTooLongAfterAReportedLineEndsTheResponse() throws Exception {
+    // The rejected first line has already sent the response's head, so it can't become a 413.
+    var response =
+        this.upload(BulkIngest.NDJSON, "{\"name\":\n" + "x".repeat(MAX_RECORD_BYTES + 1), false);
+
+    assertEquals(200, response.status);
+    assertTrue(response.lines.get(0), response.lines.get(0).startsWith("{\"line\":1,\"error\":"));
+    assertEquals(
+        List.of(
+            "{\"line\":2,\"error\":\"The line is longer than 64 bytes.\"}",
+            "{\"created\":0,\"failed\":0,\"rejected\":2}"),
+        response.lines.subList(1, 3));
+    assertTrue("The connection wasn't closed.", response.closed);
+  }
+
+  @Test
+  public void unfinishedLineTooLongAfterAChunkEndsTheResponse() throws Exception {
+    var response =
+        this.upload(
+            BulkIngest.NDJSON,
+            "{\"name\":\"Ada\",\"age\":36}\n{\"name\":\"Grace\",\"age\":85}\n"
+                + "x".repeat(MAX_RECORD_BYTES + 1),
+            false);
+
+    assertEquals(200, response.status);
+    assertEquals(List.of(List.of("Ada/36", "Grace/85")), new ArrayList<>(chunks));
+    assertEquals(
+        List.of(
+            "{\"chunk\":0,\"first-line\":1,\"last-line\":2,\"ids\":[1,2]}",
+            "{\"line\":3,\"error\":\"The line is longer than 64 bytes.\"}",
+            "{\"created\":2,\"failed\":0,\"rejected\":1}"),
+        response.lines);
+    assertTrue("The connection wasn't closed.", response.closed);
+  }
+
+  // Utility methods
+  private String last(List<String> lines) {
+    return lines.get(lines.size() - 1);
+  }
+
+  /**
+   * Posts a body over a connection of its own and reads the response until the server closes the
+   * connection or, if it keeps it open, until a second passes without anything more to read.
+   *
+   * @param close <code>true</code> to ask the server to close the connection after responding.
+   */
+  private Response upload(String contentType, String body, boolean close) throws IOException {
+    var bytes = body.getBytes(StandardCharsets.UTF_8);
+    var head =
+        "POST /bulk HTTP/1.1\r\nHost: localhost\r\nContent-Type: "
+            + contentType
+            + "\r\nContent-Length: "
+            + bytes.length
+            + (close ? "\r\nConnection: close" : "")
+            + "\r\n\r\n";
+
+    var received = new ByteArrayOutputStream();
+    var response = new Response();
+    try (var socket = new Socket("localhost", port)) {
+      socket.setSoTimeout(1000);
+      socket.getOutputStream().write(head.getBytes(StandardCharsets.US_ASCII));
+      socket.getOutputStream().write(bytes);
+      socket.getOutputStream().flush();
+
+      var buffer = new byte[8192];
+      try {
+        for (int read; (read = socket.getInputStream().read(buffer)) >= 0; ) {
+          received.write(buffer, 0, read);
+        }
+        response.closed = true;
+      } catch (SocketTimeoutException e) {
+        response.closed = false;
+      }
+    }
+
+    // Each line the ingest writes is a chunk of its own, so the JSON lines stand alone.
+    var text = received.toString(StandardCharsets.UTF_8);
+    response.status = Integer.parseInt(text.substring(9, 12));
+    response.lines =
+        Arrays.stream(text.substring(text.indexOf("\r\n\r\n") + 4).split("\r?\n"))
+            .filter(line -> line.startsWith("{"))
+            .collect(Collectors.toList());
+    return response;
+  }
+
+  /** What came back for an upload. */
+  private static final class Response {
+    private int status;
+    private List<String> lines;
+    private boolean closed;
+  }
+}
@@ -0,0 +1,103 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how ETags are built and how <code>If-None-Match</code> headers, weak tags included, are
+ * matched against them.
+ *
+ * @author Jason Hallford
+ */
+public class PersonResponseTest {
+  // Fields
+  private static final String ETAG = PersonResponse.etag(7, 3);
+
+  // Tests
+  @Test
+  public void etagIsQuotedIdAndVersion() {
+    assertEquals("\"7-3\"", ETAG);
+  }
+
+  @Test
+  public void strongAndWeakTagsMatch() {
+    assertTrue(PersonResponse.matches("\"7-3\"", ETAG));
+    assertTrue(PersonResponse.matches("W/\"7-3\"", ETAG));
+    assertTrue(PersonResponse.matches("  W/\"7-3\"  ", ETAG));
+  }
+
+  @Test
+  public void anyTagInAListMatches() {
+    assertTrue(PersonResponse.matches("\"7-2\", W/\"7-3\"", ETAG));
+    assertTrue(PersonResponse.matches("W/\"1-0\",\"7-3\"", ETAG));
+    assertFalse(PersonResponse.matches("\"7-2\", W/\"8-3\"", ETAG));
+  }
+
+  @Test
+  public void wildcardMatchesAnyTag() {
+    assertTrue(PersonResponse.matches("*", ETAG));
+    assertTrue(PersonResponse.matches(" * ", ETAG));
+  }
+
+  @Test
+  public void otherVersionsAndPeopleDontMatch() {
+    assertFalse(PersonResponse.matches("\"7-4\"", ETAG));
+    assertFalse(PersonResponse.matches("W/\"17-3\"", ETAG));
+    assertFalse(PersonResponse.matches("\"\"", ETAG));
+  }
+
+  @Test
+  public void missingHeaderOrTagNeverMatches() {
+    assertFalse(PersonResponse.matches(null, ETAG));
+    assertFalse(PersonResponse.matches("*", null));
+  }
+
+  @Test
+  public void versionIsReadFromStrongAndWeakTags() {
+    assertEquals(Long.valueOf(3), PersonResponse.versionIn("\"7-3\"", 7));
+    assertEquals(Long.valueOf(3), PersonResponse.versionIn("W/\"7-3\"", 7));
+  }
+
+  @Test
+  public void versionComesFromTheFirstTagForThePerson() {
+    assertEquals(Long.valueOf(5), PersonResponse.versionIn("\"17-9\", W/\"7-5\", \"7-6\"", 7));
+  }
+
+  @Test
+  public void tagsThatArentOursAreSkipped() {
+    assertEquals(Long.valueOf(6), PersonResponse.versionIn("\"7-abc\", \"7-6\"", 7));
+    assertNull(PersonResponse.versionIn("\"7-\"", 7));
+    assertNull(PersonResponse.versionIn("\"abc\"", 7));
+    assertNull(PersonResponse.versionIn("*", 7));
+    assertNull(PersonResponse.versionIn(null, 7));
+  }
+
+  @Test
+  public void versionOfAnotherPersonIsIgnored() {
+    assertNull(PersonResponse.versionIn("\"8-3\"", 7));
+    assertNull(PersonResponse.versionIn("W/\"77-3\"", 7));
+  }
+
+  @Test
+  public void jsonRoundTrips() {
+    var body = "{\"id\":7,\"name\":\"Zo\u00eb\",\"age\":3}";
+    var response = new PersonResponse(Buffer.buffer(body), ETAG);
+
+    var read = PersonResponse.fromJson(response.toJson());
+
+    assertEquals(body, read.getBody().toString());
+    assertEquals(ETAG, read.getEtag());
+  }
+
+  @Test
+  public void missingEtagStaysMissing() {
+    var response = new PersonResponse(Buffer.buffer("{}"), null);
+
+    assertNull(PersonResponse.fromJson(response.toJson()).getEtag());
+  }
+}
@@ -0,0 +1,178 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that reads join a flight of the same key while it has room, that its reply reaches each
+ * of them, and that writes detach the flights they could alter.
+ *
+ * @author Jason Hallford
+ */
+public class SingleFlightTest {
+  // Fields
+  private static final String FIND = EventBusAddress.REPOSITORY_PERSON_FIND;
+  private static final String LIST = EventBusAddress.REPOSITORY_PERSON_LIST;
+  private static final String ADA = SingleFlight.findKey(FIND, 1, null, false);
+  private static final String GRACE = SingleFlight.findKey(FIND, 2, null, false);
+  private static final String FIRST_PAGE =
+      SingleFlight.listingKey(LIST, new PersonEnvelope().setLimit(10), false);
+
+  private final List<String> answered = new ArrayList<>();
+
+  // Tests
+  @Test
+  public void readWithoutAFlightMustLead() {
+    var singleFlight = new SingleFlight(10);
+
+    assertFalse(singleFlight.join(ADA, this.waiter("follower")));
+  }
+
+  @Test
+  public void followersShareTheLeadersReplyInOrder() {
+    var singleFlight = new SingleFlight(10);
+    var flight = singleFlight.lead(ADA, FIND, 1L, this.waiter("leader"));
+
+    assertTrue(singleFlight.join(ADA, this.waiter("first")));
+    assertTrue(singleFlight.join(ADA, this.waiter("second")));
+    assertFalse(singleFlight.join(GRACE, this.waiter("other")));
+    flight.complete(Future.succeededFuture());
+
+    assertEquals(List.of("leader", "first", "second"), answered);
+  }
+
+  @Test
+  public void completedFlightTakesNoMoreReads() {
+    var singleFlight = new SingleFlight(10);
+    singleFlight.lead(ADA, FIND, 1L, this.waiter("leader")).complete(Future.succeededFuture());
+
+    assertFalse(singleFlight.join(ADA, this.waiter("late")));
+    assertEquals(List.of("leader"), answered);
+  }
+
+  @Test
+  public void failureReachesEveryRead() {
+    var singleFlight = new SingleFlight(10);
+    var failures = new ArrayList<Throwable>();
+    Handler<AsyncResult<Message<Object>>> waiter = reply -> failures.add(reply.cause());
+    var flight = singleFlight.lead(ADA, FIND, 1L, waiter);
+    singleFlight.join(ADA, waiter);
+
+    var cause = new IllegalStateException("No reply.");
+    flight.complete(Future.failedFuture(cause));
+
+    assertEquals(List.of(cause, cause), failures);
+  }
+
+  @Test
+  public void fullFlightSendsTheNextReadOnANewOne() {
+    var singleFlight = new SingleFlight(3);
+    var full = singleFlight.lead(ADA, FIND, 1L, this.waiter("leader"));
+    assertTrue(singleFlight.join(ADA, this.waiter("first")));
+    assertTrue(singleFlight.join(ADA, this.waiter("second")));
+
+    assertFalse(singleFlight.join(ADA, this.waiter("third")));
+    var next = singleFlight.lead(ADA, FIND, 1L, this.waiter("third"));
+    assertTrue(singleFlight.join(ADA, this.waiter("fourth")));
+
+    // The full flight ending mustn't end the one that replaced it.
+    full.complete(Future.succeededFuture());
+    assertEquals(List.of("leader", "first", "second"), answered);
+    assertTrue(singleFlight.join(ADA, this.waiter("fifth")));
+
+    next.complete(Future.succeededFuture());
+    assertEquals(List.of("leader", "first", "second", "third", "fourth", "fifth"), answered);
+  }
+
+  @Test
+  public void abandonedFlightTakesNoMoreReads() {
+    var singleFlight = new SingleFlight(10);
+    singleFlight.lead(ADA, FIND, 1L, this.waiter("leader")).abandon();
+
+    assertFalse(singleFlight.join(ADA, this.waiter("follower")));
+    assertTrue(answered.isEmpty());
+  }
+
+  @Test
+  public void changeDetachesThePersonsFindsAndEveryListing() {
+    var singleFlight = new SingleFlight(10);
+    var ada = singleFlight.lead(ADA, FIND, 1L, this.waiter("ada"));
+    singleFlight.lead(GRACE, FIND, 2L, this.waiter("grace"));
+    singleFlight.lead(FIRST_PAGE, LIST, null, this.waiter("page"));
+
+    singleFlight.detach(1L);
+
+    assertFalse(singleFlight.join(ADA, this.waiter("ada again")));
+    assertFalse(singleFlight.join(FIRST_PAGE, this.waiter("page again")));
+    assertTrue(singleFlight.join(GRACE, this.waiter("grace again")));
+
+    // A detached flight still answers the reads it has.
+    ada.complete(Future.succeededFuture());
+    assertEquals(List.of("ada"), answered);
+  }
+
+  @Test
+  public void unknownChangeDetachesEveryFlight() {
+    var singleFlight = new SingleFlight(10);
+    singleFlight.lead(ADA, FIND, 1L, this.waiter("ada"));
+    singleFlight.lead(GRACE, FIND, 2L, this.waiter("grace"));
+    singleFlight.lead(FIRST_PAGE, LIST, null, this.waiter("page"));
+
+    singleFlight.detach(null);
+
+    assertFalse(singleFlight.join(ADA, this.waiter("ada again")));
+    assertFalse(singleFlight.join(GRACE, this.waiter("grace again")));
+    assertFalse(singleFlight.join(FIRST_PAGE, this.waiter("page again")));
+  }
+
+  @Test
+  public void failingWaiterDoesntCostTheOthersTheirReplies() {
+    var singleFlight = new SingleFlight(10);
+    var flight =
+        singleFlight.lead(
+            ADA,
+            FIND,
+            1L,
+            reply -> {
+              throw new IllegalStateException("Unable to answer.");
+            });
+    singleFlight.join(ADA, this.waiter("follower"));
+
+    flight.complete(Future.succeededFuture());
+
+    assertEquals(List.of("follower"), answered);
+  }
+
+  @Test
+  public void keysTellReadsApart() {
+    assertEquals(ADA, SingleFlight.findKey(FIND, 1, null, false));
+    assertNotEquals(ADA, SingleFlight.findKey(FIND, 1, 0L, false));
+    assertNotEquals(ADA, SingleFlight.findKey(FIND, 1, null, true));
+    assertNotEquals(ADA, SingleFlight.findKey(Shards.address(FIND, 1), 1, null, false));
+
+    assertEquals(
+        FIRST_PAGE, SingleFlight.listingKey(LIST, new PersonEnvelope().setLimit(10), false));
+    assertNotEquals(
+        FIRST_PAGE,
+        SingleFlight.listingKey(LIST, new PersonEnvelope().setLimit(10).setAfter(5L), false));
+    assertNotEquals(
+        FIRST_PAGE,
+        SingleFlight.listingKey(LIST, new PersonEnvelope().setLimit(10).setNamePrefix("A"), false));
+  }
+
+  // Utility methods
+  private Handler<AsyncResult<Message<Object>>> waiter(String name) {
+    return reply -> answered.add(name);
+  }
+}
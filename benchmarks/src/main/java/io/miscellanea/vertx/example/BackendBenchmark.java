@@ -0,0 +1,200 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static io.miscellanea.vertx.example.PersistenceManager.INSTANCE;
+
+/**
+ * Compares the JPA and reactive repository backends under the same load: both serve the same
+ * event bus requests from the same embedded PostgreSQL server with ten connections in total, and
+ * more callers than connections. Throughput is reported by JMH; the JVM's live and peak thread
+ * counts are logged at the end of each trial.
+ *
+ * <p>PostgreSQL refuses to run as root, so run these as an ordinary user.
+ *
+ * @author Jason Hallford
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(32)
+@Fork(1)
+public class BackendBenchmark {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(BackendBenchmark.class);
+
+  private static final int SEED_ROWS = 1000;
+  private static final int CONNECTIONS = 10;
+  private static final int VERTICLES = 2;
+
+  /** The repository implementation under test. */
+  @Param({"jpa", "reactive"})
+  public String backend;
+
+  private EmbeddedPostgres postgres;
+  private Vertx vertx;
+  private long[] ids;
+
+  // Life-cycle
+  @Setup
+  public void setUp() throws Exception {
+    this.postgres = EmbeddedPostgres.builder().start();
+
+    this.vertx = Vertx.vertx();
+    vertx.eventBus().registerDefaultCodec(PersonEnvelope.class, new PersonEnvelopeCodec());
+
+    var config =
+        new JsonObject()
+            .put(
+                ConfigProp.REACTIVE_CONNECT,
+                new JsonObject()
+                    .put("host", "localhost")
+                    .put("port", postgres.getPort())
+                    .put("database", "postgres")
+                    .put("user", "postgres"))
+            .put(ConfigProp.REACTIVE_POOL_SIZE, CONNECTIONS / VERTICLES);
+
+    String verticle;
+    if ("jpa".equals(backend)) {
+      INSTANCE.initialize(BenchmarkDatabase.postgres(postgres.getPort(), CONNECTIONS));
+      verticle = JpaRepositoryVerticle.class.getName();
+    } else {
+      var schema = new CompletableFuture<Void>();
+      ReactiveRepositoryVerticle.createSchema(vertx, config, complete(schema));
+      schema.get(30, TimeUnit.SECONDS);
+      verticle = ReactiveRepositoryVerticle.class.getName();
+    }
+
+    var deployed = new CompletableFuture<String>();
+    vertx.deployVerticle(
+        verticle,
+        new DeploymentOptions().setConfig(config).setInstances(VERTICLES),
+        complete(deployed));
+    deployed.get(30, TimeUnit.SECONDS);
+
+    this.ids = this.seed();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    var threads = ManagementFactory.getThreadMXBean();
+    LOGGER.info(
+        "{} backend: {} live threads, {} at peak.",
+        backend,
+        threads.getThreadCount(),
+        threads.getPeakThreadCount());
+
+    var closed = new CompletableFuture<Void>();
+    vertx.close(complete(closed));
+    closed.get(30, TimeUnit.SECONDS);
+    if ("jpa".equals(backend)) {
+      INSTANCE.close();
+    }
+    postgres.close();
+  }
+
+  // Benchmarks
+  @Benchmark
+  public Object find() throws Exception {
+    long id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    return this.request(
+        EventBusAddress.REPOSITORY_PERSON_FIND, new PersonEnvelope().setEntityId(id));
+  }
+
+  @Benchmark
+  public Object create() throws Exception {
+    return this.request(
+        EventBusAddress.REPOSITORY_PERSON_CREATE,
+        new PersonEnvelope().setName("Benchmark").setAge(42));
+  }
+
+  @Benchmark
+  public Object list() throws Exception {
+    long after = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    return this.request(
+        EventBusAddress.REPOSITORY_PERSON_LIST,
+        new PersonEnvelope().setAfter(after).setLimit(20));
+  }
+
+  // Utility methods
+  /** Creates the people the benchmarks read through the backend under test. */
+  private long[] seed() throws Exception {
+    var created = new ArrayList<CompletableFuture<PersonEnvelope>>(SEED_ROWS);
+    for (int i = 0; i < SEED_ROWS; i++) {
+      var person = BenchmarkDatabase.newPerson(i);
+      created.add(
+          this.send(
+              EventBusAddress.REPOSITORY_PERSON_CREATE,
+              new PersonEnvelope().setName(person.getName()).setAge(person.getAge())));
+    }
+
+    var seeded = new long[SEED_ROWS];
+    for (int i = 0; i < SEED_ROWS; i++) {
+      seeded[i] = created.get(i).get(30, TimeUnit.SECONDS).getEntityId();
+    }
+    return seeded;
+  }
+
+  private PersonEnvelope request(String address, PersonEnvelope request) throws Exception {
+    return this.send(address, request).get(10, TimeUnit.SECONDS);
+  }
+
+  private CompletableFuture<PersonEnvelope> send(String address, PersonEnvelope request) {
+    var response = new CompletableFuture<PersonEnvelope>();
+    vertx
+        .eventBus()
+        .<PersonEnvelope>request(
+            address,
+            request.setRequestId(UUID.randomUUID().toString()),
+            reply -> {
+              if (reply.failed()) {
+                response.completeExceptionally(reply.cause());
+              } else if (!reply.result().body().isOk()) {
+                response.completeExceptionally(
+                    new IllegalStateException(reply.result().body().getError()));
+              } else {
+                response.complete(reply.result().body());
+              }
+            });
+    return response;
+  }
+
+  private static <T> Handler<AsyncResult<T>> complete(CompletableFuture<T> future) {
+    return result -> {
+      if (result.succeeded()) {
+        future.complete(result.result());
+      } else {
+        future.completeExceptionally(result.cause());
+      }
+    };
+  }
+}
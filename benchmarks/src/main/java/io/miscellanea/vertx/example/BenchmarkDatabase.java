@@ -0,0 +1,66 @@
+package io.miscellanea.vertx.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Points the <code>vertx-hibernate</code> persistence unit at an in-memory H2 database so that
+ * benchmarks measure the repository code rather than the disk, or at PostgreSQL where H2 won't do.
+ *
+ * @author Jason Hallford
+ */
+final class BenchmarkDatabase {
+  // Constructors
+  private BenchmarkDatabase() {}
+
+  // Public methods
+  /**
+   * Initializes {@link PersistenceManager} against a private in-memory database and seeds it.
+   *
+   * @param rows The number of people to insert.
+   * @return The ids of the inserted people.
+   */
+  static long[] initialize(int rows) {
+    PersistenceManager.INSTANCE.initialize(
+        Map.of("hibernate.hikari.dataSource.url", "jdbc:h2:mem:benchmarks;DB_CLOSE_DELAY=-1"));
+
+    var people = new ArrayList<Person>(rows);
+    for (int i = 0; i < rows; i++) {
+      people.add(newPerson(i));
+    }
+
+    List<Person> saved = PersistenceManager.INSTANCE.persistAll(people);
+    return saved.stream().mapToLong(Person::getId).toArray();
+  }
+
+  /**
+   * The persistence unit properties that point it at a PostgreSQL server on this host, for
+   * comparing JPA with backends that can't use H2.
+   *
+   * @param port The server's port.
+   * @param poolSize The number of pooled connections.
+   * @return Properties to pass to {@link PersistenceManager#initialize(Map)}.
+   */
+  static Map<String, Object> postgres(int port, int poolSize) {
+    return Map.of(
+        "hibernate.dialect", "org.hibernate.dialect.PostgreSQL10Dialect",
+        "hibernate.hikari.dataSourceClassName", "org.postgresql.ds.PGSimpleDataSource",
+        "hibernate.hikari.dataSource.url", "jdbc:postgresql://localhost:" + port + "/postgres",
+        "hibernate.hikari.dataSource.user", "postgres",
+        "hibernate.hikari.maximumPoolSize", Integer.toString(poolSize));
+  }
+
+  /**
+   * Creates a transient person.
+   *
+   * @param n A number used to vary the name and age.
+   * @return The person.
+   */
+  static Person newPerson(int n) {
+    var person = new Person();
+    person.setName("Person " + n);
+    person.setAge(n % 100);
+    return person;
+  }
+}
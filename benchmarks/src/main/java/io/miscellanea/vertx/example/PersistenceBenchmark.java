@@ -0,0 +1,74 @@
+package io.miscellanea.vertx.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static io.miscellanea.vertx.example.PersistenceManager.INSTANCE;
+
+/**
+ * Measures {@link PersistenceManager#find} and {@link PersistenceManager#persist} against an
+ * in-memory H2 database, i.e. the cost of Hibernate, Hikari and JDBC without disk I/O.
+ *
+ * @author Jason Hallford
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+  // Fields
+  private static final int SEED_ROWS = 10_000;
+  private static final int PAGE_SIZE = 100;
+
+  private long[] ids;
+  private int created;
+
+  // Life-cycle
+  @Setup
+  public void setUp() {
+    this.ids = BenchmarkDatabase.initialize(SEED_ROWS);
+  }
+
+  @TearDown
+  public void tearDown() {
+    INSTANCE.close();
+  }
+
+  // Benchmarks
+  @Benchmark
+  public List<Person> findById() {
+    long id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    return INSTANCE.find(em -> List.of(em.find(Person.class, id)));
+  }
+
+  @Benchmark
+  public List<Person> findPage() {
+    long after = ids[ThreadLocalRandom.current().nextInt(ids.length - PAGE_SIZE)];
+    return INSTANCE.find(
+        em ->
+            em.createNamedQuery(Person.QUERY_PAGE, Person.class)
+                .setParameter("after", after)
+                .setMaxResults(PAGE_SIZE)
+                .getResultList());
+  }
+
+  @Benchmark
+  public Person persist() {
+    return INSTANCE.persist(BenchmarkDatabase.newPerson(created++));
+  }
+}
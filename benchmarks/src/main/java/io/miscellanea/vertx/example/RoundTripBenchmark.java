@@ -0,0 +1,172 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static io.miscellanea.vertx.example.PersistenceManager.INSTANCE;
+
+/**
+ * Measures a full request through {@link ApiVerticle}, the event bus and {@link
+ * JpaRepositoryVerticle} on a single, non-clustered Vert.x instance backed by an in-memory H2
+ * database. <code>eventBusFind</code> skips HTTP so the two costs can be told apart, and <code>
+ * hopTiming</code> measures the cost of the hop breakdown.
+ *
+ * <p>The response cache is disabled so that every read reaches the JPA verticle.
+ *
+ * @author Jason Hallford
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RoundTripBenchmark {
+  // Fields
+  private static final int SEED_ROWS = 1000;
+  private static final int PORT = 18080;
+
+  /** The event bus envelope used between the verticles. */
+  @Param({"binary", "json"})
+  public String busCodec;
+
+  /** Whether requests are timed hop by hop (see <code>hop-timing</code>). */
+  @Param({"true", "false"})
+  public boolean hopTiming;
+
+  private Vertx vertx;
+  private WebClient client;
+  private long[] ids;
+
+  // Life-cycle
+  @Setup
+  public void setUp() throws Exception {
+    this.ids = BenchmarkDatabase.initialize(SEED_ROWS);
+
+    this.vertx = Vertx.vertx();
+    vertx.eventBus().registerDefaultCodec(PersonEnvelope.class, new PersonEnvelopeCodec());
+
+    var jpaDeployed = new CompletableFuture<String>();
+    vertx.deployVerticle(
+        JpaRepositoryVerticle.class.getName(),
+        new DeploymentOptions()
+            .setInstances(2)
+            .setConfig(new JsonObject().put(ConfigProp.HOP_TIMING, hopTiming)),
+        complete(jpaDeployed));
+    jpaDeployed.get(30, TimeUnit.SECONDS);
+
+    var apiConfig =
+        new JsonObject()
+            .put(ConfigProp.BIND_PORT, PORT)
+            .put(ConfigProp.BUS_CODEC, busCodec)
+            .put(ConfigProp.RESPONSE_CACHE_MAX_ENTRIES, 0)
+            .put(ConfigProp.HOP_TIMING, hopTiming)
+            .put(ConfigProp.HOP_TIMING_LOG_SAMPLE_RATE, 0.0);
+    var apiDeployed = new CompletableFuture<String>();
+    vertx.deployVerticle(
+        ApiVerticle.class.getName(),
+        new DeploymentOptions().setConfig(apiConfig),
+        complete(apiDeployed));
+    apiDeployed.get(30, TimeUnit.SECONDS);
+
+    this.client =
+        WebClient.create(
+            vertx,
+            new WebClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(PORT)
+                .setKeepAlive(true)
+                .setMaxPoolSize(64));
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    client.close();
+    var closed = new CompletableFuture<Void>();
+    vertx.close(complete(closed));
+    closed.get(30, TimeUnit.SECONDS);
+    INSTANCE.close();
+  }
+
+  // Benchmarks
+  @Benchmark
+  public Buffer httpGetPerson() throws Exception {
+    long id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    var response = new CompletableFuture<HttpResponse<Buffer>>();
+    client.get("/api/people/" + id).send(complete(response));
+    return response.get(10, TimeUnit.SECONDS).body();
+  }
+
+  @Benchmark
+  public Buffer httpCreatePerson() throws Exception {
+    var response = new CompletableFuture<HttpResponse<Buffer>>();
+    client
+        .post("/api/people")
+        .putHeader("content-type", "application/json")
+        .sendBuffer(
+            new JsonObject()
+                .put(MessageField.PERSON_NAME, "Benchmark")
+                .put(MessageField.PERSON_AGE, 42)
+                .toBuffer(),
+            complete(response));
+    return response.get(10, TimeUnit.SECONDS).body();
+  }
+
+  @Benchmark
+  public Object eventBusFind() throws Exception {
+    long id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    var request =
+        new PersonEnvelope().setRequestId(UUID.randomUUID().toString()).setEntityId(id);
+
+    var response = new CompletableFuture<Object>();
+    vertx
+        .eventBus()
+        .request(
+            EventBusAddress.REPOSITORY_PERSON_FIND,
+            "json".equals(busCodec) ? request.toJson() : request,
+            reply -> {
+              if (reply.succeeded()) {
+                response.complete(reply.result().body());
+              } else {
+                response.completeExceptionally(reply.cause());
+              }
+            });
+    return response.get(10, TimeUnit.SECONDS);
+  }
+
+  // Utility methods
+  private static <T> Handler<AsyncResult<T>> complete(
+      CompletableFuture<T> future) {
+    return result -> {
+      if (result.succeeded()) {
+        future.complete(result.result());
+      } else {
+        future.completeExceptionally(result.cause());
+      }
+    };
+  }
+}
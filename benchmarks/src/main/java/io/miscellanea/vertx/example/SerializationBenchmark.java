@@ -0,0 +1,98 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversions on the event bus path: rendering a <code>Person</code> as JSON in the
+ * JPA node, reading a create request, and writing and reading an envelope in both the JSON and
+ * binary protocols.
+ *
+ * @author Jason Hallford
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+  // Fields
+  private final PersonEnvelopeCodec codec = new PersonEnvelopeCodec();
+
+  private Person person;
+  private JsonObject createRequest;
+  private PersonEnvelope reply;
+  private Buffer jsonReply;
+  private Buffer binaryReply;
+
+  // Life-cycle
+  @Setup
+  public void setUp() {
+    this.person = BenchmarkDatabase.newPerson(42);
+    this.person.setId(42L);
+
+    this.createRequest =
+        new JsonObject()
+            .put(MessageField.REQUEST_ID, "0b5e8a4e-8c3d-4a57-9d6b-0c1f1d7a9e21")
+            .put(MessageField.PERSON_NAME, "Person 42")
+            .put(MessageField.PERSON_AGE, "42");
+
+    this.reply =
+        new PersonEnvelope()
+            .setRequestId("0b5e8a4e-8c3d-4a57-9d6b-0c1f1d7a9e21")
+            .setStatus("ok")
+            .setEntityId(42L)
+            .setName("Person 42")
+            .setAge(42);
+    this.jsonReply = reply.toJson().toBuffer();
+    this.binaryReply = Buffer.buffer();
+    codec.encodeToWire(binaryReply, reply);
+  }
+
+  // Benchmarks
+  @Benchmark
+  public String convertPersonToJson() {
+    return RepositoryVerticle.convertPersonToJson(person);
+  }
+
+  /** Reading a create request; this replaced the JPA node's former JSON-to-Person conversion. */
+  @Benchmark
+  public PersonEnvelope readCreateRequest() {
+    return PersonEnvelope.fromJson(createRequest);
+  }
+
+  @Benchmark
+  public Buffer jsonEnvelopeToWire() {
+    return reply.toJson().toBuffer();
+  }
+
+  @Benchmark
+  public PersonEnvelope jsonEnvelopeFromWire() {
+    return PersonEnvelope.fromJson(new JsonObject(jsonReply));
+  }
+
+  @Benchmark
+  public Buffer binaryEnvelopeToWire() {
+    var buffer = Buffer.buffer(64);
+    codec.encodeToWire(buffer, reply);
+    return buffer;
+  }
+
+  @Benchmark
+  public PersonEnvelope binaryEnvelopeFromWire() {
+    return codec.decodeFromWire(0, binaryReply);
+  }
+}
@@ -8,6 +8,85 @@ package io.miscellanea.vertx.example;
 public final class ConfigProp {
   public static final String JPA_VERTICLE_COUNT = "jpa-verticle-count";
   public static final String BIND_PORT = "bind-port";
+  public static final String BUS_CODEC = "bus-codec";
+  public static final String RESPONSE_CACHE_MAX_ENTRIES = "response-cache-max-entries";
+  public static final String RESPONSE_CACHE_TTL_MS = "response-cache-ttl-ms";
+  public static final String RESPONSE_CACHE_SHARED = "response-cache-shared";
+  public static final String LIST_DEFAULT_LIMIT = "list-default-limit";
+  public static final String LIST_MAX_LIMIT = "list-max-limit";
+  public static final String STREAM_PAGE_SIZE = "stream-page-size";
+  public static final String STREAM_ACK_TIMEOUT_MS = "stream-ack-timeout-ms";
+  public static final String GROUP_COMMIT_ENABLED = "group-commit-enabled";
+  public static final String GROUP_COMMIT_WINDOW_MS = "group-commit-window-ms";
+  public static final String GROUP_COMMIT_MAX_BATCH = "group-commit-max-batch";
+  public static final String SECOND_LEVEL_CACHE_ENABLED = "second-level-cache-enabled";
+  public static final String SECOND_LEVEL_CACHE_MAX_ENTRIES = "second-level-cache-max-entries";
+  public static final String QUERY_CACHE_ENABLED = "query-cache-enabled";
+  public static final String CACHE_STATS_INTERVAL_MS = "cache-stats-interval-ms";
+  public static final String METRICS_PORT = "metrics-port";
+  public static final String BUS_TIMEOUT_MS = "bus-timeout-ms";
+  public static final String BUS_LIMIT_INITIAL = "bus-limit-initial";
+  public static final String BUS_LIMIT_MIN = "bus-limit-min";
+  public static final String BUS_LIMIT_MAX = "bus-limit-max";
+  public static final String BUS_LATENCY_TOLERANCE = "bus-latency-tolerance";
+  public static final String BUS_LIMITS = "bus-limits";
+  public static final String JPA_EXECUTOR_SIZE = "jpa-executor-size";
+  public static final String JPA_VIRTUAL_THREADS = "jpa-virtual-threads";
+  public static final String JPA_DISPATCH = "jpa-dispatch";
+  public static final String JPA_EXECUTOR_STATS_INTERVAL_MS = "jpa-executor-stats-interval-ms";
+  public static final String REPOSITORY_BACKEND = "repository-backend";
+  public static final String REACTIVE_CONNECT = "reactive-connect";
+  public static final String REACTIVE_POOL_SIZE = "reactive-pool-size";
+  public static final String READ_REPLICAS = "read-replicas";
+  public static final String READ_YOUR_WRITES_MS = "read-your-writes-ms";
+  public static final String DATABASE = "database";
+  public static final String ID_BLOCK_SIZE = "id-block-size";
+  public static final String SHARD = "shard";
+  public static final String SHARD_HEARTBEAT_MS = "shard-heartbeat-ms";
+  public static final String SHARD_CREATE_STRATEGY = "shard-create-strategy";
+  public static final String BULK_CHUNK_SIZE = "bulk-chunk-size";
+  public static final String BULK_CHUNKS_IN_FLIGHT = "bulk-chunks-in-flight";
+  public static final String EXPORT_CHUNK_BYTES = "export-chunk-bytes";
+  public static final String EXPORT_MAX_OPEN = "export-max-open";
+  public static final String HTTP_COMPRESSION = "http-compression";
+  public static final String HTTP_COMPRESSION_LEVEL = "http-compression-level";
+  public static final String HTTP_TCP_NO_DELAY = "http-tcp-no-delay";
+  public static final String HTTP_TCP_KEEP_ALIVE = "http-tcp-keep-alive";
+  public static final String HTTP_IDLE_TIMEOUT_SECONDS = "http-idle-timeout-seconds";
+  public static final String API_VERTICLE_COUNT = "api-verticle-count";
+  public static final String BUS_LOCAL_FIRST = "bus-local-first";
+  public static final String CLUSTERED = "clustered";
+  public static final String SCHEMA_MANAGEMENT = "schema-management";
+  public static final String STARTUP_PARALLEL = "startup-parallel";
+  public static final String EXIT_AFTER_STARTUP = "exit-after-startup";
+  public static final String WARM_UP_MAX_MS = "warm-up-max-ms";
+  public static final String WARM_UP_TOLERANCE = "warm-up-tolerance";
+  public static final String LOADGEN_TARGET = "loadgen-target";
+  public static final String LOADGEN_RATE = "loadgen-rate";
+  public static final String LOADGEN_READ_RATIO = "loadgen-read-ratio";
+  public static final String LOADGEN_WARM_UP_SECONDS = "loadgen-warm-up-seconds";
+  public static final String LOADGEN_DURATION_SECONDS = "loadgen-duration-seconds";
+  public static final String LOADGEN_CONNECTIONS = "loadgen-connections";
+  public static final String LOADGEN_REQUEST_TIMEOUT_MS = "loadgen-request-timeout-ms";
+  public static final String LOADGEN_REPORT_INTERVAL_MS = "loadgen-report-interval-ms";
+  public static final String LOADGEN_OUTPUT_DIR = "loadgen-output-dir";
+  public static final String LOADGEN_MAX_ERROR_RATIO = "loadgen-max-error-ratio";
+  public static final String HOP_TIMING = "hop-timing";
+  public static final String HOP_TIMING_HEADER = "hop-timing-header";
+  public static final String HOP_TIMING_LOG_SAMPLE_RATE = "hop-timing-log-sample-rate";
+  public static final String HOP_TIMING_LOG_SLOW_MS = "hop-timing-log-slow-ms";
+  public static final String SINGLE_FLIGHT_MAX_WAITERS = "single-flight-max-waiters";
+  public static final String JPA_AUTOSCALE = "jpa-autoscale";
+  public static final String JPA_AUTOSCALE_MIN = "jpa-autoscale-min";
+  public static final String JPA_AUTOSCALE_MAX = "jpa-autoscale-max";
+  public static final String JPA_AUTOSCALE_INTERVAL_MS = "jpa-autoscale-interval-ms";
+  public static final String JPA_AUTOSCALE_BACKLOG = "jpa-autoscale-backlog";
+  public static final String JPA_AUTOSCALE_IDLE_INTERVALS = "jpa-autoscale-idle-intervals";
+  public static final String CREATE_LOG_ENABLED = "create-log-enabled";
+  public static final String CREATE_LOG_DIR = "create-log-dir";
+  public static final String CREATE_LOG_SEGMENT_BYTES = "create-log-segment-bytes";
+  public static final String CREATE_LOG_APPLY_WAIT_MS = "create-log-apply-wait-ms";
+  public static final String BULK_MAX_RECORD_BYTES = "bulk-max-record-bytes";
 
   private ConfigProp() {}
 }
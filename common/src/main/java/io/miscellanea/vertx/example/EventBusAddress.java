@@ -9,6 +9,29 @@ public final class EventBusAddress {
   public static final String REPOSITORY_PERSON_CREATE = "repo.person.create";
   public static final String REPOSITORY_PERSON_FIND = "repo.person.find";
   public static final String REPOSITORY_PERSON_LIST = "repo.person.list";
+  public static final String REPOSITORY_PERSON_BULK = "repo.person.bulk";
+  public static final String REPOSITORY_PERSON_EXPORT = "repo.person.export";
+  public static final String REPOSITORY_PERSON_SEARCH = "repo.person.search";
+
+  /** Published with a person's id whenever that person is created or changed. */
+  public static final String REPOSITORY_PERSON_CHANGED = "repo.person.changed";
+
+  /** Published with a shard's number when a JPA node starts serving it. */
+  public static final String REPOSITORY_SHARD_STARTED = "repo.shard.started";
+
+  /**
+   * The local map in which repository verticles running with <code>bus-local-first</code> record
+   * the addresses they also serve under a {@link #local(String) local alias}.
+   */
+  public static final String LOCAL_ALIASES = "repo.local-aliases";
 
   private EventBusAddress() {}
+
+  /**
+   * Returns the alias under which an address is also served to senders in the same JVM. Consumers
+   * of an alias are local, so a request sent to one never leaves the JVM.
+   */
+  public static String local(String address) {
+    return address + ".local";
+  }
 }
@@ -0,0 +1,78 @@
+package io.miscellanea.vertx.example;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request/reply metrics for one event bus address: the latency of each round trip, the number of
+ * requests awaiting a reply and the number that failed, e.g. by timing out.
+ *
+ * <pre>
+ *   long started = metrics.begin();
+ *   bus.request(address, body, reply -&gt; {
+ *     metrics.end(started, reply.succeeded());
+ *     ...
+ *   });
+ * </pre>
+ *
+ * @author Jason Hallford
+ */
+public final class EventBusMetrics {
+  // Fields
+  private static final ConcurrentMap<String, EventBusMetrics> BY_ADDRESS =
+      new ConcurrentHashMap<>();
+
+  private final LatencyTimer latency;
+  private final LongAdder pending = new LongAdder();
+  private final LongAdder failures;
+
+  // Constructors
+  private EventBusMetrics(String address) {
+    var labels = Metrics.labels("address", address);
+    this.latency =
+        Metrics.INSTANCE.timer(
+            "eventbus_request_seconds", "Event bus request/reply round-trip time.", labels);
+    this.failures =
+        Metrics.INSTANCE.counter(
+            "eventbus_request_failures_total", "Event bus requests that got no reply.", labels);
+    Metrics.INSTANCE.gauge(
+        "eventbus_pending_requests", "Event bus requests awaiting a reply.", labels, pending::sum);
+  }
+
+  // Factory methods
+  /**
+   * Returns the metrics for an address.
+   *
+   * @param address One of the {@link EventBusAddress} constants.
+   * @return The address's metrics.
+   */
+  public static EventBusMetrics forAddress(String address) {
+    return BY_ADDRESS.computeIfAbsent(address, EventBusMetrics::new);
+  }
+
+  // Public methods
+  /**
+   * Counts a request as pending.
+   *
+   * @return The start time to pass to {@link #end(long, boolean)}.
+   */
+  public long begin() {
+    pending.increment();
+    return System.nanoTime();
+  }
+
+  /**
+   * Records the outcome of a request started with {@link #begin()}.
+   *
+   * @param started The value returned by {@link #begin()}.
+   * @param succeeded Whether a reply arrived.
+   */
+  public void end(long started, boolean succeeded) {
+    pending.decrement();
+    latency.recordSince(started);
+    if (!succeeded) {
+      failures.increment();
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Locale;
+
+/**
+ * The formats in which people can be exported. JPA nodes render rows in the requested format as
+ * they read them, so API nodes relay an export's chunks to the client without parsing them.
+ *
+ * @author Jason Hallford
+ */
+public enum ExportFormat {
+  /** One JSON object per line. */
+  NDJSON("application/x-ndjson", ""),
+
+  /** Comma-separated values under an <code>id,name,age</code> header. */
+  CSV("text/csv", "id,name,age\n");
+
+  // Fields
+  private final String contentType;
+  private final String header;
+
+  // Constructors
+  ExportFormat(String contentType, String header) {
+    this.contentType = contentType;
+    this.header = header;
+  }
+
+  // Public methods
+  /**
+   * Looks a format up by name, ignoring case.
+   *
+   * @param name The format's name, or <code>null</code> for the default, NDJSON.
+   * @return The format.
+   * @throws IllegalArgumentException If there is no such format.
+   */
+  public static ExportFormat of(String name) {
+    return name == null ? NDJSON : valueOf(name.toUpperCase(Locale.ROOT));
+  }
+
+  /** Returns the HTTP content type of an export in this format. */
+  public String contentType() {
+    return contentType;
+  }
+
+  /** Returns the text that precedes the first row, which may be empty. */
+  public String header() {
+    return header;
+  }
+
+  /** Appends one person, terminated by a newline. */
+  public void append(StringBuilder rows, long id, String name, int age) {
+    if (this == NDJSON) {
+      rows.append(
+          new JsonObject()
+              .put(MessageField.PERSON_ID, id)
+              .put(MessageField.PERSON_NAME, name)
+              .put(MessageField.PERSON_AGE, age)
+              .encode());
+    } else {
+      rows.append(id).append(',');
+      appendCsvField(rows, name);
+      rows.append(',').append(age);
+    }
+    rows.append('\n');
+  }
+
+  // Utility methods
+  /** Quotes a field if it holds a separator, quote or line break, doubling any quotes. */
+  private static void appendCsvField(StringBuilder rows, String value) {
+    if (value == null) {
+      return;
+    }
+
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+
+    if (!quote) {
+      rows.append(value);
+      return;
+    }
+    rows.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"') {
+        rows.append('"');
+      }
+      rows.append(c);
+    }
+    rows.append('"');
+  }
+}
@@ -0,0 +1,81 @@
+package io.miscellanea.vertx.example;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram that is cheap enough to update on every request. Recording writes into an
+ * HdrHistogram <code>Recorder</code>, which neither locks nor allocates; the percentiles reported
+ * at each scrape cover the interval since the previous scrape, while the count and sum are
+ * cumulative.
+ *
+ * <p>Obtain instances from {@link Metrics#timer(String, String, String)} once, e.g. when a
+ * verticle starts, and keep them in a field.
+ *
+ * @author Jason Hallford
+ */
+public final class LatencyTimer {
+  // Fields
+  private static final long LOWEST_DISCERNIBLE_NANOS = 1_000;
+  private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private final Recorder recorder =
+      new Recorder(LOWEST_DISCERNIBLE_NANOS, HIGHEST_TRACKABLE_NANOS, 2);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumNanos = new LongAdder();
+  private Histogram interval;
+
+  // Constructors
+  LatencyTimer() {}
+
+  // Public methods
+  /**
+   * Records one observation. Values beyond ten minutes are recorded as ten minutes.
+   *
+   * @param nanos The observed latency in nanoseconds.
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, Math.min(nanos, HIGHEST_TRACKABLE_NANOS));
+    recorder.recordValue(value);
+    count.increment();
+    sumNanos.add(value);
+  }
+
+  /**
+   * Records the time elapsed since <code>startNanos</code>.
+   *
+   * @param startNanos A value previously read from <code>System.nanoTime()</code>.
+   */
+  public void recordSince(long startNanos) {
+    this.record(System.nanoTime() - startNanos);
+  }
+
+  // Package methods
+  synchronized void writeTo(StringBuilder out, String name, String labels) {
+    this.interval = recorder.getIntervalHistogram(interval);
+
+    String prefix = labels.isEmpty() ? "" : labels + ",";
+    for (double quantile : QUANTILES) {
+      double seconds =
+          interval.getTotalCount() == 0
+              ? Double.NaN
+              : interval.getValueAtPercentile(quantile * 100) / 1e9;
+      out.append(name)
+          .append("{")
+          .append(prefix)
+          .append("quantile=\"")
+          .append(quantile)
+          .append("\"} ")
+          .append(seconds)
+          .append('\n');
+    }
+
+    String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+    out.append(name).append("_count").append(suffix).append(count.sum()).append('\n');
+    out.append(name).append("_sum").append(suffix).append(sumNanos.sum() / 1e9).append('\n');
+  }
+}
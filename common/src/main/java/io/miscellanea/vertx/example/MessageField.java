@@ -12,6 +12,26 @@ public final class MessageField {
   public static final String STATUS = "status";
   public static final String MESSAGE = "message";
   public static final String ERROR = "error";
+  public static final String AFTER = "after";
+  public static final String LIMIT = "limit";
+  public static final String NEXT_AFTER = "next-after";
+  public static final String STREAM = "stream";
+  public static final String LAST = "last";
+  public static final String PEOPLE = "people";
+  public static final String IDS = "ids";
+  public static final String FORMAT = "format";
+  public static final String NAME_PREFIX = "name-prefix";
+  public static final String MIN_AGE = "min-age";
+  public static final String MAX_AGE = "max-age";
+  public static final String ENTITY_VERSION = "entity-version";
+  public static final String NOT_MODIFIED = "not-modified";
+  public static final String PERSON_ID = "id";
+  public static final String PERSON_NAME = "name";
+  public static final String PERSON_AGE = "age";
+  public static final String SENT_AT = "sent-at";
+  public static final String DEADLINE = "deadline";
+  public static final String READ_PRIMARY = "read-primary";
+  public static final String HOP_TIMING = "hop-timing";
 
   private MessageField() {}
 }
@@ -0,0 +1,169 @@
+package io.miscellanea.vertx.example;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The node's metric registry, rendered in the Prometheus text exposition format by {@link
+ * #scrape()}. It holds three kinds of metric: {@link LatencyTimer}s, reported as summaries;
+ * counters, which are plain <code>LongAdder</code>s; and gauges, which are read from a supplier at
+ * scrape time. Like <code>PersistenceManager</code>, it's an enum so there is exactly one per JVM.
+ *
+ * <p>Metrics are identified by name and a pre-rendered label string (see {@link
+ * #labels(String...)}). Looking one up allocates, so callers look their metrics up once and keep
+ * them; updating a metric does not allocate.
+ *
+ * @author Jason Hallford
+ */
+public enum Metrics {
+  INSTANCE;
+
+  // Fields
+  private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+  // Constructors
+  Metrics() {
+    // Lets backends that block on the database be compared with ones that don't.
+    var threads = ManagementFactory.getThreadMXBean();
+    this.gauge("jvm_threads_live", "Live threads in the JVM.", "", threads::getThreadCount);
+  }
+
+  // Public methods
+  /**
+   * Returns the latency timer with the given name and labels, creating it if necessary.
+   *
+   * @param name The metric name, which should end in <code>_seconds</code>.
+   * @param help A one-line description.
+   * @param labels The labels, as returned by {@link #labels(String...)}.
+   * @return The timer.
+   */
+  public LatencyTimer timer(String name, String help, String labels) {
+    return (LatencyTimer)
+        this.family(name, help, "summary").metrics.computeIfAbsent(labels, l -> new LatencyTimer());
+  }
+
+  /**
+   * Returns the counter with the given name and labels, creating it if necessary.
+   *
+   * @param name The metric name, which should end in <code>_total</code>.
+   * @param help A one-line description.
+   * @param labels The labels, as returned by {@link #labels(String...)}.
+   * @return The counter.
+   */
+  public LongAdder counter(String name, String help, String labels) {
+    return (LongAdder)
+        this.family(name, help, "counter").metrics.computeIfAbsent(labels, l -> new LongAdder());
+  }
+
+  /**
+   * Registers a gauge, replacing any previously registered with the same name and labels.
+   *
+   * @param name The metric name.
+   * @param help A one-line description.
+   * @param labels The labels, as returned by {@link #labels(String...)}.
+   * @param value Supplies the gauge's value when the registry is scraped.
+   */
+  public void gauge(String name, String help, String labels, LongSupplier value) {
+    this.family(name, help, "gauge").metrics.put(labels, value);
+  }
+
+  /**
+   * Renders every metric in the Prometheus text format.
+   *
+   * @return The exposition text.
+   */
+  public String scrape() {
+    var out = new StringBuilder(4096);
+    for (var family : new TreeMap<>(families).values()) {
+      out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+      out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+
+      for (Map.Entry<String, Object> entry : new TreeMap<>(family.metrics).entrySet()) {
+        var metric = entry.getValue();
+        if (metric instanceof LatencyTimer) {
+          ((LatencyTimer) metric).writeTo(out, family.name, entry.getKey());
+          continue;
+        }
+
+        long value =
+            metric instanceof LongAdder
+                ? ((LongAdder) metric).sum()
+                : ((LongSupplier) metric).getAsLong();
+        out.append(family.name);
+        if (!entry.getKey().isEmpty()) {
+          out.append('{').append(entry.getKey()).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+      }
+    }
+    return out.toString();
+  }
+
+  /**
+   * Renders label names and values, e.g. <code>labels("address", "repo.person.find")</code>.
+   *
+   * @param namesAndValues Alternating label names and values.
+   * @return The label string, without braces.
+   */
+  public static String labels(String... namesAndValues) {
+    var out = new StringBuilder();
+    for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+      if (out.length() > 0) {
+        out.append(',');
+      }
+      out.append(namesAndValues[i]).append("=\"");
+      for (char c : namesAndValues[i + 1].toCharArray()) {
+        if (c == '\\' || c == '"') {
+          out.append('\\').append(c);
+        } else if (c == '\n') {
+          out.append("\\n");
+        } else {
+          out.append(c);
+        }
+      }
+      out.append('"');
+    }
+    return out.toString();
+  }
+
+  /**
+   * The wall-clock time in microseconds since the epoch. Unlike <code>System.nanoTime()</code>
+   * this can be compared between nodes, to the accuracy of their clock synchronization.
+   *
+   * @return The current time.
+   */
+  public static long epochMicros() {
+    var now = Instant.now();
+    return now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+  }
+
+  // Utility methods
+  private Family family(String name, String help, String type) {
+    var family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(
+          "Metric " + name + " is already registered as a " + family.type + ".");
+    }
+    return family;
+  }
+
+  /** The metrics sharing a name, keyed by their labels. */
+  private static final class Family {
+    private final String name;
+    private final String help;
+    private final String type;
+    private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+    private Family(String name, String help, String type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+  }
+}
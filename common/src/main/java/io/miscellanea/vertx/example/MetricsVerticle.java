@@ -0,0 +1,69 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves {@link Metrics#scrape()} at <code>GET /metrics</code> on its own port, for nodes that
+ * don't otherwise run an HTTP server. The same port serves health checks: <code>/health/live
+ * </code> answers 200 whenever the node's event loops are responsive, and <code>/health/ready
+ * </code> answers 200 once {@link Readiness} reports the node ready and 503 until then.
+ *
+ * @author Jason Hallford
+ */
+public class MetricsVerticle extends AbstractVerticle {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(MetricsVerticle.class);
+
+  /** The Prometheus text exposition format. */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  // Constructors
+  public MetricsVerticle() {}
+
+  // Vert.x life-cycle management
+  @Override
+  public void start(Promise<Void> startPromise) {
+    int port = config().getInteger(ConfigProp.METRICS_PORT, 9090);
+
+    vertx
+        .createHttpServer()
+        .requestHandler(
+            request -> {
+              if ("/metrics".equals(request.path())) {
+                request
+                    .response()
+                    .putHeader("content-type", CONTENT_TYPE)
+                    .end(Metrics.INSTANCE.scrape());
+              } else if ("/health/live".equals(request.path())) {
+                request
+                    .response()
+                    .putHeader("content-type", "application/json")
+                    .end(new JsonObject().put("status", "up").encode());
+              } else if ("/health/ready".equals(request.path())) {
+                var readiness = Readiness.INSTANCE;
+                request
+                    .response()
+                    .setStatusCode(readiness.isReady() ? 200 : 503)
+                    .putHeader("content-type", "application/json")
+                    .end(readiness.toJson().encode());
+              } else {
+                request.response().setStatusCode(404).end();
+              }
+            })
+        .listen(
+            port,
+            result -> {
+              if (result.succeeded()) {
+                LOGGER.info("Metrics available at http://localhost:{}/metrics.", port);
+                startPromise.complete();
+              } else {
+                LOGGER.error("Unable to start metrics server.", result.cause());
+                startPromise.fail(result.cause());
+              }
+            });
+  }
+}
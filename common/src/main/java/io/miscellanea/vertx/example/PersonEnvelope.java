@@ -0,0 +1,418 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The request and reply envelope exchanged on the <code>repo.person.*</code> addresses. On the wire
+ * it is written by {@link PersonEnvelopeCodec}; for clusters that still contain nodes speaking the
+ * original protocol it can be converted to and from the equivalent <code>JsonObject</code>.
+ *
+ * <p>Envelopes are handed to local consumers by reference, so they must not be modified once sent.
+ *
+ * @author Jason Hallford
+ */
+public final class PersonEnvelope {
+  // Fields
+  private String requestId;
+  private String status;
+  private Long entityId;
+  private String name;
+  private Integer age;
+  private String error;
+  private String result;
+  private Long after;
+  private Integer limit;
+  private Long nextAfter;
+  private boolean stream;
+  private boolean last;
+  private List<PersonEnvelope> people;
+  private List<Long> ids;
+  private String format;
+  private String namePrefix;
+  private Integer minAge;
+  private Integer maxAge;
+  private Long entityVersion;
+  private boolean notModified;
+
+  // Constructors
+  public PersonEnvelope() {}
+
+  // Factory methods
+  /**
+   * Creates an envelope for a reply, carrying over the request's correlation id.
+   *
+   * @param request The request being answered.
+   * @return The reply envelope.
+   */
+  public static PersonEnvelope replyTo(PersonEnvelope request) {
+    return new PersonEnvelope().setRequestId(request.getRequestId());
+  }
+
+  /**
+   * Converts a message body, in either protocol, to an envelope.
+   *
+   * @param body A <code>PersonEnvelope</code> or <code>JsonObject</code>.
+   * @return The envelope.
+   * @throws IllegalArgumentException If the body is neither or holds malformed fields.
+   */
+  public static PersonEnvelope from(Object body) {
+    if (body instanceof PersonEnvelope) {
+      return (PersonEnvelope) body;
+    } else if (body instanceof JsonObject) {
+      return fromJson((JsonObject) body);
+    }
+    throw new IllegalArgumentException("Unsupported message body: " + body);
+  }
+
+  /**
+   * Reads an envelope from the JSON protocol. A create request is the person's JSON with the
+   * request id added, so the person's fields are read from the top level of the object.
+   *
+   * @param json The JSON envelope.
+   * @return The envelope.
+   * @throws IllegalArgumentException If a field holds a value of the wrong type.
+   */
+  public static PersonEnvelope fromJson(JsonObject json) {
+    try {
+      var envelope = new PersonEnvelope();
+      envelope.requestId = json.getString(MessageField.REQUEST_ID);
+      envelope.status = json.getString(MessageField.STATUS);
+      envelope.entityId = toLong(json.getValue(MessageField.ENTITY_ID));
+      envelope.name = json.getString(MessageField.PERSON_NAME);
+      envelope.age = toInteger(json.getValue(MessageField.PERSON_AGE));
+      envelope.error = json.getString(MessageField.ERROR);
+      envelope.result = json.getString(MessageField.RESULT);
+      envelope.after = toLong(json.getValue(MessageField.AFTER));
+      envelope.limit = toInteger(json.getValue(MessageField.LIMIT));
+      envelope.nextAfter = toLong(json.getValue(MessageField.NEXT_AFTER));
+      envelope.stream = json.getBoolean(MessageField.STREAM, false);
+      envelope.last = json.getBoolean(MessageField.LAST, false);
+
+      var people = json.getJsonArray(MessageField.PEOPLE);
+      if (people != null) {
+        envelope.people = new ArrayList<>(people.size());
+        for (int i = 0; i < people.size(); i++) {
+          envelope.people.add(fromJson(people.getJsonObject(i)));
+        }
+      }
+
+      var ids = json.getJsonArray(MessageField.IDS);
+      if (ids != null) {
+        envelope.ids = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+          envelope.ids.add(toLong(ids.getValue(i)));
+        }
+      }
+      envelope.format = json.getString(MessageField.FORMAT);
+      envelope.namePrefix = json.getString(MessageField.NAME_PREFIX);
+      envelope.minAge = toInteger(json.getValue(MessageField.MIN_AGE));
+      envelope.maxAge = toInteger(json.getValue(MessageField.MAX_AGE));
+      envelope.entityVersion = toLong(json.getValue(MessageField.ENTITY_VERSION));
+      envelope.notModified = json.getBoolean(MessageField.NOT_MODIFIED, false);
+      return envelope;
+    } catch (ClassCastException | NumberFormatException e) {
+      throw new IllegalArgumentException("Malformed JSON envelope: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Writes this envelope in the JSON protocol. The entity id is written as a string, which is what
+   * nodes running the original protocol expect.
+   *
+   * @return The JSON envelope.
+   */
+  public JsonObject toJson() {
+    var json = new JsonObject();
+    putIfPresent(json, MessageField.REQUEST_ID, requestId);
+    putIfPresent(json, MessageField.STATUS, status);
+    putIfPresent(json, MessageField.ENTITY_ID, entityId == null ? null : entityId.toString());
+    putIfPresent(json, MessageField.PERSON_NAME, name);
+    putIfPresent(json, MessageField.PERSON_AGE, age);
+    putIfPresent(json, MessageField.ERROR, error);
+    putIfPresent(json, MessageField.RESULT, result);
+    putIfPresent(json, MessageField.AFTER, after);
+    putIfPresent(json, MessageField.LIMIT, limit);
+    putIfPresent(json, MessageField.NEXT_AFTER, nextAfter);
+    if (stream) {
+      json.put(MessageField.STREAM, true);
+    }
+    if (last) {
+      json.put(MessageField.LAST, true);
+    }
+    if (people != null) {
+      var array = new JsonArray();
+      people.forEach(person -> array.add(person.toJson()));
+      json.put(MessageField.PEOPLE, array);
+    }
+    if (ids != null) {
+      json.put(MessageField.IDS, new JsonArray(new ArrayList<Object>(ids)));
+    }
+    putIfPresent(json, MessageField.FORMAT, format);
+    putIfPresent(json, MessageField.NAME_PREFIX, namePrefix);
+    putIfPresent(json, MessageField.MIN_AGE, minAge);
+    putIfPresent(json, MessageField.MAX_AGE, maxAge);
+    putIfPresent(json, MessageField.ENTITY_VERSION, entityVersion);
+    if (notModified) {
+      json.put(MessageField.NOT_MODIFIED, true);
+    }
+    return json;
+  }
+
+  /**
+   * Renders the person carried by this envelope as the JSON document returned to API clients.
+   *
+   * @return The person's JSON, or <code>null</code> if the envelope carries no person.
+   */
+  public String toPersonJson() {
+    if (entityId == null) {
+      return null;
+    }
+    return new JsonObject()
+        .put(MessageField.PERSON_ID, entityId)
+        .put(MessageField.PERSON_NAME, name)
+        .put(MessageField.PERSON_AGE, age)
+        .encode();
+  }
+
+  /**
+   * Tests whether this is a successful reply.
+   *
+   * @return <code>true</code> if the status is "ok".
+   */
+  public boolean isOk() {
+    return "ok".equals(status);
+  }
+
+  // Properties
+  public String getRequestId() {
+    return requestId;
+  }
+
+  public PersonEnvelope setRequestId(String requestId) {
+    this.requestId = requestId;
+    return this;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  public PersonEnvelope setStatus(String status) {
+    this.status = status;
+    return this;
+  }
+
+  public Long getEntityId() {
+    return entityId;
+  }
+
+  public PersonEnvelope setEntityId(Long entityId) {
+    this.entityId = entityId;
+    return this;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public PersonEnvelope setName(String name) {
+    this.name = name;
+    return this;
+  }
+
+  public Integer getAge() {
+    return age;
+  }
+
+  public PersonEnvelope setAge(Integer age) {
+    this.age = age;
+    return this;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public PersonEnvelope setError(String error) {
+    this.error = error;
+    return this;
+  }
+
+  public String getResult() {
+    return result;
+  }
+
+  public PersonEnvelope setResult(String result) {
+    this.result = result;
+    return this;
+  }
+
+  public Long getAfter() {
+    return after;
+  }
+
+  public PersonEnvelope setAfter(Long after) {
+    this.after = after;
+    return this;
+  }
+
+  public Integer getLimit() {
+    return limit;
+  }
+
+  public PersonEnvelope setLimit(Integer limit) {
+    this.limit = limit;
+    return this;
+  }
+
+  public Long getNextAfter() {
+    return nextAfter;
+  }
+
+  public PersonEnvelope setNextAfter(Long nextAfter) {
+    this.nextAfter = nextAfter;
+    return this;
+  }
+
+  public boolean isStream() {
+    return stream;
+  }
+
+  public PersonEnvelope setStream(boolean stream) {
+    this.stream = stream;
+    return this;
+  }
+
+  public boolean isLast() {
+    return last;
+  }
+
+  public PersonEnvelope setLast(boolean last) {
+    this.last = last;
+    return this;
+  }
+
+  /** The people in a bulk create request; each carries a name and age. */
+  public List<PersonEnvelope> getPeople() {
+    return people;
+  }
+
+  public PersonEnvelope setPeople(List<PersonEnvelope> people) {
+    this.people = people;
+    return this;
+  }
+
+  /** The ids given to the people in a bulk create request, in the same order. */
+  public List<Long> getIds() {
+    return ids;
+  }
+
+  public PersonEnvelope setIds(List<Long> ids) {
+    this.ids = ids;
+    return this;
+  }
+
+  /** The {@link ExportFormat} an export request wants its rows rendered in. */
+  public String getFormat() {
+    return format;
+  }
+
+  public PersonEnvelope setFormat(String format) {
+    this.format = format;
+    return this;
+  }
+
+  /** Restricts a listing to people whose name starts with this, case-sensitively. */
+  public String getNamePrefix() {
+    return namePrefix;
+  }
+
+  public PersonEnvelope setNamePrefix(String namePrefix) {
+    this.namePrefix = namePrefix;
+    return this;
+  }
+
+  /** Restricts a listing to people at least this old. */
+  public Integer getMinAge() {
+    return minAge;
+  }
+
+  public PersonEnvelope setMinAge(Integer minAge) {
+    this.minAge = minAge;
+    return this;
+  }
+
+  /** Restricts a listing to people at most this old. */
+  public Integer getMaxAge() {
+    return maxAge;
+  }
+
+  public PersonEnvelope setMaxAge(Integer maxAge) {
+    this.maxAge = maxAge;
+    return this;
+  }
+
+  /**
+   * The person's version. In a find request it is the version the client already has, if any; in
+   * the reply it is the version found.
+   */
+  public Long getEntityVersion() {
+    return entityVersion;
+  }
+
+  public PersonEnvelope setEntityVersion(Long entityVersion) {
+    this.entityVersion = entityVersion;
+    return this;
+  }
+
+  /**
+   * Whether a find reply only confirms that the person is still at the version in the request, in
+   * which case it carries no name or age.
+   */
+  public boolean isNotModified() {
+    return notModified;
+  }
+
+  public PersonEnvelope setNotModified(boolean notModified) {
+    this.notModified = notModified;
+    return this;
+  }
+
+  /**
+   * Tests whether this listing request is a search, restricted by name prefix or age.
+   *
+   * @return <code>true</code> if any search criterion is present.
+   */
+  public boolean isSearch() {
+    return namePrefix != null || minAge != null || maxAge != null;
+  }
+
+  // Utility methods
+  private static void putIfPresent(JsonObject json, String key, Object value) {
+    if (value != null) {
+      json.put(key, value);
+    }
+  }
+
+  private static Long toLong(Object value) {
+    if (value == null) {
+      return null;
+    } else if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    return Long.parseLong(value.toString());
+  }
+
+  private static Integer toInteger(Object value) {
+    if (value == null) {
+      return null;
+    } else if (value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    return Integer.parseInt(value.toString());
+  }
+}
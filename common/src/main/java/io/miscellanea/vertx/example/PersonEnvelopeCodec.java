@@ -0,0 +1,272 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * A compact binary codec for {@link PersonEnvelope}. The wire format is a version byte followed by
+ * a bit mask naming the fields that are present, then each present field in declaration order.
+ * Strings are written as a length-prefixed UTF-8 byte sequence. The people in a bulk request are
+ * written as a count followed by each person's name and age, and the ids in its reply as a count
+ * followed by the ids.
+ *
+ * <p>Local deliveries are passed by reference rather than copied.
+ *
+ * @author Jason Hallford
+ */
+public class PersonEnvelopeCodec implements MessageCodec<PersonEnvelope, PersonEnvelope> {
+  // Fields
+  public static final String NAME = "person-envelope";
+
+  private static final byte VERSION = 1;
+
+  private static final int REQUEST_ID = 1;
+  private static final int STATUS = 1 << 1;
+  private static final int ENTITY_ID = 1 << 2;
+  private static final int NAME_FIELD = 1 << 3;
+  private static final int AGE = 1 << 4;
+  private static final int ERROR = 1 << 5;
+  private static final int RESULT = 1 << 6;
+  private static final int AFTER = 1 << 7;
+  private static final int LIMIT = 1 << 8;
+  private static final int NEXT_AFTER = 1 << 9;
+  private static final int STREAM = 1 << 10;
+  private static final int LAST = 1 << 11;
+  private static final int PEOPLE = 1 << 12;
+  private static final int IDS = 1 << 13;
+  private static final int FORMAT = 1 << 14;
+  private static final int NAME_PREFIX = 1 << 15;
+  private static final int MIN_AGE = 1 << 16;
+  private static final int MAX_AGE = 1 << 17;
+  private static final int ENTITY_VERSION = 1 << 18;
+  private static final int NOT_MODIFIED = 1 << 19;
+
+  // Presence flags for a bulk request's people
+  private static final byte PERSON_NAME = 1;
+  private static final byte PERSON_AGE = 1 << 1;
+
+  // Constructors
+  public PersonEnvelopeCodec() {}
+
+  // MessageCodec implementation
+  @Override
+  public void encodeToWire(Buffer buffer, PersonEnvelope envelope) {
+    int mask = 0;
+    mask |= envelope.getRequestId() != null ? REQUEST_ID : 0;
+    mask |= envelope.getStatus() != null ? STATUS : 0;
+    mask |= envelope.getEntityId() != null ? ENTITY_ID : 0;
+    mask |= envelope.getName() != null ? NAME_FIELD : 0;
+    mask |= envelope.getAge() != null ? AGE : 0;
+    mask |= envelope.getError() != null ? ERROR : 0;
+    mask |= envelope.getResult() != null ? RESULT : 0;
+    mask |= envelope.getAfter() != null ? AFTER : 0;
+    mask |= envelope.getLimit() != null ? LIMIT : 0;
+    mask |= envelope.getNextAfter() != null ? NEXT_AFTER : 0;
+    mask |= envelope.isStream() ? STREAM : 0;
+    mask |= envelope.isLast() ? LAST : 0;
+    mask |= envelope.getPeople() != null ? PEOPLE : 0;
+    mask |= envelope.getIds() != null ? IDS : 0;
+    mask |= envelope.getFormat() != null ? FORMAT : 0;
+    mask |= envelope.getNamePrefix() != null ? NAME_PREFIX : 0;
+    mask |= envelope.getMinAge() != null ? MIN_AGE : 0;
+    mask |= envelope.getMaxAge() != null ? MAX_AGE : 0;
+    mask |= envelope.getEntityVersion() != null ? ENTITY_VERSION : 0;
+    mask |= envelope.isNotModified() ? NOT_MODIFIED : 0;
+
+    buffer.appendByte(VERSION).appendInt(mask);
+
+    if ((mask & REQUEST_ID) != 0) {
+      appendString(buffer, envelope.getRequestId());
+    }
+    if ((mask & STATUS) != 0) {
+      appendString(buffer, envelope.getStatus());
+    }
+    if ((mask & ENTITY_ID) != 0) {
+      buffer.appendLong(envelope.getEntityId());
+    }
+    if ((mask & NAME_FIELD) != 0) {
+      appendString(buffer, envelope.getName());
+    }
+    if ((mask & AGE) != 0) {
+      buffer.appendInt(envelope.getAge());
+    }
+    if ((mask & ERROR) != 0) {
+      appendString(buffer, envelope.getError());
+    }
+    if ((mask & RESULT) != 0) {
+      appendString(buffer, envelope.getResult());
+    }
+    if ((mask & AFTER) != 0) {
+      buffer.appendLong(envelope.getAfter());
+    }
+    if ((mask & LIMIT) != 0) {
+      buffer.appendInt(envelope.getLimit());
+    }
+    if ((mask & NEXT_AFTER) != 0) {
+      buffer.appendLong(envelope.getNextAfter());
+    }
+    if ((mask & PEOPLE) != 0) {
+      buffer.appendInt(envelope.getPeople().size());
+      for (var person : envelope.getPeople()) {
+        byte flags = 0;
+        flags |= person.getName() != null ? PERSON_NAME : 0;
+        flags |= person.getAge() != null ? PERSON_AGE : 0;
+        buffer.appendByte(flags);
+        if (person.getName() != null) {
+          appendString(buffer, person.getName());
+        }
+        if (person.getAge() != null) {
+          buffer.appendInt(person.getAge());
+        }
+      }
+    }
+    if ((mask & IDS) != 0) {
+      buffer.appendInt(envelope.getIds().size());
+      envelope.getIds().forEach(buffer::appendLong);
+    }
+    if ((mask & FORMAT) != 0) {
+      appendString(buffer, envelope.getFormat());
+    }
+    if ((mask & NAME_PREFIX) != 0) {
+      appendString(buffer, envelope.getNamePrefix());
+    }
+    if ((mask & MIN_AGE) != 0) {
+      buffer.appendInt(envelope.getMinAge());
+    }
+    if ((mask & MAX_AGE) != 0) {
+      buffer.appendInt(envelope.getMaxAge());
+    }
+    if ((mask & ENTITY_VERSION) != 0) {
+      buffer.appendLong(envelope.getEntityVersion());
+    }
+  }
+
+  @Override
+  public PersonEnvelope decodeFromWire(int pos, Buffer buffer) {
+    byte version = buffer.getByte(pos);
+    if (version != VERSION) {
+      throw new IllegalStateException("Unsupported person envelope version " + version + ".");
+    }
+    int mask = buffer.getInt(pos + 1);
+    var cursor = new int[] {pos + 5};
+
+    var envelope = new PersonEnvelope();
+    if ((mask & REQUEST_ID) != 0) {
+      envelope.setRequestId(readString(buffer, cursor));
+    }
+    if ((mask & STATUS) != 0) {
+      envelope.setStatus(readString(buffer, cursor));
+    }
+    if ((mask & ENTITY_ID) != 0) {
+      envelope.setEntityId(readLong(buffer, cursor));
+    }
+    if ((mask & NAME_FIELD) != 0) {
+      envelope.setName(readString(buffer, cursor));
+    }
+    if ((mask & AGE) != 0) {
+      envelope.setAge(readInt(buffer, cursor));
+    }
+    if ((mask & ERROR) != 0) {
+      envelope.setError(readString(buffer, cursor));
+    }
+    if ((mask & RESULT) != 0) {
+      envelope.setResult(readString(buffer, cursor));
+    }
+    if ((mask & AFTER) != 0) {
+      envelope.setAfter(readLong(buffer, cursor));
+    }
+    if ((mask & LIMIT) != 0) {
+      envelope.setLimit(readInt(buffer, cursor));
+    }
+    if ((mask & NEXT_AFTER) != 0) {
+      envelope.setNextAfter(readLong(buffer, cursor));
+    }
+    envelope.setStream((mask & STREAM) != 0);
+    envelope.setLast((mask & LAST) != 0);
+    if ((mask & PEOPLE) != 0) {
+      int count = readInt(buffer, cursor);
+      var people = new ArrayList<PersonEnvelope>(count);
+      for (int i = 0; i < count; i++) {
+        byte flags = buffer.getByte(cursor[0]++);
+        var person = new PersonEnvelope();
+        if ((flags & PERSON_NAME) != 0) {
+          person.setName(readString(buffer, cursor));
+        }
+        if ((flags & PERSON_AGE) != 0) {
+          person.setAge(readInt(buffer, cursor));
+        }
+        people.add(person);
+      }
+      envelope.setPeople(people);
+    }
+    if ((mask & IDS) != 0) {
+      int count = readInt(buffer, cursor);
+      var ids = new ArrayList<Long>(count);
+      for (int i = 0; i < count; i++) {
+        ids.add(readLong(buffer, cursor));
+      }
+      envelope.setIds(ids);
+    }
+    if ((mask & FORMAT) != 0) {
+      envelope.setFormat(readString(buffer, cursor));
+    }
+    if ((mask & NAME_PREFIX) != 0) {
+      envelope.setNamePrefix(readString(buffer, cursor));
+    }
+    if ((mask & MIN_AGE) != 0) {
+      envelope.setMinAge(readInt(buffer, cursor));
+    }
+    if ((mask & MAX_AGE) != 0) {
+      envelope.setMaxAge(readInt(buffer, cursor));
+    }
+    if ((mask & ENTITY_VERSION) != 0) {
+      envelope.setEntityVersion(readLong(buffer, cursor));
+    }
+    envelope.setNotModified((mask & NOT_MODIFIED) != 0);
+
+    return envelope;
+  }
+
+  @Override
+  public PersonEnvelope transform(PersonEnvelope envelope) {
+    return envelope;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public byte systemCodecID() {
+    return -1;
+  }
+
+  // Utility methods
+  private static void appendString(Buffer buffer, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    buffer.appendInt(bytes.length).appendBytes(bytes);
+  }
+
+  private static String readString(Buffer buffer, int[] cursor) {
+    int length = buffer.getInt(cursor[0]);
+    int start = cursor[0] + 4;
+    cursor[0] = start + length;
+    return buffer.getString(start, start + length, StandardCharsets.UTF_8.name());
+  }
+
+  private static long readLong(Buffer buffer, int[] cursor) {
+    long value = buffer.getLong(cursor[0]);
+    cursor[0] += 8;
+    return value;
+  }
+
+  private static int readInt(Buffer buffer, int[] cursor) {
+    int value = buffer.getInt(cursor[0]);
+    cursor[0] += 4;
+    return value;
+  }
+}
@@ -0,0 +1,139 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A singleton tracking whether this node is ready to take its share of the cluster's requests.
+ * Verticles defer whatever would draw traffic to the node, such as registering their cluster-wide
+ * consumers, with {@link #whenReady(Handler)}; the deployer calls {@link #ready(Handler)} once the
+ * node is warmed up. <code>/health/ready</code> reports the state (see {@link MetricsVerticle}).
+ *
+ * @author Jason Hallford
+ */
+public enum Readiness {
+  INSTANCE;
+
+  /** A node's progress towards serving requests. */
+  public enum State {
+    STARTING,
+    WARMING_UP,
+    READY
+  }
+
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(Readiness.class);
+
+  private volatile State state = State.STARTING;
+  private boolean open;
+  private final List<Handler<Promise<Void>>> waiting = new ArrayList<>();
+
+  // Constructors
+  Readiness() {
+    Metrics.INSTANCE.gauge(
+        "node_ready",
+        "1 once the node has registered its consumers and is serving requests, otherwise 0.",
+        "",
+        () -> state == State.READY ? 1 : 0);
+  }
+
+  // Public methods
+  public State getState() {
+    return state;
+  }
+
+  public boolean isReady() {
+    return state == State.READY;
+  }
+
+  /** Records that the node has started warming up. */
+  public void warmingUp() {
+    if (state == State.STARTING) {
+      state = State.WARMING_UP;
+    }
+  }
+
+  /**
+   * Runs an action once the node is ready, on the calling verticle's context, or straight away if
+   * the node is already ready. The action completes its promise once it's done, e.g. once a
+   * consumer's registration has reached the cluster, and the node isn't reported ready until every
+   * deferred action has.
+   *
+   * @param action The action.
+   */
+  public void whenReady(Handler<Promise<Void>> action) {
+    Context context = Vertx.currentContext();
+    Handler<Promise<Void>> onContext =
+        context == null ? action : done -> context.runOnContext(v -> action.handle(done));
+
+    synchronized (this) {
+      if (!open) {
+        waiting.add(onContext);
+        return;
+      }
+    }
+    onContext.handle(Promise.promise());
+  }
+
+  /**
+   * Runs every action deferred until the node is ready and marks the node ready once they have all
+   * completed. Actions deferred from now on run straight away.
+   *
+   * @param done Notified once the node is ready, or if any of the deferred actions failed, in which
+   *     case it isn't.
+   */
+  public void ready(Handler<AsyncResult<Void>> done) {
+    List<Handler<Promise<Void>>> actions;
+    synchronized (this) {
+      open = true;
+      actions = new ArrayList<>(waiting);
+      waiting.clear();
+    }
+
+    var remaining = new AtomicInteger(actions.size());
+    if (actions.isEmpty()) {
+      state = State.READY;
+      done.handle(Future.succeededFuture());
+      return;
+    }
+
+    for (var action : actions) {
+      Promise<Void> completed = Promise.promise();
+      completed
+          .future()
+          .setHandler(
+              result -> {
+                if (result.failed()) {
+                  LOGGER.error("Unable to make the node ready.", result.cause());
+                  if (remaining.getAndSet(-1) > 0) {
+                    done.handle(result);
+                  }
+                } else if (remaining.decrementAndGet() == 0) {
+                  state = State.READY;
+                  done.handle(result);
+                }
+              });
+      action.handle(completed);
+    }
+  }
+
+  /**
+   * Describes the node's state for the health endpoints.
+   *
+   * @return A JSON object whose <code>status</code> is the state, e.g. <code>warming-up</code>.
+   */
+  public JsonObject toJson() {
+    return new JsonObject().put("status", state.name().toLowerCase().replace('_', '-'));
+  }
+}
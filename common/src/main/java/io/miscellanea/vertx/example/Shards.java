@@ -0,0 +1,68 @@
+package io.miscellanea.vertx.example;
+
+/**
+ * Helpers for sharded deployments, in which each JPA node owns one shard of the people with a
+ * database of its own and serves it on per-shard event bus addresses.
+ *
+ * <p>A person's id carries the shard that owns it in its high bits, so any node can route a find
+ * without a lookup, and ids from different shards never collide. Shard 0 leaves ids unchanged,
+ * which is what an unsharded deployment uses. Shards are limited to 8191 so that ids stay below
+ * 2<sup>53</sup> and survive being read as JavaScript numbers.
+ *
+ * @author Jason Hallford
+ */
+public final class Shards {
+  /** The cluster-wide map in which each live shard is registered, keyed by shard number. */
+  public static final String MAP = "person-shards";
+
+  /** The largest shard number. */
+  public static final int MAX_SHARD = 8191;
+
+  private static final int SHARD_SHIFT = 40;
+  private static final long LOCAL_MASK = (1L << SHARD_SHIFT) - 1;
+
+  private Shards() {}
+
+  /**
+   * Builds an id from the shard that owns it and a value unique within that shard.
+   *
+   * @param shard The shard.
+   * @param local The shard-local value, less than 2<sup>40</sup>.
+   * @return The id.
+   */
+  public static long encode(int shard, long local) {
+    if (shard < 0 || shard > MAX_SHARD) {
+      throw new IllegalArgumentException("No such shard " + shard + ".");
+    } else if (local < 0 || local > LOCAL_MASK) {
+      throw new IllegalArgumentException("Shard " + shard + " has run out of ids.");
+    }
+    return ((long) shard << SHARD_SHIFT) | local;
+  }
+
+  /** Returns the shard that owns an id. */
+  public static int shardOf(long id) {
+    return (int) (id >>> SHARD_SHIFT);
+  }
+
+  /** Returns the event bus address on which a shard serves a repository operation. */
+  public static String address(String base, int shard) {
+    return base + "." + shard;
+  }
+
+  /**
+   * Returns the repository operation a per-shard address serves, or the address itself if it
+   * isn't one.
+   */
+  public static String baseAddress(String address) {
+    int dot = address.lastIndexOf('.');
+    if (dot < 0 || dot == address.length() - 1) {
+      return address;
+    }
+    for (int i = dot + 1; i < address.length(); i++) {
+      if (!Character.isDigit(address.charAt(i))) {
+        return address;
+      }
+    }
+    return address.substring(0, dot);
+  }
+}
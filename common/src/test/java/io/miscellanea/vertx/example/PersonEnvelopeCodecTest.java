@@ -0,0 +1,91 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every field of a {@link PersonEnvelope} survives the binary codec.
+ *
+ * @author Jason Hallford
+ */
+public class PersonEnvelopeCodecTest {
+  // Fields
+  private final PersonEnvelopeCodec codec = new PersonEnvelopeCodec();
+
+  // Tests
+  @Test
+  public void everyFieldRoundTrips() {
+    var envelope =
+        new PersonEnvelope()
+            .setRequestId("request-1")
+            .setStatus("ok")
+            .setEntityId(Shards.encode(Shards.MAX_SHARD, 42))
+            .setName("Zo\u00eb \u00c5ngstr\u00f6m \ud83d\ude00")
+            .setAge(-1)
+            .setError("error")
+            .setResult("[{\"id\":1}]")
+            .setAfter(Long.MAX_VALUE)
+            .setLimit(Integer.MIN_VALUE)
+            .setNextAfter(0L)
+            .setStream(true)
+            .setLast(true)
+            .setPeople(
+                List.of(
+                    new PersonEnvelope().setName("Ada").setAge(36),
+                    new PersonEnvelope().setName("Nameless"),
+                    new PersonEnvelope().setAge(7)))
+            .setIds(List.of(1L, Long.MAX_VALUE))
+            .setFormat("csv")
+            .setNamePrefix("")
+            .setMinAge(0)
+            .setMaxAge(120)
+            .setEntityVersion(3L)
+            .setNotModified(true);
+
+    var decoded = this.roundTrip(envelope);
+
+    assertEquals(envelope.toJson(), decoded.toJson());
+    assertEquals(3, decoded.getPeople().size());
+    assertNull(decoded.getPeople().get(1).getAge());
+    assertNull(decoded.getPeople().get(2).getName());
+  }
+
+  @Test
+  public void absentFieldsStayAbsent() {
+    var decoded = this.roundTrip(new PersonEnvelope());
+
+    assertTrue(decoded.toJson().isEmpty());
+    assertNull(decoded.getEntityId());
+    assertNull(decoded.getPeople());
+    assertNull(decoded.getIds());
+    assertFalse(decoded.isStream());
+    assertFalse(decoded.isNotModified());
+  }
+
+  @Test
+  public void emptyListsAreKept() {
+    var decoded = this.roundTrip(new PersonEnvelope().setPeople(List.of()).setIds(List.of()));
+
+    assertEquals(List.of(), decoded.getPeople());
+    assertEquals(List.of(), decoded.getIds());
+  }
+
+  // Utility methods
+  /**
+   * Encodes an envelope after some unrelated bytes and decodes it from where it starts, as the
+   * clustered event bus does.
+   */
+  private PersonEnvelope roundTrip(PersonEnvelope envelope) {
+    var buffer = Buffer.buffer().appendInt(0xCAFE).appendByte((byte) 7);
+    int start = buffer.length();
+    codec.encodeToWire(buffer, envelope);
+    return codec.decodeFromWire(start, buffer);
+  }
+}
@@ -0,0 +1,84 @@
+package io.miscellanea.vertx.example;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the shard bits of an id and the per-shard event bus addresses at their boundaries.
+ *
+ * @author Jason Hallford
+ */
+public class ShardsTest {
+  // Fields
+  private static final long MAX_LOCAL = (1L << 40) - 1;
+
+  // Tests
+  @Test
+  public void shardZeroLeavesIdsUnchanged() {
+    assertEquals(0L, Shards.encode(0, 0));
+    assertEquals(42L, Shards.encode(0, 42));
+    assertEquals(MAX_LOCAL, Shards.encode(0, MAX_LOCAL));
+    assertEquals(0, Shards.shardOf(MAX_LOCAL));
+  }
+
+  @Test
+  public void shardBitsStartAboveTheLocalValue() {
+    assertEquals(MAX_LOCAL + 1, Shards.encode(1, 0));
+    assertEquals(1, Shards.shardOf(MAX_LOCAL + 1));
+  }
+
+  @Test
+  public void largestIdIsJustBelowTwoToTheFiftyThird() {
+    long largest = Shards.encode(Shards.MAX_SHARD, MAX_LOCAL);
+
+    assertEquals((1L << 53) - 1, largest);
+    assertEquals(Shards.MAX_SHARD, Shards.shardOf(largest));
+    assertEquals(largest, (long) (double) largest);
+  }
+
+  @Test
+  public void everyShardRoundTrips() {
+    for (int shard = 0; shard <= Shards.MAX_SHARD; shard++) {
+      assertEquals(shard, Shards.shardOf(Shards.encode(shard, 0)));
+      assertEquals(shard, Shards.shardOf(Shards.encode(shard, MAX_LOCAL)));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeShardIsRejected() {
+    Shards.encode(-1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shardAboveTheMaximumIsRejected() {
+    Shards.encode(Shards.MAX_SHARD + 1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void localValueBeyondFortyBitsIsRejected() {
+    Shards.encode(1, MAX_LOCAL + 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeLocalValueIsRejected() {
+    Shards.encode(1, -1);
+  }
+
+  @Test
+  public void addressesRoundTrip() {
+    var base = EventBusAddress.REPOSITORY_PERSON_FIND;
+
+    assertEquals(base, Shards.baseAddress(Shards.address(base, 0)));
+    assertEquals(base, Shards.baseAddress(Shards.address(base, Shards.MAX_SHARD)));
+    assertEquals(base + "." + Shards.MAX_SHARD, Shards.address(base, Shards.MAX_SHARD));
+  }
+
+  @Test
+  public void addressesWithoutAShardAreLeftAlone() {
+    assertEquals("repo.person.find", Shards.baseAddress("repo.person.find"));
+    assertEquals("repo.person.", Shards.baseAddress("repo.person."));
+    assertEquals("repo.person.1a", Shards.baseAddress("repo.person.1a"));
+    assertEquals("person", Shards.baseAddress("person"));
+  }
+}
@@ -0,0 +1,742 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * A durable log of created people, written ahead of the database so that a create can be
+ * acknowledged as soon as it's on disk rather than once it's committed. A singleton, for the same
+ * reasons as {@link PersistenceManager}.
+ *
+ * <p>The log is a directory of memory-mapped segment files of <code>create-log-segment-bytes
+ * </code> each. A create is appended as a record holding its length, a CRC-32 and the person, and
+ * its acknowledgement waits for the next sync: a single thread forces the segments to disk
+ * whenever there are new records, so every create appended while one sync runs shares the next.
+ *
+ * <p>Another thread applies the records to the database in the order they were appended, in
+ * batches, and notes in a checkpoint file how far it has got; segments it has finished with are
+ * deleted. Until a person is applied it's served from memory (see {@link #unapplied(long)}). When
+ * the node restarts the records after the checkpoint are read back, up to the first that is
+ * incomplete, and applied again. Applying skips people the database already has, so a record
+ * applied just before a crash, after the last checkpoint, isn't inserted twice, and the checkpoint
+ * needn't be synced.
+ *
+ * <p>Only records that have been synced are applied. If a sync fails, the records it was to make
+ * durable, and any appended since, are discarded and their creates failed, and the log takes no
+ * more appends until the space they used has been zeroed and synced, so that a restart can't
+ * bring them back. A batch the database refuses is split until the person it refuses is found;
+ * that person is tried three times, and then written to the <code>dead-letter
+ * </code> file in the log's directory so that the people logged after them can be applied.
+ *
+ * @author Jason Hallford
+ */
+public enum CreateLog {
+  INSTANCE;
+
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(CreateLog.class);
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String CHECKPOINT = "checkpoint";
+  private static final String DEAD_LETTER = "dead-letter";
+  private static final int HEADER_BYTES = 8;
+  private static final int PERSON_BYTES = 16;
+  private static final int APPLY_BATCH = 500;
+  private static final int APPLY_ATTEMPTS = 3;
+  private static final long RETRY_MS = 1000;
+
+  // Appends, syncs and applies are coordinated through this monitor, which guards everything
+  // below it except the unapplied people, whom reads look up without it.
+  private final Map<Long, Person> unapplied = new ConcurrentHashMap<>();
+  private final Object lock = new Object();
+  private final ArrayDeque<Entry> toApply = new ArrayDeque<>();
+  private final List<Handler<AsyncResult<Void>>> awaitingSync = new ArrayList<>();
+  private final List<Segment> rolled = new ArrayList<>();
+  private final List<Thread> threads = new ArrayList<>();
+  private volatile boolean open;
+  private boolean resyncing;
+  private Path directory;
+  private int segmentBytes;
+  private Segment current;
+  private int oldestSegment;
+  private long appended;
+  private long synced;
+  private long applied;
+
+  private LongAdder appends;
+  private LongAdder syncs;
+  private LatencyTimer syncTimer;
+  private LongAdder deadLetters;
+
+  // Constructors
+  CreateLog() {}
+
+  // Public methods
+  /**
+   * Opens the log, reads back any records not yet applied and starts the sync and apply threads.
+   * Later calls are ignored. The persistence manager must already be initialized.
+   *
+   * @param directory The directory holding the log, which is created if necessary. Each JPA node
+   *     needs one of its own.
+   * @param segmentBytes The size of each segment file.
+   * @throws PersistenceException If the log can't be opened.
+   */
+  public void open(Path directory, int segmentBytes) {
+    synchronized (lock) {
+      if (open) {
+        return;
+      }
+
+      this.directory = directory;
+      this.segmentBytes = segmentBytes;
+      try {
+        Files.createDirectories(directory);
+        this.replay();
+      } catch (IOException | UncheckedIOException e) {
+        throw new PersistenceException("Unable to open the create log in " + directory + ".", e);
+      }
+
+      var metrics = Metrics.INSTANCE;
+      metrics.gauge(
+          "create_log_unapplied",
+          "Logged creates not yet applied to the database.",
+          "",
+          unapplied::size);
+      this.appends =
+          metrics.counter("create_log_appends_total", "Creates appended to the create log.", "");
+      this.syncs =
+          metrics.counter("create_log_syncs_total", "Syncs of the create log to disk.", "");
+      this.syncTimer =
+          metrics.timer("create_log_sync_seconds", "Time taken to sync the create log.", "");
+      this.deadLetters =
+          metrics.counter(
+              "create_log_dead_letters_total",
+              "Logged creates the database refused, moved to the dead-letter file.",
+              "");
+
+      this.start("create-log-sync", this::syncLoop);
+      this.start("create-log-apply", this::applyLoop);
+      this.open = true;
+    }
+  }
+
+  /**
+   * Tests whether the log is open.
+   *
+   * @return <code>true</code> if creates may be appended; otherwise, <code>false</code>.
+   */
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Appends a new person, whose id must already be assigned, to the log. It's applied to the
+   * database in the background and served by {@link #unapplied(long)} until then.
+   *
+   * @param person The person, which mustn't be changed afterwards.
+   * @param synced Called, on the sync thread, once the person is on disk or the sync has failed.
+   * @throws IllegalArgumentException If the person won't fit in a segment.
+   * @throws PersistenceException If the log is recovering from a failed sync.
+   */
+  public void append(Person person, Handler<AsyncResult<Void>> synced) {
+    var name = person.getName() == null ? null : person.getName().getBytes(StandardCharsets.UTF_8);
+    var payload = ByteBuffer.allocate(PERSON_BYTES + (name == null ? 0 : name.length));
+    payload.putLong(person.getId()).putInt(person.getAge()).putInt(name == null ? -1 : name.length);
+    if (name != null) {
+      payload.put(name);
+    }
+    var crc = new CRC32();
+    crc.update(payload.array());
+
+    int length = payload.capacity();
+    if (HEADER_BYTES + length > segmentBytes) {
+      throw new IllegalArgumentException("The person is too large for the create log.");
+    }
+
+    synchronized (lock) {
+      if (resyncing) {
+        throw new PersistenceException("The create log is recovering from a failed sync.");
+      }
+      if (current.offset + HEADER_BYTES + length > current.buffer.capacity()) {
+        this.roll();
+      }
+
+      var buffer = current.buffer;
+      buffer.position(current.offset);
+      buffer.putInt(length).putInt((int) crc.getValue()).put(payload.array());
+      current.offset = buffer.position();
+      appended = position(current.number, current.offset);
+
+      unapplied.put(person.getId(), person);
+      toApply.add(new Entry(appended, person.getId(), person.getName(), person.getAge()));
+      awaitingSync.add(synced);
+      lock.notifyAll();
+    }
+    appends.increment();
+  }
+
+  /**
+   * Returns a logged person who isn't in the database yet.
+   *
+   * @param id The person's id.
+   * @return The person, or <code>null</code> if the id isn't waiting to be applied.
+   */
+  public Person unapplied(long id) {
+    return unapplied.get(id);
+  }
+
+  /**
+   * Waits until every person appended so far has been applied to the database, so that a query
+   * run afterwards sees them all.
+   *
+   * @param timeoutMs The longest to wait.
+   * @return <code>true</code> if they've been applied; <code>false</code> if the wait timed out.
+   * @throws InterruptedException If the calling thread is interrupted while it waits.
+   */
+  public boolean awaitApplied(long timeoutMs) throws InterruptedException {
+    synchronized (lock) {
+      long target = appended;
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+      // Records discarded after a failed sync move the end of the log back.
+      while (applied < Math.min(target, appended)) {
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMs <= 0) {
+          return false;
+        }
+        lock.wait(remainingMs);
+      }
+      return true;
+    }
+  }
+
+  // Package methods
+  /** Stops the log's threads and forgets what it held, so that it can be opened again. */
+  void close() throws InterruptedException {
+    List<Thread> running;
+    synchronized (lock) {
+      running = new ArrayList<>(threads);
+      threads.clear();
+    }
+    for (var thread : running) {
+      thread.interrupt();
+      thread.join();
+    }
+
+    synchronized (lock) {
+      open = false;
+      resyncing = false;
+      unapplied.clear();
+      toApply.clear();
+      awaitingSync.clear();
+      rolled.clear();
+      current = null;
+    }
+  }
+
+  // Utility methods
+  /** Packs a segment number and an offset within it into a position that orders the log. */
+  private static long position(int segment, int offset) {
+    return ((long) segment << 32) | offset;
+  }
+
+  private static int segmentOf(long position) {
+    return (int) (position >>> 32);
+  }
+
+  private void start(String name, Runnable loop) {
+    var thread = new Thread(loop, name);
+    thread.setDaemon(true);
+    threads.add(thread);
+    thread.start();
+  }
+
+  /**
+   * Reads back the records after the checkpoint and queues them to be applied, and opens the last
+   * segment for appending after its last complete record.
+   */
+  private void replay() throws IOException {
+    List<Integer> segments;
+    try (var files = Files.list(directory)) {
+      segments =
+          files
+              .map(file -> file.getFileName().toString())
+              .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+              .map(name -> name.substring(0, name.length() - SEGMENT_SUFFIX.length()))
+              .map(Integer::valueOf)
+              .sorted()
+              .collect(Collectors.toList());
+    }
+
+    var checkpoint = directory.resolve(CHECKPOINT);
+    long start =
+        Files.exists(checkpoint)
+            ? ByteBuffer.wrap(Files.readAllBytes(checkpoint)).getLong()
+            : position(segments.isEmpty() ? 0 : segments.get(0), 0);
+
+    for (int number : segments) {
+      if (number < segmentOf(start)) {
+        // Applied before the node stopped, but not yet deleted.
+        Files.deleteIfExists(this.segmentFile(number));
+        continue;
+      }
+
+      var segment = this.mapSegment(number, false);
+      segment.offset = number == segmentOf(start) ? (int) start : 0;
+      this.readRecords(segment);
+      if (current != null) {
+        rolled.add(current);
+      }
+      current = segment;
+    }
+
+    if (current == null) {
+      current = this.mapSegment(segmentOf(start), true);
+    }
+    oldestSegment = segmentOf(start);
+    appended = synced = position(current.number, current.offset);
+    applied = toApply.isEmpty() ? appended : start;
+
+    if (!toApply.isEmpty()) {
+      LOGGER.info("Replaying {} logged create(s) not yet applied.", toApply.size());
+    }
+  }
+
+  /**
+   * Queues a segment's records, from its offset, to be applied. The first that is missing or
+   * incomplete, e.g. torn by a crash during its append, ends the segment; it and anything after it
+   * are zeroed, so that appends can reuse the space.
+   */
+  private void readRecords(Segment segment) {
+    var buffer = segment.buffer;
+    int offset = segment.offset;
+    while (offset + HEADER_BYTES <= buffer.capacity()) {
+      int length = buffer.getInt(offset);
+      if (length == 0) {
+        break;
+      }
+
+      var entry = this.readRecord(buffer, offset, length);
+      if (entry == null) {
+        LOGGER.warn(
+            "Discarding incomplete record at offset {} of create log segment {}.",
+            offset,
+            segment.number);
+        for (int i = offset; i < buffer.capacity(); i++) {
+          buffer.put(i, (byte) 0);
+        }
+        buffer.force();
+        break;
+      }
+
+      offset += HEADER_BYTES + length;
+      toApply.add(new Entry(position(segment.number, offset), entry.id, entry.name, entry.age));
+      unapplied.put(entry.id, entry.toPerson());
+    }
+    segment.offset = offset;
+  }
+
+  /** Returns the record at an offset, or <code>null</code> if it's incomplete. */
+  private Entry readRecord(ByteBuffer buffer, int offset, int length) {
+    if (length < PERSON_BYTES || length > buffer.capacity() - offset - HEADER_BYTES) {
+      return null;
+    }
+
+    var payload = new byte[length];
+    buffer.position(offset + HEADER_BYTES);
+    buffer.get(payload);
+    var crc = new CRC32();
+    crc.update(payload);
+    if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+      return null;
+    }
+
+    var record = ByteBuffer.wrap(payload);
+    long id = record.getLong();
+    int age = record.getInt();
+    int nameLength = record.getInt();
+    if (nameLength > length - PERSON_BYTES) {
+      return null;
+    }
+    String name =
+        nameLength < 0
+            ? null
+            : new String(payload, PERSON_BYTES, nameLength, StandardCharsets.UTF_8);
+    return new Entry(0, id, name, age);
+  }
+
+  /** Starts a new segment once the current one is full. The sync thread syncs the old one. */
+  private void roll() {
+    rolled.add(current);
+    try {
+      current = this.mapSegment(current.number + 1, true);
+    } catch (IOException e) {
+      current = rolled.remove(rolled.size() - 1);
+      throw new PersistenceException("Unable to start a new create log segment.", e);
+    }
+  }
+
+  private Segment mapSegment(int number, boolean create) throws IOException {
+    try (var file = new RandomAccessFile(this.segmentFile(number).toFile(), "rw")) {
+      if (create || file.length() == 0) {
+        file.setLength(segmentBytes);
+      }
+      var buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+      return new Segment(number, buffer);
+    }
+  }
+
+  private Path segmentFile(int number) {
+    return directory.resolve(String.format("%010d%s", number, SEGMENT_SUFFIX));
+  }
+
+  /** Syncs whatever has been appended, then acknowledges it, for as long as the node runs. */
+  private void syncLoop() {
+    while (true) {
+      List<Segment> segments;
+      List<Handler<AsyncResult<Void>>> waiters;
+      long target;
+      synchronized (lock) {
+        while (synced == appended) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        segments = new ArrayList<>(rolled);
+        segments.add(current);
+        rolled.clear();
+        waiters = new ArrayList<>(awaitingSync);
+        awaitingSync.clear();
+        target = appended;
+      }
+
+      RuntimeException failure = null;
+      long started = System.nanoTime();
+      try {
+        segments.forEach(segment -> segment.buffer.force());
+      } catch (RuntimeException e) {
+        failure = e;
+      }
+      syncTimer.record(System.nanoTime() - started);
+      syncs.increment();
+
+      if (failure == null) {
+        synchronized (lock) {
+          synced = target;
+          lock.notifyAll();
+        }
+        this.acknowledge(waiters, Future.succeededFuture());
+        continue;
+      }
+
+      LOGGER.error("Unable to sync the create log; failing the creates not yet synced.", failure);
+      synchronized (lock) {
+        this.discardUnsynced(segments);
+        waiters.addAll(awaitingSync);
+        awaitingSync.clear();
+      }
+      this.acknowledge(
+          waiters,
+          Future.failedFuture(new PersistenceException("Unable to sync the create log.", failure)));
+      if (!this.resync()) {
+        return;
+      }
+    }
+  }
+
+  private void acknowledge(List<Handler<AsyncResult<Void>>> waiters, AsyncResult<Void> result) {
+    for (var waiter : waiters) {
+      try {
+        waiter.handle(result);
+      } catch (RuntimeException e) {
+        LOGGER.error("Unable to acknowledge a logged create.", e);
+      }
+    }
+  }
+
+  /**
+   * Drops every record after the last successful sync, which must hold the lock, and moves the end
+   * of the log back to it. Until {@link #resync()} succeeds nothing more is appended.
+   *
+   * @param segments The segments the failed sync was for, among them the one the last successful
+   *     sync ended in.
+   */
+  private void discardUnsynced(List<Segment> segments) {
+    var segment =
+        segments.stream()
+            .filter(candidate -> candidate.number == segmentOf(synced))
+            .findFirst()
+            .orElseThrow();
+    resyncing = true;
+    while (!toApply.isEmpty() && toApply.peekLast().position > synced) {
+      unapplied.remove(toApply.pollLast().id);
+    }
+
+    for (int number = segment.number + 1; number <= current.number; number++) {
+      try {
+        Files.deleteIfExists(this.segmentFile(number));
+      } catch (IOException e) {
+        LOGGER.warn("Unable to delete create log segment {}.", number, e);
+      }
+    }
+    rolled.clear();
+    current = segment;
+    current.offset = (int) synced;
+    for (int i = current.offset; i < current.buffer.capacity(); i++) {
+      current.buffer.put(i, (byte) 0);
+    }
+    appended = synced;
+  }
+
+  /**
+   * Syncs the zeroed end of the log until it's on disk, and then takes appends again.
+   *
+   * @return <code>false</code> if the thread was interrupted first.
+   */
+  private boolean resync() {
+    while (true) {
+      try {
+        Thread.sleep(RETRY_MS);
+      } catch (InterruptedException e) {
+        return false;
+      }
+
+      Segment segment;
+      synchronized (lock) {
+        segment = current;
+      }
+      try {
+        segment.buffer.force();
+      } catch (RuntimeException e) {
+        LOGGER.warn("Unable to re-sync the create log; retrying.", e);
+        continue;
+      }
+
+      synchronized (lock) {
+        resyncing = false;
+      }
+      LOGGER.info("Create log re-synced; taking creates again.");
+      return true;
+    }
+  }
+
+  /** Applies synced people to the database, in order, for as long as the node runs. */
+  private void applyLoop() {
+    while (true) {
+      var batch = new ArrayList<Entry>(APPLY_BATCH);
+      synchronized (lock) {
+        while (toApply.isEmpty() || toApply.peek().position > synced) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        for (var entry : toApply) {
+          if (entry.position > synced) {
+            break;
+          }
+          batch.add(entry);
+          if (batch.size() == APPLY_BATCH) {
+            break;
+          }
+        }
+      }
+
+      try {
+        this.apply(batch);
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      long position = batch.get(batch.size() - 1).position;
+      synchronized (lock) {
+        batch.forEach(entry -> unapplied.remove(toApply.poll().id));
+        applied = position;
+        lock.notifyAll();
+      }
+      this.checkpoint(position);
+    }
+  }
+
+  /**
+   * Inserts the people in a batch that the database doesn't already have. If it refuses them the
+   * batch is split in two and each half applied on its own, until the person it refuses is found,
+   * who is tried again and then moved to the dead-letter file.
+   */
+  private void apply(List<Entry> batch) throws InterruptedException {
+    for (int attempt = 1; ; attempt++) {
+      var existing = this.existing(batch);
+      var people = new ArrayList<Person>(batch.size());
+      for (var entry : batch) {
+        if (!existing.contains(entry.id)) {
+          people.add(entry.toPerson());
+        }
+      }
+      if (people.isEmpty()) {
+        return;
+      }
+
+      try {
+        PersistenceManager.INSTANCE.saveAll(people);
+        return;
+      } catch (PersistenceException e) {
+        if (batch.size() > 1) {
+          LOGGER.warn("Unable to apply {} logged create(s); splitting them.", batch.size(), e);
+          int half = batch.size() / 2;
+          this.apply(batch.subList(0, half));
+          this.apply(batch.subList(half, batch.size()));
+          return;
+        }
+        if (attempt == APPLY_ATTEMPTS) {
+          this.deadLetter(batch.get(0), e);
+          return;
+        }
+        LOGGER.warn(
+            "Unable to apply the logged create of person {}; retrying.", batch.get(0).id, e);
+        Thread.sleep(RETRY_MS);
+      }
+    }
+  }
+
+  /**
+   * Returns the ids in a batch that the database already has. While the database can't be reached
+   * this keeps asking, so that an outage never counts against a person's attempts.
+   */
+  private Set<Long> existing(List<Entry> batch) throws InterruptedException {
+    var ids = batch.stream().map(entry -> entry.id).collect(Collectors.toList());
+    while (true) {
+      try {
+        return new HashSet<>(
+            PersistenceManager.INSTANCE.find(
+                em ->
+                    em.createNamedQuery(Person.QUERY_EXISTING, Long.class)
+                        .setParameter("ids", ids)
+                        .getResultList()));
+      } catch (PersistenceException e) {
+        LOGGER.warn("Unable to read the database to apply logged creates; retrying.", e);
+        Thread.sleep(RETRY_MS);
+      }
+    }
+  }
+
+  /** Appends a person the database won't take, and why, to the dead-letter file as JSON. */
+  private void deadLetter(Entry entry, PersistenceException cause) throws InterruptedException {
+    Throwable reason = cause;
+    while (reason.getCause() != null) {
+      reason = reason.getCause();
+    }
+    var line =
+        new JsonObject()
+            .put("id", entry.id)
+            .put("name", entry.name)
+            .put("age", entry.age)
+            .put("error", String.valueOf(reason.getMessage()))
+            .encode();
+
+    var file = directory.resolve(DEAD_LETTER);
+    while (true) {
+      try {
+        Files.write(
+            file,
+            (line + "\n").getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND,
+            StandardOpenOption.SYNC);
+        break;
+      } catch (IOException e) {
+        LOGGER.error("Unable to write person {} to {}; retrying.", entry.id, file, e);
+        Thread.sleep(RETRY_MS);
+      }
+    }
+    deadLetters.increment();
+    LOGGER.error(
+        "Moved the logged create of person {} to {} after {} attempts.",
+        entry.id,
+        file,
+        APPLY_ATTEMPTS,
+        cause);
+  }
+
+  /** Records how far the log has been applied and deletes the segments before it. */
+  private void checkpoint(long position) {
+    try {
+      var temporary = directory.resolve(CHECKPOINT + ".tmp");
+      Files.write(temporary, ByteBuffer.allocate(Long.BYTES).putLong(position).array());
+      Files.move(
+          temporary,
+          directory.resolve(CHECKPOINT),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+
+      while (oldestSegment < segmentOf(position)) {
+        Files.deleteIfExists(this.segmentFile(oldestSegment++));
+      }
+    } catch (IOException e) {
+      // Only the replay after a restart is longer.
+      LOGGER.warn("Unable to checkpoint the create log.", e);
+    }
+  }
+
+  /** A mapped segment file and, for the segment being appended to, the offset of its end. */
+  private static final class Segment {
+    private final int number;
+    private final MappedByteBuffer buffer;
+    private int offset;
+
+    private Segment(int number, MappedByteBuffer buffer) {
+      this.number = number;
+      this.buffer = buffer;
+    }
+  }
+
+  /** A logged person and the position just past its record. */
+  private static final class Entry {
+    private final long position;
+    private final long id;
+    private final String name;
+    private final int age;
+
+    private Entry(long position, long id, String name, int age) {
+      this.position = position;
+      this.id = id;
+      this.name = name;
+      this.age = age;
+    }
+
+    private Person toPerson() {
+      var person = new Person();
+      person.setId(id);
+      person.setName(name);
+      person.setAge(age);
+      return person;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.eventbus.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times a repository request's hops on the JPA node: how long it waited for a worker, how long its
+ * handler ran and how much of that was spent in the database. The durations are sent back in the
+ * reply's {@link MessageField#HOP_TIMING} header, from which the API node builds its <code>
+ * Server-Timing</code> breakdown. Each is measured on this node's monotonic clock, so the API node
+ * can subtract them from its round trip to find the transit time without the nodes' clocks having
+ * to agree.
+ *
+ * <p>A clock is started when a worker picks a request up and is current on that thread until the
+ * handler returns. {@link PersistenceManager} adds the time it spends to the current clock, and
+ * replies sent from the thread to the request carry it (see {@link
+ * RepositoryVerticle#sendReply(Message, PersonEnvelope)}).
+ *
+ * @author Jason Hallford
+ */
+final class HopClock {
+  // Fields
+  private static final ThreadLocal<HopClock> CURRENT = new ThreadLocal<>();
+
+  private final Message<?> message;
+  private final long receivedNanos;
+  private final long startedNanos;
+  private long databaseNanos;
+
+  // Constructors
+  private HopClock(Message<?> message, long receivedNanos, long startedNanos) {
+    this.message = message;
+    this.receivedNanos = receivedNanos;
+    this.startedNanos = startedNanos;
+  }
+
+  // Package methods
+  /**
+   * Starts timing a request on the calling worker thread.
+   *
+   * @param message The request.
+   * @param receivedNanos When the request reached the verticle, from <code>System.nanoTime()
+   *     </code>.
+   */
+  static void start(Message<?> message, long receivedNanos) {
+    CURRENT.set(new HopClock(message, receivedNanos, System.nanoTime()));
+  }
+
+  /** Stops timing the calling thread's request; its clock may still be held and replied with. */
+  static void stop() {
+    CURRENT.remove();
+  }
+
+  /** Returns the clock timing the calling thread's request, or <code>null</code> if none. */
+  static HopClock current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Returns the clock timing a request, if it's the one being timed on the calling thread; replies
+   * sent from anywhere else, e.g. a later page of a stream, aren't timed.
+   */
+  static HopClock of(Message<?> message) {
+    var clock = CURRENT.get();
+    return clock != null && clock.message == message ? clock : null;
+  }
+
+  /** Adds database time to the calling thread's request, if it's being timed. */
+  static void addDatabaseTime(long nanos) {
+    var clock = CURRENT.get();
+    if (clock != null) {
+      clock.databaseNanos += nanos;
+    }
+  }
+
+  /**
+   * Replaces the database time of a request whose database work was done on its behalf, e.g. a
+   * create committed in a group.
+   */
+  void setDatabaseTime(long nanos) {
+    this.databaseNanos = nanos;
+  }
+
+  /**
+   * Formats the hops so far as the value of the {@link MessageField#HOP_TIMING} header: the queue,
+   * handler and database times in microseconds, separated by commas.
+   */
+  String toHeader() {
+    long handlerNanos = System.nanoTime() - startedNanos;
+    return micros(startedNanos - receivedNanos)
+        + ","
+        + micros(handlerNanos)
+        + ","
+        + micros(Math.min(databaseNanos, handlerNanos));
+  }
+
+  // Utility methods
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0));
+  }
+}
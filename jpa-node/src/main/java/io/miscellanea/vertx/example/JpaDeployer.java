@@ -1,14 +1,27 @@
 package io.miscellanea.vertx.example;
 
-import com.hazelcast.cache.HazelcastCacheManager;
 import io.vertx.config.ConfigRetriever;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.pgclient.PgConnectOptions;
 import io.vertx.spi.cluster.hazelcast.HazelcastClusterManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Main class used to initialize the JPA runtime (Hibernate, in this case) and deploy the example's
  * verticles, of which there are two:
@@ -16,10 +29,14 @@ import org.slf4j.LoggerFactory;
  * <ol>
  *   <li><code>PeopleApiVertical</code>, which presents a simple RESTful API for creating, listing,
  *       and finding instances of <code>Person</code>
- *   <li><code>JpaRepositoryVerticle</code>, which executes as a worker verticle and handles the JPA
- *       interface with the database (H2, in this case)
+ *   <li><code>JpaRepositoryVerticle</code>, which handles the JPA interface with the database (H2,
+ *       in this case) on a worker pool sized to the connection pool
  * </ol>
  *
+ * Setting <code>repository-backend</code> to <code>reactive</code> deploys <code>
+ * ReactiveRepositoryVerticle</code> in place of the JPA verticle. Setting <code>shard</code> makes
+ * the node serve only that shard of the people, from its own database (see {@link Shards}).
+ *
  * This is example code, and as such is light on error handling, etc. It's primary purpose is to
  * demonstrate how one might integrate JPA with Vert.x to implement a database-backed API.
  */
@@ -29,63 +46,432 @@ public class JpaDeployer {
     public static final String CONFIG_FILE = "conf/jpa-config.json";
 
     public static void main(String[] args) {
+    long start = System.nanoTime();
+    LOGGER.info("Startup: JVM reached main in {} ms.", uptime());
+
+    // The configuration decides how the node starts, so it's read with a short-lived Vert.x
+    // instance before the cluster is joined.
+    var bootstrap = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1).setWorkerPoolSize(1));
+    var configRetrieverOpts = ConfigStoreHelper.buildDefaultRetrieverOptions(CONFIG_FILE);
+    ConfigRetriever.create(bootstrap, configRetrieverOpts)
+        .getConfig(
+            config -> {
+              bootstrap.close();
+              if (config.failed()) {
+                LOGGER.error("Unable to read configuration.", config.cause());
+              } else {
+                LOGGER.info("Startup: configuration read in {} ms.", millisSince(start));
+                startNode(config.result());
+              }
+            });
+  }
+
+  /**
+   * Joins the cluster and deploys the repository. Unless the second-level cache, which lives in
+   * the cluster, is enabled, Hibernate is bootstrapped on a thread of its own while Hazelcast looks
+   * for the other members.
+   */
+  private static void startNode(JsonObject config) {
+    CompletableFuture<SecondLevelCache> persistence = null;
+    boolean jpa = "jpa".equalsIgnoreCase(config.getString(ConfigProp.REPOSITORY_BACKEND, "jpa"));
+    if (jpa && config.getBoolean(ConfigProp.STARTUP_PARALLEL, true)) {
+      if (config.getBoolean(ConfigProp.SECOND_LEVEL_CACHE_ENABLED, false)) {
+        LOGGER.info("Startup: the second-level cache needs the cluster; JPA starts after it.");
+      } else {
+        persistence =
+            CompletableFuture.supplyAsync(
+                () -> initializePersistence(config, null),
+                task -> new Thread(task, "jpa-bootstrap").start());
+      }
+    }
+
     // Bootstrap the infinispan cluster manager
     var clusterMgr = new HazelcastClusterManager();
 
     LOGGER.debug("Bootstrapping the Vert.x runtime in cluster mode..");
+    long joinStart = System.nanoTime();
     var vertxOpts = new VertxOptions().setClusterManager(clusterMgr);
+    var bootstrapped = persistence;
     Vertx.clusteredVertx(
         vertxOpts,
         result -> {
           if (result.succeeded()) {
-            LOGGER.debug("Vert.x runtime initialized.");
+            LOGGER.info("Startup: joined the cluster in {} ms.", millisSince(joinStart));
             var vertx = result.result();
 
-            // Intitialize the JPA entity manager. We must only have one of these per
-            // JVM. We terminate at this point in the bootstrap if initialization
-            // fails.
-            vertx.executeBlocking(
-                promise -> {
-                  try {
-                    var pm = PersistenceManager.INSTANCE;
-                    LOGGER.debug("Pesistence Manager initialized = {}", pm.isInitialized());
-                    promise.complete();
-                  } catch (Exception e) {
-                    promise.fail(e);
+            // The repository accepts requests in both the binary and JSON envelopes and answers
+            // in kind.
+            vertx
+                .eventBus()
+                .registerDefaultCodec(PersonEnvelope.class, new PersonEnvelopeCodec());
+
+            deploy(
+                vertx,
+                clusterMgr,
+                config,
+                bootstrapped,
+                deployed -> {
+                  if (deployed.failed()) {
+                    return;
                   }
-                },
-                execResult -> {
-                  if (execResult.succeeded()) {
-                    var configRetrieverOpts =
-                        ConfigStoreHelper.buildDefaultRetrieverOptions(CONFIG_FILE);
-
-                    // Deploy the application's verticles.
-                    ConfigRetriever.create(vertx, configRetrieverOpts)
-                        .getConfig(
-                            config -> {
-                              int jpaCount =
-                                  config.result().getInteger(ConfigProp.JPA_VERTICLE_COUNT);
-                              LOGGER.debug(
-                                  "Deploying {} instance(s) of the JPA verticle.", jpaCount);
-
-                              // Deploy the JPA verticle. Note that we must deploy the verticle by
-                              // name, not instance, if we need to deploy more than once instance.
-                              var jpaOpts =
-                                  new DeploymentOptions()
-                                      .setConfig(config.result())
-                                      .setInstances(jpaCount)
-                                      .setWorker(true);
-                              vertx.deployVerticle(JpaRepositoryVerticle.class.getName(), jpaOpts);
-                            });
-                  } else {
-                    LOGGER.error("Unable to initialize JPA runtime.", execResult.cause());
-                    vertx.close();
+                  LOGGER.info("JPA node ready {} ms after the JVM started.", uptime());
+
+                  // A training run, e.g. to record the classes loaded for a class-data-sharing
+                  // archive, ends here.
+                  if (config.getBoolean(ConfigProp.EXIT_AFTER_STARTUP, false)) {
+                    LOGGER.info("Exiting as {} is set.", ConfigProp.EXIT_AFTER_STARTUP);
+                    vertx.close(
+                        closed -> {
+                          PersistenceManager.INSTANCE.close();
+                          System.exit(0);
+                        });
                   }
                 });
 
           } else {
             LOGGER.error("Unable to initialize Vert.x cluster node.", result.cause());
+            if (bootstrapped != null) {
+              bootstrapped.whenComplete((cache, e) -> PersistenceManager.INSTANCE.close());
+            }
+          }
+        });
+  }
+
+  /**
+   * Starts the configured repository backend and deploys its verticles. The event bus codec must
+   * already be registered. If the backend can't be started, Vert.x is closed.
+   *
+   * @param vertx The Vert.x instance.
+   * @param clusterMgr The cluster manager, which holds the second-level cache, or <code>null
+   *     </code> if Vert.x isn't clustered, in which case the cache is disabled.
+   * @param config The JPA node's configuration.
+   * @param deployed Notified once the repository verticles are serving, or if they fail to start.
+   */
+  public static void deploy(
+      Vertx vertx,
+      HazelcastClusterManager clusterMgr,
+      JsonObject config,
+      Handler<AsyncResult<Void>> deployed) {
+    deploy(vertx, clusterMgr, config, null, deployed);
+  }
+
+  /**
+   * @param persistence The JPA bootstrap, if it was started ahead of Vert.x; otherwise, <code>null
+   *     </code> to start it now.
+   */
+  private static void deploy(
+      Vertx vertx,
+      HazelcastClusterManager clusterMgr,
+      JsonObject config,
+      CompletableFuture<SecondLevelCache> persistence,
+      Handler<AsyncResult<Void>> deployed) {
+    String backend = config.getString(ConfigProp.REPOSITORY_BACKEND, "jpa");
+    if ("reactive".equalsIgnoreCase(backend)) {
+      deployReactive(vertx, config, deployed);
+      return;
+    } else if (!"jpa".equalsIgnoreCase(backend)) {
+      LOGGER.error("Unknown {} '{}'.", ConfigProp.REPOSITORY_BACKEND, backend);
+      vertx.close();
+      deployed.handle(
+          Future.failedFuture("Unknown " + ConfigProp.REPOSITORY_BACKEND + " " + backend + "."));
+      return;
+    }
+
+    // Intitialize the JPA entity manager. We must only have one of these per
+    // JVM. We terminate at this point in the bootstrap if initialization
+    // fails.
+    vertx.<SecondLevelCache>executeBlocking(
+        promise -> {
+          try {
+            promise.complete(
+                persistence != null
+                    ? persistence.join()
+                    : initializePersistence(config, clusterMgr));
+          } catch (CompletionException e) {
+            promise.fail(e.getCause());
+          } catch (Exception e) {
+            promise.fail(e);
+          }
+        },
+        execResult -> {
+          if (execResult.succeeded()) {
+            int jpaCount = config.getInteger(ConfigProp.JPA_VERTICLE_COUNT);
+            LOGGER.debug("Deploying {} instance(s) of the JPA verticle.", jpaCount);
+
+            // Database work runs on a pool with one thread per connection unless configured
+            // otherwise: more threads would only wait for connections, fewer would leave some idle.
+            var dataSource = PersistenceManager.INSTANCE.getDataSource();
+            int poolSize = PersistenceManager.INSTANCE.getMaximumConnections();
+            int executorSize = config.getInteger(ConfigProp.JPA_EXECUTOR_SIZE, 0);
+            if (executorSize <= 0) {
+              executorSize = poolSize;
+            } else if (executorSize > poolSize) {
+              LOGGER.warn(
+                  "{} is {} but the connection pools hold only {}; threads will wait for"
+                      + " connections.",
+                  ConfigProp.JPA_EXECUTOR_SIZE,
+                  executorSize,
+                  poolSize);
+            }
+            LOGGER.info(
+                "JPA executor: {} thread(s) for {} pooled connection(s); dispatch modes {}.",
+                executorSize,
+                poolSize,
+                config.getJsonObject(ConfigProp.JPA_DISPATCH, new JsonObject()).encode());
+
+            // Deploy the JPA verticle. Note that we must deploy the verticle by
+            // name, not instance, if we need to deploy more than once instance. The
+            // instances only dispatch work, so they run on event loops. With autoscaling on, the
+            // autoscaler deploys them, and adds and removes them as the load changes.
+            var jpaConfig = config.copy().put(ConfigProp.JPA_EXECUTOR_SIZE, executorSize);
+            if (config.getBoolean(ConfigProp.JPA_AUTOSCALE, false)) {
+              vertx.deployVerticle(
+                  RepositoryAutoscaler.class.getName(),
+                  new DeploymentOptions().setConfig(jpaConfig),
+                  deployedHandler(vertx, config, deployed));
+            } else {
+              vertx.deployVerticle(
+                  JpaRepositoryVerticle.class.getName(),
+                  new DeploymentOptions().setConfig(jpaConfig).setInstances(jpaCount),
+                  deployedHandler(vertx, config, deployed));
+            }
+
+            // Report how busy the executor and connection pool are.
+            long executorStatsInterval =
+                config.getLong(ConfigProp.JPA_EXECUTOR_STATS_INTERVAL_MS, 60000L);
+            if (executorStatsInterval > 0) {
+              int size = executorSize;
+              vertx.setPeriodic(
+                  executorStatsInterval,
+                  id -> {
+                    var pool = dataSource.getHikariPoolMXBean();
+                    LOGGER.info(
+                        "JPA executor: {} queued, {} of {} active; connections: {} active, {}"
+                            + " idle, {} awaited.",
+                        JpaExecutor.getQueued(),
+                        JpaExecutor.getActive(),
+                        size,
+                        pool.getActiveConnections(),
+                        pool.getIdleConnections(),
+                        pool.getThreadsAwaitingConnection());
+                  });
+            }
+
+            deployMetrics(vertx, config);
+
+            // Report cache effectiveness so the regions can be sized.
+            var cache = execResult.result();
+            long statsInterval = config.getLong(ConfigProp.CACHE_STATS_INTERVAL_MS, 60000L);
+            if (cache != null && statsInterval > 0) {
+              vertx.setPeriodic(
+                  statsInterval,
+                  id ->
+                      LOGGER.info(
+                          "Second-level cache statistics: {}",
+                          cache.getStatistics(
+                              PersistenceManager.INSTANCE.getEntityManagerFactory())));
+            }
+          } else {
+            LOGGER.error("Unable to initialize JPA runtime.", execResult.cause());
+            vertx.close();
+            deployed.handle(Future.failedFuture(execResult.cause()));
           }
         });
   }
+
+  /**
+   * Deploys {@link ReactiveRepositoryVerticle} instead of the JPA verticle. Hibernate isn't
+   * started at all; the verticles connect to the PostgreSQL server named by <code>
+   * reactive-connect</code>.
+   */
+  private static void deployReactive(
+      Vertx vertx, JsonObject config, Handler<AsyncResult<Void>> deployed) {
+    var connect = config.getJsonObject(ConfigProp.REACTIVE_CONNECT, new JsonObject());
+
+    ReactiveRepositoryVerticle.createSchema(
+        vertx,
+        config,
+        schema -> {
+          if (schema.failed()) {
+            LOGGER.error("Unable to create the database schema.", schema.cause());
+            vertx.close();
+            deployed.handle(schema);
+            return;
+          }
+
+          int count = config.getInteger(ConfigProp.JPA_VERTICLE_COUNT);
+          LOGGER.info(
+              "Deploying {} instance(s) of the reactive repository, each with up to {}"
+                  + " connection(s) to {}:{}/{}.",
+              count,
+              config.getInteger(ConfigProp.REACTIVE_POOL_SIZE, 10),
+              connect.getString("host", PgConnectOptions.DEFAULT_HOST),
+              connect.getInteger("port", PgConnectOptions.DEFAULT_PORT),
+              connect.getString("database", PgConnectOptions.DEFAULT_DATABASE));
+          vertx.deployVerticle(
+              ReactiveRepositoryVerticle.class.getName(),
+              new DeploymentOptions().setConfig(config).setInstances(count),
+              deployedHandler(vertx, config, deployed));
+
+          deployMetrics(vertx, config);
+        });
+  }
+
+  /**
+   * Bootstraps Hibernate and the read replicas' entity manager factories. This blocks, so it must
+   * not run on an event loop.
+   *
+   * @param config The JPA node's configuration.
+   * @param clusterMgr The cluster manager, which holds the second-level cache, or <code>null
+   *     </code> if there is none.
+   * @return The second-level cache, or <code>null</code> if it isn't enabled.
+   * @throws IllegalArgumentException If the create log is enabled on a node without a shard.
+   */
+  private static SecondLevelCache initializePersistence(
+      JsonObject config, HazelcastClusterManager clusterMgr) {
+    // Only the node that logged a person can find them until they're inserted, and only a shard
+    // sends every find of its ids to the node that serves it.
+    int shard = config.getInteger(ConfigProp.SHARD, -1);
+    if (config.getBoolean(ConfigProp.CREATE_LOG_ENABLED, false) && shard < 0) {
+      throw new IllegalArgumentException(
+          ConfigProp.CREATE_LOG_ENABLED + " needs the node to serve a " + ConfigProp.SHARD + ".");
+    }
+
+    // The second-level cache, if enabled, lives in the cluster's Hazelcast instance.
+    SecondLevelCache cache = null;
+    Map<String, Object> persistenceProperties = new HashMap<>();
+    boolean cacheEnabled = config.getBoolean(ConfigProp.SECOND_LEVEL_CACHE_ENABLED, false);
+    if (cacheEnabled && clusterMgr == null) {
+      LOGGER.warn("The second-level cache needs a cluster; running without it.");
+    } else if (cacheEnabled) {
+      cache =
+          new SecondLevelCache(
+              clusterMgr.getHazelcastInstance(),
+              config.getInteger(ConfigProp.SECOND_LEVEL_CACHE_MAX_ENTRIES, 10000),
+              config.getBoolean(ConfigProp.QUERY_CACHE_ENABLED, false));
+      persistenceProperties.putAll(cache.getPersistenceProperties());
+      LOGGER.info("Second-level cache enabled.");
+    }
+
+    // Ids are reserved from the database a block at a time, and carry the node's shard.
+    persistenceProperties.put(
+        PersonIdGenerator.BLOCK_SIZE,
+        config
+            .getInteger(ConfigProp.ID_BLOCK_SIZE, PersonIdGenerator.DEFAULT_BLOCK_SIZE)
+            .toString());
+    if (shard >= 0) {
+      persistenceProperties.put(PersonIdGenerator.SHARD, Integer.toString(shard));
+      LOGGER.info("Serving shard {}.", shard);
+    }
+
+    // Each shard has a database of its own, so the connection may be configured here rather than
+    // in persistence.xml.
+    var database = config.getJsonObject(ConfigProp.DATABASE);
+    if (database != null) {
+      persistenceProperties.putAll(connectionProperties(Map.of(), database));
+    }
+
+    // Creating the schema drops whatever is already there, so by default it's only updated.
+    persistenceProperties.put(
+        "hibernate.hbm2ddl.auto", config.getString(ConfigProp.SCHEMA_MANAGEMENT, "update"));
+
+    long start = System.nanoTime();
+    var pm = PersistenceManager.INSTANCE;
+    pm.initialize(persistenceProperties);
+    LOGGER.debug("Pesistence Manager initialized = {}", pm.isInitialized());
+    LOGGER.info("Startup: Hibernate bootstrapped in {} ms.", millisSince(start));
+
+    // Finds and lists are spread across read replicas, if there are any.
+    var replicas = config.getJsonArray(ConfigProp.READ_REPLICAS, new JsonArray());
+    for (int i = 0; i < replicas.size(); i++) {
+      var replica = replicas.getJsonObject(i);
+      var name = replica.getString("name", "replica-" + (i + 1));
+      pm.addReplica(name, connectionProperties(persistenceProperties, replica));
+      LOGGER.info("Read replica {} added at {}.", name, replica.getString("url"));
+    }
+
+    // Creates logged before the node stopped are applied before it takes requests.
+    if (config.getBoolean(ConfigProp.CREATE_LOG_ENABLED, false)) {
+      var directory = Paths.get(config.getString(ConfigProp.CREATE_LOG_DIR, "create-log"));
+      CreateLog.INSTANCE.open(
+          directory, config.getInteger(ConfigProp.CREATE_LOG_SEGMENT_BYTES, 64 * 1024 * 1024));
+      LOGGER.info("Create log opened in {}.", directory.toAbsolutePath());
+    }
+    PoolMetrics.install();
+    return cache;
+  }
+
+  /**
+   * Adds the connection settings from a <code>database</code> or <code>read-replicas</code> entry
+   * to a copy of the persistence properties.
+   */
+  private static Map<String, Object> connectionProperties(
+      Map<String, Object> persistenceProperties, JsonObject connection) {
+    var properties = new HashMap<>(persistenceProperties);
+    if (connection.containsKey("url")) {
+      properties.put("hibernate.hikari.dataSource.url", connection.getString("url"));
+    }
+    if (connection.containsKey("user")) {
+      properties.put("hibernate.hikari.dataSource.user", connection.getString("user"));
+    }
+    if (connection.containsKey("password")) {
+      properties.put("hibernate.hikari.dataSource.password", connection.getString("password"));
+    }
+    if (connection.containsKey("pool-size")) {
+      properties.put(
+          "hibernate.hikari.maximumPoolSize", connection.getInteger("pool-size").toString());
+    }
+    return properties;
+  }
+
+  /**
+   * Once the repository verticles are deployed, warms the node up and then makes it ready, which
+   * registers the verticles' consumers with the cluster.
+   */
+  private static Handler<AsyncResult<String>> deployedHandler(
+      Vertx vertx, JsonObject config, Handler<AsyncResult<Void>> deployed) {
+    long start = System.nanoTime();
+    return result -> {
+      if (result.failed()) {
+        LOGGER.error("Unable to deploy the repository verticle.", result.cause());
+        deployed.handle(result.mapEmpty());
+        return;
+      }
+      LOGGER.info("Startup: repository verticles deployed in {} ms.", millisSince(start));
+
+      long warmUpStart = System.nanoTime();
+      WarmUp.run(
+          vertx,
+          config,
+          warm -> {
+            LOGGER.info("Startup: warmed up in {} ms.", millisSince(warmUpStart));
+            long readyStart = System.nanoTime();
+            Readiness.INSTANCE.ready(
+                ready -> {
+                  if (ready.succeeded()) {
+                    LOGGER.info(
+                        "Startup: consumers registered with the cluster in {} ms.",
+                        millisSince(readyStart));
+                  }
+                  deployed.handle(ready);
+                });
+          });
+    };
+  }
+
+  private static void deployMetrics(Vertx vertx, JsonObject config) {
+    // The JPA node has no API server of its own, so metrics get a dedicated port.
+    if (config.getInteger(ConfigProp.METRICS_PORT, 9090) > 0) {
+      vertx.deployVerticle(
+          MetricsVerticle.class.getName(), new DeploymentOptions().setConfig(config));
+    }
+  }
+
+  private static long millisSince(long start) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  private static long uptime() {
+    return ManagementFactory.getRuntimeMXBean().getUptime();
+  }
 }
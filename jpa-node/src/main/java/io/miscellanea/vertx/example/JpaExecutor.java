@@ -0,0 +1,314 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs blocking repository work off the event loop. By default work runs on a named Vert.x worker
+ * pool shared by every JPA verticle in the JVM and sized to match the database connection pool,
+ * so that each thread can always get a connection and no connection sits idle while work queues.
+ * On JDKs with virtual threads it can instead start a virtual thread per task, with the same
+ * bound on how many run at once.
+ *
+ * <p>Work is submitted through a {@link Lane}, one per event bus address, which decides whether
+ * the address's tasks may run concurrently or must run one at a time in arrival order.
+ *
+ * @author Jason Hallford
+ */
+public final class JpaExecutor {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(JpaExecutor.class);
+
+  /** The name of the shared worker pool. */
+  public static final String POOL_NAME = "jpa-worker";
+
+  private static final LongAdder QUEUED = new LongAdder();
+  private static final LongAdder ACTIVE = new LongAdder();
+  private static final LongAdder STARTED = new LongAdder();
+  private static final LongAdder FINISHED = new LongAdder();
+  private static final LongAdder WAIT_NANOS = new LongAdder();
+  private static final LongAdder RUN_NANOS = new LongAdder();
+
+  // Virtual threads are shared by every verticle, like the named worker pool.
+  private static ExecutorService virtualThreads;
+  private static Semaphore virtualPermits;
+  private static boolean virtualThreadsUnavailable;
+
+  private final Context context;
+  private final WorkerExecutor workerExecutor;
+
+  // Tasks are usually submitted from the verticle's event loop, but timers and replies set up by
+  // a task may call back on other threads, so the ordered chain is guarded by this monitor.
+  private CompletableFuture<Void> orderedTail = CompletableFuture.completedFuture(null);
+
+  // Constructors
+  private JpaExecutor(Context context, WorkerExecutor workerExecutor) {
+    this.context = context;
+    this.workerExecutor = workerExecutor;
+  }
+
+  // Factory methods
+  /**
+   * Creates an executor for the calling verticle.
+   *
+   * @param vertx The Vert.x instance.
+   * @param size The most tasks that may run at once, JVM-wide.
+   * @param useVirtualThreads Whether to run tasks on virtual threads, if the JDK supports them.
+   * @return The executor. Close it when the verticle stops.
+   */
+  public static JpaExecutor create(Vertx vertx, int size, boolean useVirtualThreads) {
+    var metrics = Metrics.INSTANCE;
+    metrics.gauge("jpa_executor_size", "Repository tasks that may run at once.", "", () -> size);
+    metrics.gauge(
+        "jpa_executor_queued", "Repository tasks waiting for a thread.", "", QUEUED::sum);
+    metrics.gauge("jpa_executor_active", "Repository tasks running.", "", ACTIVE::sum);
+
+    if (useVirtualThreads && startVirtualThreads(size)) {
+      return new JpaExecutor(vertx.getOrCreateContext(), null);
+    }
+    return new JpaExecutor(
+        vertx.getOrCreateContext(), vertx.createSharedWorkerExecutor(POOL_NAME, size));
+  }
+
+  // Public methods
+  /**
+   * Creates a lane for an event bus address.
+   *
+   * @param address The address whose work will use the lane.
+   * @param ordered Whether the lane's tasks must run one at a time, in submission order.
+   * @return The lane.
+   */
+  public Lane lane(String address, boolean ordered) {
+    return new Lane(address, ordered);
+  }
+
+  /** Releases this verticle's hold on the shared worker pool. */
+  public void close() {
+    if (workerExecutor != null) {
+      workerExecutor.close();
+    }
+  }
+
+  /**
+   * Tests whether tasks run on virtual threads.
+   *
+   * @return <code>true</code> if virtual threads are in use.
+   */
+  public boolean isVirtual() {
+    return workerExecutor == null;
+  }
+
+  /**
+   * The number of tasks waiting for a thread, JVM-wide.
+   *
+   * @return The queue depth.
+   */
+  public static long getQueued() {
+    return QUEUED.sum();
+  }
+
+  /**
+   * The number of tasks running, JVM-wide.
+   *
+   * @return The number of busy threads.
+   */
+  public static long getActive() {
+    return ACTIVE.sum();
+  }
+
+  /**
+   * The number of tasks that have started, JVM-wide, since the node started.
+   *
+   * @return The count.
+   */
+  public static long getStarted() {
+    return STARTED.sum();
+  }
+
+  /**
+   * The total time tasks have waited for a thread, JVM-wide.
+   *
+   * @return The time in nanoseconds.
+   */
+  public static long getWaitNanos() {
+    return WAIT_NANOS.sum();
+  }
+
+  /**
+   * The number of tasks that have finished, JVM-wide, since the node started.
+   *
+   * @return The count.
+   */
+  public static long getFinished() {
+    return FINISHED.sum();
+  }
+
+  /**
+   * The total time tasks have spent running, JVM-wide.
+   *
+   * @return The time in nanoseconds.
+   */
+  public static long getRunNanos() {
+    return RUN_NANOS.sum();
+  }
+
+  // Utility methods
+  /**
+   * Starts the shared virtual thread executor. It's created reflectively as the project still
+   * targets Java 11.
+   */
+  private static synchronized boolean startVirtualThreads(int size) {
+    if (virtualThreads != null) {
+      return true;
+    } else if (virtualThreadsUnavailable) {
+      return false;
+    }
+
+    try {
+      virtualThreads =
+          (ExecutorService)
+              Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      virtualPermits = new Semaphore(size);
+      LOGGER.info("Repository work will run on virtual threads, at most {} at once.", size);
+      return true;
+    } catch (ReflectiveOperationException e) {
+      virtualThreadsUnavailable = true;
+      LOGGER.warn(
+          "Virtual threads are not available on Java {}; using the {} worker pool.",
+          System.getProperty("java.specification.version"),
+          POOL_NAME);
+      return false;
+    }
+  }
+
+  private void submit(boolean ordered, Runnable task, Handler<AsyncResult<Void>> done) {
+    QUEUED.increment();
+
+    Handler<AsyncResult<Void>> completion = done == null ? result -> {} : done;
+    if (workerExecutor != null) {
+      workerExecutor.executeBlocking(
+          promise -> {
+            this.run(task);
+            promise.complete();
+          },
+          ordered,
+          completion);
+      return;
+    }
+
+    Runnable bounded =
+        () -> {
+          virtualPermits.acquireUninterruptibly();
+          try {
+            this.run(task);
+          } finally {
+            virtualPermits.release();
+          }
+        };
+
+    CompletableFuture<Void> future;
+    if (ordered) {
+      synchronized (this) {
+        future = orderedTail.thenRunAsync(bounded, virtualThreads);
+        orderedTail = future.exceptionally(e -> null);
+      }
+    } else {
+      future = CompletableFuture.runAsync(bounded, virtualThreads);
+    }
+    future.whenComplete(
+        (v, e) ->
+            context.runOnContext(
+                x ->
+                    completion.handle(
+                        e == null ? Future.succeededFuture() : Future.failedFuture(e))));
+  }
+
+  private void run(Runnable task) {
+    QUEUED.decrement();
+    ACTIVE.increment();
+    try {
+      task.run();
+    } finally {
+      ACTIVE.decrement();
+    }
+  }
+
+  /** Submits one address's work with that address's dispatch mode, recording its timings. */
+  public final class Lane {
+    private final boolean ordered;
+    private final LatencyTimer wait;
+    private final LatencyTimer execution;
+
+    private Lane(String address, boolean ordered) {
+      this.ordered = ordered;
+
+      var labels = Metrics.labels("address", address);
+      this.wait =
+          Metrics.INSTANCE.timer(
+              "jpa_executor_wait_seconds", "Time a repository task waited for a thread.", labels);
+      this.execution =
+          Metrics.INSTANCE.timer(
+              "jpa_handler_seconds", "Time a worker spent handling a request.", labels);
+    }
+
+    /**
+     * Runs a task. Exceptions it throws are logged, so tasks should reply to their messages
+     * themselves.
+     *
+     * @param task The blocking work.
+     */
+    public void execute(Runnable task) {
+      this.execute(task, null);
+    }
+
+    /**
+     * Runs a task and calls <code>done</code> on the submitting verticle's context afterwards.
+     *
+     * @param task The blocking work.
+     * @param done Called when the task has finished, or <code>null</code>.
+     */
+    public void execute(Runnable task, Handler<AsyncResult<Void>> done) {
+      long submitted = System.nanoTime();
+      submit(
+          ordered,
+          () -> {
+            long started = System.nanoTime();
+            wait.record(started - submitted);
+            STARTED.increment();
+            WAIT_NANOS.add(started - submitted);
+            try {
+              task.run();
+            } catch (RuntimeException e) {
+              LOGGER.error("Unhandled exception in repository task.", e);
+            } finally {
+              long ran = System.nanoTime() - started;
+              execution.record(ran);
+              FINISHED.increment();
+              RUN_NANOS.add(ran);
+            }
+          },
+          done);
+    }
+
+    /**
+     * Tests whether this lane runs its tasks one at a time.
+     *
+     * @return <code>true</code> if the lane is ordered.
+     */
+    public boolean isOrdered() {
+      return ordered;
+    }
+  }
+}
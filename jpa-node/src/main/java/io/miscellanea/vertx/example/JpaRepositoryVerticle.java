@@ -1,185 +1,629 @@
 package io.miscellanea.vertx.example;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonObject;
+import org.hibernate.annotations.QueryHints;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
 
 import static io.miscellanea.vertx.example.PersistenceManager.INSTANCE;
 
 /**
- * A JPA-based repository for Person objects implemented as Vert.x worker verticle.
+ * A JPA-based repository for Person objects. The verticle itself runs on an event loop and only
+ * dispatches: every database operation runs on a {@link JpaExecutor} sized to the connection pool,
+ * in an ordered or unordered lane chosen per address by <code>jpa-dispatch</code>.
  *
  * @author Jason Hallford
  */
-public class JpaRepositoryVerticle extends AbstractVerticle {
+public class JpaRepositoryVerticle extends RepositoryVerticle {
   // Fields
   private static final Logger LOGGER = LoggerFactory.getLogger(JpaRepositoryVerticle.class);
 
+  private JpaExecutor executor;
+  private JpaExecutor.Lane createLane;
+  private JpaExecutor.Lane findLane;
+  private JpaExecutor.Lane listLane;
+  private JpaExecutor.Lane searchLane;
+  private JpaExecutor.Lane bulkLane;
+  private JpaExecutor.Lane exportLane;
+
+  // Group commit state. Creates are handled on several worker threads at once, so the pending
+  // list and timer are guarded by this verticle's monitor.
+  private boolean hopTiming;
+  private boolean groupCommit;
+  private long groupCommitWindowMs;
+  private int groupCommitMaxBatch;
+  private List<PendingCreate> pendingCreates = new ArrayList<>();
+  private long groupCommitTimer = -1;
+
+  // With the create log on, creates are acknowledged once logged and applied in the background.
+  private boolean createLog;
+  private long createLogApplyWaitMs;
+
   // Constructors
   public JpaRepositoryVerticle() {}
 
   // Verticle life-cycle management
   @Override
   public void start() {
+    this.configureListing();
+    this.configureShard();
+    this.hopTiming = config().getBoolean(ConfigProp.HOP_TIMING, true);
+    this.groupCommit = config().getBoolean(ConfigProp.GROUP_COMMIT_ENABLED, false);
+    this.groupCommitWindowMs = config().getLong(ConfigProp.GROUP_COMMIT_WINDOW_MS, 5L);
+    this.groupCommitMaxBatch = config().getInteger(ConfigProp.GROUP_COMMIT_MAX_BATCH, 50);
+
+    this.createLog = config().getBoolean(ConfigProp.CREATE_LOG_ENABLED, false);
+    this.createLogApplyWaitMs = config().getLong(ConfigProp.CREATE_LOG_APPLY_WAIT_MS, 5000L);
+    if (createLog && !CreateLog.INSTANCE.isOpen()) {
+      LOGGER.warn("The create log isn't open; creates are committed before they're acknowledged.");
+      this.createLog = false;
+    }
+
+    if (createLog && groupCommit) {
+      LOGGER.info("The create log is enabled, so creates aren't grouped.");
+      this.groupCommit = false;
+    } else if (groupCommit) {
+      LOGGER.info(
+          "Group commit enabled: window = {} ms, maximum batch = {}.",
+          groupCommitWindowMs,
+          groupCommitMaxBatch);
+    }
+
+    int executorSize = config().getInteger(ConfigProp.JPA_EXECUTOR_SIZE, 0);
+    if (executorSize <= 0) {
+      executorSize = INSTANCE.getMaximumConnections();
+    }
+    this.executor =
+        JpaExecutor.create(
+            vertx, executorSize, config().getBoolean(ConfigProp.JPA_VIRTUAL_THREADS, false));
+    this.createLane = this.lane(EventBusAddress.REPOSITORY_PERSON_CREATE);
+    this.findLane = this.lane(EventBusAddress.REPOSITORY_PERSON_FIND);
+    this.listLane = this.lane(EventBusAddress.REPOSITORY_PERSON_LIST);
+    this.searchLane = this.lane(EventBusAddress.REPOSITORY_PERSON_SEARCH);
+    this.bulkLane = this.lane(EventBusAddress.REPOSITORY_PERSON_BULK);
+    this.exportLane = this.lane(EventBusAddress.REPOSITORY_PERSON_EXPORT);
+
     LOGGER.debug("Registering event handlers...");
-    var bus = vertx.eventBus();
 
     // This is where all the interesting stuff happens: the repository registers
     // and interest in named events that represent its core operations: create,
     // find, and list. The runtime will invoke these handlers when the API
     // verticle requires access to the persistence layer.
-    bus.consumer(EventBusAddress.REPOSITORY_PERSON_CREATE, this::createPerson);
-    bus.consumer(EventBusAddress.REPOSITORY_PERSON_FIND, this::findPerson);
-    bus.consumer(EventBusAddress.REPOSITORY_PERSON_LIST, this::listPeople);
+    var createAddress = this.address(EventBusAddress.REPOSITORY_PERSON_CREATE);
+    var findAddress = this.address(EventBusAddress.REPOSITORY_PERSON_FIND);
+    var listAddress = this.address(EventBusAddress.REPOSITORY_PERSON_LIST);
+    var searchAddress = this.address(EventBusAddress.REPOSITORY_PERSON_SEARCH);
+    var bulkAddress = this.address(EventBusAddress.REPOSITORY_PERSON_BULK);
+    var exportAddress = this.address(EventBusAddress.REPOSITORY_PERSON_EXPORT);
+    this.consume(createAddress, this.dispatch(createAddress, createLane, this::createPerson));
+    this.consume(findAddress, this.dispatch(findAddress, findLane, this::findPerson));
+    this.consume(listAddress, this.dispatch(listAddress, listLane, this::listPeople));
+    this.consume(searchAddress, this.dispatch(searchAddress, searchLane, this::listPeople));
+    this.consume(bulkAddress, this.dispatch(bulkAddress, bulkLane, this::createPeople));
+    this.consume(exportAddress, this.dispatch(exportAddress, exportLane, this::exportPeople));
     LOGGER.debug("Handlers registered.");
+    this.announceShard();
 
     LOGGER.info("JPA verticle started.");
   }
 
   @Override
-  public void stop() {
-    LOGGER.info("JPA verticle stopped.");
+  public void stop(Promise<Void> stopPromise) {
+    // Don't strand anyone waiting on a batch that hasn't been committed yet.
+    createLane.execute(
+        this::flushCreates,
+        flushed -> {
+          executor.close();
+          LOGGER.info("JPA verticle stopped.");
+          stopPromise.complete();
+        });
   }
 
   // Message handlers
-  private void createPerson(Message<JsonObject> message) {
+  private void createPerson(Message<Object> message) {
     LOGGER.debug("Creating new person.");
 
-    var reply = prepareReply(message);
+    var request = this.decode(message);
+    if (request == null) {
+      return;
+    }
 
-    try {
-      Optional<Person> optionalPerson = this.convertJsonToPerson(message.body());
-
-      if (optionalPerson.isPresent()) {
-        Person persistedPerson = INSTANCE.persist(optionalPerson.get());
-
-        // Return the results as a JSON array.
-        String jsonString = this.convertPersonToJson(persistedPerson);
-        if (jsonString != null) {
-          reply.put(MessageField.STATUS, "ok");
-          reply.put(MessageField.RESULT, jsonString);
-        } else {
-          throw new PersistenceException("Unable to convert Person to JSON.");
-        }
-      } else {
-        throw new PersistenceException("Unable to create Person from provided JSON.");
+    var person = new Person();
+    person.setName(request.getName());
+    person.setAge(request.getAge() == null ? 0 : request.getAge());
+
+    if (createLog) {
+      this.logCreate(message, request, person);
+    } else if (groupCommit) {
+      this.enqueueCreate(new PendingCreate(message, request, person, HopClock.current()));
+    } else {
+      try {
+        Person persistedPerson = INSTANCE.persist(person);
+        this.publishChanged(persistedPerson);
+        this.replyWithPerson(message, request, persistedPerson);
+      } catch (PersistenceException e) {
+        this.replyFailed(message, request, e);
       }
-    } catch (PersistenceException e) {
-      LOGGER.error("Unable to save person to database; returning error reply.", e);
+    }
+  }
 
-      // Return an error status to the message's originator.
-      reply.put(MessageField.STATUS, "err");
-      reply.put(MessageField.ERROR, e.getMessage());
+  /**
+   * Creates every person in a bulk request in one transaction, whose inserts Hibernate sends in
+   * JDBC batches. The chunk succeeds or fails as a whole.
+   */
+  private void createPeople(Message<Object> message) {
+    var request = this.decode(message);
+    if (request == null) {
+      return;
     }
 
-    message.reply(reply);
+    var people = this.newPeople(request);
+    LOGGER.debug("Creating {} people in bulk.", people.size());
+
+    try {
+      INSTANCE.persistAll(people);
+      this.replyWithIds(message, request, people);
+    } catch (PersistenceException e) {
+      this.replyFailed(message, request, e);
+    }
   }
 
-  private void listPeople(Message<JsonObject> message) {
-    LOGGER.debug("Reading all people from the database.");
+  /**
+   * Serves listings and, on the search address, searches: the same keyset pages, restricted by
+   * name prefix or age range.
+   */
+  private void listPeople(Message<Object> message) {
+    var request = this.decode(message);
+    if (request == null) {
+      return;
+    }
+
+    long after = request.getAfter() == null ? 0L : request.getAfter();
+    if (!this.awaitCreatesApplied(message, request)) {
+      return;
+    }
+
+    if (request.isStream()) {
+      if (!this.openStream(message)) {
+        return;
+      }
+      LOGGER.debug("Streaming people after id {} from the database.", after);
+      this.sendNextPage(message, request, after, readPrimary(message));
+      return;
+    }
 
-    var reply = prepareReply(message);
+    int limit = this.pageLimit(request);
+    LOGGER.debug("Reading up to {} people after id {} from the database.", limit, after);
+
+    var reply = PersonEnvelope.replyTo(request);
 
     try {
       List<Person> people =
-          INSTANCE.find(em -> em.createQuery("select p from Person p").getResultList());
+          INSTANCE.read(readPrimary(message), em -> this.findPage(em, request, after, limit));
 
       // Convert the response to a JSON array.
-      var mapper = new ObjectMapper();
-      var jsonString = mapper.writeValueAsString(people);
+      var jsonString = MAPPER.writeValueAsString(people);
       LOGGER.debug("Query results as JSON = {}", jsonString);
 
-      // Return the results as a JSON array.
-      reply.put(MessageField.STATUS, "ok");
-      reply.put(MessageField.RESULT, jsonString);
+      // Return the results as a JSON array. A full page means there may be more rows, so we hand
+      // the caller the cursor for the next one.
+      reply.setStatus("ok").setResult(jsonString);
+      if (people.size() == limit) {
+        reply.setNextAfter(people.get(people.size() - 1).getId());
+      }
     } catch (PersistenceException | JsonProcessingException e) {
       LOGGER.error(
           "Unable to read from database or marshal results to JSON; returning error reply.", e);
 
       // Return an error status to the message's originator.
-      reply.put(MessageField.STATUS, "err");
-      reply.put(MessageField.ERROR, e.getMessage());
+      reply.setStatus("err").setError(e.getMessage());
+    }
+
+    sendReply(message, reply);
+  }
+
+  /** Reads one page of a streamed listing and sends it (see {@link #replyWithStreamPage}). */
+  private void sendNextPage(
+      Message<?> message, PersonEnvelope request, long after, boolean primary) {
+    var reply = PersonEnvelope.replyTo(request);
+    long nextAfter;
+
+    try {
+      List<Person> people =
+          INSTANCE.read(primary, em -> this.findPage(em, request, after, streamPageSize));
+
+      boolean last = people.size() < streamPageSize;
+      reply.setStatus("ok").setResult(MAPPER.writeValueAsString(people)).setLast(last);
+
+      nextAfter = last ? -1 : people.get(people.size() - 1).getId();
+    } catch (PersistenceException | JsonProcessingException e) {
+      LOGGER.error("Unable to stream people from the database; returning error reply.", e);
+
+      reply.setStatus("err").setError(e.getMessage());
+      nextAfter = -1;
+    }
+
+    if (nextAfter < 0) {
+      this.streamClosed();
+    }
+    long cursor = nextAfter;
+    this.replyWithStreamPage(
+        message,
+        request,
+        reply,
+        nextAfter,
+        ack ->
+            this.listingLane(request)
+                .execute(() -> this.sendNextPage(ack, request, cursor, primary)),
+        this::streamClosed);
+  }
+
+  /**
+   * Exports every person through a forward-only cursor, rendered in the requested format and sent
+   * in chunks of about <code>export-chunk-bytes</code> (see {@link #replyWithStreamPage}). The
+   * cursor stays open between chunks, so the export sees one consistent snapshot and never holds
+   * more than a chunk and a fetch in memory.
+   */
+  private void exportPeople(Message<Object> message) {
+    var request = this.decode(message);
+    if (request == null) {
+      return;
+    }
+    var format = this.exportFormat(message, request);
+    if (format == null
+        || !this.awaitCreatesApplied(message, request)
+        || !this.openExport(message)) {
+      return;
+    }
+
+    QueryCursor cursor;
+    try {
+      cursor = INSTANCE.scroll(readPrimary(message), Person.QUERY_EXPORT, streamPageSize);
+    } catch (PersistenceException e) {
+      this.exportClosed();
+      this.replyFailed(message, request, e);
+      return;
+    }
+
+    LOGGER.debug("Exporting people as {}.", format);
+    this.sendNextChunk(message, request, format, cursor);
+  }
+
+  /**
+   * Reads rows from an export's cursor until a chunk's worth has been rendered and sends it. The
+   * cursor is closed after the last chunk, if a row can't be read, or if the API verticle abandons
+   * the export.
+   */
+  private void sendNextChunk(
+      Message<?> message, PersonEnvelope request, ExportFormat format, QueryCursor cursor) {
+    var reply = PersonEnvelope.replyTo(request);
+    var rows = new StringBuilder(exportChunkBytes);
+    boolean last;
+
+    try {
+      Object[] row = null;
+      while (rows.length() < exportChunkBytes && (row = cursor.next()) != null) {
+        format.append(
+            rows,
+            ((Number) row[0]).longValue(),
+            (String) row[1],
+            ((Number) row[2]).intValue());
+      }
+
+      last = row == null;
+      reply.setStatus("ok").setResult(rows.toString()).setLast(last);
+    } catch (PersistenceException e) {
+      LOGGER.error("Unable to export people from the database; returning error reply.", e);
+
+      reply.setStatus("err").setError(e.getMessage());
+      last = true;
     }
 
-    message.reply(reply);
+    if (last) {
+      this.closeExport(cursor);
+    }
+    this.replyWithStreamPage(
+        message,
+        request,
+        reply,
+        last ? -1 : 0,
+        ack -> exportLane.execute(() -> this.sendNextChunk(ack, request, format, cursor)),
+        () -> exportLane.execute(() -> this.closeExport(cursor)));
   }
 
-  private void findPerson(Message<JsonObject> message) {
-    LOGGER.debug(
-        "Finding person with id {} in the database.",
-        message.body().getString(MessageField.ENTITY_ID));
-    Long entityId = Long.parseLong(message.body().getString(MessageField.ENTITY_ID));
+  private void findPerson(Message<Object> message) {
+    var request = this.decode(message);
+    if (request == null) {
+      return;
+    }
 
-    var reply = prepareReply(message);
+    Long entityId = request.getEntityId();
+    LOGGER.debug("Finding person with id {} in the database.", entityId);
+
+    // A person who has been logged but not yet applied is only in the log.
+    var logged = createLog && entityId != null ? CreateLog.INSTANCE.unapplied(entityId) : null;
+    if (logged != null) {
+      if (Long.valueOf(logged.getVersion()).equals(request.getEntityVersion())) {
+        this.replyNotModified(message, request);
+      } else {
+        this.replyWithPerson(message, request, logged);
+      }
+      return;
+    }
 
     try {
+      // A client that already has the person only needs to know whether it has changed, which
+      // its version answers without loading the entity.
+      Long knownVersion = request.getEntityVersion();
+      if (entityId != null && knownVersion != null) {
+        List<Long> versions =
+            INSTANCE.read(
+                readPrimary(message),
+                em ->
+                    em.createNamedQuery(Person.QUERY_VERSION, Long.class)
+                        .setParameter("id", entityId)
+                        .getResultList());
+        if (versions.isEmpty()) {
+          LOGGER.debug("No person with id {}.", entityId);
+          sendReply(message, PersonEnvelope.replyTo(request).setStatus("ok").setResult("{}"));
+          return;
+        } else if (versions.get(0).equals(knownVersion)) {
+          this.replyNotModified(message, request);
+          return;
+        }
+      }
+
       List<Person> people =
-          INSTANCE.find(
+          INSTANCE.read(
+              readPrimary(message),
               em -> {
-                Person person = em.find(Person.class, entityId);
+                Person person = entityId == null ? null : em.find(Person.class, entityId);
                 return person == null ? new ArrayList<>() : Collections.singletonList(person);
               });
 
-      // Convert the response to a JSON string.
-      var jsonString = "{}";
       if (people.size() > 0) {
-        var mapper = new ObjectMapper();
-        jsonString = mapper.writeValueAsString(people.get(0));
+        this.replyWithPerson(message, request, people.get(0));
+      } else {
+        LOGGER.debug("No person with id {}.", entityId);
+        sendReply(message, PersonEnvelope.replyTo(request).setStatus("ok").setResult("{}"));
       }
-      LOGGER.debug("Query results as JSON = {}", jsonString);
-
-      reply.put(MessageField.STATUS, "ok");
-      reply.put(MessageField.RESULT, jsonString);
-    } catch (PersistenceException | JsonProcessingException e) {
-      LOGGER.error(
-          "Unable to read from database or marshal results to JSON; returning error reply.", e);
+    } catch (PersistenceException e) {
+      LOGGER.error("Unable to read from database; returning error reply.", e);
 
       // Return an error status to the message's originator.
-      reply.put(MessageField.STATUS, "err");
-      reply.put(MessageField.RESULT, e.getMessage());
+      sendReply(
+          message,
+          PersonEnvelope.replyTo(request)
+              .setStatus("err")
+              .setResult(e.getMessage())
+              .setError(e.getMessage()));
+    }
+  }
+
+  // Create log
+  /**
+   * Gives a new person an id and appends it to the create log. The reply is sent once the log has
+   * been synced, timed with the wait for the sync as its database time; the database insert
+   * follows in the background.
+   */
+  private void logCreate(Message<Object> message, PersonEnvelope request, Person person) {
+    var clock = HopClock.current();
+    long started = System.nanoTime();
+    try {
+      person.setId((Long) INSTANCE.generateId(person));
+      CreateLog.INSTANCE.append(
+          person,
+          synced -> {
+            if (synced.failed()) {
+              this.replyFailed(message, request, synced.cause());
+              return;
+            }
+            if (clock != null) {
+              clock.setDatabaseTime(System.nanoTime() - started);
+            }
+            this.publishChanged(person);
+            this.replyWithPerson(message, request, person, clock);
+          });
+    } catch (PersistenceException | IllegalArgumentException e) {
+      this.replyFailed(message, request, e);
     }
+  }
 
-    message.reply(reply);
+  /**
+   * With the create log on, waits until every create acknowledged so far has been applied, so that
+   * a listing or export includes them. If they can't be applied in time the request is failed with
+   * a 503.
+   *
+   * @return <code>true</code> if the request may go ahead.
+   */
+  private boolean awaitCreatesApplied(Message<Object> message, PersonEnvelope request) {
+    try {
+      if (!createLog || CreateLog.INSTANCE.awaitApplied(createLogApplyWaitMs)) {
+        return true;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    LOGGER.warn(
+        "Logged creates weren't applied within {} ms; rejecting request.", createLogApplyWaitMs);
+    message.fail(503, "Logged creates are still being applied.");
+    return false;
   }
 
-  private JsonObject prepareReply(Message<JsonObject> message) {
-    return new JsonObject()
-        .put(MessageField.REQUEST_ID, message.body().getValue(MessageField.REQUEST_ID));
+  // Group commit
+  private void enqueueCreate(PendingCreate create) {
+    boolean full;
+    synchronized (this) {
+      pendingCreates.add(create);
+      full = pendingCreates.size() >= groupCommitMaxBatch;
+      if (!full && groupCommitTimer < 0) {
+        groupCommitTimer =
+            vertx.setTimer(groupCommitWindowMs, id -> createLane.execute(this::flushCreates));
+      }
+    }
+
+    // We're already on a worker thread, so a full batch is committed right here.
+    if (full) {
+      this.flushCreates();
+    }
   }
 
-  private Optional<Person> convertJsonToPerson(JsonObject json) {
-    Optional<Person> optional;
-    Person person = null;
+  /**
+   * Commits every pending create in a single transaction. If the batch fails we can't tell which
+   * row was at fault, so each person is retried in a transaction of its own; only the bad rows are
+   * reported as errors.
+   */
+  private void flushCreates() {
+    List<PendingCreate> batch;
+    synchronized (this) {
+      if (groupCommitTimer >= 0) {
+        vertx.cancelTimer(groupCommitTimer);
+        groupCommitTimer = -1;
+      }
+
+      if (pendingCreates.isEmpty()) {
+        return;
+      }
+
+      batch = pendingCreates;
+      pendingCreates = new ArrayList<>();
+    }
+    LOGGER.debug("Committing batch of {} new people.", batch.size());
+
+    var people = new ArrayList<Person>(batch.size());
+    batch.forEach(create -> people.add(create.person));
 
+    // Every create in the batch waited for the whole commit, so each is timed with all of it.
+    long started = System.nanoTime();
     try {
-      var mapper = new ObjectMapper();
-      person = mapper.readValue(json.toString(), Person.class);
-    } catch (Exception e) {
-      LOGGER.error("Unable to extract Person from JSON '" + json.toString() + "'.", e);
+      INSTANCE.persistAll(people);
+      long databaseNanos = System.nanoTime() - started;
+      batch.forEach(
+          create -> {
+            this.publishChanged(create.person);
+            this.replyCreated(create, databaseNanos);
+          });
+    } catch (PersistenceException e) {
+      LOGGER.warn("Batch of {} people failed; retrying individually.", batch.size(), e);
+
+      for (var create : batch) {
+        try {
+          create.person.setId(null);
+          INSTANCE.persistAll(Collections.singletonList(create.person));
+          this.publishChanged(create.person);
+          this.replyCreated(create, System.nanoTime() - started);
+        } catch (PersistenceException pe) {
+          this.replyFailed(create.message, create.request, pe);
+        }
+      }
+    }
+  }
+
+  /** Replies to a create committed in a group, timed with the group's database time. */
+  private void replyCreated(PendingCreate create, long databaseNanos) {
+    if (create.clock != null) {
+      create.clock.setDatabaseTime(databaseNanos);
+    }
+    this.replyWithPerson(create.message, create.request, create.person, create.clock);
+  }
+
+  /**
+   * Returns the consumer for an address, which hands each message to the address's lane. Queue
+   * wait and deadlines are checked once a worker picks the message up. With <code>hop-timing
+   * </code> on, each message is timed from its arrival (see {@link HopClock}).
+   */
+  private Handler<Message<Object>> dispatch(
+      String address, JpaExecutor.Lane lane, Handler<Message<Object>> handler) {
+    var admitted = this.admitted(address, handler);
+    if (!hopTiming) {
+      return message -> lane.execute(() -> admitted.handle(message));
     }
 
-    return Optional.ofNullable(person);
+    return message -> {
+      long received = System.nanoTime();
+      lane.execute(
+          () -> {
+            HopClock.start(message, received);
+            try {
+              admitted.handle(message);
+            } finally {
+              HopClock.stop();
+            }
+          });
+    };
   }
 
-  private String convertPersonToJson(Person person) {
-    String json = null;
+  /** Creates the lane for an address in the dispatch mode configured for it. */
+  private JpaExecutor.Lane lane(String address) {
+    var modes = config().getJsonObject(ConfigProp.JPA_DISPATCH, new JsonObject());
+    boolean ordered = "ordered".equalsIgnoreCase(modes.getString(address, "unordered"));
+    return executor.lane(address, ordered);
+  }
 
-    try {
-      var mapper = new ObjectMapper();
-      json = mapper.writeValueAsString(person);
-    } catch (Exception e) {
-      LOGGER.error("Unable to convert Person to JSON.", e);
+  private void closeExport(QueryCursor cursor) {
+    cursor.close();
+    this.exportClosed();
+  }
+
+  /** Returns the lane a listing or search runs on, which its stream's later pages share. */
+  private JpaExecutor.Lane listingLane(PersonEnvelope request) {
+    return request.isSearch() ? searchLane : listLane;
+  }
+
+  /**
+   * Reads a page of people after the given id, restricted by the request's search criteria if it
+   * has any. The queries are named, so Hibernate compiles them once at startup; with the query
+   * cache enabled their results are also cached by parameters.
+   */
+  private List<Person> findPage(EntityManager em, PersonEnvelope request, long after, int limit) {
+    TypedQuery<Person> query;
+    if (!request.isSearch()) {
+      query = em.createNamedQuery(Person.QUERY_PAGE, Person.class);
+    } else if (request.getNamePrefix() == null) {
+      query = em.createNamedQuery(Person.QUERY_SEARCH_AGE, Person.class);
+    } else {
+      var prefix = request.getNamePrefix();
+      query =
+          em.createNamedQuery(Person.QUERY_SEARCH_NAME, Person.class)
+              .setParameter("lower", prefix)
+              .setParameter("upper", prefixUpperBound(prefix))
+              .setParameter("pattern", likePrefix(prefix));
+    }
+    if (request.isSearch()) {
+      query.setParameter("minAge", minAge(request)).setParameter("maxAge", maxAge(request));
     }
 
-    return json;
+    return query
+        .setHint(QueryHints.CACHEABLE, true)
+        .setParameter("after", after)
+        .setMaxResults(limit)
+        .getResultList();
+  }
+
+  /** A create request waiting for the next group commit. */
+  private static final class PendingCreate {
+    private final Message<Object> message;
+    private final PersonEnvelope request;
+    private final Person person;
+    private final HopClock clock;
+
+    private PendingCreate(
+        Message<Object> message, PersonEnvelope request, Person person, HopClock clock) {
+      this.message = message;
+      this.request = request;
+      this.person = person;
+      this.clock = clock;
+    }
   }
 }
@@ -1,12 +1,28 @@
 package io.miscellanea.vertx.example;
 
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.hikaricp.internal.HikariConfigurationUtil;
+import org.hibernate.jpa.boot.internal.PersistenceXmlParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 /**
@@ -14,32 +30,87 @@ import java.util.function.Function;
  * managers. We use an enum as the JRE makes strong guarantees that only one instance will ever
  * exist at runtime and that it's identity will remain stable.
  *
- * <p><strong>IMPORTANT:</strong> This functionality can only be used from worker verticles! It does
+ * <p><strong>IMPORTANT:</strong> This functionality can only be used from worker threads! It does
  * blocking I/O with the database which can be problematic. It may also rely on thread- local
  * storage to manage transactions, etc., which means the session must begin and end on the same
  * thread.
  *
+ * <p>Besides the primary database, the manager may hold any number of read replicas, each with its
+ * own entity manager factory and connection pool. {@link #read(boolean, Function)} spreads reads
+ * across them; everything else goes to the primary.
+ *
+ * <p>The time each read or write takes is added to the calling thread's {@link HopClock}, if a
+ * request is being timed on it.
+ *
  * @author Jason Hallford
  */
 public enum PersistenceManager {
   INSTANCE;
 
   // Fields
+  private static final String UNIT = "vertx-hibernate";
+  private static final String SCHEMA_ACTION = "hibernate.hbm2ddl.auto";
+
   private Logger LOGGER = LoggerFactory.getLogger(PersistenceManager.class);
-  private EntityManagerFactory entityManagerFactory;
+  private volatile EntityManagerFactory entityManagerFactory;
+  private final List<Replica> replicas = new CopyOnWriteArrayList<>();
 
   // Constructor
-  PersistenceManager() {
+  PersistenceManager() {}
+
+  // Entity Manager methods
+  /**
+   * Bootstraps the entity manager factory. This must be called, once, before any other method;
+   * later calls are ignored.
+   *
+   * @param properties Properties that add to or override those in <code>persistence.xml</code>.
+   * @throws PersistenceException If the id sequence can't be altered to match the id block size.
+   */
+  public synchronized void initialize(Map<String, Object> properties) {
+    if (this.entityManagerFactory != null) {
+      LOGGER.debug("Factory already initialized.");
+      return;
+    }
+
+    this.alignIdSequence(properties);
+
     LOGGER.debug("Creating new entity manager factory...");
 
     // We want this to throw an uncaught exception if it fails as it should terminate the
     // JVM--verticles should not deploy if JPA is not initialized.
-    this.entityManagerFactory = Persistence.createEntityManagerFactory("vertx-hibernate");
+    this.entityManagerFactory =
+        Persistence.createEntityManagerFactory(UNIT, properties);
 
     LOGGER.debug("Factory successfully created.");
   }
 
-  // Entity Manager methods
+  /**
+   * Adds a read replica. The replica gets an entity manager factory of its own, built from the same
+   * persistence unit with the given properties on top; Hibernate never generates schema on it.
+   * Replicas don't use the second-level or query cache: they would share the primary's regions,
+   * which the primary's writes evict, and fill them with rows that may lag the primary.
+   *
+   * @param name The replica's name, which is also its connection pool's name.
+   * @param properties Properties that add to or override those in <code>persistence.xml</code>,
+   *     typically the replica's <code>hibernate.hikari.dataSource.*</code> settings.
+   */
+  public synchronized void addReplica(String name, Map<String, Object> properties) {
+    var replicaProperties = new HashMap<>(properties);
+    replicaProperties
+        .keySet()
+        .removeIf(
+            key -> key.startsWith("hibernate.cache.") || key.startsWith("hibernate.javax.cache."));
+    replicaProperties.put("hibernate.cache.use_second_level_cache", "false");
+    replicaProperties.put("hibernate.cache.use_query_cache", "false");
+    replicaProperties.put("hibernate.hbm2ddl.auto", "none");
+    replicaProperties.put("hibernate.hikari.poolName", name);
+
+    LOGGER.debug("Creating entity manager factory for read replica {}...", name);
+    var factory = Persistence.createEntityManagerFactory(UNIT, replicaProperties);
+    replicas.add(new Replica(name, factory));
+    LOGGER.debug("Read replica {} added.", name);
+  }
+
   /**
    * Tests the persistence manager's initialization state.
    *
@@ -60,18 +131,123 @@ public enum PersistenceManager {
     return this.entityManagerFactory.createEntityManager();
   }
 
+  /**
+   * Returns the shared entity manager factory, e.g. to read its statistics.
+   *
+   * @return The factory.
+   */
+  public EntityManagerFactory getEntityManagerFactory() {
+    return this.entityManagerFactory;
+  }
+
+  /**
+   * Returns the connection pool behind the entity manager factory.
+   *
+   * @return The Hikari data source.
+   */
+  public HikariDataSource getDataSource() {
+    return dataSource(this.entityManagerFactory);
+  }
+
+  /**
+   * Returns the read replicas' connection pools.
+   *
+   * @return The pools, in the order the replicas were added.
+   */
+  public List<HikariDataSource> getReplicaDataSources() {
+    var dataSources = new ArrayList<HikariDataSource>(replicas.size());
+    for (var replica : replicas) {
+      dataSources.add(dataSource(replica.factory));
+    }
+    return dataSources;
+  }
+
+  /**
+   * Returns the number of connections the primary and replica pools may open between them.
+   *
+   * @return The sum of the pools' maximum sizes.
+   */
+  public int getMaximumConnections() {
+    int connections = this.getDataSource().getMaximumPoolSize();
+    for (var dataSource : this.getReplicaDataSources()) {
+      connections += dataSource.getMaximumPoolSize();
+    }
+    return connections;
+  }
+
   public <T> List<T> find(Function<EntityManager, List<T>> func) {
-    List<T> result;
+    return find(entityManagerFactory, func);
+  }
+
+  /**
+   * Runs a read. Unless the caller needs the primary, e.g. to see a write it has just made, the
+   * read goes to the replica with the fewest reads in progress; ties are broken at random so that
+   * idle replicas share the load. Without replicas every read goes to the primary.
+   *
+   * @param primary <code>true</code> to read from the primary regardless of replicas.
+   * @param func The read.
+   * @return The read's results.
+   */
+  public <T> List<T> read(boolean primary, Function<EntityManager, List<T>> func) {
+    if (primary || replicas.isEmpty()) {
+      return this.find(func);
+    }
+
+    var replica = this.leastOutstanding();
+    replica.outstanding.incrementAndGet();
+    try {
+      return find(replica.factory, func);
+    } finally {
+      replica.outstanding.decrementAndGet();
+    }
+  }
+
+  /**
+   * Opens a forward-only cursor over a named query's rows, on a replica as chosen by {@link
+   * #read(boolean, Function)} unless the primary is required. The read counts as in progress on
+   * its replica until the cursor is closed.
+   *
+   * @param primary <code>true</code> to read from the primary regardless of replicas.
+   * @param queryName The named query.
+   * @param fetchSize The number of rows fetched from the database at a time.
+   * @return The cursor, which the caller must close.
+   * @throws PersistenceException If the query can't be run.
+   */
+  public QueryCursor scroll(boolean primary, String queryName, int fetchSize) {
+    var replica = primary || replicas.isEmpty() ? null : this.leastOutstanding();
+    var factory = replica == null ? entityManagerFactory : replica.factory;
+    Runnable onClose = replica == null ? () -> {} : replica.outstanding::decrementAndGet;
+
+    if (replica != null) {
+      replica.outstanding.incrementAndGet();
+    }
+    try {
+      return QueryCursor.open(
+          factory.unwrap(SessionFactory.class), queryName, fetchSize, onClose);
+    } catch (Exception e) {
+      onClose.run();
+      throw new PersistenceException("Unable to open a cursor on the database.", e);
+    }
+  }
+
+  public <T> T persist(T entity) {
+    T result;
     EntityManager em;
+    long started = System.nanoTime();
 
     try {
       em = entityManagerFactory.createEntityManager();
 
       try {
         LOGGER.debug("Executing find operation with managed entity manager.");
-        result = func.apply(em);
+        em.getTransaction().begin();
+        result = em.merge(entity);
+        em.getTransaction().commit();
       } catch (Exception e) {
-        throw new PersistenceException("Unable to execute find operation.", e);
+        em.getTransaction().rollback();
+        throw new PersistenceException(
+            "An error occurred while saving the object to the database; transaction rolled-back.",
+            e);
       } finally {
         try {
           em.close();
@@ -84,27 +260,42 @@ public enum PersistenceManager {
     } catch (Exception e) {
       throw new PersistenceException(
           "Unable to retrieve an entity manager from Persistence Manager.", e);
+    } finally {
+      HopClock.addDatabaseTime(System.nanoTime() - started);
     }
 
     return result;
   }
 
-  public <T> T persist(T entity) {
-    T result;
+  /**
+   * Persists a batch of new entities in a single transaction. Unlike {@link #persist(Object)} this
+   * uses <code>EntityManager.persist</code>, so the entities must be transient; their generated
+   * identifiers are populated in place. Hibernate groups the inserts into JDBC batches according to
+   * <code>hibernate.jdbc.batch_size</code>.
+   *
+   * @param entities The entities to save.
+   * @return The same entities, now managed and carrying their identifiers.
+   */
+  public <T> List<T> persistAll(List<T> entities) {
     EntityManager em;
+    long started = System.nanoTime();
 
     try {
       em = entityManagerFactory.createEntityManager();
 
       try {
-        LOGGER.debug("Executing find operation with managed entity manager.");
+        LOGGER.debug("Persisting {} entities with managed entity manager.", entities.size());
         em.getTransaction().begin();
-        result = em.merge(entity);
+        for (T entity : entities) {
+          em.persist(entity);
+        }
         em.getTransaction().commit();
       } catch (Exception e) {
-        em.getTransaction().rollback();
+        if (em.getTransaction().isActive()) {
+          em.getTransaction().rollback();
+        }
         throw new PersistenceException(
-            "An error occurred while saving the object to the database; transaction rolled-back.",
+            "An error occurred while saving the batch to the database; transaction rolled-back.",
             e);
       } finally {
         try {
@@ -115,12 +306,86 @@ public enum PersistenceManager {
         }
       }
 
+    } catch (PersistenceException e) {
+      throw e;
     } catch (Exception e) {
       throw new PersistenceException(
           "Unable to retrieve an entity manager from Persistence Manager.", e);
+    } finally {
+      HopClock.addDatabaseTime(System.nanoTime() - started);
     }
 
-    return result;
+    return entities;
+  }
+
+  /**
+   * Generates an identifier for a new entity with its mapped generator, without saving the entity,
+   * so that it can be acknowledged before it's written (see {@link CreateLog}). Most identifiers
+   * come from a block the generator has already reserved, without a round trip.
+   *
+   * @param entity The new entity.
+   * @return The identifier, which the caller must set on the entity.
+   */
+  public Serializable generateId(Object entity) {
+    long started = System.nanoTime();
+    var factory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+    var persister = factory.getMetamodel().entityPersister(entity.getClass());
+
+    try (var session = factory.openSession()) {
+      return persister.getIdentifierGenerator().generate((SessionImplementor) session, entity);
+    } catch (Exception e) {
+      throw new PersistenceException("Unable to generate an identifier.", e);
+    } finally {
+      HopClock.addDatabaseTime(System.nanoTime() - started);
+    }
+  }
+
+  /**
+   * Inserts a batch of new entities that already carry their identifiers, e.g. from {@link
+   * #generateId(Object)}, in a single transaction. This uses <code>Session.save</code>, which,
+   * unlike <code>EntityManager.persist</code>, takes a new entity whose identifier is set.
+   *
+   * @param entities The entities to insert.
+   */
+  public <T> void saveAll(List<T> entities) {
+    EntityManager em;
+    long started = System.nanoTime();
+
+    try {
+      em = entityManagerFactory.createEntityManager();
+
+      try {
+        LOGGER.debug("Saving {} entities with managed entity manager.", entities.size());
+        var session = em.unwrap(Session.class);
+        em.getTransaction().begin();
+        for (T entity : entities) {
+          session.save(entity);
+        }
+        em.getTransaction().commit();
+      } catch (Exception e) {
+        if (em.getTransaction().isActive()) {
+          em.getTransaction().rollback();
+        }
+        throw new PersistenceException(
+            "An error occurred while saving the batch to the database; transaction rolled-back.",
+            e);
+      } finally {
+        try {
+          em.close();
+        } catch (Exception e) {
+          LOGGER.error(
+              "Unable to close entity manager! This may cause a leak in the connection pool.", e);
+        }
+      }
+
+    } catch (PersistenceException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new PersistenceException(
+          "Unable to retrieve an entity manager from Persistence Manager.", e);
+    } finally {
+      HopClock.addDatabaseTime(System.nanoTime() - started);
+    }
   }
 
   /** Closes the shared entity manager factory. */
@@ -136,5 +401,124 @@ public enum PersistenceManager {
     } catch (Exception e) {
       LOGGER.error("Unable to close factory. See cause for details.", e);
     }
+
+    for (var replica : replicas) {
+      try {
+        replica.factory.close();
+      } catch (Exception e) {
+        LOGGER.error("Unable to close factory for replica {}.", replica.name, e);
+      }
+    }
+    replicas.clear();
+  }
+
+  // Utility methods
+  /**
+   * Makes an existing <code>hibernate_sequence</code> step by the id block size, unless the schema
+   * is left alone. Hibernate reads the sequence's increment once, as it starts, and refuses to
+   * start if it isn't the block size; it creates a missing sequence with the right increment but
+   * never alters one, e.g. one from before ids were reserved in blocks, or from another block
+   * size.
+   */
+  private void alignIdSequence(Map<String, Object> properties) {
+    var settings = new HashMap<String, Object>();
+    for (var unit : PersistenceXmlParser.locatePersistenceUnits(properties)) {
+      if (UNIT.equals(unit.getName())) {
+        unit.getProperties().forEach((key, value) -> settings.put(key.toString(), value));
+      }
+    }
+    settings.putAll(properties);
+
+    var action = String.valueOf(settings.getOrDefault(SCHEMA_ACTION, "none"));
+    if ("validate".equalsIgnoreCase(action) || "none".equalsIgnoreCase(action)) {
+      return;
+    }
+
+    var blockSize =
+        settings.getOrDefault(PersonIdGenerator.BLOCK_SIZE, PersonIdGenerator.DEFAULT_BLOCK_SIZE);
+    var config = HikariConfigurationUtil.loadConfiguration(settings);
+    config.setPoolName("schema");
+    config.setMaximumPoolSize(1);
+    config.setMinimumIdle(0);
+    try (var dataSource = new HikariDataSource(config);
+        var connection = dataSource.getConnection();
+        var statement = connection.createStatement()) {
+      statement.execute("ALTER SEQUENCE IF EXISTS hibernate_sequence INCREMENT BY " + blockSize);
+      LOGGER.debug("Id sequence set to increment by {}.", blockSize);
+    } catch (SQLException | RuntimeException e) {
+      throw new PersistenceException(
+          "Unable to make hibernate_sequence increment by the id block size.", e);
+    }
+  }
+
+  private Replica leastOutstanding() {
+    int count = replicas.size();
+    int start = ThreadLocalRandom.current().nextInt(count);
+
+    Replica best = null;
+    for (int i = 0; i < count; i++) {
+      var replica = replicas.get((start + i) % count);
+      if (best == null || replica.outstanding.get() < best.outstanding.get()) {
+        best = replica;
+      }
+    }
+    return best;
+  }
+
+  private <T> List<T> find(EntityManagerFactory factory, Function<EntityManager, List<T>> func) {
+    List<T> result;
+    EntityManager em;
+    long started = System.nanoTime();
+
+    try {
+      em = factory.createEntityManager();
+
+      try {
+        LOGGER.debug("Executing find operation with managed entity manager.");
+        result = func.apply(em);
+      } catch (Exception e) {
+        throw new PersistenceException("Unable to execute find operation.", e);
+      } finally {
+        try {
+          em.close();
+        } catch (Exception e) {
+          LOGGER.error(
+              "Unable to close entity manager! This may cause a leak in the connection pool.", e);
+        }
+      }
+
+    } catch (Exception e) {
+      throw new PersistenceException(
+          "Unable to retrieve an entity manager from Persistence Manager.", e);
+    } finally {
+      HopClock.addDatabaseTime(System.nanoTime() - started);
+    }
+
+    return result;
+  }
+
+  private static HikariDataSource dataSource(EntityManagerFactory factory) {
+    return factory
+        .unwrap(SessionFactoryImplementor.class)
+        .getServiceRegistry()
+        .getService(ConnectionProvider.class)
+        .unwrap(HikariDataSource.class);
+  }
+
+  /** A read replica and the number of reads it is serving. */
+  private static final class Replica {
+    private final String name;
+    private final EntityManagerFactory factory;
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private Replica(String name, EntityManagerFactory factory) {
+      this.name = name;
+      this.factory = factory;
+      Metrics.INSTANCE.gauge(
+          "jpa_replica_reads_in_progress",
+          "Reads being served by a replica.",
+          Metrics.labels("pool", name),
+          outstanding::get);
+    }
   }
 }
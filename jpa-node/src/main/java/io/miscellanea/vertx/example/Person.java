@@ -1,11 +1,20 @@
 package io.miscellanea.vertx.example;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
 
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
 /**
  * JPA entity class that represents our API's only resource, a "person" with a name and an age.
@@ -13,14 +22,83 @@ import javax.persistence.Table;
  * @author Jason Hallford
  */
 @Entity
-@Table(name = "person")
+@Table(
+    name = "person",
+    indexes = {
+      @Index(name = Person.NAME_INDEX, columnList = "name, age, id"),
+      @Index(name = Person.AGE_INDEX, columnList = "age, id")
+    })
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = SecondLevelCache.PERSON_REGION)
+@NamedQuery(
+    name = Person.QUERY_PAGE,
+    query = "select p from Person p where p.id > :after order by p.id")
+@NamedQuery(
+    name = Person.QUERY_SEARCH_NAME,
+    query =
+        "select p from Person p where p.name >= :lower and p.name < :upper"
+            + " and p.name like :pattern escape '!' and p.age between :minAge and :maxAge"
+            + " and p.id > :after order by p.id")
+@NamedQuery(
+    name = Person.QUERY_SEARCH_AGE,
+    query =
+        "select p from Person p where p.age between :minAge and :maxAge and p.id > :after"
+            + " order by p.id")
+@NamedQuery(
+    name = Person.QUERY_EXPORT,
+    query = "select p.id, p.name, p.age from Person p order by p.id")
+@NamedQuery(name = Person.QUERY_VERSION, query = "select p.version from Person p where p.id = :id")
+@NamedQuery(name = Person.QUERY_EXISTING, query = "select p.id from Person p where p.id in :ids")
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Person {
+  // Constants
+  /** Keyset page query; returns people with an id greater than <code>:after</code>. */
+  public static final String QUERY_PAGE = "Person.page";
+
+  /**
+   * Keyset page of a search by name prefix and age range. The prefix is given both as the range
+   * <code>[:lower, :upper)</code>, which the name index can seek to even though its bounds are
+   * parameters, and as the <code>LIKE</code> pattern <code>:pattern</code>, escaped with <code>!
+   * </code>, which keeps the match exact.
+   */
+  public static final String QUERY_SEARCH_NAME = "Person.searchName";
+
+  /** Keyset page of a search by age range alone. */
+  public static final String QUERY_SEARCH_AGE = "Person.searchAge";
+
+  /** The index that serves searches by name prefix. */
+  public static final String NAME_INDEX = "person_name_idx";
+
+  /** The index that serves searches by age range. */
+  public static final String AGE_INDEX = "person_age_idx";
+
+  /** Every person's id, name and age, as rows rather than entities, in id order. */
+  public static final String QUERY_EXPORT = "Person.export";
+
+  /** A person's version alone, which answers a conditional find without loading the entity. */
+  public static final String QUERY_VERSION = "Person.version";
+
+  /** Which of the ids in <code>:ids</code> belong to people already in the database. */
+  public static final String QUERY_EXISTING = "Person.existing";
+
   // Fields
-  @Id @GeneratedValue private Long id;
+  @Id
+  @GeneratedValue(generator = PersonIdGenerator.NAME)
+  @GenericGenerator(
+      name = PersonIdGenerator.NAME,
+      strategy = "io.miscellanea.vertx.example.PersonIdGenerator")
+  private Long id;
+
   private String name;
   private int age;
 
+  // Incremented by Hibernate on every update; API nodes derive the person's ETag from it. The
+  // default lets a schema update add the column to a table that already holds people.
+  @Version
+  @JsonIgnore
+  @Column(columnDefinition = "bigint default 0 not null")
+  private long version;
+
   // Constructor
 
   /** Default constructor for use by JPA. */
@@ -50,4 +128,12 @@ public class Person {
   public void setAge(int age) {
     this.age = age;
   }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public void setVersion(long version) {
+    this.version = version;
+  }
 }
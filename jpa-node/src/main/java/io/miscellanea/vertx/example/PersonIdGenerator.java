@@ -0,0 +1,74 @@
+package io.miscellanea.vertx.example;
+
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Properties;
+
+/**
+ * Generates Person ids a block at a time. Each call to <code>hibernate_sequence</code> reserves
+ * the next <code>id-block-size</code> values (the sequence increments by the block size and the
+ * <em>pooled-lo</em> optimizer hands out the values from the one it returned upwards), so most
+ * inserts need no round trip for their id, and several JPA nodes can share the sequence without
+ * colliding. Ids left in a block when a node stops are never used.
+ *
+ * <p>The owning shard, if any, is encoded into each id (see {@link Shards}). A person that already
+ * has an id, assigned before it was logged (see {@link CreateLog}), keeps it.
+ *
+ * @author Jason Hallford
+ */
+public class PersonIdGenerator extends SequenceStyleGenerator {
+  // Fields
+  /** The generator's name in {@link Person}'s mapping. */
+  public static final String NAME = "person-id";
+
+  /** The persistence unit property holding the number of ids reserved at a time. */
+  public static final String BLOCK_SIZE = "io.miscellanea.vertx.example.id-block-size";
+
+  /** The persistence unit property holding the shard this node owns. */
+  public static final String SHARD = "io.miscellanea.vertx.example.shard";
+
+  /** The number of ids reserved at a time unless configured otherwise. */
+  public static final int DEFAULT_BLOCK_SIZE = 50;
+
+  private static final String SEQUENCE = "hibernate_sequence";
+
+  private int shard;
+
+  // Constructors
+  public PersonIdGenerator() {}
+
+  // SequenceStyleGenerator overrides
+  @Override
+  public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) {
+    var settings = serviceRegistry.getService(ConfigurationService.class).getSettings();
+    // An unsharded node's ids belong to shard 0.
+    this.shard = Math.max(intSetting(settings.get(SHARD), 0), 0);
+
+    params.setProperty(SEQUENCE_PARAM, SEQUENCE);
+    params.setProperty(
+        INCREMENT_PARAM,
+        Integer.toString(intSetting(settings.get(BLOCK_SIZE), DEFAULT_BLOCK_SIZE)));
+    params.setProperty(OPT_PARAM, StandardOptimizerDescriptor.POOLED_LO.getExternalName());
+    super.configure(type, params, serviceRegistry);
+  }
+
+  @Override
+  public Serializable generate(SharedSessionContractImplementor session, Object object) {
+    if (object instanceof Person && ((Person) object).getId() != null) {
+      return ((Person) object).getId();
+    }
+    long local = ((Number) super.generate(session, object)).longValue();
+    return Shards.encode(shard, local);
+  }
+
+  // Utility methods
+  private static int intSetting(Object value, int defaultValue) {
+    return value == null ? defaultValue : Integer.parseInt(value.toString());
+  }
+}
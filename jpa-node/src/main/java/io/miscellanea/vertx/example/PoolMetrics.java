@@ -0,0 +1,133 @@
+package io.miscellanea.vertx.example;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes the HikariCP pool's usage, connection wait time and timeouts to {@link Metrics}.
+ *
+ * @author Jason Hallford
+ */
+public class PoolMetrics implements MetricsTrackerFactory {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(PoolMetrics.class);
+
+  // Constructors
+  private PoolMetrics() {}
+
+  // Public methods
+  /**
+   * Attaches pool metrics to the connection pools behind {@link PersistenceManager}, the primary's
+   * and each read replica's; every pool's metrics are labelled with its name. Hibernate only passes
+   * string-valued <code>hibernate.hikari.*</code> properties on to Hikari, so the tracker can't be
+   * set in <code>persistence.xml</code>; Hikari accepts it once the pool is running.
+   */
+  public static void install() {
+    var dataSources = new ArrayList<HikariDataSource>();
+    try {
+      dataSources.add(PersistenceManager.INSTANCE.getDataSource());
+      dataSources.addAll(PersistenceManager.INSTANCE.getReplicaDataSources());
+    } catch (RuntimeException e) {
+      LOGGER.warn("Unable to install connection pool metrics: {}", e.getMessage());
+      return;
+    }
+
+    for (var dataSource : dataSources) {
+      try {
+        dataSource.setMetricsTrackerFactory(new PoolMetrics());
+        LOGGER.debug("Connection pool metrics installed on pool {}.", dataSource.getPoolName());
+      } catch (RuntimeException e) {
+        LOGGER.warn(
+            "Unable to install connection pool metrics on pool {}: {}",
+            dataSource.getPoolName(),
+            e.getMessage());
+      }
+    }
+  }
+
+  // MetricsTrackerFactory implementation
+  @Override
+  public IMetricsTracker create(String poolName, PoolStats poolStats) {
+    var labels = Metrics.labels("pool", poolName);
+    var metrics = Metrics.INSTANCE;
+
+    metrics.gauge(
+        "hikari_connections_active",
+        "Connections in use.",
+        labels,
+        poolStats::getActiveConnections);
+    metrics.gauge(
+        "hikari_connections_idle", "Idle connections.", labels, poolStats::getIdleConnections);
+    metrics.gauge(
+        "hikari_connections_total",
+        "Open connections.",
+        labels,
+        poolStats::getTotalConnections);
+    metrics.gauge(
+        "hikari_connections_max",
+        "The pool's maximum size.",
+        labels,
+        poolStats::getMaxConnections);
+    metrics.gauge(
+        "hikari_connections_pending",
+        "Threads waiting for a connection.",
+        labels,
+        poolStats::getPendingThreads);
+
+    return new Tracker(
+        metrics.timer(
+            "hikari_connection_acquire_seconds", "Time spent waiting for a connection.", labels),
+        metrics.timer(
+            "hikari_connection_usage_seconds", "Time a connection was borrowed for.", labels),
+        metrics.timer(
+            "hikari_connection_create_seconds", "Time taken to open a connection.", labels),
+        metrics.counter(
+            "hikari_connection_timeouts_total",
+            "Requests for a connection that timed out.",
+            labels));
+  }
+
+  /** Records the pool's events; Hikari calls it on the borrowing thread. */
+  private static final class Tracker implements IMetricsTracker {
+    private final LatencyTimer acquire;
+    private final LatencyTimer usage;
+    private final LatencyTimer create;
+    private final LongAdder timeouts;
+
+    private Tracker(
+        LatencyTimer acquire, LatencyTimer usage, LatencyTimer create, LongAdder timeouts) {
+      this.acquire = acquire;
+      this.usage = usage;
+      this.create = create;
+      this.timeouts = timeouts;
+    }
+
+    @Override
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+      acquire.record(elapsedAcquiredNanos);
+    }
+
+    @Override
+    public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+      usage.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+    }
+
+    @Override
+    public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+      create.record(TimeUnit.MILLISECONDS.toNanos(connectionCreatedMillis));
+    }
+
+    @Override
+    public void recordConnectionTimeout() {
+      timeouts.increment();
+    }
+  }
+}
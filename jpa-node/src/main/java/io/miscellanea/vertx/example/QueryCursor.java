@@ -0,0 +1,90 @@
+package io.miscellanea.vertx.example;
+
+import org.hibernate.HibernateException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A forward-only cursor over a named query's rows, opened by {@link
+ * PersistenceManager#scroll(boolean, String, int)}. Rows are fetched from the database <code>
+ * fetchSize</code> at a time and read in a stateless session, which keeps no persistence context,
+ * so reading every row of a large table needs no more memory than reading one fetch.
+ *
+ * <p>The cursor holds a connection and an open transaction until it is closed. It may be read from
+ * any worker thread, but only from one at a time.
+ *
+ * @author Jason Hallford
+ */
+public final class QueryCursor implements AutoCloseable {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(QueryCursor.class);
+
+  private final StatelessSession session;
+  private final ScrollableResults results;
+  private final Runnable onClose;
+  private boolean closed;
+
+  // Constructors
+  private QueryCursor(StatelessSession session, ScrollableResults results, Runnable onClose) {
+    this.session = session;
+    this.results = results;
+    this.onClose = onClose;
+  }
+
+  static QueryCursor open(
+      SessionFactory factory, String queryName, int fetchSize, Runnable onClose) {
+    var session = factory.openStatelessSession();
+    try {
+      // Some drivers, PostgreSQL's among them, only fetch incrementally inside a transaction.
+      session.beginTransaction();
+      var results =
+          session.getNamedQuery(queryName).setFetchSize(fetchSize).scroll(ScrollMode.FORWARD_ONLY);
+      return new QueryCursor(session, results, onClose);
+    } catch (RuntimeException e) {
+      session.close();
+      throw e;
+    }
+  }
+
+  // Public methods
+  /**
+   * Advances to the next row.
+   *
+   * @return The row's columns, or <code>null</code> if there are no more rows.
+   * @throws PersistenceException If the row can't be read.
+   */
+  public Object[] next() {
+    try {
+      return results.next() ? results.get() : null;
+    } catch (HibernateException e) {
+      throw new PersistenceException("Unable to read the next row from the database.", e);
+    }
+  }
+
+  /** Closes the cursor and ends its transaction, releasing its connection. */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    this.closed = true;
+
+    try {
+      results.close();
+      session.getTransaction().rollback();
+    } catch (Exception e) {
+      LOGGER.warn("Unable to end cursor's transaction cleanly.", e);
+    } finally {
+      try {
+        session.close();
+      } catch (Exception e) {
+        LOGGER.error("Unable to close session! This may cause a leak in the connection pool.", e);
+      }
+      onClose.run();
+    }
+  }
+}
@@ -0,0 +1,698 @@
+package io.miscellanea.vertx.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.pgclient.PgPool;
+import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.RowStream;
+import io.vertx.sqlclient.Transaction;
+import io.vertx.sqlclient.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A Person repository that talks to the database through the Vert.x reactive PostgreSQL client
+ * instead of JPA. Queries are pipelined over the client's own connections and their results
+ * delivered back on this verticle's event loop, so no thread ever blocks on the database and the
+ * node needs no worker pool at all.
+ *
+ * <p>It serves the same addresses and envelopes as {@link JpaRepositoryVerticle} against the same
+ * schema, so the two can be swapped with <code>repository-backend</code> and compared under the
+ * same load. Group commit and the second-level cache are JPA features and don't apply here.
+ *
+ * @author Jason Hallford
+ */
+public class ReactiveRepositoryVerticle extends RepositoryVerticle {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveRepositoryVerticle.class);
+
+  // The schema Hibernate generates for Person. Ids are reserved from its sequence a block at a
+  // time, as PersonIdGenerator does, so that rows created by either backend never collide. The
+  // sequence must step by the block size, so an existing one is altered to match.
+  private static final String CREATE_SEQUENCE =
+      "CREATE SEQUENCE IF NOT EXISTS hibernate_sequence START WITH 1 INCREMENT BY ";
+  private static final String ALTER_SEQUENCE = "ALTER SEQUENCE hibernate_sequence INCREMENT BY ";
+  private static final String CREATE_TABLE =
+      "CREATE TABLE IF NOT EXISTS person (id BIGINT NOT NULL, age INTEGER NOT NULL,"
+          + " name VARCHAR(255), version BIGINT NOT NULL DEFAULT 0, PRIMARY KEY (id))";
+
+  // Tables created before people were versioned gain the column, with every person at version 0.
+  private static final String ADD_VERSION =
+      "ALTER TABLE person ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0";
+
+  // The indexes behind searches. Names are indexed with the pattern operator class, which orders
+  // them character by character whatever the database's collation, so a prefix is one range.
+  private static final String CREATE_NAME_INDEX =
+      "CREATE INDEX IF NOT EXISTS "
+          + Person.NAME_INDEX
+          + " ON person (name varchar_pattern_ops, age, id)";
+  private static final String CREATE_AGE_INDEX =
+      "CREATE INDEX IF NOT EXISTS " + Person.AGE_INDEX + " ON person (age, id)";
+
+  private static final String NEXT_BLOCK = "SELECT nextval('hibernate_sequence')";
+  private static final String INSERT = "INSERT INTO person (id, name, age) VALUES ($1, $2, $3)";
+  private static final String FIND = "SELECT id, name, age, version FROM person WHERE id = $1";
+  private static final String VERSION = "SELECT version FROM person WHERE id = $1";
+  private static final String EXPORT = "SELECT id, name, age FROM person ORDER BY id";
+
+  // The limit is written into the statement rather than bound: it's always one of a few clamped
+  // values, and not every server can infer a parameter's type in a LIMIT clause.
+  private static final String PAGE =
+      "SELECT id, name, age FROM person WHERE id > $1 ORDER BY id LIMIT ";
+  private static final String SEARCH_NAME =
+      "SELECT id, name, age FROM person WHERE name ~>=~ $1 AND name ~<~ $2"
+          + " AND name LIKE $3 ESCAPE '!' AND age BETWEEN $4 AND $5 AND id > $6"
+          + " ORDER BY id LIMIT ";
+  private static final String SEARCH_AGE =
+      "SELECT id, name, age FROM person WHERE age BETWEEN $1 AND $2 AND id > $3"
+          + " ORDER BY id LIMIT ";
+
+  private PgPool pool;
+
+  // The block of ids being handed out: nextId up to, but not including, blockEnd. Creates that
+  // arrive while the next block is being reserved wait in awaitingIds.
+  private int idBlockSize;
+  private long nextId;
+  private long blockEnd;
+  private List<Handler<AsyncResult<Long>>> awaitingIds = new ArrayList<>();
+
+  // Constructors
+  public ReactiveRepositoryVerticle() {}
+
+  // Verticle life-cycle management
+  @Override
+  public void start() {
+    this.configureListing();
+    this.configureShard();
+    this.idBlockSize = idBlockSize(config());
+
+    if (config().getBoolean(ConfigProp.GROUP_COMMIT_ENABLED, false)) {
+      LOGGER.warn("Group commit is only supported by the JPA backend; ignoring it.");
+    }
+
+    this.pool = createPool(vertx, config());
+
+    LOGGER.debug("Registering event handlers...");
+    var createAddress = this.address(EventBusAddress.REPOSITORY_PERSON_CREATE);
+    var findAddress = this.address(EventBusAddress.REPOSITORY_PERSON_FIND);
+    var listAddress = this.address(EventBusAddress.REPOSITORY_PERSON_LIST);
+    var searchAddress = this.address(EventBusAddress.REPOSITORY_PERSON_SEARCH);
+    var bulkAddress = this.address(EventBusAddress.REPOSITORY_PERSON_BULK);
+    var exportAddress = this.address(EventBusAddress.REPOSITORY_PERSON_EXPORT);
+    this.consume(createAddress, this.admitted(createAddress, this::createPerson));
+    this.consume(findAddress, this.admitted(findAddress, this::findPerson));
+    this.consume(listAddress, this.admitted(listAddress, this::listPeople));
+    this.consume(searchAddress, this.admitted(searchAddress, this::listPeople));
+    this.consume(bulkAddress, this.admitted(bulkAddress, this::createPeople));
+    this.consume(exportAddress, this.admitted(exportAddress, this::exportPeople));
+    LOGGER.debug("Handlers registered.");
+    this.announceShard();
+
+    LOGGER.info("Reactive repository verticle started.");
+  }
+
+  @Override
+  public void stop() {
+    pool.close();
+    LOGGER.info("Reactive repository verticle stopped.");
+  }
+
+  // Public methods
+  /**
+   * Creates the Person table and its id sequence if they don't already exist. Call this once,
+   * before deploying the verticle; the JPA backend has Hibernate do the same.
+   *
+   * @param vertx The Vert.x instance.
+   * @param config The node's configuration, which holds <code>reactive-connect</code>.
+   * @param handler Notified once the schema is in place.
+   */
+  public static void createSchema(
+      Vertx vertx, JsonObject config, Handler<AsyncResult<Void>> handler) {
+    int blockSize = idBlockSize(config);
+    var statements =
+        List.of(
+                CREATE_SEQUENCE + blockSize,
+                ALTER_SEQUENCE + blockSize,
+                CREATE_TABLE,
+                ADD_VERSION,
+                CREATE_NAME_INDEX,
+                CREATE_AGE_INDEX)
+            .iterator();
+
+    var pool = createPool(vertx, config);
+    executeAll(
+        pool,
+        statements,
+        done -> {
+          pool.close();
+          handler.handle(done);
+        });
+  }
+
+  // Message handlers
+  private void createPerson(Message<Object> message) {
+    LOGGER.debug("Creating new person.");
+
+    var request = this.decode(message);
+    if (request == null) {
+      return;
+    }
+
+    var person = new Person();
+    person.setName(request.getName());
+    person.setAge(request.getAge() == null ? 0 : request.getAge());
+
+    this.nextId(
+        id -> {
+          if (id.failed()) {
+            this.replyFailed(message, request, id.cause());
+            return;
+          }
+
+          person.setId(id.result());
+          pool.preparedQuery(
+              INSERT,
+              Tuple.of(person.getId(), person.getName(), person.getAge()),
+              inserted -> {
+                if (inserted.succeeded()) {
+                  this.publishChanged(person);
+                  this.replyWithPerson(message, request, person);
+                } else {
+                  this.replyFailed(message, request, inserted.cause());
+                }
+              });
+        });
+  }
+
+  /**
+   * Creates every person in a bulk request with one batched insert in one transaction. The chunk
+   * succeeds or fails as a whole.
+   */
+  private void createPeople(Message<Object> message) {
+    var request = this.decode(message);
+    if (request == null) {
+      return;
+    }
+
+    var people = this.newPeople(request);
+    LOGGER.debug("Creating {} people in bulk.", people.size());
+    if (people.isEmpty()) {
+      this.replyWithIds(message, request, people);
+      return;
+    }
+
+    var rows = new ArrayList<Tuple>(people.size());
+    var failure = new Throwable[1];
+    for (var person : people) {
+      this.nextId(
+          id -> {
+            if (id.failed()) {
+              failure[0] = id.cause();
+            } else {
+              person.setId(id.result());
+            }
+
+            rows.add(Tuple.of(id.result(), person.getName(), person.getAge()));
+            if (rows.size() == people.size()) {
+              if (failure[0] != null) {
+                this.replyFailed(message, request, failure[0]);
+              } else {
+                this.insertAll(message, request, people, rows);
+              }
+            }
+          });
+    }
+  }
+
+  private void findPerson(Message<Object> message) {
+    var request = this.decode(message);
+    if (request == null) {
+      return;
+    }
+
+    Long entityId = request.getEntityId();
+    LOGGER.debug("Finding person with id {} in the database.", entityId);
+
+    if (entityId == null) {
+      message.reply(
+          encode(message, PersonEnvelope.replyTo(request).setStatus("ok").setResult("{}")));
+      return;
+    } else if (request.getEntityVersion() == null) {
+      this.readPerson(message, request);
+      return;
+    }
+
+    // A client that already has the person only needs to know whether it has changed, which its
+    // version answers without reading the rest of the row.
+    pool.preparedQuery(
+        VERSION,
+        Tuple.of(entityId),
+        result -> {
+          if (result.failed()) {
+            this.replyFindFailed(message, request, result.cause());
+          } else if (result.result().size() == 0) {
+            LOGGER.debug("No person with id {}.", entityId);
+            message.reply(
+                encode(message, PersonEnvelope.replyTo(request).setStatus("ok").setResult("{}")));
+          } else if (request
+              .getEntityVersion()
+              .equals(result.result().iterator().next().getLong("version"))) {
+            this.replyNotModified(message, request);
+          } else {
+            this.readPerson(message, request);
+          }
+        });
+  }
+
+  private void readPerson(Message<Object> message, PersonEnvelope request) {
+    Long entityId = request.getEntityId();
+    pool.preparedQuery(
+        FIND,
+        Tuple.of(entityId),
+        result -> {
+          if (result.failed()) {
+            this.replyFindFailed(message, request, result.cause());
+            return;
+          }
+
+          List<Person> people = toPeople(result.result());
+          if (people.size() > 0) {
+            this.replyWithPerson(message, request, people.get(0));
+          } else {
+            LOGGER.debug("No person with id {}.", entityId);
+            message.reply(
+                encode(message, PersonEnvelope.replyTo(request).setStatus("ok").setResult("{}")));
+          }
+        });
+  }
+
+  private void replyFindFailed(Message<Object> message, PersonEnvelope request, Throwable cause) {
+    LOGGER.error("Unable to read from database; returning error reply.", cause);
+    message.reply(
+        encode(
+            message,
+            PersonEnvelope.replyTo(request)
+                .setStatus("err")
+                .setResult(cause.getMessage())
+                .setError(cause.getMessage())));
+  }
+
+  /** Serves listings and, on the search address, searches (see {@link #readPage}). */
+  private void listPeople(Message<Object> message) {
+    var request = this.decode(message);
+    if (request == null) {
+      return;
+    }
+
+    long after = request.getAfter() == null ? 0L : request.getAfter();
+
+    if (request.isStream()) {
+      if (!this.openStream(message)) {
+        return;
+      }
+      LOGGER.debug("Streaming people after id {} from the database.", after);
+      this.sendNextPage(message, request, after);
+      return;
+    }
+
+    int limit = this.pageLimit(request);
+    LOGGER.debug("Reading up to {} people after id {} from the database.", limit, after);
+
+    this.readPage(
+        request,
+        after,
+        limit,
+        result -> {
+          var reply = PersonEnvelope.replyTo(request);
+
+          if (result.succeeded()) {
+            List<Person> people = toPeople(result.result());
+            try {
+              // A full page means there may be more rows, so we hand the caller the cursor for
+              // the next one.
+              reply.setStatus("ok").setResult(MAPPER.writeValueAsString(people));
+              if (people.size() == limit) {
+                reply.setNextAfter(people.get(people.size() - 1).getId());
+              }
+            } catch (JsonProcessingException e) {
+              LOGGER.error("Unable to marshal results to JSON; returning error reply.", e);
+              reply.setStatus("err").setError(e.getMessage());
+            }
+          } else {
+            LOGGER.error("Unable to read from database; returning error reply.", result.cause());
+            reply.setStatus("err").setError(result.cause().getMessage());
+          }
+
+          message.reply(encode(message, reply));
+        });
+  }
+
+  /** Reads one page of a streamed listing and sends it (see {@link #replyWithStreamPage}). */
+  private void sendNextPage(Message<?> message, PersonEnvelope request, long after) {
+    this.readPage(
+        request,
+        after,
+        streamPageSize,
+        result -> {
+          var reply = PersonEnvelope.replyTo(request);
+          long nextAfter;
+
+          if (result.succeeded()) {
+            List<Person> people = toPeople(result.result());
+            boolean last = people.size() < streamPageSize;
+            try {
+              reply.setStatus("ok").setResult(MAPPER.writeValueAsString(people)).setLast(last);
+              nextAfter = last ? -1 : people.get(people.size() - 1).getId();
+            } catch (JsonProcessingException e) {
+              LOGGER.error("Unable to marshal streamed people to JSON; returning error reply.", e);
+              reply.setStatus("err").setError(e.getMessage());
+              nextAfter = -1;
+            }
+          } else {
+            LOGGER.error(
+                "Unable to stream people from the database; returning error reply.",
+                result.cause());
+            reply.setStatus("err").setError(result.cause().getMessage());
+            nextAfter = -1;
+          }
+
+          if (nextAfter < 0) {
+            this.streamClosed();
+          }
+          long cursor = nextAfter;
+          this.replyWithStreamPage(
+              message,
+              request,
+              reply,
+              nextAfter,
+              ack -> this.sendNextPage(ack, request, cursor),
+              this::streamClosed);
+        });
+  }
+
+  /**
+   * Exports every person through a cursor, rendered in the requested format and sent in chunks of
+   * about <code>export-chunk-bytes</code> (see {@link #replyWithStreamPage}). The cursor lives in a
+   * transaction of its own, which is rolled back, releasing its connection, when the export ends.
+   */
+  private void exportPeople(Message<Object> message) {
+    var request = this.decode(message);
+    if (request == null) {
+      return;
+    }
+    var format = this.exportFormat(message, request);
+    if (format == null || !this.openExport(message)) {
+      return;
+    }
+
+    LOGGER.debug("Exporting people as {}.", format);
+    pool.begin(
+        begun -> {
+          if (begun.failed()) {
+            this.exportClosed();
+            this.replyFailed(message, request, begun.cause());
+            return;
+          }
+
+          var tx = begun.result();
+          tx.prepare(
+              EXPORT,
+              prepared -> {
+                if (prepared.failed()) {
+                  tx.rollback();
+                  this.exportClosed();
+                  this.replyFailed(message, request, prepared.cause());
+                  return;
+                }
+
+                var rows = prepared.result().createStream(streamPageSize, Tuple.tuple());
+                new Export(message, request, format, tx, rows).start();
+              });
+        });
+  }
+
+  // Utility methods
+  /**
+   * Reads a page of people after the given id, restricted by the request's search criteria if it
+   * has any.
+   */
+  private void readPage(
+      PersonEnvelope request, long after, int limit, Handler<AsyncResult<RowSet<Row>>> handler) {
+    if (!request.isSearch()) {
+      pool.preparedQuery(PAGE + limit, Tuple.of(after), handler);
+    } else if (request.getNamePrefix() == null) {
+      pool.preparedQuery(
+          SEARCH_AGE + limit, Tuple.of(minAge(request), maxAge(request), after), handler);
+    } else {
+      var prefix = request.getNamePrefix();
+      pool.preparedQuery(
+          SEARCH_NAME + limit,
+          Tuple.of(prefix, prefixUpperBound(prefix), likePrefix(prefix))
+              .addInteger(minAge(request))
+              .addInteger(maxAge(request))
+              .addLong(after),
+          handler);
+    }
+  }
+
+  private void insertAll(
+      Message<Object> message, PersonEnvelope request, List<Person> people, List<Tuple> rows) {
+    pool.begin(
+        begun -> {
+          if (begun.failed()) {
+            this.replyFailed(message, request, begun.cause());
+            return;
+          }
+
+          var tx = begun.result();
+          tx.preparedBatch(
+              INSERT,
+              rows,
+              inserted -> {
+                if (inserted.failed()) {
+                  tx.rollback();
+                  this.replyFailed(message, request, inserted.cause());
+                  return;
+                }
+                tx.commit(
+                    committed -> {
+                      if (committed.succeeded()) {
+                        this.replyWithIds(message, request, people);
+                      } else {
+                        this.replyFailed(message, request, committed.cause());
+                      }
+                    });
+              });
+        });
+  }
+
+  /**
+   * Hands out the next id from the current block, first reserving a new block if it's used up. A
+   * sequence value is never handed out twice, so reserving needn't share the insert's transaction.
+   */
+  private void nextId(Handler<AsyncResult<Long>> handler) {
+    if (nextId < blockEnd) {
+      handler.handle(Future.succeededFuture(this.personId(nextId++)));
+      return;
+    }
+
+    awaitingIds.add(handler);
+    if (awaitingIds.size() > 1) {
+      return;
+    }
+
+    LOGGER.debug("Reserving a block of {} ids.", idBlockSize);
+    pool.preparedQuery(
+        NEXT_BLOCK,
+        block -> {
+          var waiting = awaitingIds;
+          awaitingIds = new ArrayList<>();
+
+          if (block.failed()) {
+            waiting.forEach(waiter -> waiter.handle(Future.failedFuture(block.cause())));
+            return;
+          }
+
+          this.nextId = block.result().iterator().next().getLong(0);
+          this.blockEnd = nextId + idBlockSize;
+          waiting.forEach(this::nextId);
+        });
+  }
+
+  private static void executeAll(
+      PgPool pool, Iterator<String> statements, Handler<AsyncResult<Void>> handler) {
+    if (!statements.hasNext()) {
+      handler.handle(Future.succeededFuture());
+      return;
+    }
+
+    pool.query(
+        statements.next(),
+        result -> {
+          if (result.failed()) {
+            handler.handle(Future.failedFuture(result.cause()));
+          } else {
+            executeAll(pool, statements, handler);
+          }
+        });
+  }
+
+  private static int idBlockSize(JsonObject config) {
+    return config.getInteger(ConfigProp.ID_BLOCK_SIZE, PersonIdGenerator.DEFAULT_BLOCK_SIZE);
+  }
+
+  private static PgPool createPool(Vertx vertx, JsonObject config) {
+    var connect = config.getJsonObject(ConfigProp.REACTIVE_CONNECT, new JsonObject());
+    // Unless configured otherwise, each connection keeps its prepared statements, so a query's
+    // plan is only parsed the first time the connection runs it.
+    var connectOptions =
+        new PgConnectOptions(connect)
+            .setCachePreparedStatements(connect.getBoolean("cachePreparedStatements", true));
+    var poolOptions =
+        new PoolOptions().setMaxSize(config.getInteger(ConfigProp.REACTIVE_POOL_SIZE, 10));
+    return PgPool.pool(vertx, connectOptions, poolOptions);
+  }
+
+  /**
+   * A running export. Rows are rendered as the cursor delivers them; once a chunk's worth has
+   * been, the cursor is paused until the API verticle acknowledges the chunk.
+   */
+  private final class Export {
+    private final PersonEnvelope request;
+    private final ExportFormat format;
+    private final Transaction tx;
+    private final RowStream<Row> rows;
+
+    // The message awaiting the next chunk, or null while a chunk awaits acknowledgement.
+    private Message<?> message;
+    private StringBuilder chunk = new StringBuilder(exportChunkBytes);
+    private boolean ended;
+    private boolean closed;
+    private Throwable failure;
+
+    private Export(
+        Message<?> message,
+        PersonEnvelope request,
+        ExportFormat format,
+        Transaction tx,
+        RowStream<Row> rows) {
+      this.message = message;
+      this.request = request;
+      this.format = format;
+      this.tx = tx;
+      this.rows = rows;
+    }
+
+    private void start() {
+      rows.exceptionHandler(this::fail);
+      rows.endHandler(
+          v -> {
+            this.ended = true;
+            this.sendIfReady();
+          });
+      rows.handler(this::append);
+    }
+
+    // A paused cursor may still deliver the rows it has already fetched, so a chunk can outgrow
+    // the target size a little while the previous one awaits acknowledgement.
+    private void append(Row row) {
+      format.append(chunk, row.getLong("id"), row.getString("name"), row.getInteger("age"));
+      if (chunk.length() >= exportChunkBytes) {
+        rows.pause();
+        this.sendIfReady();
+      }
+    }
+
+    private void sendIfReady() {
+      if (message == null) {
+        return;
+      } else if (closed) {
+        // The cursor failed while the last chunk awaited its acknowledgement.
+        this.replyFailed();
+      } else if (ended) {
+        this.send(true);
+      } else if (chunk.length() >= exportChunkBytes) {
+        this.send(false);
+      } else {
+        rows.resume();
+      }
+    }
+
+    private void send(boolean last) {
+      var reply =
+          PersonEnvelope.replyTo(request)
+              .setStatus("ok")
+              .setResult(chunk.toString())
+              .setLast(last);
+      var current = message;
+      this.message = null;
+      this.chunk = new StringBuilder(exportChunkBytes);
+
+      if (last) {
+        this.close();
+      }
+      replyWithStreamPage(
+          current,
+          request,
+          reply,
+          last ? -1 : 0,
+          ack -> {
+            this.message = ack;
+            this.sendIfReady();
+          },
+          this::close);
+    }
+
+    private void fail(Throwable cause) {
+      LOGGER.error("Unable to export people from the database; returning error reply.", cause);
+      this.failure = cause;
+      this.close();
+      this.sendIfReady();
+    }
+
+    private void replyFailed() {
+      var current = message;
+      this.message = null;
+      var error = failure == null ? "The export was closed." : failure.getMessage();
+      current.reply(
+          encode(current, PersonEnvelope.replyTo(request).setStatus("err").setError(error)));
+    }
+
+    private void close() {
+      if (closed) {
+        return;
+      }
+      this.closed = true;
+      rows.close();
+      tx.rollback();
+      exportClosed();
+    }
+  }
+
+  private static List<Person> toPeople(RowSet<Row> rows) {
+    var people = new ArrayList<Person>(rows.size());
+    for (Row row : rows) {
+      var person = new Person();
+      person.setId(row.getLong("id"));
+      person.setName(row.getString("name"));
+      person.setAge(row.getInteger("age"));
+      if (row.getColumnIndex("version") >= 0) {
+        person.setVersion(row.getLong("version"));
+      }
+      people.add(person);
+    }
+    return people;
+  }
+}
@@ -0,0 +1,285 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deploys the node's {@link JpaRepositoryVerticle} instances and adds or removes them as the load
+ * changes, between <code>jpa-autoscale-min</code> and <code>jpa-autoscale-max</code>, which is
+ * never more than the connection pool's size.
+ *
+ * <p>Each instance is an event bus consumer with an event loop of its own, on which it decodes,
+ * dispatches and replies to its share of the requests, and its ordered lanes run one task at a
+ * time. Several times each interval the autoscaler samples how many tasks are waiting for the
+ * {@link JpaExecutor}, and at the end of the interval it decides:
+ *
+ * <ul>
+ *   <li>If more than <code>jpa-autoscale-backlog</code> tasks per instance were waiting, on
+ *       average, and they waited longer than they ran, while threads were free, the instances are
+ *       the bottleneck and one is added.
+ *   <li>If they were waiting because the threads were busy, for at least 80% of the interval
+ *       between them, or because the host's CPUs were at least 90% busy, more instances would only
+ *       queue more work for the same connections or cores, so none is added; the decision is
+ *       recorded as <code>saturated</code>.
+ *   <li>If no task waited for <code>jpa-autoscale-idle-intervals</code> intervals in a row, one
+ *       instance is removed. Only an instance with no streamed listing or export open is removed,
+ *       since those keep their place, and an export its cursor, on the instance between pages; if
+ *       every instance has one open, none is removed until one has closed.
+ * </ul>
+ *
+ * Every change is logged and counted in <code>jpa_autoscale_decisions_total</code>, and <code>
+ * jpa_verticles</code> reports the instances deployed.
+ *
+ * @author Jason Hallford
+ */
+public class RepositoryAutoscaler extends AbstractVerticle {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryAutoscaler.class);
+  private static final int SAMPLES_PER_INTERVAL = 10;
+  private static final double SATURATED_UTILIZATION = 0.8;
+  private static final double SATURATED_CPU = 0.9;
+
+  // Deployed instances by deployment id, oldest first. Only the autoscaler's event loop touches
+  // the map, so the gauge reads the count it publishes instead.
+  private final Map<String, JpaRepositoryVerticle> deployments = new LinkedHashMap<>();
+  private final AtomicInteger deployed = new AtomicInteger();
+  private int min;
+  private int max;
+  private int executorSize;
+  private double backlog;
+  private int idleIntervals;
+  private boolean scaling;
+  private boolean saturated;
+  private int idle;
+
+  // Samples taken during the current interval
+  private int samples;
+  private long queuedSum;
+  private long intervalStarted;
+  private long started;
+  private long waitNanos;
+  private long finished;
+  private long runNanos;
+
+  private LongAdder scaledUp;
+  private LongAdder scaledDown;
+  private LongAdder heldSaturated;
+  private com.sun.management.OperatingSystemMXBean os;
+
+  // Constructors
+  public RepositoryAutoscaler() {}
+
+  // Vert.x life-cycle management
+  @Override
+  public void start(Promise<Void> startPromise) {
+    int connections = PersistenceManager.INSTANCE.getMaximumConnections();
+    this.executorSize = config().getInteger(ConfigProp.JPA_EXECUTOR_SIZE, connections);
+    this.max = config().getInteger(ConfigProp.JPA_AUTOSCALE_MAX, 0);
+    if (max <= 0 || max > connections) {
+      this.max = connections;
+    }
+    this.min = Math.min(Math.max(1, config().getInteger(ConfigProp.JPA_AUTOSCALE_MIN, 1)), max);
+    this.backlog = config().getDouble(ConfigProp.JPA_AUTOSCALE_BACKLOG, 2.0);
+    this.idleIntervals =
+        Math.max(1, config().getInteger(ConfigProp.JPA_AUTOSCALE_IDLE_INTERVALS, 6));
+    long intervalMs = config().getLong(ConfigProp.JPA_AUTOSCALE_INTERVAL_MS, 5000L);
+
+    // The CPU load is read once per interval, so each reading covers the interval.
+    var platform = ManagementFactory.getOperatingSystemMXBean();
+    if (platform instanceof com.sun.management.OperatingSystemMXBean) {
+      this.os = (com.sun.management.OperatingSystemMXBean) platform;
+    }
+
+    var metrics = Metrics.INSTANCE;
+    metrics.gauge(
+        "jpa_verticles", "JPA repository verticles deployed.", "", deployed::get);
+    this.scaledUp = this.decisions("up");
+    this.scaledDown = this.decisions("down");
+    this.heldSaturated = this.decisions("saturated");
+
+    int initial = config().getInteger(ConfigProp.JPA_VERTICLE_COUNT, min);
+    initial = Math.min(Math.max(initial, min), max);
+    LOGGER.info(
+        "Autoscaling JPA verticles between {} and {}, starting with {}; decisions every {} ms.",
+        min,
+        max,
+        initial,
+        intervalMs);
+
+    this.deployInstances(
+        initial,
+        deployed -> {
+          if (deployed.failed()) {
+            startPromise.fail(deployed.cause());
+            return;
+          }
+          this.resetSamples();
+          vertx.setPeriodic(
+              Math.max(1, intervalMs / SAMPLES_PER_INTERVAL), id -> this.sample());
+          startPromise.complete();
+        });
+  }
+
+  // Utility methods
+  /** Deploys instances one at a time, each on its own so that it can be undeployed on its own. */
+  private void deployInstances(int count, Handler<AsyncResult<Void>> done) {
+    if (count == 0) {
+      done.handle(Future.succeededFuture());
+      return;
+    }
+    var verticle = new JpaRepositoryVerticle();
+    vertx.deployVerticle(
+        verticle,
+        new DeploymentOptions().setConfig(config()),
+        result -> {
+          if (result.failed()) {
+            done.handle(result.mapEmpty());
+          } else {
+            deployments.put(result.result(), verticle);
+            deployed.set(deployments.size());
+            this.deployInstances(count - 1, done);
+          }
+        });
+  }
+
+  private void sample() {
+    queuedSum += JpaExecutor.getQueued();
+    if (++samples >= SAMPLES_PER_INTERVAL) {
+      this.decide();
+      this.resetSamples();
+    }
+  }
+
+  private void decide() {
+    int instances = deployments.size();
+    double meanQueued = (double) queuedSum / samples;
+    long tasks = JpaExecutor.getStarted() - started;
+    long meanWait = tasks == 0 ? 0 : (JpaExecutor.getWaitNanos() - waitNanos) / tasks;
+    long done = JpaExecutor.getFinished() - finished;
+    long ran = JpaExecutor.getRunNanos() - runNanos;
+    long meanRun = done == 0 ? 0 : ran / done;
+    double utilization = (double) ran / ((System.nanoTime() - intervalStarted) * executorSize);
+    double cpu = os == null ? 0 : os.getSystemCpuLoad();
+
+    idle = queuedSum == 0 ? idle + 1 : 0;
+    if (scaling) {
+      return;
+    }
+
+    if (meanQueued > backlog * instances && meanWait > meanRun) {
+      if (utilization >= SATURATED_UTILIZATION || cpu >= SATURATED_CPU) {
+        heldSaturated.increment();
+        if (!saturated) {
+          LOGGER.info(
+              "Not scaling up: {} task(s) waiting but the {} thread(s) were {}% busy and the CPUs"
+                  + " {}%.",
+              String.format("%.1f", meanQueued),
+              executorSize,
+              Math.round(utilization * 100),
+              Math.round(cpu * 100));
+        }
+        saturated = true;
+        return;
+      }
+      saturated = false;
+      if (instances < max) {
+        LOGGER.info(
+            "Scaling up to {} JPA verticles: {} task(s) waiting, {} us waited vs {} us run.",
+            instances + 1,
+            String.format("%.1f", meanQueued),
+            TimeUnit.NANOSECONDS.toMicros(meanWait),
+            TimeUnit.NANOSECONDS.toMicros(meanRun));
+        this.scaleUp();
+      }
+    } else if (idle >= idleIntervals && instances > min) {
+      saturated = false;
+      this.scaleDown();
+    } else {
+      saturated = false;
+    }
+  }
+
+  private void scaleUp() {
+    scaling = true;
+    this.deployInstances(
+        1,
+        deployed -> {
+          scaling = false;
+          if (deployed.succeeded()) {
+            scaledUp.increment();
+          } else {
+            LOGGER.error("Unable to deploy another JPA verticle.", deployed.cause());
+          }
+        });
+  }
+
+  /** Undeploys the newest instance that has no stream open, if there is one. */
+  private void scaleDown() {
+    var ids = new ArrayList<>(deployments.keySet());
+    String id = null;
+    for (int i = ids.size() - 1; i >= 0 && id == null; i--) {
+      if (deployments.get(ids.get(i)).retire()) {
+        id = ids.get(i);
+      }
+    }
+    if (id == null) {
+      LOGGER.debug("Not scaling down: every JPA verticle has a stream or export open.");
+      return;
+    }
+
+    LOGGER.info(
+        "Scaling down to {} JPA verticles: no task waited for {} interval(s).",
+        deployments.size() - 1,
+        idle);
+    scaling = true;
+    var deploymentId = id;
+    var retired = deployments.remove(deploymentId);
+    deployed.set(deployments.size());
+    vertx.undeploy(
+        deploymentId,
+        undeployed -> {
+          scaling = false;
+          idle = 0;
+          if (undeployed.succeeded()) {
+            scaledDown.increment();
+          } else {
+            LOGGER.error(
+                "Unable to undeploy JPA verticle {}.", deploymentId, undeployed.cause());
+            retired.reinstate();
+            deployments.put(deploymentId, retired);
+            deployed.set(deployments.size());
+          }
+        });
+  }
+
+  private void resetSamples() {
+    samples = 0;
+    queuedSum = 0;
+    intervalStarted = System.nanoTime();
+    started = JpaExecutor.getStarted();
+    waitNanos = JpaExecutor.getWaitNanos();
+    finished = JpaExecutor.getFinished();
+    runNanos = JpaExecutor.getRunNanos();
+  }
+
+  private LongAdder decisions(String decision) {
+    return Metrics.INSTANCE.counter(
+        "jpa_autoscale_decisions_total",
+        "JPA verticle autoscaling decisions: up, down, or saturated when held back.",
+        Metrics.labels("decision", decision));
+  }
+}
@@ -0,0 +1,541 @@
+package io.miscellanea.vertx.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.AsyncMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The event bus side of a Person repository: reading requests in either envelope, dropping those
+ * whose deadline has passed, and replying in the protocol the request arrived in. Subclasses
+ * supply the database access; {@link JpaRepositoryVerticle} does it with blocking JPA on an
+ * executor, {@link ReactiveRepositoryVerticle} with a non-blocking SQL client on the event loop.
+ *
+ * <p>In a sharded deployment (see {@link Shards}) the verticle serves only its node's shard, on
+ * that shard's addresses, and keeps the shard registered in the cluster-wide shard map for as long
+ * as it runs.
+ *
+ * @author Jason Hallford
+ */
+abstract class RepositoryVerticle extends AbstractVerticle {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryVerticle.class);
+
+  // ObjectMapper is thread-safe once configured, so every instance shares one rather than
+  // building a new one for each message.
+  static final ObjectMapper MAPPER = new ObjectMapper();
+
+  // Each export holds a database connection for as long as it runs, so the number open at once is
+  // capped across every repository verticle in the JVM.
+  private static final AtomicInteger OPEN_EXPORTS = new AtomicInteger();
+
+  protected int shard;
+  protected int defaultLimit;
+  protected int maxLimit;
+  protected int streamPageSize;
+  protected int exportChunkBytes;
+  protected int maxOpenExports;
+  protected DeliveryOptions streamAckOptions;
+
+  // Streamed listings and exports this instance is serving. They run on executor threads and the
+  // autoscaler retires instances from its own event loop, so both are guarded by the instance.
+  private int openStreams;
+  private boolean retiring;
+
+  // Verticle life-cycle management
+  /** Reads the listing settings shared by every backend. Subclasses call this from start. */
+  protected void configureListing() {
+    this.defaultLimit = config().getInteger(ConfigProp.LIST_DEFAULT_LIMIT, 100);
+    this.maxLimit = config().getInteger(ConfigProp.LIST_MAX_LIMIT, 1000);
+    this.streamPageSize = config().getInteger(ConfigProp.STREAM_PAGE_SIZE, 500);
+    this.exportChunkBytes = config().getInteger(ConfigProp.EXPORT_CHUNK_BYTES, 65536);
+    this.maxOpenExports = config().getInteger(ConfigProp.EXPORT_MAX_OPEN, 2);
+    Metrics.INSTANCE.gauge(
+        "jpa_exports_in_progress",
+        "Exports holding a database cursor open.",
+        "",
+        OPEN_EXPORTS::get);
+    this.streamAckOptions =
+        new DeliveryOptions()
+            .setSendTimeout(config().getLong(ConfigProp.STREAM_ACK_TIMEOUT_MS, 30000L));
+  }
+
+  /**
+   * Reads the shard this node owns, if any. Subclasses call this from start, before registering
+   * their consumers.
+   *
+   * @throws IllegalArgumentException If the shard number is out of range.
+   */
+  protected void configureShard() {
+    this.shard = config().getInteger(ConfigProp.SHARD, -1);
+    if (shard > Shards.MAX_SHARD) {
+      throw new IllegalArgumentException(
+          ConfigProp.SHARD + " must be no greater than " + Shards.MAX_SHARD + ".");
+    }
+  }
+
+  /** Returns the address on which this verticle serves a repository operation. */
+  protected String address(String operation) {
+    return shard < 0 ? operation : Shards.address(operation, shard);
+  }
+
+  /**
+   * Registers the consumer for one of this verticle's addresses. The handler is registered at once
+   * under the address's {@link EventBusAddress#local(String) local alias}, on which the node is
+   * warmed up, but the cluster-wide consumer only once the node is {@link Readiness ready}, so that
+   * a node that's still starting isn't sent a share of the cluster's requests. With <code>
+   * bus-local-first</code> on, API verticles in the same JVM send to the alias in preference, so
+   * their requests are handed over by reference rather than travelling through the cluster.
+   */
+  protected void consume(String address, Handler<Message<Object>> handler) {
+    var bus = vertx.eventBus();
+    bus.localConsumer(EventBusAddress.local(address), handler);
+    Readiness.INSTANCE.whenReady(
+        registered -> {
+          bus.consumer(address, handler).completionHandler(registered);
+          if (config().getBoolean(ConfigProp.BUS_LOCAL_FIRST, false)) {
+            vertx
+                .sharedData()
+                .getLocalMap(EventBusAddress.LOCAL_ALIASES)
+                .put(address, Boolean.TRUE);
+          }
+        });
+  }
+
+  /** Returns an id, unique within this node's shard, as a Person id. */
+  protected long personId(long local) {
+    return Shards.encode(Math.max(shard, 0), local);
+  }
+
+  /**
+   * Adds this node's shard to the cluster-wide shard map, from which API nodes learn where to
+   * send requests. Entries expire unless renewed, so the shard is re-registered every <code>
+   * shard-heartbeat-ms</code> and drops out of the map soon after its last node stops. API nodes
+   * are told when a shard first registers so they needn't wait for their next refresh. The shard
+   * isn't announced until the node is {@link Readiness ready}.
+   */
+  protected void announceShard() {
+    if (shard < 0) {
+      return;
+    }
+
+    long heartbeat = config().getLong(ConfigProp.SHARD_HEARTBEAT_MS, 5000L);
+    Readiness.INSTANCE.whenReady(
+        announced ->
+            vertx
+                .sharedData()
+                .<Integer, Long>getAsyncMap(
+                    Shards.MAP,
+                    map -> {
+                      if (map.failed()) {
+                        LOGGER.error(
+                            "Unable to open the shard map; shard {} won't be found.", shard);
+                      } else {
+                        var shards = map.result();
+                        this.registerShard(shards, heartbeat * 3, true);
+                        vertx.setPeriodic(
+                            heartbeat, id -> this.registerShard(shards, heartbeat * 3, false));
+                      }
+                      announced.complete();
+                    }));
+  }
+
+  // Request handling
+  /**
+   * Wraps the handler for an address so that each message's time since it was sent is recorded
+   * when the handler is reached. That is measured from the sender's <code>sent-at</code> header,
+   * so across nodes it includes transit time and depends on their clocks agreeing.
+   *
+   * <p>Messages whose <code>deadline</code> header has passed by then are failed with a 503
+   * without being handled: the sender has already given up on them.
+   */
+  protected Handler<Message<Object>> admitted(
+      String address, Handler<Message<Object>> handler) {
+    var labels = Metrics.labels("address", address);
+    var queueWait =
+        Metrics.INSTANCE.timer(
+            "jpa_queue_wait_seconds",
+            "Time from a request being sent to a worker starting to handle it.",
+            labels);
+    var expired =
+        Metrics.INSTANCE.counter(
+            "jpa_expired_requests_total",
+            "Requests dropped because their deadline passed.",
+            labels);
+
+    return message -> {
+      long now = Metrics.epochMicros();
+
+      long sentAt = readTimestamp(message, MessageField.SENT_AT);
+      if (sentAt > 0) {
+        queueWait.record(TimeUnit.MICROSECONDS.toNanos(now - sentAt));
+      }
+
+      long deadline = readTimestamp(message, MessageField.DEADLINE);
+      if (deadline > 0 && now > deadline) {
+        LOGGER.debug("Dropping request to {}; its deadline has passed.", address);
+        expired.increment();
+        message.fail(503, "The request's deadline passed before it could be handled.");
+        return;
+      }
+
+      handler.handle(message);
+    };
+  }
+
+  /**
+   * Tests whether a read must be served by the primary database rather than a replica, because
+   * the API node has asked for read-your-writes consistency.
+   */
+  protected static boolean readPrimary(Message<?> message) {
+    return Boolean.parseBoolean(message.headers().get(MessageField.READ_PRIMARY));
+  }
+
+  /** Clamps a list request's page size to the configured bounds. */
+  protected int pageLimit(PersonEnvelope request) {
+    int requested = request.getLimit() == null ? defaultLimit : request.getLimit();
+    return Math.max(1, Math.min(requested, maxLimit));
+  }
+
+  /**
+   * Returns the <code>LIKE</code> pattern, escaped with <code>!</code>, that matches names starting
+   * with a search's prefix.
+   */
+  protected static String likePrefix(String prefix) {
+    return prefix.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+  }
+
+  /**
+   * Returns the end of the range of names starting with a prefix, in character order: the prefix
+   * with its last character incremented. Databases can seek an index to a range with bound
+   * parameters, which they can't always do for a <code>LIKE</code> with a bound pattern.
+   */
+  protected static String prefixUpperBound(String prefix) {
+    int end = prefix.length();
+    while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+      end--;
+    }
+    if (end == 0) {
+      return prefix + Character.MAX_VALUE;
+    }
+    return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+  }
+
+  /** Returns a search's lower age bound, which is unbounded if absent. */
+  protected static int minAge(PersonEnvelope request) {
+    return request.getMinAge() == null ? Integer.MIN_VALUE : request.getMinAge();
+  }
+
+  /** Returns a search's upper age bound, which is unbounded if absent. */
+  protected static int maxAge(PersonEnvelope request) {
+    return request.getMaxAge() == null ? Integer.MAX_VALUE : request.getMaxAge();
+  }
+
+  /**
+   * Sends one page of a streamed listing. Each page is a reply to the message that asked for it;
+   * the API verticle acknowledges the page with another reply once the HTTP client has drained it,
+   * which is our cue to read the next page. Only one page per stream is ever held in memory.
+   *
+   * @param message The message asking for this page.
+   * @param request The original stream request.
+   * @param reply The page.
+   * @param nextAfter The cursor for the next page, or -1 if this is the last.
+   * @param next Reads the next page when the acknowledgement arrives.
+   */
+  protected void replyWithStreamPage(
+      Message<?> message,
+      PersonEnvelope request,
+      PersonEnvelope reply,
+      long nextAfter,
+      Handler<Message<Object>> next) {
+    this.replyWithStreamPage(message, request, reply, nextAfter, next, () -> {});
+  }
+
+  /**
+   * Sends one page of a stream as {@link #replyWithStreamPage(Message, PersonEnvelope,
+   * PersonEnvelope, long, Handler)} does, running <code>abandoned</code> if the API verticle never
+   * asks for the next page, e.g. because its client went away, so that whatever the stream holds
+   * open can be released.
+   */
+  protected void replyWithStreamPage(
+      Message<?> message,
+      PersonEnvelope request,
+      PersonEnvelope reply,
+      long nextAfter,
+      Handler<Message<Object>> next,
+      Runnable abandoned) {
+    if (nextAfter < 0) {
+      message.reply(encode(message, reply));
+      return;
+    }
+
+    message.replyAndRequest(
+        encode(message, reply),
+        streamAckOptions,
+        ack -> {
+          if (ack.succeeded()) {
+            next.handle(ack.result());
+          } else {
+            LOGGER.debug(
+                "Stream {} abandoned by the API verticle: {}",
+                request.getRequestId(),
+                ack.cause().getMessage());
+            abandoned.run();
+          }
+        });
+  }
+
+  /**
+   * Reads the format an export request asks for. If it names no known format an error reply is
+   * sent and <code>null</code> returned.
+   */
+  protected ExportFormat exportFormat(Message<Object> message, PersonEnvelope request) {
+    try {
+      return ExportFormat.of(request.getFormat());
+    } catch (IllegalArgumentException e) {
+      sendReply(
+          message,
+          PersonEnvelope.replyTo(request)
+              .setStatus("err")
+              .setError("Unknown export format '" + request.getFormat() + "'."));
+      return null;
+    }
+  }
+
+  /**
+   * Counts an export as open, unless <code>export-max-open</code> are open already, in which case
+   * the request is failed with a 503 so that the client retries later. Every export counted must
+   * be passed to {@link #exportClosed()} once its cursor is closed.
+   */
+  protected boolean openExport(Message<Object> message) {
+    if (!this.openStream(message)) {
+      return false;
+    }
+    if (OPEN_EXPORTS.incrementAndGet() > maxOpenExports) {
+      OPEN_EXPORTS.decrementAndGet();
+      this.streamClosed();
+      LOGGER.debug("{} exports already open; refusing another.", maxOpenExports);
+      message.fail(503, "Too many exports in progress.");
+      return false;
+    }
+    return true;
+  }
+
+  protected void exportClosed() {
+    OPEN_EXPORTS.decrementAndGet();
+    this.streamClosed();
+  }
+
+  /**
+   * Counts a streamed listing or export as open on this instance, unless it is being undeployed,
+   * in which case the request is failed with a 503 so that the client retries on another. Every
+   * stream counted must be passed to {@link #streamClosed()} once it has ended.
+   */
+  protected synchronized boolean openStream(Message<?> message) {
+    if (retiring) {
+      message.fail(503, "Repository verticle is being undeployed.");
+      return false;
+    }
+    openStreams++;
+    return true;
+  }
+
+  protected synchronized void streamClosed() {
+    openStreams--;
+  }
+
+  /** Tells every API node to drop anything it has cached for this person. */
+  protected void publishChanged(Person person) {
+    vertx.eventBus().publish(EventBusAddress.REPOSITORY_PERSON_CHANGED, person.getId());
+  }
+
+  protected void replyWithPerson(Message<Object> message, PersonEnvelope request, Person person) {
+    this.replyWithPerson(message, request, person, HopClock.of(message));
+  }
+
+  /** As {@link #replyWithPerson(Message, PersonEnvelope, Person)}, timed by the given clock. */
+  protected void replyWithPerson(
+      Message<Object> message, PersonEnvelope request, Person person, HopClock clock) {
+    var reply =
+        PersonEnvelope.replyTo(request)
+            .setStatus("ok")
+            .setEntityId(person.getId())
+            .setName(person.getName())
+            .setAge(person.getAge())
+            .setEntityVersion(person.getVersion());
+
+    // Nodes speaking the JSON envelope expect the entity as a JSON document.
+    if (message.body() instanceof JsonObject) {
+      var jsonString = convertPersonToJson(person);
+      if (jsonString == null) {
+        this.replyFailed(
+            message, request, new PersistenceException("Unable to convert Person to JSON."));
+        return;
+      }
+      reply.setResult(jsonString);
+    }
+
+    sendReply(message, reply, clock);
+  }
+
+  /**
+   * Answers a conditional find whose person is still at the version the client has, without the
+   * person's fields.
+   */
+  protected void replyNotModified(Message<Object> message, PersonEnvelope request) {
+    sendReply(
+        message,
+        PersonEnvelope.replyTo(request)
+            .setStatus("ok")
+            .setEntityId(request.getEntityId())
+            .setEntityVersion(request.getEntityVersion())
+            .setNotModified(true));
+  }
+
+  /**
+   * Answers a bulk create with the ids of the people it created. New people can't be in any API
+   * node's response cache, so unlike single creates they aren't announced.
+   */
+  protected void replyWithIds(
+      Message<Object> message, PersonEnvelope request, List<Person> people) {
+    var ids = new ArrayList<Long>(people.size());
+    people.forEach(person -> ids.add(person.getId()));
+    sendReply(message, PersonEnvelope.replyTo(request).setStatus("ok").setIds(ids));
+  }
+
+  protected void replyFailed(Message<Object> message, PersonEnvelope request, Throwable e) {
+    LOGGER.error("Unable to save or convert person; returning error reply.", e);
+
+    // Return an error status to the message's originator.
+    sendReply(message, PersonEnvelope.replyTo(request).setStatus("err").setError(e.getMessage()));
+  }
+
+  /** Returns the transient people carried by a bulk create request. */
+  protected List<Person> newPeople(PersonEnvelope request) {
+    var requested = request.getPeople() == null ? List.<PersonEnvelope>of() : request.getPeople();
+    var people = new ArrayList<Person>(requested.size());
+    for (var entry : requested) {
+      var person = new Person();
+      person.setName(entry.getName());
+      person.setAge(entry.getAge() == null ? 0 : entry.getAge());
+      people.add(person);
+    }
+    return people;
+  }
+
+  /**
+   * Reads the request envelope from a message in either protocol. If the body can't be read an
+   * error reply is sent and <code>null</code> returned.
+   */
+  protected PersonEnvelope decode(Message<Object> message) {
+    try {
+      return PersonEnvelope.from(message.body());
+    } catch (IllegalArgumentException e) {
+      LOGGER.error("Unable to read request envelope; returning error reply.", e);
+
+      var reply = new PersonEnvelope().setStatus("err").setError(e.getMessage());
+      if (message.body() instanceof JsonObject) {
+        var requestId = ((JsonObject) message.body()).getValue(MessageField.REQUEST_ID);
+        reply.setRequestId(requestId == null ? null : requestId.toString());
+      }
+      sendReply(message, reply);
+      return null;
+    }
+  }
+
+  /**
+   * Replies to a request in the protocol it arrived in (see {@link #encode(Message, PersonEnvelope)
+   * }), with the request's hop timings if it's being timed on this thread (see {@link HopClock}).
+   */
+  protected static void sendReply(Message<?> message, PersonEnvelope reply) {
+    sendReply(message, reply, HopClock.of(message));
+  }
+
+  /** As {@link #sendReply(Message, PersonEnvelope)}, with the timings of the given clock. */
+  protected static void sendReply(Message<?> message, PersonEnvelope reply, HopClock clock) {
+    if (clock == null) {
+      message.reply(encode(message, reply));
+    } else {
+      message.reply(
+          encode(message, reply),
+          new DeliveryOptions().addHeader(MessageField.HOP_TIMING, clock.toHeader()));
+    }
+  }
+
+  /**
+   * Replies in the protocol the request arrived in so that nodes still speaking the JSON envelope
+   * keep working alongside those using {@link PersonEnvelopeCodec}.
+   */
+  protected static Object encode(Message<?> message, PersonEnvelope reply) {
+    return message.body() instanceof JsonObject ? reply.toJson() : reply;
+  }
+
+  /**
+   * Marks this instance as about to be undeployed if it has no stream open, so that it takes no
+   * new ones, and returns whether it did. A stream holds state between the requests for its pages
+   * that would be lost if its instance went away.
+   */
+  synchronized boolean retire() {
+    retiring = openStreams == 0;
+    return retiring;
+  }
+
+  /** Lets an instance that couldn't be undeployed take streams again. */
+  synchronized void reinstate() {
+    retiring = false;
+  }
+
+  // Package-private so the benchmarks module can measure it.
+  static String convertPersonToJson(Person person) {
+    String json = null;
+
+    try {
+      json = MAPPER.writeValueAsString(person);
+    } catch (Exception e) {
+      LOGGER.error("Unable to convert Person to JSON.", e);
+    }
+
+    return json;
+  }
+
+  // Utility methods
+  private void registerShard(AsyncMap<Integer, Long> shards, long ttl, boolean first) {
+    shards.put(
+        shard,
+        System.currentTimeMillis(),
+        ttl,
+        put -> {
+          if (put.failed()) {
+            LOGGER.warn(
+                "Unable to renew shard {} in the shard map: {}", shard, put.cause().getMessage());
+          } else if (first) {
+            LOGGER.info("Shard {} registered.", shard);
+            vertx.eventBus().publish(EventBusAddress.REPOSITORY_SHARD_STARTED, shard);
+          }
+        });
+  }
+
+  /** Reads a timestamp header in epoch microseconds, returning 0 if it's absent or malformed. */
+  private static long readTimestamp(Message<?> message, String header) {
+    var value = message.headers().get(header);
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      LOGGER.debug("Ignoring malformed {} header '{}'.", header, value);
+      return 0;
+    }
+  }
+}
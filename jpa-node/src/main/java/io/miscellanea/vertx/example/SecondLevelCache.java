@@ -0,0 +1,144 @@
+package io.miscellanea.vertx.example;
+
+import com.hazelcast.cache.HazelcastCacheManager;
+import com.hazelcast.cache.ICache;
+import com.hazelcast.cache.impl.HazelcastServerCachingProvider;
+import com.hazelcast.config.CacheConfig;
+import com.hazelcast.config.EvictionConfig;
+import com.hazelcast.config.EvictionPolicy;
+import com.hazelcast.core.HazelcastInstance;
+import io.vertx.core.json.JsonObject;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.cache.CacheException;
+import javax.persistence.EntityManagerFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Backs Hibernate's second-level and query caches with the Hazelcast instance the node already
+ * runs for clustering. The caches are Hazelcast <code>ICache</code>s, i.e. partitioned across the
+ * cluster, so every JPA node reads and invalidates the same entries.
+ *
+ * @author Jason Hallford
+ */
+public class SecondLevelCache {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(SecondLevelCache.class);
+
+  /** The cache region holding <code>Person</code> entities. */
+  public static final String PERSON_REGION = "person";
+
+  private static final String QUERY_RESULTS_REGION = "default-query-results-region";
+  private static final String UPDATE_TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+  private final HazelcastCacheManager cacheManager;
+  private final boolean queryCache;
+
+  // Constructors
+  /**
+   * Creates the JCache manager over the given Hazelcast instance and the cache regions Hibernate
+   * will use, bounded to <code>maxEntries</code> per region and node.
+   *
+   * @param hazelcast The node's Hazelcast instance.
+   * @param maxEntries The LRU eviction threshold for entity and query result regions.
+   * @param queryCache Whether the query cache is also enabled.
+   */
+  public SecondLevelCache(HazelcastInstance hazelcast, int maxEntries, boolean queryCache) {
+    this.cacheManager =
+        (HazelcastCacheManager)
+            HazelcastServerCachingProvider.createCachingProvider(hazelcast).getCacheManager();
+    this.queryCache = queryCache;
+
+    this.createRegion(PERSON_REGION, maxEntries);
+    if (queryCache) {
+      this.createRegion(QUERY_RESULTS_REGION, maxEntries);
+
+      // Hibernate expects update timestamps never to be evicted; there is one entry per table.
+      this.createRegion(UPDATE_TIMESTAMPS_REGION, Integer.MAX_VALUE);
+    }
+  }
+
+  // Public methods
+  /**
+   * The persistence unit properties that switch on the caches.
+   *
+   * @return Properties to pass to {@link PersistenceManager#initialize(Map)}.
+   */
+  public Map<String, Object> getPersistenceProperties() {
+    var properties = new HashMap<String, Object>();
+    properties.put("hibernate.cache.use_second_level_cache", "true");
+    properties.put("hibernate.cache.use_query_cache", Boolean.toString(queryCache));
+    properties.put("hibernate.cache.region.factory_class", "jcache");
+    properties.put("hibernate.javax.cache.cache_manager", cacheManager);
+    properties.put("hibernate.javax.cache.missing_cache_strategy", "create");
+    properties.put("hibernate.generate_statistics", "true");
+    return properties;
+  }
+
+  /**
+   * Collects hit, miss and put counts from Hibernate along with this node's eviction counts from
+   * Hazelcast.
+   *
+   * @param entityManagerFactory The factory whose statistics should be read.
+   * @return The statistics as JSON.
+   */
+  public JsonObject getStatistics(EntityManagerFactory entityManagerFactory) {
+    var statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    var entity = statistics.getDomainDataRegionStatistics(PERSON_REGION);
+
+    var json =
+        new JsonObject()
+            .put(
+                PERSON_REGION,
+                new JsonObject()
+                    .put("hits", entity.getHitCount())
+                    .put("misses", entity.getMissCount())
+                    .put("puts", entity.getPutCount())
+                    .put("evictions", this.getEvictions(PERSON_REGION)));
+
+    if (queryCache) {
+      json.put(
+          "query",
+          new JsonObject()
+              .put("hits", statistics.getQueryCacheHitCount())
+              .put("misses", statistics.getQueryCacheMissCount())
+              .put("puts", statistics.getQueryCachePutCount())
+              .put("evictions", this.getEvictions(QUERY_RESULTS_REGION)));
+    }
+
+    return json;
+  }
+
+  // Utility methods
+  private void createRegion(String name, int maxEntries) {
+    if (cacheManager.getCache(name) != null) {
+      return;
+    }
+
+    var config =
+        new CacheConfig<Object, Object>()
+            .setEvictionConfig(
+                new EvictionConfig(
+                    maxEntries, EvictionConfig.MaxSizePolicy.ENTRY_COUNT, EvictionPolicy.LRU));
+    config.setStatisticsEnabled(true);
+    config.setManagementEnabled(true);
+
+    try {
+      cacheManager.createCache(name, config);
+      LOGGER.debug("Created cache region '{}' with at most {} entries.", name, maxEntries);
+    } catch (CacheException e) {
+      // Another node created it first.
+      LOGGER.debug("Cache region '{}' already exists.", name);
+    }
+  }
+
+  private long getEvictions(String name) {
+    var cache = cacheManager.getCache(name);
+    return cache == null
+        ? 0
+        : cache.unwrap(ICache.class).getLocalCacheStatistics().getCacheEvictions();
+  }
+}
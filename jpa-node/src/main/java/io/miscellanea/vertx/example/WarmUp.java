@@ -0,0 +1,288 @@
+package io.miscellanea.vertx.example;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms a JPA node up before it takes a share of the cluster's requests. The connection pools are
+ * filled first; then rounds of listings, searches and finds, in both envelopes, are sent to the
+ * repository verticles' {@link EventBusAddress#local(String) local aliases} until the average
+ * round trip settles, by which time the JIT has compiled the request path and the database has the
+ * table's pages in memory. A round's finds are for the people on its page, and each round reads
+ * the next page, wrapping around at the end of the table.
+ *
+ * <p>Every request only reads, so a warm-up changes nothing. Replies are handed over by reference
+ * in the JVM, so they're also put through the wire format, as they would be between nodes.
+ *
+ * @author Jason Hallford
+ */
+final class WarmUp {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(WarmUp.class);
+
+  private static final int ROUND_SIZE = 100;
+  private static final int MIN_ROUNDS = 5;
+  private static final int SETTLED_ROUNDS = 3;
+  private static final long REQUEST_TIMEOUT_MS = 10000;
+
+  private final Vertx vertx;
+  private final int shard;
+  private final double tolerance;
+  private final long started = System.nanoTime();
+  private final long deadline;
+  private final Handler<AsyncResult<Void>> done;
+  private final PersonEnvelopeCodec codec = new PersonEnvelopeCodec();
+  private final DeliveryOptions options = new DeliveryOptions().setSendTimeout(REQUEST_TIMEOUT_MS);
+
+  // Round state, only touched on the warm-up's context.
+  private int rounds;
+  private int settledRounds;
+  private double previousAverage;
+  private long after;
+  private int pending;
+  private int replies;
+  private int failures;
+  private long roundTripNanos;
+
+  // Constructors
+  private WarmUp(Vertx vertx, JsonObject config, long maxMs, Handler<AsyncResult<Void>> done) {
+    this.vertx = vertx;
+    this.shard = config.getInteger(ConfigProp.SHARD, -1);
+    this.tolerance = config.getDouble(ConfigProp.WARM_UP_TOLERANCE, 0.1);
+    this.deadline = started + TimeUnit.MILLISECONDS.toNanos(maxMs);
+    this.done = done;
+  }
+
+  /**
+   * Warms the node up, for no longer than <code>warm-up-max-ms</code>. The repository verticles
+   * must already be deployed. Requests that fail are logged; the warm-up itself always succeeds.
+   *
+   * @param vertx The Vert.x instance.
+   * @param config The JPA node's configuration.
+   * @param done Notified once the node is warm, or once the time allowed has run out.
+   */
+  static void run(Vertx vertx, JsonObject config, Handler<AsyncResult<Void>> done) {
+    Readiness.INSTANCE.warmingUp();
+
+    long maxMs = config.getLong(ConfigProp.WARM_UP_MAX_MS, 20000L);
+    if (maxMs <= 0) {
+      done.handle(Future.succeededFuture());
+      return;
+    }
+
+    // Replies are delivered on the context that sent the request, so the whole warm-up runs on
+    // one context and needs no locking.
+    var warmUp = new WarmUp(vertx, config, maxMs, done);
+    Context context = vertx.getOrCreateContext();
+    context.runOnContext(
+        v ->
+            vertx.executeBlocking(
+                promise -> {
+                  fillPools();
+                  promise.complete();
+                },
+                false,
+                filled -> {
+                  if (filled.failed()) {
+                    LOGGER.warn("Warm-up: unable to fill the connection pools.", filled.cause());
+                  }
+                  warmUp.nextRound();
+                }));
+  }
+
+  // Utility methods
+  /**
+   * Opens every connection the JPA pools may hold, by borrowing them all at once. The reactive
+   * backend's pools open connections as the warm-up's requests need them.
+   */
+  private static void fillPools() {
+    var pm = PersistenceManager.INSTANCE;
+    if (!pm.isInitialized()) {
+      return;
+    }
+
+    List<HikariDataSource> dataSources = new ArrayList<>(pm.getReplicaDataSources());
+    dataSources.add(0, pm.getDataSource());
+    int opened = 0;
+    for (var dataSource : dataSources) {
+      var held = new ArrayList<Connection>();
+      try {
+        for (int i = 0; i < dataSource.getMaximumPoolSize(); i++) {
+          held.add(dataSource.getConnection());
+        }
+      } catch (Exception e) {
+        throw new PersistenceException("Unable to open a pooled connection.", e);
+      } finally {
+        opened += held.size();
+        for (var connection : held) {
+          try {
+            connection.close();
+          } catch (Exception e) {
+            LOGGER.debug("Unable to return a warm-up connection to its pool.", e);
+          }
+        }
+      }
+    }
+    LOGGER.info("Warm-up: {} pooled connection(s) open.", opened);
+  }
+
+  private void nextRound() {
+    pending = 1;
+    replies = 0;
+    failures = 0;
+    roundTripNanos = 0;
+
+    var page = new PersonEnvelope().setAfter(after).setLimit(ROUND_SIZE);
+    this.send(
+        EventBusAddress.REPOSITORY_PERSON_LIST,
+        page,
+        rounds % 2 == 0,
+        reply -> {
+          var ids = new ArrayList<Long>();
+          if (reply != null && reply.getResult() != null) {
+            var people = new JsonArray(reply.getResult());
+            for (int i = 0; i < people.size(); i++) {
+              ids.add(people.getJsonObject(i).getLong("id"));
+            }
+          }
+          after = reply == null || reply.getNextAfter() == null ? 0L : reply.getNextAfter();
+
+          // An empty table still exercises the path to a "not found".
+          if (ids.isEmpty()) {
+            for (long id = 1; id < ROUND_SIZE; id++) {
+              ids.add(Shards.encode(Math.max(shard, 0), id));
+            }
+          }
+
+          pending += ids.size() + 1;
+          this.send(
+              EventBusAddress.REPOSITORY_PERSON_SEARCH,
+              new PersonEnvelope().setNamePrefix("A").setMinAge(0).setMaxAge(99).setLimit(20),
+              rounds % 2 != 0,
+              this::replied);
+          for (int i = 0; i < ids.size(); i++) {
+            var find = new PersonEnvelope().setEntityId(ids.get(i));
+            // Some finds are conditional, which is a version check rather than a load.
+            if (i % 4 == 3) {
+              find.setEntityVersion(0L);
+            }
+            this.send(EventBusAddress.REPOSITORY_PERSON_FIND, find, i % 2 == 0, this::replied);
+          }
+          this.replied(reply);
+        });
+  }
+
+  private void replied(PersonEnvelope reply) {
+    if (--pending > 0) {
+      return;
+    }
+
+    rounds++;
+    long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    if (replies == 0) {
+      LOGGER.warn(
+          "Warm-up: every request in round {} failed; serving without warming up further.",
+          rounds);
+      done.handle(Future.succeededFuture());
+      return;
+    }
+
+    double average = roundTripNanos / (double) replies;
+    boolean settled =
+        rounds > 1 && Math.abs(average - previousAverage) <= previousAverage * tolerance;
+    settledRounds = settled ? settledRounds + 1 : 0;
+    previousAverage = average;
+    LOGGER.debug(
+        "Warm-up round {}: {} ms per request, {} failed.",
+        rounds,
+        String.format("%.2f", average / 1e6),
+        failures);
+
+    if (rounds >= MIN_ROUNDS && settledRounds >= SETTLED_ROUNDS) {
+      LOGGER.info(
+          "Warm-up: round trips settled at {} ms after {} rounds in {} ms.",
+          String.format("%.2f", average / 1e6),
+          rounds,
+          elapsedMs);
+      done.handle(Future.succeededFuture());
+    } else if (System.nanoTime() > deadline) {
+      LOGGER.warn(
+          "Warm-up: round trips hadn't settled after {} rounds in {} ms; the last averaged {} ms.",
+          rounds,
+          elapsedMs,
+          String.format("%.2f", average / 1e6));
+      done.handle(Future.succeededFuture());
+    } else {
+      this.nextRound();
+    }
+  }
+
+  /**
+   * Sends a request to the local alias of this node's address for an operation and passes the
+   * reply on, or <code>null</code> if the request failed.
+   */
+  private void send(
+      String operation, PersonEnvelope request, boolean json, Handler<PersonEnvelope> handler) {
+    var address = shard < 0 ? operation : Shards.address(operation, shard);
+    request.setRequestId(UUID.randomUUID().toString());
+    Object body = json ? request.toJson() : this.throughWire(request);
+
+    long sent = System.nanoTime();
+    vertx
+        .eventBus()
+        .request(
+            EventBusAddress.local(address),
+            body,
+            options,
+            reply -> {
+              long roundTrip = System.nanoTime() - sent;
+              PersonEnvelope envelope = null;
+              if (reply.failed()) {
+                LOGGER.debug("Warm-up request to {} failed.", address, reply.cause());
+              } else {
+                envelope = this.read(reply.result().body());
+                if ("err".equals(envelope.getStatus())) {
+                  LOGGER.debug("Warm-up request to {} failed: {}", address, envelope.getError());
+                  envelope = null;
+                }
+              }
+
+              if (envelope == null) {
+                failures++;
+              } else {
+                replies++;
+                roundTripNanos += roundTrip;
+              }
+              handler.handle(envelope);
+            });
+  }
+
+  private PersonEnvelope read(Object body) {
+    if (body instanceof JsonObject) {
+      return PersonEnvelope.from(new JsonObject(((JsonObject) body).toBuffer()));
+    }
+    return this.throughWire((PersonEnvelope) body);
+  }
+
+  private PersonEnvelope throughWire(PersonEnvelope envelope) {
+    var buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, envelope);
+    return codec.decodeFromWire(0, buffer);
+  }
+}
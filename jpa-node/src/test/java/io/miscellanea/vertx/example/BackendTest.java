@@ -0,0 +1,210 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the JPA and reactive repository backends through create, find and list against the same
+ * embedded PostgreSQL server, each in a database of its own, and checks that they answer alike.
+ *
+ * <p>PostgreSQL refuses to run as root, so these are skipped when the build runs as root.
+ *
+ * @author Jason Hallford
+ */
+@RunWith(Parameterized.class)
+public class BackendTest {
+  // Fields
+  private static EmbeddedPostgres postgres;
+
+  /** The repository implementation under test. */
+  @Parameterized.Parameter public String backend;
+
+  private Vertx vertx;
+
+  // Life-cycle
+  @Parameterized.Parameters(name = "{0}")
+  public static List<String> backends() {
+    return List.of("jpa", "reactive");
+  }
+
+  @BeforeClass
+  public static void startDatabase() throws Exception {
+    Assume.assumeFalse(
+        "PostgreSQL won't start as root.", "root".equals(System.getProperty("user.name")));
+    postgres = EmbeddedPostgres.builder().start();
+  }
+
+  @AfterClass
+  public static void stopDatabase() throws Exception {
+    if (postgres != null) {
+      postgres.close();
+    }
+    PersistenceManager.INSTANCE.close();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    try (var connection = postgres.getPostgresDatabase().getConnection();
+        var statement = connection.createStatement()) {
+      statement.execute("create database " + backend);
+    }
+
+    vertx = Vertx.vertx();
+    vertx.eventBus().registerDefaultCodec(PersonEnvelope.class, new PersonEnvelopeCodec());
+
+    var config =
+        new JsonObject()
+            .put(
+                ConfigProp.REACTIVE_CONNECT,
+                new JsonObject()
+                    .put("host", "localhost")
+                    .put("port", postgres.getPort())
+                    .put("database", backend)
+                    .put("user", "postgres"))
+            .put(ConfigProp.REACTIVE_POOL_SIZE, 2);
+
+    String verticle;
+    if ("jpa".equals(backend)) {
+      PersistenceManager.INSTANCE.initialize(
+          Map.of(
+              "hibernate.dialect", "org.hibernate.dialect.PostgreSQL10Dialect",
+              "hibernate.hikari.dataSourceClassName", "org.postgresql.ds.PGSimpleDataSource",
+              "hibernate.hikari.dataSource.url",
+                  "jdbc:postgresql://localhost:" + postgres.getPort() + "/" + backend,
+              "hibernate.hikari.dataSource.user", "postgres",
+              "hibernate.hikari.maximumPoolSize", "2",
+              "hibernate.hbm2ddl.auto", "create"));
+      verticle = JpaRepositoryVerticle.class.getName();
+    } else {
+      var schema = new CompletableFuture<Void>();
+      ReactiveRepositoryVerticle.createSchema(
+          vertx,
+          config,
+          result -> {
+            if (result.succeeded()) {
+              schema.complete(null);
+            } else {
+              schema.completeExceptionally(result.cause());
+            }
+          });
+      schema.get(30, TimeUnit.SECONDS);
+      verticle = ReactiveRepositoryVerticle.class.getName();
+    }
+
+    var deployed = new CompletableFuture<String>();
+    vertx.deployVerticle(
+        verticle,
+        new DeploymentOptions().setConfig(config),
+        result -> {
+          if (result.succeeded()) {
+            deployed.complete(result.result());
+          } else {
+            deployed.completeExceptionally(result.cause());
+          }
+        });
+    deployed.get(30, TimeUnit.SECONDS);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    var closed = new CompletableFuture<Void>();
+    vertx.close(result -> closed.complete(null));
+    closed.get(30, TimeUnit.SECONDS);
+  }
+
+  // Tests
+  @Test
+  public void createFindAndList() throws Exception {
+    var ada = this.create("Ada", 36);
+    var grace = this.create("Grace", 85);
+    var edsger = this.create("Edsger", 72);
+    assertTrue(ada.getEntityId() < grace.getEntityId());
+    assertTrue(grace.getEntityId() < edsger.getEntityId());
+
+    var found =
+        this.send(
+            EventBusAddress.REPOSITORY_PERSON_FIND,
+            new PersonEnvelope().setEntityId(grace.getEntityId()));
+    assertTrue(found.isOk());
+    assertEquals(grace.getEntityId(), found.getEntityId());
+    assertEquals("Grace", found.getName());
+    assertEquals(Integer.valueOf(85), found.getAge());
+
+    // A full first page hands back the cursor for the next, which holds the rest.
+    var first = this.list(null, 2);
+    assertEquals(List.of("Ada", "Grace"), this.names(first));
+    assertEquals(grace.getEntityId(), first.getNextAfter());
+
+    var second = this.list(first.getNextAfter(), 2);
+    assertEquals(List.of("Edsger"), this.names(second));
+    assertNull(second.getNextAfter());
+  }
+
+  // Utility methods
+  private PersonEnvelope create(String name, int age) throws Exception {
+    var reply =
+        this.send(
+            EventBusAddress.REPOSITORY_PERSON_CREATE,
+            new PersonEnvelope().setName(name).setAge(age));
+    assertTrue(reply.getError(), reply.isOk());
+    assertNotNull(reply.getEntityId());
+    return reply;
+  }
+
+  private PersonEnvelope list(Long after, int limit) throws Exception {
+    var reply =
+        this.send(
+            EventBusAddress.REPOSITORY_PERSON_LIST,
+            new PersonEnvelope().setAfter(after).setLimit(limit));
+    assertTrue(reply.getError(), reply.isOk());
+    return reply;
+  }
+
+  private List<String> names(PersonEnvelope page) {
+    return new JsonArray(page.getResult())
+        .stream()
+        .map(person -> ((JsonObject) person).getString("name"))
+        .collect(Collectors.toList());
+  }
+
+  /** Sends a request to the verticle's local alias, which it serves before the node is ready. */
+  private PersonEnvelope send(String address, PersonEnvelope request) throws Exception {
+    var response = new CompletableFuture<PersonEnvelope>();
+    vertx
+        .eventBus()
+        .<PersonEnvelope>request(
+            EventBusAddress.local(address),
+            request.setRequestId(UUID.randomUUID().toString()),
+            reply -> {
+              if (reply.failed()) {
+                response.completeExceptionally(reply.cause());
+              } else {
+                response.complete(reply.result().body());
+              }
+            });
+    return response.get(30, TimeUnit.SECONDS);
+  }
+}
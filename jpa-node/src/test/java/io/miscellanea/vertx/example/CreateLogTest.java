@@ -0,0 +1,238 @@
+package io.miscellanea.vertx.example;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the create log applies what it logged after a restart, cuts a torn record off the
+ * end, skips people the database already has and moves a person it refuses to the dead-letter
+ * file.
+ *
+ * @author Jason Hallford
+ */
+public class CreateLogTest {
+  // Fields
+  private static final int SEGMENT_BYTES = 4096;
+  private static final long APPLY_WAIT_MS = 30000;
+
+  // Each record is a length, a CRC-32, the id, age and name length, and the name.
+  private static final int ADA_BYTES = 8 + 16 + "Ada".length();
+  private static final int GRACE_BYTES = 8 + 16 + "Grace".length();
+  private static final int EDSGER_BYTES = 8 + 16 + "Edsger".length();
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+
+  // Life-cycle
+  @BeforeClass
+  public static void startDatabase() {
+    PersistenceManager.INSTANCE.initialize(
+        Map.of(
+            "hibernate.hikari.dataSource.url",
+            "jdbc:h2:mem:create-log;DB_CLOSE_DELAY=-1",
+            "hibernate.hbm2ddl.auto",
+            "create"));
+  }
+
+  @AfterClass
+  public static void stopDatabase() {
+    PersistenceManager.INSTANCE.close();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    this.directory = folder.newFolder("create-log").toPath();
+    this.delete();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    CreateLog.INSTANCE.close();
+  }
+
+  // Tests
+  @Test
+  public void loggedCreatesAreAppliedAfterARestart() throws Exception {
+    this.open();
+    this.append(this.person(1, "Ada", 36), this.person(2, "Grace", 85));
+    this.restartUnapplied(1, 2);
+
+    assertTrue(CreateLog.INSTANCE.awaitApplied(APPLY_WAIT_MS));
+    assertEquals(List.of(1L, 2L), this.ids());
+    assertEquals("Grace", this.name(2));
+    assertNull(CreateLog.INSTANCE.unapplied(2));
+  }
+
+  @Test
+  public void tornRecordEndsTheLog() throws Exception {
+    this.open();
+    this.append(this.person(1, "Ada", 36), this.person(2, "Grace", 85));
+    this.append(this.person(3, "Edsger", 72));
+    this.stop();
+
+    // A crash while Edsger was appended left his record half written.
+    int torn = ADA_BYTES + GRACE_BYTES;
+    var segment = directory.resolve("0000000000.log");
+    var bytes = Files.readAllBytes(segment);
+    bytes[torn + EDSGER_BYTES - 1] ^= 0x7f;
+    Files.write(segment, bytes);
+    this.restartUnapplied(1, 2, 3);
+
+    assertTrue(CreateLog.INSTANCE.awaitApplied(APPLY_WAIT_MS));
+    assertEquals(List.of(1L, 2L), this.ids());
+    assertNull(CreateLog.INSTANCE.unapplied(3));
+
+    // The torn record is zeroed and the next create is appended in its place.
+    bytes = Files.readAllBytes(segment);
+    for (int i = torn; i < bytes.length; i++) {
+      assertEquals("Byte " + i, 0, bytes[i]);
+    }
+    this.append(this.person(4, "Barbara", 81));
+    assertTrue(CreateLog.INSTANCE.awaitApplied(APPLY_WAIT_MS));
+    assertEquals(List.of(1L, 2L, 4L), this.ids());
+    assertEquals(
+        16 + "Barbara".length(), ByteBuffer.wrap(Files.readAllBytes(segment)).getInt(torn));
+  }
+
+  @Test
+  public void peopleAlreadyInTheDatabaseAreSkipped() throws Exception {
+    this.open();
+    this.append(this.person(1, "Ada", 36), this.person(2, "Grace", 85));
+    this.append(this.person(3, "Edsger", 72));
+
+    // Only Grace was lost, so the replay must insert her without inserting the others twice.
+    this.restartUnapplied(2);
+
+    assertTrue(CreateLog.INSTANCE.awaitApplied(APPLY_WAIT_MS));
+    assertEquals(List.of(1L, 2L, 3L), this.ids());
+    assertFalse(Files.exists(directory.resolve("dead-letter")));
+  }
+
+  @Test
+  public void refusedPersonIsDeadLettered() throws Exception {
+    this.open();
+
+    // The name column holds 255 characters, so the second person can't be inserted.
+    this.append(
+        this.person(1, "Ada", 36), this.person(2, "x".repeat(300), 1), this.person(3, "Grace", 85));
+
+    assertTrue(CreateLog.INSTANCE.awaitApplied(APPLY_WAIT_MS));
+    assertEquals(List.of(1L, 3L), this.ids());
+    assertNull(CreateLog.INSTANCE.unapplied(2));
+
+    var deadLetters = Files.readAllLines(directory.resolve("dead-letter"));
+    assertEquals(1, deadLetters.size());
+    assertTrue(deadLetters.get(0), deadLetters.get(0).startsWith("{\"id\":2,"));
+  }
+
+  // Utility methods
+  private void open() {
+    CreateLog.INSTANCE.open(directory, SEGMENT_BYTES);
+  }
+
+  /** Appends people and waits until the log has been synced. */
+  private void append(Person... people) throws Exception {
+    var synced = new ArrayList<CompletableFuture<Void>>();
+    for (var person : people) {
+      var appended = new CompletableFuture<Void>();
+      CreateLog.INSTANCE.append(
+          person,
+          result -> {
+            if (result.succeeded()) {
+              appended.complete(null);
+            } else {
+              appended.completeExceptionally(result.cause());
+            }
+          });
+      synced.add(appended);
+    }
+    for (var appended : synced) {
+      appended.get(30, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Stops the log once it has applied everything, takes people out of the database and forgets
+   * the checkpoint, as though the node had crashed before applying them, and opens it again.
+   */
+  private void restartUnapplied(long... ids) throws Exception {
+    if (CreateLog.INSTANCE.isOpen()) {
+      this.stop();
+    }
+    this.delete(ids);
+    Files.delete(directory.resolve("checkpoint"));
+    this.open();
+  }
+
+  private void stop() throws Exception {
+    assertTrue(CreateLog.INSTANCE.awaitApplied(APPLY_WAIT_MS));
+    CreateLog.INSTANCE.close();
+  }
+
+  private Person person(long id, String name, int age) {
+    var person = new Person();
+    person.setId(id);
+    person.setName(name);
+    person.setAge(age);
+    return person;
+  }
+
+  private List<Long> ids() {
+    return PersistenceManager.INSTANCE.find(
+        em ->
+            em.createQuery("select p.id from Person p order by p.id", Long.class)
+                .getResultList());
+  }
+
+  private String name(long id) {
+    return PersistenceManager.INSTANCE
+        .find(
+            em ->
+                em.createQuery("select p.name from Person p where p.id = :id", String.class)
+                    .setParameter("id", id)
+                    .getResultList())
+        .get(0);
+  }
+
+  /** Deletes people from the database, or everyone if no ids are given. */
+  private void delete(long... ids) {
+    var em = PersistenceManager.INSTANCE.getEntityManager();
+    try {
+      em.getTransaction().begin();
+      if (ids.length == 0) {
+        em.createQuery("delete from Person").executeUpdate();
+      } else {
+        var list = new ArrayList<Long>();
+        for (long id : ids) {
+          list.add(id);
+        }
+        em.createQuery("delete from Person p where p.id in :ids")
+            .setParameter("ids", list)
+            .executeUpdate();
+      }
+      em.getTransaction().commit();
+    } finally {
+      em.close();
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that one bad create in a group commit fails alone: the rest of its batch is committed
+ * and acknowledged.
+ *
+ * @author Jason Hallford
+ */
+public class GroupCommitTest {
+  // Fields
+  private static final int BATCH = 3;
+
+  private static Vertx vertx;
+
+  // Life-cycle
+  @BeforeClass
+  public static void setUp() throws Exception {
+    PersistenceManager.INSTANCE.initialize(
+        Map.of(
+            "hibernate.hikari.dataSource.url",
+            "jdbc:h2:mem:group-commit;DB_CLOSE_DELAY=-1",
+            "hibernate.hbm2ddl.auto",
+            "create"));
+
+    vertx = Vertx.vertx();
+    vertx.eventBus().registerDefaultCodec(PersonEnvelope.class, new PersonEnvelopeCodec());
+
+    // Only a full batch is committed within the test's time: the window never closes on its own.
+    var config =
+        new JsonObject()
+            .put(ConfigProp.GROUP_COMMIT_ENABLED, true)
+            .put(ConfigProp.GROUP_COMMIT_WINDOW_MS, 60000L)
+            .put(ConfigProp.GROUP_COMMIT_MAX_BATCH, BATCH)
+            .put(ConfigProp.JPA_EXECUTOR_SIZE, BATCH);
+    var deployed = new CompletableFuture<String>();
+    vertx.deployVerticle(
+        JpaRepositoryVerticle.class.getName(),
+        new DeploymentOptions().setConfig(config),
+        result -> {
+          if (result.succeeded()) {
+            deployed.complete(result.result());
+          } else {
+            deployed.completeExceptionally(result.cause());
+          }
+        });
+    deployed.get(30, TimeUnit.SECONDS);
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    var closed = new CompletableFuture<Void>();
+    vertx.close(result -> closed.complete(null));
+    closed.get(30, TimeUnit.SECONDS);
+    PersistenceManager.INSTANCE.close();
+  }
+
+  // Tests
+  @Test
+  public void badCreateFailsAloneInItsBatch() throws Exception {
+    // The name column holds 255 characters, so the second create can't be inserted.
+    var first = this.create("Ada", 36);
+    var bad = this.create("x".repeat(300), 1);
+    var last = this.create("Grace", 85);
+
+    var firstReply = first.get(30, TimeUnit.SECONDS);
+    var badReply = bad.get(30, TimeUnit.SECONDS);
+    var lastReply = last.get(30, TimeUnit.SECONDS);
+
+    assertTrue(firstReply.isOk());
+    assertTrue(lastReply.isOk());
+    assertFalse(badReply.isOk());
+    assertNotNull(badReply.getError());
+
+    assertEquals("Ada", this.find(firstReply.getEntityId()).getName());
+    assertEquals("Grace", this.find(lastReply.getEntityId()).getName());
+    assertEquals(2L, this.countPeople());
+  }
+
+  // Utility methods
+  private CompletableFuture<PersonEnvelope> create(String name, int age) {
+    return this.send(
+        EventBusAddress.REPOSITORY_PERSON_CREATE, new PersonEnvelope().setName(name).setAge(age));
+  }
+
+  private PersonEnvelope find(long id) throws Exception {
+    return this.send(EventBusAddress.REPOSITORY_PERSON_FIND, new PersonEnvelope().setEntityId(id))
+        .get(30, TimeUnit.SECONDS);
+  }
+
+  private long countPeople() {
+    return PersistenceManager.INSTANCE
+        .find(em -> em.createQuery("select count(p) from Person p", Long.class).getResultList())
+        .get(0);
+  }
+
+  /** Sends a request to the verticle's local alias, which it serves before the node is ready. */
+  private CompletableFuture<PersonEnvelope> send(String address, PersonEnvelope request) {
+    var response = new CompletableFuture<PersonEnvelope>();
+    vertx
+        .eventBus()
+        .<PersonEnvelope>request(
+            EventBusAddress.local(address),
+            request.setRequestId(UUID.randomUUID().toString()),
+            reply -> {
+              if (reply.failed()) {
+                response.completeExceptionally(reply.cause());
+              } else {
+                response.complete(reply.result().body());
+              }
+            });
+    return response;
+  }
+}
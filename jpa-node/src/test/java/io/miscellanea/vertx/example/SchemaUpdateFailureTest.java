@@ -0,0 +1,47 @@
+package io.miscellanea.vertx.example;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.sql.DriverManager;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Starts the JPA backend against a table holding people that a schema update can't bring up to
+ * date, and checks that the failure stops the backend from starting.
+ *
+ * @author Jason Hallford
+ */
+public class SchemaUpdateFailureTest {
+  // Fields
+  private static final String URL = "jdbc:h2:mem:schema-update-failure;DB_CLOSE_DELAY=-1";
+
+  // Life-cycle
+  @AfterClass
+  public static void tearDown() {
+    PersistenceManager.INSTANCE.close();
+  }
+
+  // Tests
+  @Test
+  public void failedUpdateStopsStartup() throws Exception {
+    try (var connection = DriverManager.getConnection(URL, "sa", "sa");
+        var statement = connection.createStatement()) {
+      // Without a default, the age column can't be added to a table that already has a row.
+      statement.execute(
+          "create table person (id bigint not null, name varchar(255), primary key (id))");
+      statement.execute("insert into person (id, name) values (1, 'Ada')");
+    }
+
+    try {
+      PersistenceManager.INSTANCE.initialize(
+          Map.of("hibernate.hikari.dataSource.url", URL, "hibernate.hbm2ddl.auto", "update"));
+      fail("The backend started on a schema it couldn't update.");
+    } catch (RuntimeException e) {
+      assertFalse(PersistenceManager.INSTANCE.isInitialized());
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package io.miscellanea.vertx.example;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.DriverManager;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Starts the JPA backend against a database left by an earlier version of the node and checks
+ * that the schema is brought up to date: the id sequence, which stepped by one, steps by the id
+ * block size, and the people already stored gain a version.
+ *
+ * @author Jason Hallford
+ */
+public class SchemaUpgradeTest {
+  // Fields
+  private static final String URL = "jdbc:h2:mem:schema-upgrade;DB_CLOSE_DELAY=-1";
+
+  // Life-cycle
+  @BeforeClass
+  public static void setUp() throws Exception {
+    try (var connection = DriverManager.getConnection(URL, "sa", "sa");
+        var statement = connection.createStatement()) {
+      statement.execute("create sequence hibernate_sequence start with 1 increment by 1");
+      statement.execute("select hibernate_sequence.nextval");
+      statement.execute("select hibernate_sequence.nextval");
+
+      // The table as it was before people had a version.
+      statement.execute(
+          "create table person (id bigint not null, age integer not null, name varchar(255),"
+              + " primary key (id))");
+      statement.execute("insert into person (id, age, name) values (1, 36, 'Ada')");
+      statement.execute("insert into person (id, age, name) values (2, 85, 'Grace')");
+    }
+
+    PersistenceManager.INSTANCE.initialize(
+        Map.of("hibernate.hikari.dataSource.url", URL, "hibernate.hbm2ddl.auto", "update"));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    PersistenceManager.INSTANCE.close();
+  }
+
+  // Tests
+  @Test
+  public void sequenceStepsByTheBlockSize() throws Exception {
+    try (var connection = DriverManager.getConnection(URL, "sa", "sa");
+        var statement = connection.createStatement();
+        var result =
+            statement.executeQuery(
+                "select increment from information_schema.sequences"
+                    + " where sequence_name = 'HIBERNATE_SEQUENCE'")) {
+      assertTrue(result.next());
+      assertEquals(PersonIdGenerator.DEFAULT_BLOCK_SIZE, result.getLong(1));
+    }
+  }
+
+  @Test
+  public void storedPeopleStartAtVersionZero() {
+    var ada = this.person(1);
+    assertEquals("Ada", ada.getName());
+    assertEquals(0, ada.getVersion());
+
+    var em = PersistenceManager.INSTANCE.getEntityManager();
+    try {
+      em.getTransaction().begin();
+      em.find(Person.class, 2L).setAge(86);
+      em.getTransaction().commit();
+    } finally {
+      em.close();
+    }
+    assertEquals(1, this.person(2).getVersion());
+  }
+
+  @Test
+  public void newPeopleTakeIdsTheOldSequenceNeverHandedOut() {
+    var edsger = new Person();
+    edsger.setName("Edsger");
+    edsger.setAge(72);
+    var barbara = new Person();
+    barbara.setName("Barbara");
+    barbara.setAge(81);
+
+    PersistenceManager.INSTANCE.persistAll(List.of(edsger, barbara));
+
+    assertTrue(edsger.getId() > 2);
+    assertEquals(edsger.getId() + 1, (long) barbara.getId());
+  }
+
+  // Utility methods
+  private Person person(long id) {
+    return PersistenceManager.INSTANCE
+        .find(
+            em ->
+                em.createQuery("select p from Person p where p.id = :id", Person.class)
+                    .setParameter("id", id)
+                    .getResultList())
+        .get(0);
+  }
+}
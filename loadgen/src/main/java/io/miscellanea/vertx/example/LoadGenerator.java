@@ -0,0 +1,442 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.config.ConfigRetriever;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import org.HdrHistogram.HistogramLogWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Main class of a headless load generator for the API node, for runs from a terminal or CI where
+ * the JMeter plan can't go. Requests are sent open-loop at a constant rate: each is due at a fixed
+ * time on a schedule that doesn't depend on earlier responses, and its response time is measured
+ * from when it was due rather than from when it was sent. A server that stalls therefore shows up
+ * as every request due during the stall taking longer, instead of as the generator quietly sending
+ * fewer requests, which is how closed-loop tools such as the JMeter plan hide stalls ("coordinated
+ * omission"). Requests due while all <code>loadgen-connections</code> are busy wait in the
+ * generator for one to come free, so that their service time starts when they get one.
+ *
+ * <p>The mix is creates of people named from the JMeter plan's <code>first-names.csv</code> and
+ * <code>last-names.csv</code>, aged 15 to 75, and finds of people created earlier in the run; until
+ * the first create has succeeded every request is a create. After a warm-up, whose requests aren't
+ * measured, it prints a line per interval while it runs, then each operation's percentiles, and
+ * writes them to <code>loadgen-output-dir</code> as <code>.hgrm</code> percentile distributions
+ * and an HDR interval log (<code>loadgen.hlog</code>). It exits with status 1 if more than <code>
+ * loadgen-max-error-ratio</code> of the measured requests failed.
+ *
+ * @author Jason Hallford
+ */
+public class LoadGenerator {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(LoadGenerator.class);
+  public static final String CONFIG_FILE = "conf/loadgen-config.json";
+
+  private static final String PEOPLE_PATH = "/api/people";
+  private static final int MIN_AGE = 15;
+  private static final int MAX_AGE = 75;
+  private static final int MAX_KNOWN_IDS = 100_000;
+  private static final long TICK_MS = 1;
+
+  private final Vertx vertx;
+  private final WebClient client;
+  private final List<String> firstNames = readNames("first-names.csv");
+  private final List<String> lastNames = readNames("last-names.csv");
+  private final Random random = new Random();
+  private final double readRatio;
+  private final long intervalNanos;
+  private final long warmUpNanos;
+  private final long durationNanos;
+  private final long timeoutMs;
+  private final long reportIntervalMs;
+  private final Path outputDir;
+  private final double maxErrorRatio;
+  private final int connections;
+  private final Queue<Runnable> waiting = new ArrayDeque<>();
+  private final OperationStats creates = new OperationStats("create");
+  private final OperationStats reads = new OperationStats("read");
+  private final List<Long> knownIds = new ArrayList<>();
+
+  // Run state, only touched on the generator's context.
+  private Handler<Integer> finished;
+  private long startNanos;
+  private long dispatched;
+  private int inFlight;
+  private int sending;
+  private boolean scheduleDone;
+  private long maxLagNanos;
+  private long scheduleTimer = -1;
+  private long reportTimer = -1;
+  private long intervalStartNanos;
+  private PrintStream logStream;
+  private HistogramLogWriter log;
+
+  // Constructors
+  public LoadGenerator(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+
+    var target = URI.create(config.getString(ConfigProp.LOADGEN_TARGET, "http://localhost:8080"));
+    boolean ssl = "https".equalsIgnoreCase(target.getScheme());
+    this.connections = Math.max(1, config.getInteger(ConfigProp.LOADGEN_CONNECTIONS, 32));
+    var options =
+        new WebClientOptions()
+            .setDefaultHost(target.getHost())
+            .setDefaultPort(target.getPort() > 0 ? target.getPort() : ssl ? 443 : 80)
+            .setSsl(ssl)
+            .setKeepAlive(true)
+            .setMaxPoolSize(connections)
+            .setUserAgent("vertx-jpa-loadgen");
+    this.client = WebClient.create(vertx, options);
+
+    double rate = config.getDouble(ConfigProp.LOADGEN_RATE, 200.0);
+    if (rate <= 0) {
+      throw new IllegalArgumentException(ConfigProp.LOADGEN_RATE + " must be positive.");
+    }
+    this.intervalNanos = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / rate));
+    this.readRatio = config.getDouble(ConfigProp.LOADGEN_READ_RATIO, 0.8);
+    this.warmUpNanos =
+        TimeUnit.SECONDS.toNanos(config.getLong(ConfigProp.LOADGEN_WARM_UP_SECONDS, 10L));
+    this.durationNanos =
+        TimeUnit.SECONDS.toNanos(config.getLong(ConfigProp.LOADGEN_DURATION_SECONDS, 60L));
+    this.timeoutMs = config.getLong(ConfigProp.LOADGEN_REQUEST_TIMEOUT_MS, 10000L);
+    this.reportIntervalMs = config.getLong(ConfigProp.LOADGEN_REPORT_INTERVAL_MS, 1000L);
+    this.outputDir = Paths.get(config.getString(ConfigProp.LOADGEN_OUTPUT_DIR, "loadgen-results"));
+    this.maxErrorRatio = config.getDouble(ConfigProp.LOADGEN_MAX_ERROR_RATIO, 0.01);
+
+    LOGGER.info(
+        "Sending {} requests a second to {}, {}% reads, for {} s after a {} s warm-up.",
+        rate,
+        target,
+        Math.round(readRatio * 100),
+        TimeUnit.NANOSECONDS.toSeconds(durationNanos),
+        TimeUnit.NANOSECONDS.toSeconds(warmUpNanos));
+  }
+
+  public static void main(String[] args) {
+    var vertx = Vertx.vertx();
+    ConfigRetriever.create(vertx, ConfigStoreHelper.buildDefaultRetrieverOptions(CONFIG_FILE))
+        .getConfig(
+            config -> {
+              if (config.failed()) {
+                LOGGER.error("Unable to read configuration.", config.cause());
+                exit(vertx, 2);
+                return;
+              }
+
+              try {
+                new LoadGenerator(vertx, config.result()).run(status -> exit(vertx, status));
+              } catch (RuntimeException e) {
+                LOGGER.error("Unable to start the load generator.", e);
+                exit(vertx, 2);
+              }
+            });
+  }
+
+  // Public methods
+  /**
+   * Runs the warm-up and the measurement, then writes the reports. Must be called on a Vert.x
+   * context; the whole run stays on it.
+   *
+   * @param finished Notified with the exit status once the reports are written: 0 if the run
+   *     passed, 1 if too many requests failed and 2 if the reports couldn't be written.
+   */
+  public void run(Handler<Integer> finished) {
+    this.finished = finished;
+    startNanos = System.nanoTime();
+    scheduleTimer = vertx.setPeriodic(TICK_MS, id -> this.dispatchDue());
+
+    long warmUpMs = TimeUnit.NANOSECONDS.toMillis(warmUpNanos);
+    if (warmUpMs > 0) {
+      vertx.setTimer(warmUpMs, id -> this.startMeasuring());
+    } else {
+      this.startMeasuring();
+    }
+  }
+
+  // Utility methods
+  private static void exit(Vertx vertx, int status) {
+    vertx.close(closed -> System.exit(status));
+  }
+
+  private static List<String> readNames(String file) {
+    var in = LoadGenerator.class.getClassLoader().getResourceAsStream("names/" + file);
+    if (in == null) {
+      throw new IllegalStateException("Unable to find names/" + file + " on the classpath.");
+    }
+
+    try (var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      return reader
+          .lines()
+          .map(String::trim)
+          .filter(name -> !name.isEmpty())
+          .map(name -> name.charAt(0) + name.substring(1).toLowerCase())
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read names/" + file + ".", e);
+    }
+  }
+
+  /**
+   * Sends every request that has fallen due since the last tick. Each keeps its own due time, so
+   * requests that were due while the generator itself was held up are sent late but measured from
+   * when they were due.
+   */
+  private void dispatchDue() {
+    long now = System.nanoTime();
+    long end = startNanos + warmUpNanos + durationNanos;
+    long due = startNanos + dispatched * intervalNanos;
+    while (due <= now && due < end) {
+      boolean measured = due >= startNanos + warmUpNanos;
+      if (measured) {
+        maxLagNanos = Math.max(maxLagNanos, now - due);
+      }
+
+      inFlight++;
+      long requestDue = due;
+      if (!knownIds.isEmpty() && random.nextDouble() < readRatio) {
+        this.send(() -> this.read(requestDue, measured));
+      } else {
+        this.send(() -> this.create(requestDue, measured));
+      }
+      dispatched++;
+      due = startNanos + dispatched * intervalNanos;
+    }
+
+    if (due >= end) {
+      vertx.cancelTimer(scheduleTimer);
+      scheduleDone = true;
+      this.finishIfIdle();
+    }
+  }
+
+  /**
+   * Sends a request if a connection is free, or queues it until one is. Every request holds its
+   * connection until it completes, so while fewer than <code>loadgen-connections</code> are being
+   * sent the client's pool has one to hand out at once.
+   */
+  private void send(Runnable request) {
+    if (sending < connections) {
+      sending++;
+      request.run();
+    } else {
+      waiting.add(request);
+    }
+  }
+
+  private void create(long due, boolean measured) {
+    var person =
+        new JsonObject()
+            .put(
+                "name",
+                firstNames.get(random.nextInt(firstNames.size()))
+                    + " "
+                    + lastNames.get(random.nextInt(lastNames.size())))
+            .put("age", MIN_AGE + random.nextInt(MAX_AGE - MIN_AGE + 1));
+
+    long sent = System.nanoTime();
+    client
+        .post(PEOPLE_PATH)
+        .timeout(timeoutMs)
+        .sendJsonObject(
+            person,
+            response -> {
+              if (this.completed(creates, due, sent, measured, response, 201)) {
+                this.remember(response.result().getHeader("location"));
+              }
+            });
+  }
+
+  private void read(long due, boolean measured) {
+    long id = knownIds.get(random.nextInt(knownIds.size()));
+
+    long sent = System.nanoTime();
+    client
+        .get(PEOPLE_PATH + "/" + id)
+        .timeout(timeoutMs)
+        .send(response -> this.completed(reads, due, sent, measured, response, 200));
+  }
+
+  /** Records a response and returns whether it had the expected status. */
+  private boolean completed(
+      OperationStats stats,
+      long due,
+      long sent,
+      boolean measured,
+      AsyncResult<HttpResponse<Buffer>> response,
+      int expectedStatus) {
+    long received = System.nanoTime();
+    inFlight--;
+    sending--;
+    var next = waiting.poll();
+    if (next != null) {
+      this.send(next);
+    }
+
+    boolean succeeded = response.succeeded() && response.result().statusCode() == expectedStatus;
+    if (measured) {
+      if (succeeded) {
+        stats.succeeded(due, sent, received);
+      } else if (response.failed() && response.cause() instanceof TimeoutException) {
+        stats.timedOut(due, sent, received);
+      } else if (response.failed()) {
+        stats.failed(response.cause().getClass().getSimpleName());
+      } else {
+        stats.failed("HTTP " + response.result().statusCode());
+      }
+    }
+
+    this.finishIfIdle();
+    return succeeded;
+  }
+
+  /** Remembers a created person's id, from its location, as a candidate for later finds. */
+  private void remember(String location) {
+    if (location == null) {
+      return;
+    }
+
+    long id;
+    try {
+      id = Long.parseLong(location.substring(location.lastIndexOf('/') + 1));
+    } catch (NumberFormatException e) {
+      LOGGER.debug("Ignoring unexpected location '{}'.", location);
+      return;
+    }
+
+    if (knownIds.size() < MAX_KNOWN_IDS) {
+      knownIds.add(id);
+    } else {
+      knownIds.set(random.nextInt(MAX_KNOWN_IDS), id);
+    }
+  }
+
+  private void startMeasuring() {
+    try {
+      Files.createDirectories(outputDir);
+      var file = outputDir.resolve("loadgen.hlog").toFile();
+      logStream = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
+    } catch (IOException e) {
+      LOGGER.error("Unable to create the HDR log in {}.", outputDir, e);
+      vertx.cancelTimer(scheduleTimer);
+      var done = finished;
+      finished = null;
+      done.handle(2);
+      return;
+    }
+
+    long nowMs = System.currentTimeMillis();
+    log = new HistogramLogWriter(logStream);
+    log.outputComment(
+        "Response and service times by operation (the tag); histograms in ns, maxima in ms.");
+    log.outputLogFormatVersion();
+    log.outputStartTime(nowMs);
+    log.setBaseTime(nowMs);
+    log.outputLegend();
+
+    creates.startMeasuring();
+    reads.startMeasuring();
+    intervalStartNanos = System.nanoTime();
+    reportTimer = vertx.setPeriodic(reportIntervalMs, id -> this.closeInterval());
+  }
+
+  private void closeInterval() {
+    long now = System.nanoTime();
+    double seconds = Math.max(now - intervalStartNanos, 1) / 1e9;
+    intervalStartNanos = now;
+
+    LOGGER.info(
+        "{} s: {} | {} | {} in flight",
+        TimeUnit.NANOSECONDS.toSeconds(now - startNanos - warmUpNanos),
+        creates.closeInterval(log, seconds),
+        reads.closeInterval(log, seconds),
+        inFlight);
+  }
+
+  private void finishIfIdle() {
+    if (!scheduleDone || inFlight > 0 || finished == null) {
+      return;
+    }
+
+    var done = finished;
+    finished = null;
+    vertx.cancelTimer(reportTimer);
+    if (log == null) {
+      // The run ended during the warm-up, e.g. because the duration was 0.
+      done.handle(0);
+      return;
+    }
+    this.closeInterval();
+    logStream.close();
+
+    double seconds = durationNanos / 1e9;
+    var buffer = new ByteArrayOutputStream();
+    try (var report = new PrintStream(buffer, true, StandardCharsets.UTF_8)) {
+      creates.printSummary(report, seconds);
+      reads.printSummary(report, seconds);
+      report.printf(
+          "Generator lag: the latest a request was sent after it was due was %.2f ms.%n",
+          maxLagNanos / 1e6);
+    }
+    var summary = buffer.toString(StandardCharsets.UTF_8);
+    System.out.print(summary);
+
+    try {
+      Files.writeString(outputDir.resolve("summary.txt"), summary);
+      for (var stats : List.of(creates, reads)) {
+        try (var out = new PrintStream(outputDir.resolve(stats.getName() + ".hgrm").toFile())) {
+          stats.printResponseTimeDistribution(out);
+        }
+        try (var out =
+            new PrintStream(outputDir.resolve(stats.getName() + "-service.hgrm").toFile())) {
+          stats.printServiceTimeDistribution(out);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.error("Unable to write the reports to {}.", outputDir, e);
+      done.handle(2);
+      return;
+    }
+    LOGGER.info("Reports written to {}.", outputDir.toAbsolutePath());
+
+    long succeeded = creates.getSucceeded() + reads.getSucceeded();
+    long failed = creates.getFailed() + reads.getFailed();
+    if (succeeded + failed == 0 || failed > (succeeded + failed) * maxErrorRatio) {
+      LOGGER.error(
+          "{} of {} measured requests failed, more than {} allows.",
+          failed,
+          succeeded + failed,
+          ConfigProp.LOADGEN_MAX_ERROR_RATIO);
+      done.handle(1);
+    } else {
+      done.handle(0);
+    }
+  }
+}
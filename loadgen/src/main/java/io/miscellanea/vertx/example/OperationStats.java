@@ -0,0 +1,206 @@
+package io.miscellanea.vertx.example;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latencies and failures of one of the load generator's operations. Each response is recorded
+ * twice: its response time, from when the request was due on the generator's schedule, which is
+ * the latency a client arriving at that moment would have seen; and its service time, from when
+ * the request was given a connection. When the two differ, requests were waiting for a connection
+ * or for the generator itself. A request that timed out is recorded too, at the time it was given
+ * up after, so that a server too slow to answer at all doesn't improve the percentiles.
+ *
+ * <p>Only the load generator's context touches an instance, so nothing here is synchronized.
+ *
+ * @author Jason Hallford
+ */
+final class OperationStats {
+  // Fields
+  private static final long LOWEST_DISCERNIBLE_NANOS = 1_000;
+  private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.HOURS.toNanos(1);
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final double NANOS_PER_MS = 1e6;
+  private static final double[] PERCENTILES = {50, 75, 90, 99, 99.9, 99.99};
+
+  private final String name;
+  private final Recorder responseTimes = newRecorder();
+  private final Recorder serviceTimes = newRecorder();
+  private final Histogram totalResponseTimes = newHistogram();
+  private final Histogram totalServiceTimes = newHistogram();
+  private final Map<String, Long> failures = new TreeMap<>();
+  private Histogram intervalResponseTimes;
+  private Histogram intervalServiceTimes;
+  private long succeeded;
+  private long intervalSucceeded;
+  private long intervalFailures;
+
+  // Constructors
+  OperationStats(String name) {
+    this.name = name;
+  }
+
+  // Package methods
+  String getName() {
+    return name;
+  }
+
+  long getSucceeded() {
+    return succeeded;
+  }
+
+  long getFailed() {
+    return failures.values().stream().mapToLong(Long::longValue).sum();
+  }
+
+  /** Starts the first interval, discarding anything recorded before it. */
+  void startMeasuring() {
+    intervalResponseTimes = responseTimes.getIntervalHistogram(intervalResponseTimes);
+    intervalServiceTimes = serviceTimes.getIntervalHistogram(intervalServiceTimes);
+    failures.clear();
+    succeeded = 0;
+    intervalSucceeded = 0;
+    intervalFailures = 0;
+  }
+
+  /**
+   * Records a successful response.
+   *
+   * @param dueNanos When the request was due, from <code>System.nanoTime()</code>.
+   * @param sentNanos When the request was given a connection.
+   * @param receivedNanos When the response arrived.
+   */
+  void succeeded(long dueNanos, long sentNanos, long receivedNanos) {
+    this.record(dueNanos, sentNanos, receivedNanos);
+    succeeded++;
+    intervalSucceeded++;
+  }
+
+  /**
+   * Counts a request that timed out and records it in the histograms at the time it was given up
+   * after, which is less than its latency would have been.
+   *
+   * @param dueNanos When the request was due, from <code>System.nanoTime()</code>.
+   * @param sentNanos When the request was given a connection.
+   * @param abandonedNanos When the request timed out.
+   */
+  void timedOut(long dueNanos, long sentNanos, long abandonedNanos) {
+    this.record(dueNanos, sentNanos, abandonedNanos);
+    this.failed("timeout");
+  }
+
+  /**
+   * Counts a failed request, e.g. <code>HTTP 503</code>. Failures other than timeouts aren't
+   * recorded in the histograms: a request refused at once says nothing of the latency.
+   *
+   * @param reason What went wrong.
+   */
+  void failed(String reason) {
+    failures.merge(reason, 1L, Long::sum);
+    intervalFailures++;
+  }
+
+  /**
+   * Closes the current interval: adds its histograms to the totals, appends them to the HDR log
+   * and returns a line describing it for the progress log.
+   *
+   * @param log The log to append to.
+   * @param intervalSeconds The interval's length, for the throughput.
+   * @return The interval's summary, e.g. <code>read 160/s p50 1.20 ms p99 4.51 ms</code>.
+   */
+  String closeInterval(HistogramLogWriter log, double intervalSeconds) {
+    intervalResponseTimes = responseTimes.getIntervalHistogram(intervalResponseTimes);
+    intervalServiceTimes = serviceTimes.getIntervalHistogram(intervalServiceTimes);
+    totalResponseTimes.add(intervalResponseTimes);
+    totalServiceTimes.add(intervalServiceTimes);
+
+    intervalResponseTimes.setTag(name);
+    intervalServiceTimes.setTag(name + "-service");
+    log.outputIntervalHistogram(intervalResponseTimes);
+    log.outputIntervalHistogram(intervalServiceTimes);
+
+    var summary =
+        String.format(
+            "%s %.0f/s p50 %.2f ms p99 %.2f ms",
+            name,
+            intervalSucceeded / intervalSeconds,
+            intervalResponseTimes.getValueAtPercentile(50) / NANOS_PER_MS,
+            intervalResponseTimes.getValueAtPercentile(99) / NANOS_PER_MS);
+    if (intervalFailures > 0) {
+      summary += ", " + intervalFailures + " failed";
+    }
+    intervalSucceeded = 0;
+    intervalFailures = 0;
+    return summary;
+  }
+
+  /**
+   * Prints the operation's totals, with the response and service time percentiles side by side.
+   *
+   * @param out Where to print.
+   * @param seconds How long the measurement ran, for the throughput.
+   */
+  void printSummary(PrintStream out, double seconds) {
+    out.printf(
+        "%s: %d succeeded (%.1f/s), %d failed%s%n",
+        name,
+        this.getSucceeded(),
+        this.getSucceeded() / seconds,
+        this.getFailed(),
+        failures.isEmpty() ? "" : " " + failures);
+    if (totalResponseTimes.getTotalCount() == 0) {
+      return;
+    }
+
+    out.printf("  %10s %18s %18s%n", "percentile", "response (ms)", "service (ms)");
+    for (double percentile : PERCENTILES) {
+      out.printf(
+          "  %10s %18.3f %18.3f%n",
+          percentile,
+          totalResponseTimes.getValueAtPercentile(percentile) / NANOS_PER_MS,
+          totalServiceTimes.getValueAtPercentile(percentile) / NANOS_PER_MS);
+    }
+    out.printf(
+        "  %10s %18.3f %18.3f%n",
+        "max",
+        totalResponseTimes.getMaxValue() / NANOS_PER_MS,
+        totalServiceTimes.getMaxValue() / NANOS_PER_MS);
+  }
+
+  /**
+   * Prints the response times' full percentile distribution, in milliseconds, in HdrHistogram's
+   * <code>.hgrm</code> format.
+   */
+  void printResponseTimeDistribution(PrintStream out) {
+    totalResponseTimes.outputPercentileDistribution(out, NANOS_PER_MS);
+  }
+
+  /** As {@link #printResponseTimeDistribution(PrintStream)}, for the service times. */
+  void printServiceTimeDistribution(PrintStream out) {
+    totalServiceTimes.outputPercentileDistribution(out, NANOS_PER_MS);
+  }
+
+  // Utility methods
+  private void record(long dueNanos, long sentNanos, long receivedNanos) {
+    responseTimes.recordValue(clamp(receivedNanos - dueNanos));
+    serviceTimes.recordValue(clamp(receivedNanos - sentNanos));
+  }
+
+  private static Recorder newRecorder() {
+    return new Recorder(LOWEST_DISCERNIBLE_NANOS, HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+  }
+
+  private static Histogram newHistogram() {
+    return new Histogram(LOWEST_DISCERNIBLE_NANOS, HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+  }
+
+  private static long clamp(long nanos) {
+    return Math.max(LOWEST_DISCERNIBLE_NANOS, Math.min(nanos, HIGHEST_TRACKABLE_NANOS));
+  }
+}
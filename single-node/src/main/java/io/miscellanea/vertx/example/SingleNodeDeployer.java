@@ -0,0 +1,120 @@
+package io.miscellanea.vertx.example;
+
+import io.vertx.config.ConfigRetriever;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.spi.cluster.hazelcast.HazelcastClusterManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Main class for small sites that run the API and the repository in one JVM. The repository is
+ * started first, as {@link JpaDeployer} would start it, and the API verticles are deployed once it
+ * is serving, as {@link ApiDeployer} would deploy them. Each reads its usual configuration file.
+ *
+ * <p>By default Vert.x isn't clustered: there is no Hazelcast discovery, and since every event bus
+ * request is delivered within the JVM, {@link PersonEnvelopeCodec} hands envelopes over by
+ * reference instead of serializing them. Setting <code>clustered</code> to <code>true</code>, as a
+ * system property or environment variable, joins the cluster as well, so that other nodes can share
+ * this node's repository and API nodes; requests from this JVM's API verticles still go to its own
+ * repository verticles first (see <code>bus-local-first</code>).
+ *
+ * @author Jason Hallford
+ */
+public class SingleNodeDeployer {
+  // Fields
+  private static final Logger LOGGER = LoggerFactory.getLogger(SingleNodeDeployer.class);
+
+  public static void main(String[] args) {
+    boolean clustered =
+        Boolean.parseBoolean(
+            System.getProperty(ConfigProp.CLUSTERED, System.getenv(ConfigProp.CLUSTERED)));
+
+    // The native transport (epoll) is used where Netty supports it; elsewhere Vert.x falls back to
+    // NIO.
+    var vertxOpts = new VertxOptions().setPreferNativeTransport(true);
+    if (!clustered) {
+      LOGGER.debug("Bootstrapping the Vert.x runtime...");
+      deploy(Vertx.vertx(vertxOpts), null);
+      return;
+    }
+
+    var clusterMgr = new HazelcastClusterManager();
+    LOGGER.debug("Bootstrapping the Vert.x runtime in cluster mode..");
+    Vertx.clusteredVertx(
+        vertxOpts.setClusterManager(clusterMgr),
+        result -> {
+          if (result.succeeded()) {
+            deploy(result.result(), clusterMgr);
+          } else {
+            LOGGER.error("Unable to initialize Vert.x cluster node.", result.cause());
+          }
+        });
+  }
+
+  // Utility methods
+  private static void deploy(Vertx vertx, HazelcastClusterManager clusterMgr) {
+    LOGGER.info("Using the {} transport.", vertx.isNativeTransportEnabled() ? "native" : "NIO");
+    vertx.eventBus().registerDefaultCodec(PersonEnvelope.class, new PersonEnvelopeCodec());
+
+    readConfig(
+        vertx,
+        JpaDeployer.CONFIG_FILE,
+        jpaConfig ->
+            readConfig(
+                vertx,
+                ApiDeployer.CONFIG_FILE,
+                apiConfig -> {
+                  // Without a cluster every request stays in the JVM anyway.
+                  boolean localFirst =
+                      apiConfig.getBoolean(ConfigProp.BUS_LOCAL_FIRST, clusterMgr != null);
+                  apiConfig.put(ConfigProp.BUS_LOCAL_FIRST, localFirst);
+                  jpaConfig.put(ConfigProp.BUS_LOCAL_FIRST, localFirst);
+
+                  // The API's /metrics route serves the same registry, so the repository doesn't
+                  // need a metrics port of its own.
+                  jpaConfig.put(ConfigProp.METRICS_PORT, 0);
+
+                  JpaDeployer.deploy(
+                      vertx,
+                      clusterMgr,
+                      jpaConfig,
+                      repository -> {
+                        if (repository.failed()) {
+                          vertx.close();
+                          return;
+                        }
+
+                        ApiDeployer.deploy(
+                            vertx,
+                            apiConfig,
+                            api -> {
+                              if (api.succeeded()) {
+                                LOGGER.info(
+                                    "Single node ready {} ms after the JVM started.",
+                                    ManagementFactory.getRuntimeMXBean().getUptime());
+                              } else {
+                                vertx.close();
+                              }
+                            });
+                      });
+                }));
+  }
+
+  private static void readConfig(Vertx vertx, String file, Handler<JsonObject> handler) {
+    ConfigRetriever.create(vertx, ConfigStoreHelper.buildDefaultRetrieverOptions(file))
+        .getConfig(
+            config -> {
+              if (config.failed()) {
+                LOGGER.error("Unable to read configuration from {}.", file, config.cause());
+                vertx.close();
+              } else {
+                handler.handle(config.result());
+              }
+            });
+  }
+}